@@ -0,0 +1,443 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen.cli;
+
+import com.github.cliftonlabs.json_simple.JsonArray;
+import com.github.cliftonlabs.json_simple.JsonException;
+import com.github.cliftonlabs.json_simple.JsonObject;
+import com.github.cliftonlabs.json_simple.Jsoner;
+import org.flsgen.RasterUtils;
+import picocli.CommandLine;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.flsgen.utils.ANSIColors.*;
+
+@CommandLine.Command(
+        name = "batch",
+        mixinStandardHelpOptions = true,
+        description = "Run the jobs of a JSONL manifest within a single JVM. Each line of the manifest is a job for any" +
+                " flsgen command, as a JSON object with the arguments of the command, either as an array (\"args\":" +
+                " [\"generate\", \"out\", \"struct.json\"]) or as a command line (\"command\": \"generate out" +
+                " struct.json\"), and an optional identifier (\"id\", default: the line number). Jobs are run in" +
+                " parallel, share the rasters (terrains, masks) they read, and a status line is produced for each" +
+                " job, so that failed jobs can be resumed."
+)
+public class CLI_Batch implements Callable<Integer> {
+
+    @CommandLine.Parameters(
+            description = "JSONL manifest of the jobs -- Use \"-\" to read from STDIN",
+            index = "0"
+    )
+    String manifestPath;
+
+    @CommandLine.Option(
+            names = {"-s", "--status"},
+            description = "JSONL status file, with one line per job giving its id, status (OK or FAILED), exit" +
+                    " code, running time and error message (default: status lines are printed to STDOUT).",
+            defaultValue = ""
+    )
+    String statusPath;
+
+    @CommandLine.Option(
+            names = {"-r", "--resume"},
+            description = "Skip the jobs with an OK status in the status file, and append the status of the other" +
+                    " jobs to it."
+    )
+    boolean resume;
+
+    @CommandLine.Option(
+            names = {"-l", "--logs"},
+            description = "Directory where the output of each job is written, in <id>.log (default: outputs are" +
+                    " discarded, only the first error line of failed jobs is kept in their status).",
+            defaultValue = ""
+    )
+    String logsPath;
+
+    @CommandLine.Option(
+            names = {"-j", "--threads"},
+            description = "Number of jobs run in parallel (default: 0, the number of available processors).",
+            defaultValue = "0"
+    )
+    int nbThreads;
+
+    @CommandLine.Option(
+            names = {"--cache-size"},
+            description = "Maximum size (in MB) of the in-memory cache of rasters read by jobs (default: 256).",
+            defaultValue = "256"
+    )
+    long cacheSize;
+
+    @Override
+    public Integer call() {
+        if (nbThreads < 0) {
+            System.err.println(ANSI_RED + "The number of threads must be positive" + ANSI_RESET);
+            return 1;
+        }
+        if (cacheSize < 0) {
+            System.err.println(ANSI_RED + "The cache size must be positive" + ANSI_RESET);
+            return 1;
+        }
+        if (resume && statusPath.equals("")) {
+            System.err.println(ANSI_RED + "A status file is needed to resume jobs" + ANSI_RESET);
+            return 1;
+        }
+        int n = nbThreads > 0 ? nbThreads : Runtime.getRuntime().availableProcessors();
+        PrintStream[] console = null;
+        ForkJoinPool pool = null;
+        try {
+            Set<String> done = resume ? readDoneJobs(statusPath) : new HashSet<>();
+            if (!logsPath.equals("")) {
+                new File(logsPath).mkdirs();
+            }
+            boolean statusFile = !statusPath.equals("");
+            PrintStream status = !statusFile ? System.out :
+                    new PrintStream(new FileOutputStream(statusPath, resume), true, "UTF-8");
+            if (resume && endsWithTruncatedLine(statusPath)) {
+                status.println();
+            }
+            console = JobOutput.install();
+            RasterUtils.initReferencing();
+            RasterUtils.setReadCacheSize(cacheSize * 1024 * 1024);
+            long start = System.currentTimeMillis();
+            // Work-stealing pool, with a bounded number of jobs read from the manifest and not yet completed
+            pool = new ForkJoinPool(n);
+            Semaphore pending = new Semaphore(2 * n);
+            AtomicInteger nbFailed = new AtomicInteger(0);
+            int nbJobs = 0;
+            int nbSkipped = 0;
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    manifestPath.equals("-") ? System.in : new FileInputStream(manifestPath), StandardCharsets.UTF_8
+            ));
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String id = String.valueOf(lineNumber);
+                List<String> args;
+                try {
+                    JsonObject job = (JsonObject) Jsoner.deserialize(line);
+                    if (job.containsKey("id")) {
+                        id = job.get("id").toString();
+                    }
+                    args = readArgs(job);
+                } catch (JsonException | ClassCastException | IllegalArgumentException e) {
+                    writeStatus(status, id, false, 2, 0, "Invalid job: " + e.getMessage());
+                    nbFailed.incrementAndGet();
+                    nbJobs++;
+                    continue;
+                }
+                if (done.contains(id)) {
+                    nbSkipped++;
+                    continue;
+                }
+                nbJobs++;
+                pending.acquire();
+                String jobId = id;
+                pool.execute(() -> {
+                    try {
+                        if (!runJob(jobId, args, status)) {
+                            nbFailed.incrementAndGet();
+                        }
+                    } finally {
+                        pending.release();
+                    }
+                });
+            }
+            reader.close();
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            if (statusFile) {
+                status.close();
+            }
+            String color = nbFailed.get() > 0 ? ANSI_RED : ANSI_GREEN;
+            console[1].println(color + nbJobs + " jobs run in " + (System.currentTimeMillis() - start) / 1000.0
+                    + " s, " + nbFailed.get() + " failed, " + nbSkipped + " skipped" + ANSI_RESET);
+            return nbFailed.get() > 0 ? 1 : 0;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return 1;
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            if (console != null) {
+                JobOutput.uninstall(console);
+            }
+            RasterUtils.setReadCacheSize(0);
+        }
+    }
+
+    /**
+     * Run a job, with its outputs routed to its log
+     * @return True if the job succeeded, i.e. if it exited with a zero code
+     */
+    private boolean runJob(String id, List<String> args, PrintStream status) {
+        long start = System.currentTimeMillis();
+        JobLog log = null;
+        int code;
+        try {
+            log = new JobLog(logsPath.equals("") ? null :
+                    new BufferedOutputStream(new FileOutputStream(new File(logsPath, logName(id)))));
+            if (args.isEmpty()) {
+                throw new IllegalArgumentException("Empty job");
+            }
+            if (args.get(0).equals("serve")) {
+                throw new IllegalArgumentException("The serve command cannot be run as a job");
+            }
+            JobOutput.set(log, log.errorStream());
+            try {
+                code = new CommandLine(new Main()).execute(args.toArray(new String[0]));
+            } finally {
+                JobOutput.remove();
+            }
+        } catch (Exception e) {
+            writeStatus(status, id, false, 2, System.currentTimeMillis() - start, e.getMessage());
+            if (log != null) {
+                log.close();
+            }
+            return false;
+        }
+        log.close();
+        boolean ok = code == 0;
+        writeStatus(status, id, ok, code, System.currentTimeMillis() - start, ok ? null : log.getMessage());
+        return ok;
+    }
+
+    /**
+     * @return The arguments of a job, from its "args" array or its "command" line
+     */
+    private static List<String> readArgs(JsonObject job) {
+        List<String> args = new ArrayList<>();
+        if (job.containsKey("args")) {
+            for (Object arg : (JsonArray) job.get("args")) {
+                args.add(arg.toString());
+            }
+        } else if (job.containsKey("command")) {
+            args = CLI_Serve.tokenize(job.get("command").toString());
+        } else {
+            throw new IllegalArgumentException("A job must have either an \"args\" or a \"command\" field");
+        }
+        return args;
+    }
+
+    /**
+     * @return The ids of the jobs with an OK status in a status file (empty if it does not exist)
+     */
+    private static Set<String> readDoneJobs(String statusPath) throws IOException {
+        Set<String> done = new HashSet<>();
+        File file = new File(statusPath);
+        if (!file.exists()) {
+            return done;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    JsonObject s = (JsonObject) Jsoner.deserialize(line);
+                    if ("OK".equals(s.get("status"))) {
+                        done.add(s.get("id").toString());
+                    }
+                } catch (JsonException | ClassCastException | NullPointerException e) {
+                    // Truncated line of an interrupted run
+                }
+            }
+        }
+        return done;
+    }
+
+    /**
+     * @return True if the last line of a status file was truncated by an interrupted run
+     */
+    private static boolean endsWithTruncatedLine(String statusPath) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(statusPath, "r")) {
+            if (file.length() == 0) {
+                return false;
+            }
+            file.seek(file.length() - 1);
+            return file.read() != '\n';
+        }
+    }
+
+    private static void writeStatus(PrintStream status, String id, boolean ok, int code, long time, String message) {
+        JsonObject s = new JsonObject();
+        s.put("id", id);
+        s.put("status", ok ? "OK" : "FAILED");
+        s.put("exit", code);
+        s.put("time", time / 1000.0);
+        if (message != null) {
+            s.put("message", message);
+        }
+        synchronized (status) {
+            status.println(s.toJson());
+        }
+    }
+
+    /**
+     * @return A file name for the log of a job
+     */
+    private static String logName(String id) {
+        return id.replaceAll("[^A-Za-z0-9._-]", "_") + ".log";
+    }
+
+    /**
+     * Output of a job: written to a log file if any, keeping track of the line (without colors) best describing the
+     * outcome of a failed job: the first error (red) line, or else the first line written to STDERR, or else the last
+     * non-empty line
+     */
+    private static class JobLog extends OutputStream {
+
+        private static final int MAX_LINE_LENGTH = 1000;
+
+        private final OutputStream file;
+        private final StringBuilder line = new StringBuilder();
+        private boolean stderrLine = false;
+        private String lastLine = "";
+        private String firstErrorLine = null;
+        private String firstStderrLine = null;
+
+        JobLog(OutputStream file) {
+            this.file = file;
+        }
+
+        /**
+         * @return A stream for the error output of the job, also written to this log
+         */
+        OutputStream errorStream() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    writeError(new byte[] {(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    writeError(b, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    JobLog.this.flush();
+                }
+            };
+        }
+
+        private synchronized void writeError(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                stderrLine = true;
+                write(b, off, len);
+            }
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            if (file != null) {
+                file.write(b);
+            }
+            if (b == '\n') {
+                endLine();
+            } else if (line.length() < MAX_LINE_LENGTH) {
+                line.append((char) (b & 0xFF));
+            }
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            if (file != null) {
+                file.write(b, off, len);
+            }
+            for (int i = off; i < off + len; i++) {
+                if (b[i] == '\n') {
+                    endLine();
+                } else if (line.length() < MAX_LINE_LENGTH) {
+                    line.append((char) (b[i] & 0xFF));
+                }
+            }
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            if (file != null) {
+                file.flush();
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            endLine();
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void endLine() {
+            String l = line.toString();
+            line.setLength(0);
+            boolean errorLine = l.contains(ANSI_RED);
+            l = l.replaceAll("\u001B\\[[0-9;]*m", "").trim();
+            if (!l.isEmpty()) {
+                lastLine = l;
+                if (errorLine && firstErrorLine == null) {
+                    firstErrorLine = l;
+                }
+                if (stderrLine && firstStderrLine == null) {
+                    firstStderrLine = l;
+                }
+            }
+            stderrLine = false;
+        }
+
+        synchronized String getMessage() {
+            if (firstErrorLine != null) {
+                return firstErrorLine;
+            }
+            return firstStderrLine != null ? firstStderrLine : lastLine;
+        }
+    }
+}
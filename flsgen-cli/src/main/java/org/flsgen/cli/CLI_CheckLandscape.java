@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen.cli;
+
+import org.flsgen.RasterUtils;
+import org.flsgen.grid.neighborhood.INeighborhood;
+import org.flsgen.grid.neighborhood.Neighborhoods;
+import org.flsgen.solver.LandscapeStructure;
+import org.flsgen.solver.LandscapeStructureFactory;
+import org.flsgen.utils.ANSIColors;
+import org.flsgen.utils.CheckLandscape;
+import picocli.CommandLine;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.stream.IntStream;
+
+@CommandLine.Command(
+        name = "check",
+        mixinStandardHelpOptions = true,
+        description = "Checks that a raster landscape satisfies a landscape structure."
+)
+public class CLI_CheckLandscape implements Callable<Integer> {
+
+    @CommandLine.Parameters(
+            description = "Raster (.tif) landscape to check",
+            index = "0"
+    )
+    String inputRaster;
+
+    @CommandLine.Parameters(
+            description = "JSON or binary landscape structure file to check the landscape against -- Use \"-\" to read from STDIN",
+            index = "1"
+    )
+    String jsonPath;
+
+    @CommandLine.Option(
+            names = {"-v", "--class-values"},
+            description = "Raster values of the landscape classes, in the order of the structure " +
+                    "(default: the i-th class is associated with the raster value i, as in generated landscapes).",
+            split = ","
+    )
+    int[] classValues;
+
+    @CommandLine.Option(
+            names = {"-c", "--connectivity"},
+            description = "Connectivity definition in the regular grid - '4' (4-connected)" +
+                    " or '8' (8-connected) (default: 4).",
+            defaultValue = "4"
+    )
+    int connectivity;
+
+    @Override
+    public Integer call() {
+        if (connectivity != 4 && connectivity !=8) {
+            System.err.println(ANSIColors.ANSI_RED + "The Connectivity definition must be either 4 or 8" + ANSIColors.ANSI_RESET);
+            return 1;
+        }
+        try {
+            LandscapeStructure target;
+            if (jsonPath.equals("-")) {
+                target = LandscapeStructureFactory.readFromStream(System.in);
+            } else {
+                target = LandscapeStructureFactory.readFromFile(jsonPath);
+            }
+            if (classValues == null) {
+                classValues = IntStream.range(0, target.getNbClasses()).toArray();
+            }
+            if (classValues.length != target.getNbClasses()) {
+                System.err.println(ANSIColors.ANSI_RED + "The number of class values (" + classValues.length + ") must be" +
+                        " equal to the number of classes of the structure (" + target.getNbClasses() + ")" + ANSIColors.ANSI_RESET);
+                return 1;
+            }
+            int[] dimensions = RasterUtils.getDimensions(inputRaster);
+            if (dimensions[0] != target.getNbRows() || dimensions[1] != target.getNbCols()) {
+                System.err.println(ANSIColors.ANSI_RED + "Raster dimensions (" + dimensions[0] + "x" + dimensions[1] + ") do not" +
+                        " match structure dimensions (" + target.getNbRows() + "x" + target.getNbCols() + ")" + ANSIColors.ANSI_RESET);
+                return 1;
+            }
+            int[] values = RasterUtils.loadIntDataFromRaster(inputRaster);
+            int noDataValue = (int) RasterUtils.getNodataValue(inputRaster);
+            INeighborhood neigh = connectivity == 4 ? Neighborhoods.FOUR_CONNECTED : Neighborhoods.HEIGHT_CONNECTED;
+            // No data cells are only discarded from the landscape if the structure is defined with a mask
+            LandscapeStructure observed = LandscapeStructure.fromRasterData(
+                    values, dimensions[0], dimensions[1], noDataValue, classValues, neigh,
+                    target.getMaskRasterPath() != null, target.getMaskRasterPath()
+            );
+            System.out.println(String.format("%-16s %8s %8s %10s %10s %10s %12s %12s %10s %10s",
+                    "CLASS", "NP", "CA", "PLAND", "SPI", "LPI", "MESH", "SPLI", "COHE", "DIVI"));
+            for (int k = 0; k < observed.getNbClasses(); k++) {
+                System.out.println(String.format("%-16s %8d %8d %10.3f %10d %10d %12.3f %12.3f %10.5f %10.5f",
+                        target.getNames()[k], observed.getNbPatches(k), observed.getTotalSize(k),
+                        observed.getLandscapeProportion(k), observed.getSmallestPatchIndex(k),
+                        observed.getLargestPatchIndex(k), observed.getMesh(k), observed.getSplittingIndex(k),
+                        observed.getDegreeOfCoherence(k), observed.getDegreeOfDivision(k)));
+            }
+            List<String> differences = CheckLandscape.compareStructures(target, observed);
+            if (differences.isEmpty()) {
+                System.out.println(ANSIColors.ANSI_GREEN + "The landscape satisfies the landscape structure" + ANSIColors.ANSI_RESET);
+            } else {
+                for (String d : differences) {
+                    System.out.println(ANSIColors.ANSI_RED + d + ANSIColors.ANSI_RESET);
+                }
+                System.out.println(ANSIColors.ANSI_RED + "The landscape does not satisfy the landscape structure" + ANSIColors.ANSI_RESET);
+                return 1;
+            }
+            return 0;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return 1;
+        }
+    }
+}
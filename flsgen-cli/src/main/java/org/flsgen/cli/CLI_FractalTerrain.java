@@ -26,16 +26,18 @@ import org.flsgen.RasterUtils;
 import org.flsgen.grid.regular.square.RegularSquareGrid;
 import org.flsgen.solver.Terrain;
 import org.flsgen.utils.ANSIColors;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import picocli.CommandLine;
 
 import java.io.IOException;
+import java.util.concurrent.Callable;
 
 @CommandLine.Command(
         name = "terrain",
         mixinStandardHelpOptions = true,
         description = "Generate a fractal terrain using the Diamond-Square algorithm."
 )
-public class CLI_FractalTerrain implements Runnable {
+public class CLI_FractalTerrain implements Callable<Integer> {
 
     @CommandLine.Option(
             names = {"-H", "--height"},
@@ -81,7 +83,7 @@ public class CLI_FractalTerrain implements Runnable {
 
     @CommandLine.Option(
             names = {"-s", "-srs", "--spatial-reference-system"},
-            description = "Spatial reference system of the output raster (default: EPSG:4326)",
+            description = "Spatial reference system of the output raster, as an EPSG code or a WKT definition (default: EPSG:4326)",
             defaultValue = "EPSG:4326"
     )
     String srs;
@@ -98,27 +100,36 @@ public class CLI_FractalTerrain implements Runnable {
     )
     String output;
 
+    /**
+     * Coordinate reference system of the output raster
+     */
+    CoordinateReferenceSystem crs;
+
     @Override
-    public void run() {
+    public Integer call() {
         try {
             if (roughnessFactor < 0 || roughnessFactor > 1) {
                 System.err.println(ANSIColors.ANSI_RED + "Roughness factor must be in [0, 1]" + ANSIColors.ANSI_RESET);
-                return;
+                return 1;
             }
             if (!template.equals("")) {
                 initRasterMetadataFromTemplate(template);
+            } else {
+                crs = RasterUtils.decodeCRS(srs);
             }
             RegularSquareGrid grid = new RegularSquareGrid(nbRows, nbCols);
             Terrain terrain = new Terrain(grid);
             terrain.generateDiamondSquare(roughnessFactor);
-            RasterUtils.exportDoubleRaster(terrain.getData(), grid, x, y, resolution, srs, output);
+            RasterUtils.exportDoubleRaster(terrain.getData(), grid, x, y, resolution, crs, output);
+            return 0;
         } catch (Exception e) {
             e.printStackTrace();
+            return 1;
         }
     }
 
     public void initRasterMetadataFromTemplate(String input) throws IOException {
-        srs = RasterUtils.getSrs(input);
+        crs = RasterUtils.getCRS(input);
         double[] xyres = RasterUtils.getXYRes(input);
         x = xyres[0];
         y = xyres[1];
@@ -23,7 +23,6 @@
 package org.flsgen.cli;
 import org.apache.commons.io.FilenameUtils;
 
-import org.apache.commons.io.IOUtils;
 import org.flsgen.RasterUtils;
 import org.flsgen.grid.neighborhood.INeighborhood;
 import org.flsgen.grid.neighborhood.Neighborhoods;
@@ -35,9 +34,12 @@ import org.flsgen.solver.Terrain;
 import org.flsgen.utils.ANSIColors;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.gce.geotiff.GeoTiffReader;
+import org.geotools.referencing.CRS;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import picocli.CommandLine;
 
 import java.io.*;
+import java.util.concurrent.Callable;
 
 @CommandLine.Command(
         name = "generate",
@@ -46,7 +48,7 @@ import java.io.*;
                 "the algorithm relies on a terrain either given as input or automatically generated as" +
                 " a fractal terrain."
 )
-public class CLI_LandscapeGenerator implements Runnable {
+public class CLI_LandscapeGenerator implements Callable<Integer> {
 
     @CommandLine.Parameters(
             description = "Output raster prefix path for generated landscape(s)",
@@ -55,7 +57,8 @@ public class CLI_LandscapeGenerator implements Runnable {
     String outputPrefix;
 
     @CommandLine.Parameters(
-            description = "JSON input file describing landscape structure -- Use \"-\" to read from STDIN " +
+            description = "JSON or binary input file describing landscape structure (the format is detected" +
+                    " automatically) -- Use \"-\" to read from STDIN " +
                     "(only possible with one structure as input) -- " +
                     "Use multiple space-separated paths to generate landscapes with different structures.",
             index = "1..*"
@@ -130,7 +133,7 @@ public class CLI_LandscapeGenerator implements Runnable {
 
     @CommandLine.Option(
             names = {"-s", "-srs", "--spatial-reference-system"},
-            description = "Spatial reference system of the output raster (default: EPSG:4326)",
+            description = "Spatial reference system of the output raster, as an EPSG code or a WKT definition (default: EPSG:4326)",
             defaultValue = "EPSG:4326"
     )
     String srs;
@@ -171,37 +174,46 @@ public class CLI_LandscapeGenerator implements Runnable {
     )
     int connectivity;
 
+    /**
+     * Coordinate reference system of the output rasters
+     */
+    CoordinateReferenceSystem crs;
+
     @Override
-    public void run() {
+    public Integer call() {
         try {
             // Check parameters
             if (roughnessFactor < 0 || roughnessFactor > 1) {
                 System.err.println(ANSIColors.ANSI_RED + "Roughness factor must be in [0, 1]" + ANSIColors.ANSI_RESET);
-                return;
+                return 1;
             }
             if (terrainDependency < 0 || terrainDependency > 1) {
                 System.err.println(ANSIColors.ANSI_RED + "Terrain dependency must be in [0, 1]" + ANSIColors.ANSI_RESET);
-                return;
+                return 1;
             }
             if (minDistance <= 0) {
                 System.err.println(ANSIColors.ANSI_RED + "Minimum distance between patches must be at least 1" + ANSIColors.ANSI_RESET);
-                return;
+                return 1;
             }
             if (maxTry <= 0) {
                 System.err.println(ANSIColors.ANSI_RED + "Maximum trials must be at least 1" + ANSIColors.ANSI_RESET);
-                return;
+                return 1;
             }
             if (maxTryPatch <= 0) {
                 System.err.println(ANSIColors.ANSI_RED + "Maximum patch trials must be at least 1" + ANSIColors.ANSI_RESET);
-                return;
+                return 1;
             }
             if (!template.equals("")) {
                 initRasterMetadataFromTemplate(template);
+            } else {
+                crs = RasterUtils.decodeCRS(srs);
             }
             if (connectivity != 4 && connectivity !=8) {
                 System.err.println(ANSIColors.ANSI_RED + "The Connectivity definition must be either 4 or 8" + ANSIColors.ANSI_RESET);
+                return 1;
             }
             // Read input structure
+            int exitCode = 0;
             String[] structNames = new String[jsonPaths.length];
             if (jsonPaths.length == 1 && jsonPaths[0].equals("-")) {
                 structNames[0] = "STDIN";
@@ -211,14 +223,12 @@ public class CLI_LandscapeGenerator implements Runnable {
                 }
             }
             for (int i = 0; i < jsonPaths.length; i++) {
-                Reader reader;
+                LandscapeStructure s;
                 if (jsonPaths.length == 1 && jsonPaths[0].equals("-")) {
-                   reader = new BufferedReader(new InputStreamReader(System.in));
+                    s = LandscapeStructureFactory.readFromStream(System.in);
                 } else {
-                    reader = new FileReader(jsonPaths[i]);
+                    s = LandscapeStructureFactory.readFromFile(jsonPaths[i]);
                 }
-                LandscapeStructure s = LandscapeStructureFactory.readFromJSON(IOUtils.toString(reader));
-                reader.close();
                 // Generate landscape
                 Terrain terrain = new Terrain(new RegularSquareGrid(s.getNbRows(), s.getNbCols()));
                 if (terrainInput.equals("")) {
@@ -227,24 +237,7 @@ public class CLI_LandscapeGenerator implements Runnable {
                     double[] rasterData = RasterUtils.loadDoubleDataFromRaster(terrainInput, terrain.getGrid());
                     terrain.loadFromData(rasterData);
                 }
-                INeighborhood bufferNeighborhood;
-                if (maxMinDistance > 1) {
-                    bufferNeighborhood = connectivity == 4 ?
-                            Neighborhoods.VARIABLE_WIDTH_FOUR_CONNECTED(minDistance, maxMinDistance) :
-                            Neighborhoods.VARIABLE_WIDTH_HEIGHT_CONNECTED(minDistance, maxMinDistance);
-                } else {
-                    switch (minDistance) {
-                        case 1:
-                            bufferNeighborhood = connectivity == 4 ? Neighborhoods.FOUR_CONNECTED : Neighborhoods.HEIGHT_CONNECTED;
-                            break;
-                        case 2:
-                            bufferNeighborhood = connectivity == 4 ? Neighborhoods.TWO_WIDE_FOUR_CONNECTED : Neighborhoods.TWO_WIDE_HEIGHT_CONNECTED;
-                            break;
-                        default:
-                            bufferNeighborhood = connectivity == 4 ? Neighborhoods.K_WIDE_FOUR_CONNECTED(minDistance) : Neighborhoods.K_WIDE_HEIGHT_CONNECTED(minDistance);
-                            break;
-                    }
-                }
+                INeighborhood bufferNeighborhood = getBufferNeighborhood(connectivity, minDistance, maxMinDistance);
                 INeighborhood c = connectivity == 4 ? Neighborhoods.FOUR_CONNECTED : Neighborhoods.HEIGHT_CONNECTED;
                 LandscapeGenerator landscapeGenerator = new LandscapeGenerator(
                         s, c, bufferNeighborhood, terrain
@@ -252,7 +245,8 @@ public class CLI_LandscapeGenerator implements Runnable {
                 if (nbLandscapes == 1) { // One landscape case
                     boolean b = landscapeGenerator.generate(terrainDependency, maxTry, maxTryPatch);
                     if (!b) {
-                        System.out.println("FAIL");
+                        System.out.println(ANSIColors.ANSI_RED + "FAIL" + ANSIColors.ANSI_RESET);
+                        exitCode = 1;
                     } else {
                         System.out.println("Feasible landscape found after " + landscapeGenerator.getNbTry() + " tries");
                         int noDataValue = -1;
@@ -260,14 +254,15 @@ public class CLI_LandscapeGenerator implements Runnable {
                             noDataValue = (int) RasterUtils.getNodataValue(s.getMaskRasterPath());
                         }
                         int[] rasterData = landscapeGenerator.getRasterData(noDataValue);
-                        RasterUtils.exportIntRaster(rasterData, landscapeGenerator.getGrid(), x, y, resolution, srs, outputPrefix + "_" + structNames[i] + ".tif");
+                        RasterUtils.exportIntRaster(rasterData, landscapeGenerator.getGrid(), x, y, resolution, crs, outputPrefix + "_" + structNames[i] + ".tif");
                     }
                 } else { // Several landscapes case
                     int n = 0;
                     while (n < nbLandscapes) {
                         boolean b = landscapeGenerator.generate(terrainDependency, maxTry, maxTryPatch);
                         if (!b) {
-                            System.out.println("Failed to generate landscape " + (n + 1));
+                            System.out.println(ANSIColors.ANSI_RED + "Failed to generate landscape " + (n + 1) + ANSIColors.ANSI_RESET);
+                            exitCode = 1;
                         } else {
                             System.out.println("Feasible landscape " + (n + 1) + " found after " + landscapeGenerator.getNbTry() + " tries");
                             int noDataValue = -1;
@@ -275,7 +270,7 @@ public class CLI_LandscapeGenerator implements Runnable {
                                 noDataValue = (int) RasterUtils.getNodataValue(s.getMaskRasterPath());
                             }
                             int[] rasterData = landscapeGenerator.getRasterData(noDataValue);
-                            RasterUtils.exportIntRaster(rasterData, landscapeGenerator.getGrid(), x, y, resolution, srs, outputPrefix + "_" + structNames[i] + "_" + (n +  1) + ".tif");
+                            RasterUtils.exportIntRaster(rasterData, landscapeGenerator.getGrid(), x, y, resolution, crs, outputPrefix + "_" + structNames[i] + "_" + (n +  1) + ".tif");
                         }
                         n++;
                         landscapeGenerator.init();
@@ -283,11 +278,32 @@ public class CLI_LandscapeGenerator implements Runnable {
                 }
                 if (!terrainOutput.equals("")) {
                     int[] rasterData = landscapeGenerator.getRasterData((int) RasterUtils.getNodataValue(s.getMaskRasterPath()));
-                    RasterUtils.exportIntRaster(rasterData, landscapeGenerator.getGrid(), x, y, resolution, srs, terrainOutput);
+                    RasterUtils.exportIntRaster(rasterData, landscapeGenerator.getGrid(), x, y, resolution, crs, terrainOutput);
                 }
             }
+            return exitCode;
         } catch (Exception e) {
             e.printStackTrace();
+            return 1;
+        }
+    }
+
+    /**
+     * @return The neighborhood defining the minimum distance between patches of a same class
+     */
+    static INeighborhood getBufferNeighborhood(int connectivity, int minDistance, int maxMinDistance) {
+        if (maxMinDistance > 1) {
+            return connectivity == 4 ?
+                    Neighborhoods.VARIABLE_WIDTH_FOUR_CONNECTED(minDistance, maxMinDistance) :
+                    Neighborhoods.VARIABLE_WIDTH_HEIGHT_CONNECTED(minDistance, maxMinDistance);
+        }
+        switch (minDistance) {
+            case 1:
+                return connectivity == 4 ? Neighborhoods.FOUR_CONNECTED : Neighborhoods.HEIGHT_CONNECTED;
+            case 2:
+                return connectivity == 4 ? Neighborhoods.TWO_WIDE_FOUR_CONNECTED : Neighborhoods.TWO_WIDE_HEIGHT_CONNECTED;
+            default:
+                return connectivity == 4 ? Neighborhoods.K_WIDE_FOUR_CONNECTED(minDistance) : Neighborhoods.K_WIDE_HEIGHT_CONNECTED(minDistance);
         }
     }
 
@@ -296,7 +312,8 @@ public class CLI_LandscapeGenerator implements Runnable {
         GeoTiffReader reader = new GeoTiffReader(file);
         GridCoverage2D gridCov = reader.read(null);
         resolution = gridCov.getEnvelope2D().getHeight() / gridCov.getRenderedImage().getHeight();
-        srs = gridCov.getEnvelope2D().getCoordinateReferenceSystem().getIdentifiers().iterator().next().toString();
+        crs = gridCov.getCoordinateReferenceSystem();
+        srs = CRS.toSRS(crs);
         x = gridCov.getEnvelope2D().getMinX();
         y = gridCov.getEnvelope2D().getMinY();
         gridCov.dispose(true);
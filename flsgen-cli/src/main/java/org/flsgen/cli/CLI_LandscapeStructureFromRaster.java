@@ -19,31 +19,65 @@
  * You should have received a copy of the GNU General Public License
  * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
  */
+package org.flsgen.cli;
 
-package org.flsgen.cli;import org.flsgen.grid.neighborhood.INeighborhood;
+import com.github.cliftonlabs.json_simple.JsonArray;
+import com.github.cliftonlabs.json_simple.JsonObject;
+import com.github.cliftonlabs.json_simple.Jsoner;
+import org.apache.commons.io.FilenameUtils;
+import org.flsgen.RasterUtils;
+import org.flsgen.grid.neighborhood.INeighborhood;
 import org.flsgen.grid.neighborhood.Neighborhoods;
 import org.flsgen.solver.LandscapeStructure;
 import org.flsgen.solver.LandscapeStructureFactory;
+import org.flsgen.solver.LandscapeStructureSolver;
+import org.flsgen.solver.StructureFormat;
 import org.flsgen.utils.ANSIColors;
 import picocli.CommandLine;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 @CommandLine.Command(
         name = "extract_structure",
         mixinStandardHelpOptions = true,
-        description = "Extracts a landscape structure from an existing raster."
+        description = "Extracts a landscape structure from an existing raster, or from several rasters" +
+                " (directory, glob pattern or file list)."
 )
-public class CLI_LandscapeStructureFromRaster implements Runnable {
+public class CLI_LandscapeStructureFromRaster implements Callable<Integer> {
 
     @CommandLine.Parameters(
-            description = "JSON output file -- Use \"-\" to write to STDOUT ",
+            description = "Output file -- Use \"-\" to write to STDOUT. In batch mode, prefix of the output" +
+                    " files: <prefix>_<raster name>.json (or .flss) for each raster, and <prefix>.summary.json",
             index = "1"
     )
     String outputFile;
 
     @CommandLine.Parameters(
-            description = "Raster (.tif) input file to extract the landscape structure from",
+            description = "Raster (.tif) input file to extract the landscape structure from -- Batch mode: a" +
+                    " directory (all .tif files), a glob pattern on file names (e.g. \"tiles/*.tif\") or" +
+                    " \"@<file>\" with one raster path per line",
             index = "0"
     )
     String inputRaster;
@@ -62,23 +96,261 @@ public class CLI_LandscapeStructureFromRaster implements Runnable {
     )
     int connectivity;
 
+    @CommandLine.Option(
+            names = {"-b", "--all-bands"},
+            description = "Extract a structure from each band of the raster(s) (e.g. a land-cover time series), and" +
+                    " write them as a structure series (default: only the first band is used)."
+    )
+    boolean allBands;
+
+    @CommandLine.Option(
+            names = {"-j", "--threads"},
+            description = "Number of rasters (or bands, for a single raster with --all-bands) processed concurrently" +
+                    " (default: number of available processors)."
+    )
+    int nbThreads = Runtime.getRuntime().availableProcessors();
+
+    @CommandLine.Option(
+            names = {"-f", "--format"},
+            description = "Output format of the structures (possible values: ${COMPLETION-CANDIDATES}; default: JSON)." +
+                    " BINARY is a compact encoding, read by the generate, check and structure (--reference) commands" +
+                    " (batch mode: <prefix>_<raster name>.flss files; not available with --all-bands).",
+            defaultValue = "JSON"
+    )
+    StructureFormat format;
+
     @Override
-    public void run() {
+    public Integer call() {
         if (connectivity != 4 && connectivity !=8) {
             System.err.println(ANSIColors.ANSI_RED + "The Connectivity definition must be either 4 or 8" + ANSIColors.ANSI_RESET);
+            return 1;
+        }
+        if (allBands && format != StructureFormat.JSON) {
+            System.err.println(ANSIColors.ANSI_RED + "Structure series (--all-bands) can only be written in JSON"
+                    + ANSIColors.ANSI_RESET);
+            return 1;
         }
         try {
             INeighborhood neigh = connectivity == 4 ? Neighborhoods.FOUR_CONNECTED : Neighborhoods.HEIGHT_CONNECTED;
-            LandscapeStructure s = LandscapeStructureFactory.fromRaster(inputRaster, focalClasses, neigh);
+            if (!isBatch(inputRaster)) {
+                if (!allBands) {
+                    writeStructure(LandscapeStructureFactory.fromRaster(inputRaster, focalClasses, neigh), outputFile);
+                    return 0;
+                }
+                LandscapeStructure[] series = LandscapeStructureFactory.fromMultibandRaster(
+                        inputRaster, focalClasses, neigh, nbThreads
+                );
+                if (outputFile.equals("-")) {
+                    LandscapeStructure.writeSeriesJSON(series, new BufferedWriter(new OutputStreamWriter(System.out)));
+                    System.out.println();
+                } else {
+                    Writer writer = new BufferedWriter(new FileWriter(outputFile));
+                    LandscapeStructure.writeSeriesJSON(series, writer);
+                    writer.close();
+                }
+                return 0;
+            }
             if (outputFile.equals("-")) {
-                System.out.println(s.toJSON());
-            } else {
-                FileWriter writer = new FileWriter(outputFile);
-                writer.write(s.toJSON());
-                writer.close();
+                System.err.println(ANSIColors.ANSI_RED + "Writing to STDOUT is not possible in batch mode, please" +
+                        " provide an output prefix" + ANSIColors.ANSI_RESET);
+                return 1;
             }
+            List<String> inputs = resolveInputs(inputRaster);
+            if (inputs.isEmpty()) {
+                System.err.println(ANSIColors.ANSI_RED + "No input raster found for " + inputRaster + ANSIColors.ANSI_RESET);
+                return 1;
+            }
+            // Initialize the referencing subsystem once, before concurrent reads
+            RasterUtils.initReferencing();
+            List<String> outputs = outputNames(inputs, outputFile, format.getExtension());
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(nbThreads, inputs.size())));
+            JsonArray summary = new JsonArray();
+            int nbFailed = 0;
+            try {
+                List<Future<JsonObject>> futures = new ArrayList<>();
+                for (int i = 0; i < inputs.size(); i++) {
+                    String input = inputs.get(i);
+                    String output = outputs.get(i);
+                    futures.add(pool.submit(() -> extract(input, output, neigh)));
+                }
+                for (int i = 0; i < inputs.size(); i++) {
+                    try {
+                        summary.add(futures.get(i).get());
+                    } catch (ExecutionException e) {
+                        nbFailed++;
+                        JsonObject entry = new JsonObject();
+                        entry.put("input", inputs.get(i));
+                        entry.put("status", "ERROR");
+                        entry.put("error", String.valueOf(e.getCause()));
+                        summary.add(entry);
+                        System.err.println(ANSIColors.ANSI_RED + "Extraction failed for " + inputs.get(i) + ": "
+                                + e.getCause() + ANSIColors.ANSI_RESET);
+                    }
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+            String summaryFile = summaryName(outputFile);
+            FileWriter writer = new FileWriter(summaryFile);
+            writer.write(Jsoner.prettyPrint(summary.toJson()));
+            writer.close();
+            System.out.println((inputs.size() - nbFailed) + " structures extracted, " + nbFailed + " failed -- summary"
+                    + " written at " + summaryFile);
+            return nbFailed > 0 ? 1 : 0;
         } catch (Exception e) {
             e.printStackTrace();
+            return 1;
+        }
+    }
+
+    private JsonObject extract(String input, String output, INeighborhood neigh) throws IOException {
+        JsonObject entry = new JsonObject();
+        entry.put("input", input);
+        entry.put("output", output);
+        entry.put("status", "OK");
+        if (allBands) {
+            // Rasters are already processed concurrently, bands of a raster are processed sequentially
+            LandscapeStructure[] series = LandscapeStructureFactory.fromMultibandRaster(input, focalClasses, neigh, 1);
+            entry.put("nbRows", series[0].getNbRows());
+            entry.put("nbCols", series[0].getNbCols());
+            JsonArray bands = new JsonArray();
+            for (int b = 0; b < series.length; b++) {
+                JsonObject band = new JsonObject();
+                band.put("band", b + 1);
+                band.put("classes", summarizeClasses(series[b]));
+                bands.add(band);
+            }
+            entry.put("bands", bands);
+            Writer writer = new BufferedWriter(new FileWriter(output));
+            LandscapeStructure.writeSeriesJSON(series, writer);
+            writer.close();
+        } else {
+            LandscapeStructure s = LandscapeStructureFactory.fromRaster(input, focalClasses, neigh);
+            entry.put("nbRows", s.getNbRows());
+            entry.put("nbCols", s.getNbCols());
+            entry.put("classes", summarizeClasses(s));
+            writeStructure(s, output);
+        }
+        return entry;
+    }
+
+    /**
+     * Write a structure in the output format, to STDOUT if the output is "-"
+     */
+    private void writeStructure(LandscapeStructure s, String output) throws IOException {
+        if (output.equals("-")) {
+            LandscapeStructureFactory.write(s, format, System.out);
+            if (format == StructureFormat.JSON) {
+                System.out.println();
+            }
+            System.out.flush();
+        } else {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+                LandscapeStructureFactory.write(s, format, out);
+            }
         }
     }
+
+    private static JsonArray summarizeClasses(LandscapeStructure s) {
+        JsonArray classes = new JsonArray();
+        for (int k = 0; k < s.getNbClasses(); k++) {
+            JsonObject cl = new JsonObject();
+            cl.put("name", s.getNames()[k]);
+            cl.put(LandscapeStructureSolver.KEY_NP, s.getNbPatches(k));
+            cl.put(LandscapeStructureSolver.KEY_CA, s.getTotalSize(k));
+            cl.put(LandscapeStructureSolver.KEY_PLAND, s.getLandscapeProportion(k));
+            cl.put(LandscapeStructureSolver.KEY_SPI, s.getSmallestPatchIndex(k));
+            cl.put(LandscapeStructureSolver.KEY_LPI, s.getLargestPatchIndex(k));
+            cl.put(LandscapeStructureSolver.KEY_MESH, s.getMesh(k));
+            classes.add(cl);
+        }
+        return classes;
+    }
+
+    /**
+     * @return True if the input designates several rasters: a directory, a glob pattern or a file list. An existing
+     * file is a single raster, even if its name contains glob characters (e.g. "tile[1].tif").
+     */
+    static boolean isBatch(String input) {
+        File file = new File(input);
+        if (file.isFile()) {
+            return false;
+        }
+        return input.startsWith("@") || file.isDirectory() || isGlob(input);
+    }
+
+    /**
+     * @return True if the input is not an existing file or directory, and contains glob characters
+     */
+    private static boolean isGlob(String input) {
+        return !new File(input).exists() && input.matches(".*[*?\\[{].*");
+    }
+
+    /**
+     * Resolve the rasters designated by an input: a directory (all .tif and .tiff files), a glob pattern on file
+     * names, a file list ("@path", one raster path per line, blank lines and lines starting with # are ignored),
+     * or a single raster path (an existing file, whatever its name).
+     * @return The raster paths, sorted for directories and glob patterns.
+     */
+    static List<String> resolveInputs(String input) throws IOException {
+        List<String> inputs = new ArrayList<>();
+        if (input.startsWith("@") && !new File(input).isFile()) {
+            for (String line : Files.readAllLines(Paths.get(input.substring(1)))) {
+                String path = line.trim();
+                if (!path.isEmpty() && !path.startsWith("#")) {
+                    inputs.add(path);
+                }
+            }
+            return inputs;
+        }
+        Path path = Paths.get(input);
+        String glob;
+        Path dir;
+        if (Files.isDirectory(path)) {
+            dir = path;
+            glob = "*.{tif,tiff,TIF,TIFF}";
+        } else if (isGlob(input)) {
+            dir = path.getParent() == null ? Paths.get(".") : path.getParent();
+            glob = path.getFileName().toString();
+        } else {
+            inputs.add(input);
+            return inputs;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob)) {
+            for (Path p : stream) {
+                if (Files.isRegularFile(p)) {
+                    inputs.add(p.toString());
+                }
+            }
+        }
+        Collections.sort(inputs);
+        return inputs;
+    }
+
+    /**
+     * @return The output file of each input: prefix_name.extension, where name is the raster file name without
+     * extension, suffixed with a number if several rasters have the same name.
+     */
+    static List<String> outputNames(List<String> inputs, String prefix, String extension) {
+        List<String> outputs = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (String input : inputs) {
+            String base = FilenameUtils.removeExtension(new File(input).getName());
+            String name = base;
+            int n = 2;
+            while (!names.add(name)) {
+                name = base + "_" + n++;
+            }
+            outputs.add(prefix + "_" + name + extension);
+        }
+        return outputs;
+    }
+
+    /**
+     * @return The summary file of a batch: prefix.summary.json, which no output file (prefix_name.extension) can
+     * be, even for a raster named summary.
+     */
+    static String summaryName(String prefix) {
+        return prefix + ".summary.json";
+    }
 }
@@ -21,14 +21,33 @@
  */
 
 package org.flsgen.cli;
+import com.github.cliftonlabs.json_simple.JsonArray;
+import com.github.cliftonlabs.json_simple.JsonException;
+import com.github.cliftonlabs.json_simple.JsonObject;
+import com.github.cliftonlabs.json_simple.Jsoner;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
+import org.flsgen.exception.FlsgenException;
 import org.flsgen.solver.LandscapeStructure;
+import org.flsgen.solver.LandscapeStructureDecomposition;
+import org.flsgen.solver.LandscapeStructureFactory;
+import org.flsgen.solver.LandscapeStructurePortfolio;
+import org.flsgen.solver.LandscapeStructureSampler;
 import org.flsgen.solver.LandscapeStructureSolver;
 import org.flsgen.solver.LandscapeStructureSolverFactory;
+import org.flsgen.solver.SearchStrategy;
+import org.flsgen.solver.SoftTarget;
+import org.flsgen.solver.StructureCache;
+import org.flsgen.solver.StructureFormat;
+import org.flsgen.solver.UniformStructureSampler;
 import picocli.CommandLine;
 
 import java.io.*;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
 
 import static org.flsgen.utils.ANSIColors.*;
 
@@ -37,18 +56,7 @@ import static org.flsgen.utils.ANSIColors.*;
         mixinStandardHelpOptions = true,
         description = "Generate a landscape structure satisfying a set of targets."
 )
-public class CLI_LandscapeStructureSolver implements Runnable {
-
-    public enum SearchStrategy {
-        DEFAULT,
-        RANDOM,
-        DOM_OVER_W_DEG,
-        DOM_OVER_W_DEG_REF,
-        ACTIVITY_BASED,
-        CONFLICT_HISTORY,
-        MIN_DOM_UB,
-        MIN_DOM_LB,
-    }
+public class CLI_LandscapeStructureSolver implements Callable<Integer> {
 
     @CommandLine.Parameters(
             description = "JSON output file (or prefix for multiple structure generation) for solution -- Use \"-\" to write to STDOUT " +
@@ -79,17 +87,200 @@ public class CLI_LandscapeStructureSolver implements Runnable {
     )
     SearchStrategy search;
 
+    @CommandLine.Option(
+            names = {"--seed"},
+            description = "Seed of the RANDOM search strategy, which makes the search reproducible (default: drawn" +
+                    " from the clock, in which case the structure cache is not used)."
+    )
+    Long seed;
+
+    @CommandLine.Option(
+            names = {"-p", "--portfolio"},
+            description = "Number of solver copies racing different search strategies and seeds on separate threads," +
+                    " the first solution found is kept (default: 0, no portfolio; only possible with single-solution" +
+                    " generation).",
+            defaultValue = "0"
+    )
+    int portfolio;
+
+    @CommandLine.Option(
+            names = {"-j", "--sampling-threads"},
+            description = "Multiple-solution generation: number of independent seeded workers sampling solutions in" +
+                    " parallel, duplicate structures being discarded (default: 0, sequential generation with a single" +
+                    " solver).",
+            defaultValue = "0"
+    )
+    int samplingThreads;
+
+    @CommandLine.Option(
+            names = {"-d", "--min-distance"},
+            description = "Multiple-solution generation: minimum distance between two generated structures, i.e. sum" +
+                    " over classes of the differences between sorted patch sizes, in cells (default: 0). Implies" +
+                    " parallel sampling.",
+            defaultValue = "0"
+    )
+    int minDistance;
+
+    @CommandLine.Option(
+            names = {"-u", "--uniform"},
+            description = "Draw the structures uniformly at random among all the structures satisfying the targets, by" +
+                    " exact counting instead of search (only for NP, AREA, CA, PLAND, PD, SPI, LPI, AREA_MN," +
+                    " ALL_DIFFERENT and NON_FOCAL_PLAND targets, other target files are solved; not available with" +
+                    " portfolio, parallel sampling, decomposition or reference)."
+    )
+    boolean uniform;
+
+    @CommandLine.Option(
+            names = {"--decompose"},
+            description = "Solve the classes independently on this number of threads, their areas being coordinated to" +
+                    " satisfy landscape-level constraints; search limits apply to each class model (default: 0, no" +
+                    " decomposition; only possible with single-solution generation, without portfolio, reference or" +
+                    " soft targets).",
+            defaultValue = "0"
+    )
+    int decompose;
+
+    @CommandLine.Option(
+            names = {"-r", "--reference"},
+            description = "JSON or binary landscape structure (e.g. extracted from a raster) used as a starting point:" +
+                    " the search tries the patch sizes of the reference first, so that solutions close to it are found" +
+                    " first (not available with portfolio or parallel sampling)."
+    )
+    String referencePath;
+
+    @CommandLine.Option(
+            names = {"-t", "--time-limit"},
+            description = "Time limit of each solver, in seconds (default: 0, no limit).",
+            defaultValue = "0"
+    )
+    int timeLimit;
+
+    @CommandLine.Option(
+            names = {"--node-limit"},
+            description = "Maximum number of search nodes of each solver (default: 0, no limit).",
+            defaultValue = "0"
+    )
+    long nodeLimit;
+
+    @CommandLine.Option(
+            names = {"--fail-limit"},
+            description = "Maximum number of fails of each solver (default: 0, no limit).",
+            defaultValue = "0"
+    )
+    long failLimit;
+
+    @CommandLine.Option(
+            names = {"--backtrack-limit"},
+            description = "Maximum number of backtracks of each solver (default: 0, no limit).",
+            defaultValue = "0"
+    )
+    long backtrackLimit;
+
+    @CommandLine.Option(
+            names = {"--restart-limit"},
+            description = "Maximum number of restarts of each solver (default: 0, no limit).",
+            defaultValue = "0"
+    )
+    long restartLimit;
+
+    @CommandLine.Option(
+            names = {"--memory-limit"},
+            description = "Stop solving when the used heap memory exceeds this amount, in MB (default: 0, no limit).",
+            defaultValue = "0"
+    )
+    long memoryLimit;
+
+    @CommandLine.Option(
+            names = {"--cache"},
+            description = "Directory of a structure cache, which can be shared by several processes: the first" +
+                    " solution of each target file is read from the cache if the same targets were solved with the" +
+                    " same search configuration, and written to it otherwise (not used with portfolio, parallel" +
+                    " sampling, decomposition, uniform sampling or soft targets)."
+    )
+    String cacheDirectory;
+
+    @CommandLine.Option(
+            names = {"--cache-size"},
+            description = "Maximum size of the structure cache, in MB, the least recently used structures being" +
+                    " evicted (default: 64).",
+            defaultValue = "64"
+    )
+    long cacheSize;
+
+    @CommandLine.Option(
+            names = {"-f", "--format"},
+            description = "Output format of the structures (possible values: ${COMPLETION-CANDIDATES}; default: JSON)." +
+                    " BINARY is a compact encoding written to .flss files, read by the generate, check and extract" +
+                    " commands as well as by --reference.",
+            defaultValue = "JSON"
+    )
+    StructureFormat format;
+
+    @CommandLine.Option(
+            names = {"--stats"},
+            description = "Append a JSON statistics record (one line per target file) to this file: status, search" +
+                    " strategy, time, time to first solution, nodes, fails, backtracks, restarts, propagators..." +
+                    " Not available with parallel sampling."
+    )
+    String statsFile;
+
     @Override
-    public void run() {
+    public Integer call() {
         if (nbSolutions <= 0) {
             System.err.println(ANSI_RED + "Number of solutions must be at least 1" + ANSI_RESET);
-            return;
+            return 1;
         }
         if (nbSolutions > 1 && outputPrefix.equals("-")) {
             System.err.println(ANSI_RED + "STDOUT solution output is only possible when nbSolutions = 1" + ANSI_RESET);
-            return;
+            return 1;
+        }
+        if (portfolio < 0) {
+            System.err.println(ANSI_RED + "The number of portfolio workers must be positive" + ANSI_RESET);
+            return 1;
+        }
+        if (timeLimit < 0 || nodeLimit < 0 || failLimit < 0 || backtrackLimit < 0 || restartLimit < 0 || memoryLimit < 0) {
+            System.err.println(ANSI_RED + "Search limits must be positive" + ANSI_RESET);
+            return 1;
+        }
+        if (samplingThreads < 0 || minDistance < 0) {
+            System.err.println(ANSI_RED + "The number of sampling threads and the minimum distance must be positive" + ANSI_RESET);
+            return 1;
+        }
+        if (referencePath != null && (portfolio > 0 || samplingThreads > 0 || minDistance > 0)) {
+            System.err.println(ANSI_RED + "A reference structure cannot be used with portfolio or parallel sampling" + ANSI_RESET);
+            return 1;
+        }
+        if (decompose < 0) {
+            System.err.println(ANSI_RED + "The number of decomposition threads must be positive" + ANSI_RESET);
+            return 1;
+        }
+        if (decompose > 0 && (nbSolutions > 1 || portfolio > 0 || referencePath != null)) {
+            System.err.println(ANSI_RED + "Class decomposition is only possible for single-solution generation, without" +
+                    " portfolio or reference" + ANSI_RESET);
+            return 1;
+        }
+        if (uniform && (portfolio > 0 || samplingThreads > 0 || minDistance > 0 || decompose > 0 || referencePath != null)) {
+            System.err.println(ANSI_RED + "Uniform sampling is not available with portfolio, parallel sampling," +
+                    " decomposition or reference" + ANSI_RESET);
+            return 1;
+        }
+        if (portfolio > 0 && nbSolutions > 1) {
+            System.err.println(ANSI_RED + "Portfolio solving is only possible when nbSolutions = 1" + ANSI_RESET);
+            return 1;
+        }
+        if (cacheSize <= 0) {
+            System.err.println(ANSI_RED + "The cache size must be positive" + ANSI_RESET);
+            return 1;
         }
         try {
+            StructureCache cache = null;
+            if (cacheDirectory != null) {
+                cache = new StructureCache(Paths.get(cacheDirectory), cacheSize << 20);
+            }
+            LandscapeStructure reference = null;
+            if (referencePath != null) {
+                reference = LandscapeStructureFactory.readFromFile(referencePath);
+            }
             String[] targetNames = new String[jsonPaths.length];
             if (jsonPaths.length == 1 && jsonPaths[0].equals("-")) {
                 targetNames[0] = "STDIN";
@@ -98,7 +289,7 @@ public class CLI_LandscapeStructureSolver implements Runnable {
                     targetNames[i] = FilenameUtils.removeExtension(new File(jsonPaths[i]).getName());
                 }
             }
-
+            int exitCode = 0;
             for (int i = 0; i < jsonPaths.length; i++) {
                 Reader reader;
                 if (jsonPaths.length == 1 && jsonPaths[0].equals("-")) {
@@ -106,52 +297,177 @@ public class CLI_LandscapeStructureSolver implements Runnable {
                 } else {
                     reader = new FileReader(jsonPaths[i]);
                 }
-                LandscapeStructureSolver lSolver = LandscapeStructureSolverFactory.readFromJSON(IOUtils.toString(reader));
+                String json = IOUtils.toString(reader);
                 reader.close();
-                lSolver.build();
-                switch (search) {
-                    case DEFAULT:
-                        lSolver.setDefaultSearch();
-                        break;
-                    case RANDOM:
-                        lSolver.setRandomSearch();
-                        break;
-                    case DOM_OVER_W_DEG:
-                        lSolver.setDomOverWDegSearch();
-                        break;
-                    case DOM_OVER_W_DEG_REF:
-                        lSolver.setDomOverWDegRefSearch();
-                        break;
-                    case MIN_DOM_LB:
-                        lSolver.setMinDomLBSearch();
-                        break;
-                    case MIN_DOM_UB:
-                        lSolver.setMinDomUBSearch();
-                        break;
-                    case ACTIVITY_BASED:
-                        lSolver.setActivityBasedSearch();
-                        break;
-                    case CONFLICT_HISTORY:
-                        lSolver.setConflictHistorySearch();
-                        break;
-                    default:
-                        lSolver.setDefaultSearch();
-                        break;
+                if ((decompose > 0 || portfolio > 0 || (nbSolutions > 1 && (samplingThreads > 0 || minDistance > 0))) && hasSoftTargets(json)) {
+                    System.err.println(ANSI_RED + "Soft targets (" + targetNames[i] + ") are not supported with portfolio" +
+                            ", decomposition or parallel sampling" + ANSI_RESET);
+                    exitCode = 1;
+                    continue;
+                }
+                if (uniform && !UniformStructureSampler.isSupported(json)) {
+                    System.err.println(ANSI_RED + "Uniform sampling does not support the targets of " + targetNames[i]
+                            + ", they are solved instead" + ANSI_RESET);
+                } else if (uniform) {
+                    long start = System.currentTimeMillis();
+                    UniformStructureSampler sampler;
+                    try {
+                        sampler = LandscapeStructureSolverFactory.readUniformSamplerFromJSON(json);
+                    } catch (FlsgenException e) {
+                        System.err.println(ANSI_RED + e.getMessage() + ANSI_RESET);
+                        exitCode = 1;
+                        continue;
+                    }
+                    System.err.println(ANSI_GREEN + "10^" + String.format("%.2f", sampler.getLog10NbStructures())
+                            + " structures counted in " + (System.currentTimeMillis() - start) / 1000.0 + " s" + ANSI_RESET);
+                    Random random = new Random(System.currentTimeMillis());
+                    List<LandscapeStructure> structures = sampleUniformly(sampler, random, targetNames[i]);
+                    if (structures != null) {
+                        for (int n = 0; n < nbSolutions; n++) {
+                            if (nbSolutions == 1) {
+                                writeSolution(structures.get(n), targetNames[i]);
+                            } else {
+                                writeStructure(structures.get(n), outputPrefix + "_" + targetNames[i] + "_" + (n + 1));
+                            }
+                        }
+                        System.err.println(ANSI_GREEN + nbSolutions + " structure(s) drawn uniformly (total time "
+                                + (System.currentTimeMillis() - start) / 1000.0 + " s)" + ANSI_RESET);
+                        JsonObject stats = new JsonObject();
+                        stats.put("status", "SOLUTION");
+                        stats.put("searchStrategy", "UNIFORM");
+                        stats.put("log10NbStructures", sampler.getLog10NbStructures());
+                        stats.put("time", (System.currentTimeMillis() - start) / 1000.0);
+                        writeStatistics(stats, targetNames[i]);
+                        continue;
+                    }
+                }
+                if (decompose > 0) {
+                    LandscapeStructureDecomposition d = new LandscapeStructureDecomposition(json, this::readSolver, decompose);
+                    long start = System.currentTimeMillis();
+                    LandscapeStructure s = d.findSolution(0);
+                    JsonObject stats = new JsonObject();
+                    stats.put("status", d.getStatus());
+                    stats.put("rounds", d.getNbRounds());
+                    stats.put("time", (System.currentTimeMillis() - start) / 1000.0);
+                    writeStatistics(stats, targetNames[i]);
+                    if (s != null) {
+                        System.err.println(ANSI_GREEN + "Solution found by class decomposition in "
+                                + (System.currentTimeMillis() - start) / 1000.0 + " s (" + d.getNbRounds()
+                                + " coordination rounds)" + ANSI_RESET);
+                        writeSolution(s, targetNames[i]);
+                    } else if (d.getStatus().equals("UNSATISFIABLE")) {
+                        System.err.println(ANSI_RED + "No possible solution" + ANSI_RESET);
+                        exitCode = 1;
+                    } else {
+                        System.err.println(ANSI_RED + "No solution found by class decomposition, which is incomplete:" +
+                                " try without --decompose" + ANSI_RESET);
+                        exitCode = 1;
+                    }
+                    continue;
+                }
+                if (portfolio > 0) {
+                    LandscapeStructurePortfolio p = new LandscapeStructurePortfolio(
+                            () -> readSolver(json),
+                            portfolio,
+                            System.currentTimeMillis()
+                    );
+                    LandscapeStructure s = p.findSolution();
+                    if (p.getWinningSolver() != null) {
+                        writeStatistics(p.getWinningSolver().getStatistics(), targetNames[i]);
+                    } else {
+                        JsonObject stats = new JsonObject();
+                        stats.put("status", p.isProvedUnsatisfiable() ? "UNSATISFIABLE" : "STOPPED");
+                        writeStatistics(stats, targetNames[i]);
+                    }
+                    if (s != null) {
+                        System.err.println(ANSI_GREEN + "Solution found in " + p.getWinningSolver().getModel().getSolver().getTimeCount()
+                                + " s with search strategy " + p.getWinningStrategy()
+                                + (p.getWinningStrategy() == SearchStrategy.RANDOM ? " (seed " + p.getWinningSeed() + ")" : "")
+                                + ANSI_RESET);
+                        writeSolution(s, targetNames[i]);
+                    } else {
+                        System.err.println(ANSI_RED + "No possible solution" + ANSI_RESET);
+                        exitCode = 1;
+                    }
+                    continue;
+                }
+                if (nbSolutions > 1 && (samplingThreads > 0 || minDistance > 0)) {
+                    LandscapeStructureSampler sampler = new LandscapeStructureSampler(
+                            () -> readSolver(json),
+                            Math.max(1, samplingThreads),
+                            System.currentTimeMillis()
+                    );
+                    sampler.setMinDistance(minDistance);
+                    String targetName = targetNames[i];
+                    long start = System.currentTimeMillis();
+                    // Solutions are written as soon as they are accepted
+                    List<LandscapeStructure> solutions = sampler.sample(nbSolutions, 0, (n, s) -> {
+                        System.err.println(ANSI_GREEN + "Solution " + (n + 1) + " found (total sampling time "
+                                + (System.currentTimeMillis() - start) / 1000.0 + "s)" + ANSI_RESET);
+                        writeStructure(s, outputPrefix + "_" + targetName + "_" + (n + 1));
+                    });
+                    if (solutions.isEmpty()) {
+                        System.err.println(ANSI_RED + "No possible solution" + ANSI_RESET);
+                        exitCode = 1;
+                    } else if (solutions.size() < nbSolutions) {
+                        System.err.println(ANSI_RED + "No more distinct solutions found (" + sampler.getNbRejected()
+                                + " rejected)" + ANSI_RESET);
+                        exitCode = 1;
+                    }
+                    continue;
+                }
+                LandscapeStructureSolver lSolver = readSolver(json);
+                if (seed != null) {
+                    lSolver.setSearch(search, seed);
+                } else {
+                    lSolver.setSearch(search);
+                }
+                if (reference != null) {
+                    lSolver.setSolutionHint(reference);
+                }
+                lSolver.setCache(cache);
+                if (!lSolver.getSoftTargets().isEmpty()) {
+                    // Minimize the weighted violation of soft targets until a search limit is reached
+                    if (nbSolutions > 1) {
+                        System.err.println(ANSI_RED + "Soft targets are only supported with single-solution generation" + ANSI_RESET);
+                        exitCode = 1;
+                        continue;
+                    }
+                    if (timeLimit == 0 && nodeLimit == 0 && failLimit == 0 && backtrackLimit == 0 && restartLimit == 0 && memoryLimit == 0) {
+                        System.err.println(ANSI_RED + "Soft targets require a time limit (-t) or a search limit" + ANSI_RESET);
+                        exitCode = 1;
+                        continue;
+                    }
+                    LandscapeStructure s = lSolver.findBestSolution(0);
+                    if (s != null) {
+                        System.err.println(ANSI_GREEN + "Best solution found with weighted violation " + lSolver.getSoftViolation() + ANSI_RESET);
+                        for (SoftTarget softTarget : lSolver.getSoftTargets()) {
+                            double deviation = softTarget.getDeviation(s);
+                            System.err.println((deviation > 0 ? ANSI_RED : ANSI_GREEN) + "  " + softTarget.getClassName()
+                                    + " " + softTarget.getKey() + " = " + softTarget.getValue(s) + " (target ["
+                                    + softTarget.getMin() + ", " + softTarget.getMax() + "], deviation " + deviation + ")"
+                                    + ANSI_RESET);
+                        }
+                        writeSolution(s, targetNames[i]);
+                    } else {
+                        printNoSolution(lSolver);
+                        exitCode = 1;
+                    }
+                    writeStatistics(lSolver.getStatistics(), targetNames[i]);
+                    continue;
                 }
                 if (nbSolutions == 1) {
                     // One solution case
                     LandscapeStructure s = lSolver.findSolution();
-                    if (s != null) {
+                    if (s != null && lSolver.isCacheHit()) {
+                        System.err.println(ANSI_GREEN + "Solution read from the cache" + ANSI_RESET);
+                        writeSolution(s, targetNames[i]);
+                    } else if (s != null) {
                         System.err.println(ANSI_GREEN + "Solution found in " + lSolver.getModel().getSolver().getTimeCount() + " s" + ANSI_RESET);
-                        if (outputPrefix.equals("-")) {
-                            System.out.println(s.toJSON());
-                        } else {
-                            FileWriter writer = new FileWriter(outputPrefix + "_" + targetNames[i] + ".json");
-                            writer.write(s.toJSON());
-                            writer.close();
-                        }
+                        writeSolution(s, targetNames[i]);
                     } else {
-                        System.err.println(ANSI_RED + "No possible solution" + ANSI_RESET);
+                        printNoSolution(lSolver);
+                        exitCode = 1;
                     }
                 } else { // Several solutions case
                     int n = 0;
@@ -159,23 +475,127 @@ public class CLI_LandscapeStructureSolver implements Runnable {
                         LandscapeStructure s = lSolver.findSolution();
                         if (s != null) {
                             System.err.println(ANSI_GREEN + "Solution " + (n + 1) + " found (total solving time " + lSolver.getModel().getSolver().getTimeCount() + "s)" + ANSI_RESET);
-                            FileWriter writer = new FileWriter(outputPrefix + "_" + targetNames[i] + "_" + (n + 1) + ".json");
-                            writer.write(s.toJSON());
-                            writer.close();
+                            writeStructure(s, outputPrefix + "_" + targetNames[i] + "_" + (n + 1));
                             n++;
                         } else {
-                            if (n == 0) {
-                                System.err.println(ANSI_RED + "No possible solution" + ANSI_RESET);
-                            } else {
-                                System.err.println(ANSI_RED + "No more possible solutions" + ANSI_RESET);
-                            }
+                            printNoSolution(lSolver);
+                            exitCode = 1;
                             break;
                         }
                     }
                 }
+                writeStatistics(lSolver.getStatistics(), targetNames[i]);
             }
+            return exitCode;
         } catch (Exception e) {
             e.printStackTrace();
+            return 1;
+        }
+    }
+
+    /**
+     * Draw the structures uniformly. All structures are drawn before any is written, so that no partial output is
+     * left when the rejection sampling of patch sizes gives up.
+     * @return The structures, or null if sampling gave up and the targets must be solved instead
+     */
+    private List<LandscapeStructure> sampleUniformly(UniformStructureSampler sampler, Random random, String targetName) {
+        List<LandscapeStructure> structures = new ArrayList<>();
+        try {
+            for (int n = 0; n < nbSolutions; n++) {
+                structures.add(sampler.sample(random));
+            }
+        } catch (FlsgenException e) {
+            System.err.println(ANSI_RED + e.getMessage() + " -- the targets of " + targetName + " are solved instead"
+                    + ANSI_RESET);
+            return null;
+        }
+        return structures;
+    }
+
+    /**
+     * Read a target file into a solver, with the search limits set
+     */
+    private LandscapeStructureSolver readSolver(String json) throws IOException, JsonException, FlsgenException {
+        LandscapeStructureSolver lSolver = LandscapeStructureSolverFactory.readFromJSON(json);
+        if (timeLimit > 0) {
+            lSolver.setTimeLimit(timeLimit);
+        }
+        if (nodeLimit > 0) {
+            lSolver.setNodeLimit(nodeLimit);
+        }
+        if (failLimit > 0) {
+            lSolver.setFailLimit(failLimit);
+        }
+        if (backtrackLimit > 0) {
+            lSolver.setBacktrackLimit(backtrackLimit);
+        }
+        if (restartLimit > 0) {
+            lSolver.setRestartLimit(restartLimit);
+        }
+        if (memoryLimit > 0) {
+            lSolver.setMemoryLimit(memoryLimit * 1024 * 1024);
+        }
+        return lSolver;
+    }
+
+    /**
+     * @return True if a target file declares soft targets
+     */
+    private static boolean hasSoftTargets(String json) throws JsonException {
+        JsonObject targets = (JsonObject) Jsoner.deserialize(json);
+        if (targets.get("classes") instanceof JsonArray) {
+            for (Object cl : (JsonArray) targets.get("classes")) {
+                if (((JsonObject) cl).containsKey(LandscapeStructureSolver.KEY_SOFT)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void printNoSolution(LandscapeStructureSolver lSolver) {
+        String status = lSolver.getStatus();
+        switch (status) {
+            case "UNSATISFIABLE":
+                System.err.println(ANSI_RED + "No possible solution" + ANSI_RESET);
+                break;
+            case "NO_MORE_SOLUTIONS":
+                System.err.println(ANSI_RED + "No more possible solutions" + ANSI_RESET);
+                break;
+            default:
+                System.err.println(ANSI_RED + "No solution found, search stopped (" + status + ")" + ANSI_RESET);
+                break;
+        }
+    }
+
+    private void writeStatistics(JsonObject stats, String targetName) throws IOException {
+        if (statsFile == null) {
+            return;
+        }
+        stats.put("target", targetName);
+        FileWriter writer = new FileWriter(statsFile, true);
+        writer.write(stats.toJson() + System.lineSeparator());
+        writer.close();
+    }
+
+    private void writeSolution(LandscapeStructure s, String targetName) throws IOException {
+        if (outputPrefix.equals("-")) {
+            LandscapeStructureFactory.write(s, format, System.out);
+            if (format == StructureFormat.JSON) {
+                System.out.println();
+            }
+            System.out.flush();
+        } else {
+            writeStructure(s, outputPrefix + "_" + targetName);
+        }
+    }
+
+    /**
+     * Write a structure in the output format, the extension of the format being appended to the path
+     */
+    private void writeStructure(LandscapeStructure s, String path) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(path + format.getExtension()))) {
+            LandscapeStructureFactory.write(s, format, out);
         }
     }
 }
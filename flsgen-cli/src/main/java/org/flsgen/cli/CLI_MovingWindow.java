@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen.cli;
+
+import org.flsgen.RasterUtils;
+import org.flsgen.utils.ANSIColors;
+import org.flsgen.utils.MovingWindowMetrics;
+import picocli.CommandLine;
+
+import java.util.concurrent.Callable;
+
+@CommandLine.Command(
+        name = "window",
+        mixinStandardHelpOptions = true,
+        description = "Computes moving-window landscape metrics (PLAND, NP, MESH) maps of an existing raster."
+)
+public class CLI_MovingWindow implements Callable<Integer> {
+
+    public enum Metric {
+        PLAND,
+        NP,
+        MESH
+    }
+
+    @CommandLine.Parameters(
+            description = "Raster (.tif) input file to compute the metrics from",
+            index = "0"
+    )
+    String inputRaster;
+
+    @CommandLine.Parameters(
+            description = "Output rasters prefix -- one raster is produced for each focal class and metric " +
+                    "(<prefix>_<class>_<metric>.tif)",
+            index = "1"
+    )
+    String outputPrefix;
+
+    @CommandLine.Parameters(
+            description = "Raster values of the focal classes",
+            index = "2..*"
+    )
+    int[] focalClasses;
+
+    @CommandLine.Option(
+            names = {"-w", "--window-size"},
+            description = "Size (in cells) of the side of the square moving window, must be odd (default: 51).",
+            defaultValue = "51"
+    )
+    int windowSize;
+
+    @CommandLine.Option(
+            names = {"-m", "--metrics"},
+            description = "Metrics to compute, among ${COMPLETION-CANDIDATES} (default: all). Cells outside the" +
+                    " landscape are set to " + MovingWindowMetrics.NO_DATA + " in output rasters.",
+            split = ",",
+            defaultValue = "PLAND,NP,MESH"
+    )
+    Metric[] metrics;
+
+    @CommandLine.Option(
+            names = {"-c", "--connectivity"},
+            description = "Connectivity definition in the regular grid - '4' (4-connected)" +
+                    " or '8' (8-connected) (default: 4).",
+            defaultValue = "4"
+    )
+    int connectivity;
+
+    @CommandLine.Option(
+            names = {"-j", "--threads"},
+            description = "Number of threads used for computing metrics (default: number of available processors)."
+    )
+    int nbThreads = Runtime.getRuntime().availableProcessors();
+
+    @Override
+    public Integer call() {
+        if (connectivity != 4 && connectivity !=8) {
+            System.err.println(ANSIColors.ANSI_RED + "The Connectivity definition must be either 4 or 8" + ANSIColors.ANSI_RESET);
+            return 1;
+        }
+        try {
+            int[] values = RasterUtils.loadIntDataFromRaster(inputRaster);
+            int[] dimensions = RasterUtils.getDimensions(inputRaster);
+            int noDataValue = (int) RasterUtils.getNodataValue(inputRaster);
+            MovingWindowMetrics mw = new MovingWindowMetrics(
+                    values, dimensions[0], dimensions[1], noDataValue, focalClasses, connectivity, windowSize, nbThreads
+            );
+            for (int k = 0; k < focalClasses.length; k++) {
+                for (Metric metric : metrics) {
+                    double[] data;
+                    switch (metric) {
+                        case PLAND:
+                            data = mw.getLandscapeProportion(k);
+                            break;
+                        case NP:
+                            data = mw.getNbPatches(k);
+                            break;
+                        default:
+                            data = mw.getMesh(k);
+                            break;
+                    }
+                    String dest = outputPrefix + "_" + focalClasses[k] + "_" + metric + ".tif";
+                    RasterUtils.exportDoubleRasterLike(data, inputRaster, dest);
+                }
+            }
+            return 0;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen.cli;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.flsgen.RasterUtils;
+import org.flsgen.grid.neighborhood.INeighborhood;
+import org.flsgen.grid.neighborhood.Neighborhoods;
+import org.flsgen.grid.regular.square.RegularSquareGrid;
+import org.flsgen.solver.LandscapeGenerator;
+import org.flsgen.solver.LandscapeStructure;
+import org.flsgen.solver.LandscapeStructureSolver;
+import org.flsgen.solver.LandscapeStructureSolverFactory;
+import org.flsgen.solver.SearchStrategy;
+import org.flsgen.solver.Terrain;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import picocli.CommandLine;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.flsgen.utils.ANSIColors.*;
+
+@CommandLine.Command(
+        name = "run",
+        mixinStandardHelpOptions = true,
+        description = "Generate landscapes from targets in a single process: the structures found by the solver are" +
+                " streamed to a pool of landscape generators while the solver searches for the next ones. The" +
+                " grid, mask and terrain are shared in memory between generators."
+)
+public class CLI_Run implements Callable<Integer> {
+
+    @CommandLine.Parameters(
+            description = "Output prefix of the generated landscapes (<prefix>_<target>[_<structure>][_<landscape>].tif)",
+            index = "0"
+    )
+    String outputPrefix;
+
+    @CommandLine.Parameters(
+            description = "JSON input file(s) describing landscape targets",
+            index = "1..*"
+    )
+    String[] jsonPaths;
+
+    @CommandLine.Option(
+            names = {"-n", "--nb-structures"},
+            description = "Number of structures to generate for each target file (default: 1).",
+            defaultValue = "1"
+    )
+    int nbStructures;
+
+    @CommandLine.Option(
+            names = {"-N", "--nb-landscapes"},
+            description = "Number of landscapes to generate from each structure (default: 1).",
+            defaultValue = "1"
+    )
+    int nbLandscapes;
+
+    @CommandLine.Option(
+            names = {"-j", "--threads"},
+            description = "Number of landscape generators running in parallel (default: 0, the number of available" +
+                    " processors).",
+            defaultValue = "0"
+    )
+    int nbThreads;
+
+    @CommandLine.Option(
+            names = {"-w", "--write-structures"},
+            description = "Also write the structures, as <prefix>_<target>[_<structure>].json."
+    )
+    boolean writeStructures;
+
+    @CommandLine.Option(
+            names = {"--search-strategy"},
+            description = "Search strategy to use in the Choco solver (possible values: ${COMPLETION-CANDIDATES}).",
+            defaultValue = "DEFAULT"
+    )
+    SearchStrategy search;
+
+    @CommandLine.Option(
+            names = {"--time-limit"},
+            description = "Time limit of the solver of each target file, in seconds (default: 0, no limit).",
+            defaultValue = "0"
+    )
+    int timeLimit;
+
+    @CommandLine.Option(
+            names = {"-l", "-lt", "--load-terrain"},
+            description = "Load the terrain used by the generators from a raster instead of generating a fractal" +
+                    " terrain for each structure",
+            defaultValue = ""
+    )
+    String terrainInput;
+
+    @CommandLine.Option(
+            names = {"-R", "--roughness"},
+            description = "Roughness parameter (also called H), between 0 and 1 for fractal terrain generation." +
+                    " Lower values produce rougher terrain (default: 0.5)",
+            defaultValue = "0.5"
+    )
+    double roughnessFactor;
+
+    @CommandLine.Option(
+            names = {"-T", "--terrain-dependency"},
+            description = "Terrain dependency of the patch generation algorithm, between 0 and 1." +
+                    " 0 means no dependency to the terrain, and 1 mean that patch generation is entirely guided by" +
+                    " the terrain (default: 0.5)",
+            defaultValue = "0.5"
+    )
+    double terrainDependency;
+
+    @CommandLine.Option(
+            names = {"-D", "--distance-between-patches"},
+            description = "Minimum distance (in number of cells) between patches from a same class (default: 2).",
+            defaultValue = "2"
+    )
+    int minDistance;
+
+    @CommandLine.Option(
+            names = {"-M", "--max-min-dist"},
+            description = "If set, the minimum distance between patches is variable between `minDistance` and `maxMinDistance`.",
+            defaultValue = "-1"
+    )
+    int maxMinDistance;
+
+    @CommandLine.Option(
+            names = {"-x"},
+            description = "Top left x coordinate of the output rasters (default: 0)",
+            defaultValue = "0"
+    )
+    double x;
+
+    @CommandLine.Option(
+            names = {"-y"},
+            description = "Top left y coordinate of the output rasters (default: 0)",
+            defaultValue = "0"
+    )
+    double y;
+
+    @CommandLine.Option(
+            names = {"-r", "--resolution"},
+            description = "Spatial resolution of the output rasters (in CRS unit, default: 0.0001)",
+            defaultValue = "0.0001"
+    )
+    double resolution;
+
+    @CommandLine.Option(
+            names = {"-s", "-srs", "--spatial-reference-system"},
+            description = "Spatial reference system of the output rasters, as an EPSG code or a WKT definition" +
+                    " (default: EPSG:4326)",
+            defaultValue = "EPSG:4326"
+    )
+    String srs;
+
+    @CommandLine.Option(
+            names = {"-t", "-ot", "--output-template"},
+            description = "Raster template to use for output raster metadata",
+            defaultValue = ""
+    )
+    String template;
+
+    @CommandLine.Option(
+            names = {"-m", "-mt", "--max-try"},
+            description = "Maximum number or trials to generate the whole landscape (default: 100).",
+            defaultValue = "100"
+    )
+    int maxTry;
+
+    @CommandLine.Option(
+            names = {"-p", "-mtp", "--max-try-patch"},
+            description = "Maximum number of trials to generate a patch (default: 100).",
+            defaultValue = "100"
+    )
+    int maxTryPatch;
+
+    @CommandLine.Option(
+            names = {"-c", "--connectivity"},
+            description = "Connectivity definition in the regular square grid - '4' (4-connected)" +
+                    " or '8' (8-connected) (default: 4).",
+            defaultValue = "4"
+    )
+    int connectivity;
+
+    /**
+     * Coordinate reference system of the output rasters
+     */
+    CoordinateReferenceSystem crs;
+
+    @Override
+    public Integer call() {
+        if (nbStructures <= 0 || nbLandscapes <= 0) {
+            System.err.println(ANSI_RED + "The numbers of structures and landscapes must be at least 1" + ANSI_RESET);
+            return 1;
+        }
+        if (nbThreads < 0 || timeLimit < 0) {
+            System.err.println(ANSI_RED + "The number of threads and the time limit must be positive" + ANSI_RESET);
+            return 1;
+        }
+        if (roughnessFactor < 0 || roughnessFactor > 1) {
+            System.err.println(ANSI_RED + "Roughness factor must be in [0, 1]" + ANSI_RESET);
+            return 1;
+        }
+        if (terrainDependency < 0 || terrainDependency > 1) {
+            System.err.println(ANSI_RED + "Terrain dependency must be in [0, 1]" + ANSI_RESET);
+            return 1;
+        }
+        if (minDistance <= 0) {
+            System.err.println(ANSI_RED + "Minimum distance between patches must be at least 1" + ANSI_RESET);
+            return 1;
+        }
+        if (maxTry <= 0 || maxTryPatch <= 0) {
+            System.err.println(ANSI_RED + "Maximum trials must be at least 1" + ANSI_RESET);
+            return 1;
+        }
+        if (connectivity != 4 && connectivity != 8) {
+            System.err.println(ANSI_RED + "The Connectivity definition must be either 4 or 8" + ANSI_RESET);
+            return 1;
+        }
+        int n = nbThreads > 0 ? nbThreads : Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(n);
+        // The solver waits when the generators fall behind, bounding the number of pending structures
+        Semaphore pending = new Semaphore(2 * n);
+        AtomicInteger nbGenerated = new AtomicInteger(0);
+        AtomicInteger nbFailed = new AtomicInteger(0);
+        long start = System.currentTimeMillis();
+        int exitCode = 0;
+        try {
+            if (!template.equals("")) {
+                initRasterMetadataFromTemplate(template);
+            } else {
+                crs = RasterUtils.decodeCRS(srs);
+            }
+            INeighborhood neighborhood = connectivity == 4 ? Neighborhoods.FOUR_CONNECTED : Neighborhoods.HEIGHT_CONNECTED;
+            INeighborhood bufferNeighborhood = CLI_LandscapeGenerator.getBufferNeighborhood(connectivity, minDistance, maxMinDistance);
+            for (String jsonPath : jsonPaths) {
+                String targetName = FilenameUtils.removeExtension(new File(jsonPath).getName());
+                Reader reader = new FileReader(jsonPath);
+                String json = IOUtils.toString(reader);
+                reader.close();
+                LandscapeStructureSolver solver = LandscapeStructureSolverFactory.readFromJSON(json);
+                if (!solver.getSoftTargets().isEmpty()) {
+                    System.err.println(ANSI_RED + "Soft targets (" + targetName + ") are not supported by the run" +
+                            " command, use the structure command" + ANSI_RESET);
+                    exitCode = 1;
+                    continue;
+                }
+                solver.setSearch(search);
+                if (timeLimit > 0) {
+                    solver.setTimeLimit(timeLimit);
+                }
+                // Shared by the generators of the structures of this target
+                Terrain sharedTerrain = null;
+                LandscapeGenerator firstGenerator = null;
+                int noDataValue = -1;
+                for (int k = 0; k < nbStructures; k++) {
+                    LandscapeStructure s = solver.findSolution();
+                    if (s == null) {
+                        printNoSolution(solver, targetName, k);
+                        exitCode = 1;
+                        break;
+                    }
+                    String structName = targetName + (nbStructures > 1 ? "_" + (k + 1) : "");
+                    System.err.println(ANSI_GREEN + "Structure " + structName + " found (total solving time "
+                            + solver.getModel().getSolver().getTimeCount() + " s)" + ANSI_RESET);
+                    if (writeStructures) {
+                        Writer writer = new BufferedWriter(new FileWriter(outputPrefix + "_" + structName + ".json"));
+                        s.writeJSON(writer);
+                        writer.close();
+                    }
+                    if (firstGenerator == null) {
+                        if (s.getMaskRasterPath() != null) {
+                            noDataValue = (int) RasterUtils.getNodataValue(s.getMaskRasterPath());
+                        }
+                        if (!terrainInput.equals("")) {
+                            sharedTerrain = new Terrain(new RegularSquareGrid(s.getNbRows(), s.getNbCols()));
+                            sharedTerrain.loadFromData(RasterUtils.loadDoubleDataFromRaster(terrainInput, sharedTerrain.getGrid()));
+                        }
+                    }
+                    Terrain terrain = sharedTerrain != null ? sharedTerrain : new Terrain(new RegularSquareGrid(s.getNbRows(), s.getNbCols()));
+                    LandscapeGenerator generator;
+                    if (firstGenerator == null) {
+                        generator = new LandscapeGenerator(s, neighborhood, bufferNeighborhood, terrain);
+                        firstGenerator = generator;
+                    } else {
+                        generator = new LandscapeGenerator(s, firstGenerator, terrain);
+                    }
+                    boolean fractal = sharedTerrain == null;
+                    int structNoDataValue = noDataValue;
+                    pending.acquire();
+                    pool.execute(() -> {
+                        try {
+                            if (fractal) {
+                                terrain.generateDiamondSquare(roughnessFactor);
+                            }
+                            generate(generator, structName, structNoDataValue, nbGenerated, nbFailed);
+                        } catch (Exception e) {
+                            nbFailed.incrementAndGet();
+                            e.printStackTrace();
+                        } finally {
+                            pending.release();
+                        }
+                    });
+                }
+            }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            System.err.println((nbFailed.get() > 0 ? ANSI_RED : ANSI_GREEN) + nbGenerated.get() + " landscape(s) generated, "
+                    + nbFailed.get() + " failed (total time " + (System.currentTimeMillis() - start) / 1000.0 + " s)"
+                    + ANSI_RESET);
+            return nbFailed.get() > 0 ? 1 : exitCode;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return 1;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Generate and export the landscapes of a structure
+     */
+    private void generate(LandscapeGenerator generator, String structName, int noDataValue, AtomicInteger nbGenerated,
+                          AtomicInteger nbFailed) throws Exception {
+        for (int m = 0; m < nbLandscapes; m++) {
+            String name = structName + (nbLandscapes > 1 ? "_" + (m + 1) : "");
+            if (m > 0) {
+                generator.init();
+            }
+            if (generator.generate(terrainDependency, maxTry, maxTryPatch, false)) {
+                RasterUtils.exportIntRaster(generator.getRasterData(noDataValue), generator.getGrid(), x, y, resolution,
+                        crs, outputPrefix + "_" + name + ".tif");
+                nbGenerated.incrementAndGet();
+            } else {
+                System.err.println(ANSI_RED + "Failed to generate landscape " + name + " after " + generator.getNbTry()
+                        + " tries" + ANSI_RESET);
+                nbFailed.incrementAndGet();
+            }
+        }
+    }
+
+    private void printNoSolution(LandscapeStructureSolver solver, String targetName, int nbFound) {
+        String status = solver.getStatus();
+        switch (status) {
+            case "UNSATISFIABLE":
+                System.err.println(ANSI_RED + "No possible solution (" + targetName + ")" + ANSI_RESET);
+                break;
+            case "NO_MORE_SOLUTIONS":
+                System.err.println(ANSI_RED + "No more possible solutions (" + targetName + ", " + nbFound + " found)" + ANSI_RESET);
+                break;
+            default:
+                System.err.println(ANSI_RED + "No solution found, search stopped (" + targetName + ", " + status + ")" + ANSI_RESET);
+                break;
+        }
+    }
+
+    public void initRasterMetadataFromTemplate(String input) throws IOException {
+        crs = RasterUtils.getCRS(input);
+        double[] xyres = RasterUtils.getXYRes(input);
+        x = xyres[0];
+        y = xyres[1];
+        resolution = xyres[2];
+    }
+}
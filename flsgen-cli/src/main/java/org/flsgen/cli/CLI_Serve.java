@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen.cli;
+
+import org.flsgen.RasterUtils;
+import picocli.CommandLine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.AclEntryPermission;
+import java.nio.file.attribute.AclEntryType;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.flsgen.utils.ANSIColors.*;
+
+@CommandLine.Command(
+        name = "serve",
+        mixinStandardHelpOptions = true,
+        description = "Run flsgen as a server executing jobs (e.g. structure, generate, terrain or extract_structure" +
+                " commands) received on a local socket, so that JVM start-up and GeoTools initialization are paid" +
+                " once. Each connection sends the token of the server as a first line, then one job as a line of" +
+                " command arguments, in the same syntax as the command line, receives the output of the job, then a" +
+                " last line \"EXIT <code>\". Connections which do not send their job within 10 seconds are closed." +
+                " The \"shutdown\" job stops the server. Relative paths are resolved" +
+                " from the working directory of the server, and jobs cannot read from STDIN. Jobs run with the" +
+                " permissions of the server and can read or write any of its files: the token, written at start-up" +
+                " to a file readable by its owner only, keeps other local users from running jobs."
+)
+public class CLI_Serve implements Callable<Integer> {
+
+    @CommandLine.Option(
+            names = {"-p", "--port"},
+            description = "Port on which jobs are received, on the loopback interface only (default: 7878).",
+            defaultValue = "7878"
+    )
+    int port;
+
+    @CommandLine.Option(
+            names = {"-j", "--threads"},
+            description = "Number of jobs run in parallel (default: 0, the number of available processors).",
+            defaultValue = "0"
+    )
+    int nbThreads;
+
+    @CommandLine.Option(
+            names = {"--token-file"},
+            description = "File to which the token expected as the first line of each connection is written at" +
+                    " start-up, readable by its owner only, and deleted when the server stops (default:" +
+                    " ~/.flsgen_serve_token).",
+            defaultValue = "${sys:user.home}/.flsgen_serve_token"
+    )
+    String tokenFile;
+
+    /**
+     * Time (in milliseconds) within which a connection must send the token and its job
+     */
+    static final int HANDSHAKE_TIMEOUT = 10000;
+
+    private volatile boolean shutdown;
+    private byte[] token;
+
+    @Override
+    public Integer call() {
+        if (port < 0 || port > 65535) {
+            System.err.println(ANSI_RED + "The port must be between 0 and 65535" + ANSI_RESET);
+            return 1;
+        }
+        if (nbThreads < 0) {
+            System.err.println(ANSI_RED + "The number of threads must be positive" + ANSI_RESET);
+            return 1;
+        }
+        int n = nbThreads > 0 ? nbThreads : Runtime.getRuntime().availableProcessors();
+        // Outputs of jobs are routed to their connection, other outputs to the console
+        PrintStream[] console = JobOutput.install();
+        PrintStream err = console[1];
+        ExecutorService pool = Executors.newFixedThreadPool(n);
+        Path tokenPath = Paths.get(tokenFile);
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            token = writeToken(tokenPath).getBytes(StandardCharsets.UTF_8);
+            err.println(ANSI_GREEN + "Token written to " + tokenPath + ANSI_RESET);
+            long start = System.currentTimeMillis();
+            RasterUtils.initReferencing();
+            err.println(ANSI_GREEN + "GeoTools referencing initialized in " + (System.currentTimeMillis() - start) / 1000.0
+                    + " s" + ANSI_RESET);
+            err.println(ANSI_GREEN + "Listening on " + server.getInetAddress().getHostAddress() + ":"
+                    + server.getLocalPort() + " with " + n + " workers" + ANSI_RESET);
+            while (!shutdown) {
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketException e) {
+                    // Closed by a shutdown job
+                    break;
+                }
+                pool.submit(() -> handle(socket, server));
+            }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            return 0;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return 1;
+        } finally {
+            pool.shutdownNow();
+            JobOutput.uninstall(console);
+            if (token != null) {
+                try {
+                    Files.deleteIfExists(tokenPath);
+                } catch (IOException e) {
+                    // Overwritten at the next start-up
+                }
+            }
+        }
+    }
+
+    /**
+     * Write a new random token to a file readable and writable by its owner only: an existing file is replaced, so
+     * that the permissions (POSIX permissions, or an access control list) are set at creation, before the token is
+     * written
+     * @param path The token file
+     * @return The token
+     */
+    static String writeToken(Path path) throws IOException {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder token = new StringBuilder();
+        for (byte b : bytes) {
+            token.append(String.format("%02x", b));
+        }
+        Files.deleteIfExists(path);
+        Set<String> views = path.getFileSystem().supportedFileAttributeViews();
+        if (views.contains("posix")) {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else if (views.contains("acl")) {
+            // e.g. Windows: an access control list granting access to the owner only
+            UserPrincipal owner = path.getFileSystem().getUserPrincipalLookupService()
+                    .lookupPrincipalByName(System.getProperty("user.name"));
+            AclEntry entry = AclEntry.newBuilder()
+                    .setType(AclEntryType.ALLOW)
+                    .setPrincipal(owner)
+                    .setPermissions(EnumSet.allOf(AclEntryPermission.class))
+                    .build();
+            FileAttribute<List<AclEntry>> acl = new FileAttribute<List<AclEntry>>() {
+                @Override
+                public String name() {
+                    return "acl:acl";
+                }
+
+                @Override
+                public List<AclEntry> value() {
+                    return Collections.singletonList(entry);
+                }
+            };
+            Files.createFile(path, acl);
+        } else {
+            throw new IOException("Cannot restrict the permissions of the token file " + path + " to its owner");
+        }
+        Files.write(path, (token + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        return token.toString();
+    }
+
+    /**
+     * Run the job received on a connection, with its outputs sent back on the connection
+     */
+    private void handle(Socket socket, ServerSocket server) {
+        try (Socket s = socket) {
+            // Idle connections are closed, so that they cannot hold every worker
+            s.setSoTimeout(HANDSHAKE_TIMEOUT);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            String received = reader.readLine();
+            OutputStream output = s.getOutputStream();
+            PrintStream client = new PrintStream(output, true, "UTF-8");
+            // Constant-time comparison, so that the token cannot be guessed from response times
+            if (received == null
+                    || !MessageDigest.isEqual(received.trim().getBytes(StandardCharsets.UTF_8), token)) {
+                client.println(ANSI_RED + "Invalid token" + ANSI_RESET);
+                client.println("EXIT 2");
+                return;
+            }
+            String line = reader.readLine();
+            s.setSoTimeout(0);
+            int code;
+            List<String> args;
+            try {
+                args = line == null ? new ArrayList<>() : tokenize(line);
+            } catch (IllegalArgumentException e) {
+                client.println(ANSI_RED + e.getMessage() + ANSI_RESET);
+                client.println("EXIT 2");
+                return;
+            }
+            if (args.isEmpty()) {
+                client.println(ANSI_RED + "Empty job" + ANSI_RESET);
+                code = 2;
+            } else if (args.get(0).equals("shutdown")) {
+                shutdown = true;
+                server.close();
+                client.println(ANSI_GREEN + "Server stopped after the running jobs" + ANSI_RESET);
+                code = 0;
+            } else if (args.get(0).equals("serve")) {
+                client.println(ANSI_RED + "The serve command cannot be run as a job" + ANSI_RESET);
+                code = 2;
+            } else {
+                JobOutput.set(output, output);
+                try {
+                    code = new CommandLine(new Main()).execute(args.toArray(new String[0]));
+                } finally {
+                    JobOutput.remove();
+                }
+            }
+            client.println("EXIT " + code);
+        } catch (IOException e) {
+            // The client disconnected, or did not send its job in time
+        }
+    }
+
+    /**
+     * Split a line into arguments as a shell would: on whitespace, except within single or double quotes, and with
+     * backslash escapes outside single quotes
+     * @param line The line
+     * @return The arguments
+     * @throws IllegalArgumentException if a quote is not closed
+     */
+    static List<String> tokenize(String line) {
+        List<String> args = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean inArg = false;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quote == '\'') {
+                if (c == '\'') {
+                    quote = 0;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '\\' && i + 1 < line.length()) {
+                current.append(line.charAt(++i));
+                inArg = true;
+            } else if (quote == '"') {
+                if (c == '"') {
+                    quote = 0;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+                inArg = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inArg) {
+                    args.add(current.toString());
+                    current.setLength(0);
+                    inArg = false;
+                }
+            } else {
+                current.append(c);
+                inArg = true;
+            }
+        }
+        if (quote != 0) {
+            throw new IllegalArgumentException("Unclosed quote in job: " + line);
+        }
+        if (inArg) {
+            args.add(current.toString());
+        }
+        return args;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen.cli;
+
+import com.github.cliftonlabs.json_simple.JsonArray;
+import com.github.cliftonlabs.json_simple.JsonObject;
+import com.github.cliftonlabs.json_simple.Jsoner;
+import org.apache.commons.io.IOUtils;
+import org.flsgen.solver.LandscapeStructure;
+import org.flsgen.solver.LandscapeStructureSolver;
+import org.flsgen.solver.LandscapeStructureSolverFactory;
+import org.flsgen.solver.SearchStrategy;
+import picocli.CommandLine;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.concurrent.Callable;
+
+import static org.flsgen.utils.ANSIColors.*;
+
+@CommandLine.Command(
+        name = "sweep",
+        mixinStandardHelpOptions = true,
+        description = "Generate landscape structures for a range of values of one target, building the model only once."
+)
+public class CLI_StructureSweep implements Callable<Integer> {
+
+    @CommandLine.Parameters(
+            description = "Prefix of the JSON output files: one file <prefix>_<value>.json per sweep value with a solution",
+            index = "0"
+    )
+    String outputPrefix;
+
+    @CommandLine.Parameters(
+            description = "JSON input file describing the base landscape targets -- Use \"-\" to read from STDIN",
+            index = "1"
+    )
+    String jsonPath;
+
+    @CommandLine.Option(
+            names = {"-k", "--key"},
+            description = "Swept target (e.g. PLAND, NP, MESH, or NON_FOCAL_PLAND for the landscape-level target).",
+            required = true
+    )
+    String key;
+
+    @CommandLine.Option(
+            names = {"-c", "--class"},
+            description = "Name of the class the swept target applies to (omit for landscape-level targets)."
+    )
+    String className;
+
+    @CommandLine.Option(
+            names = {"-f", "--from"},
+            description = "First sweep value.",
+            required = true
+    )
+    double from;
+
+    @CommandLine.Option(
+            names = {"-t", "--to"},
+            description = "Last sweep value.",
+            required = true
+    )
+    double to;
+
+    @CommandLine.Option(
+            names = {"-i", "--step"},
+            description = "Increment between sweep values (default: 1).",
+            defaultValue = "1"
+    )
+    double step;
+
+    @CommandLine.Option(
+            names = {"-w", "--width"},
+            description = "Width of the target interval of each sweep value v: [v, v + width] (default: 0).",
+            defaultValue = "0"
+    )
+    double width;
+
+    @CommandLine.Option(
+            names = {"-l", "--time-limit"},
+            description = "Time limit for each sweep value, in seconds (default: 0, no limit).",
+            defaultValue = "0"
+    )
+    int timeLimit;
+
+    @CommandLine.Option(
+            names = {"-s", "--search-strategy"},
+            description = "Search strategy to use in the Choco org.flsgen.solver (possible values: ${COMPLETION-CANDIDATES}).",
+            defaultValue = "DEFAULT"
+    )
+    SearchStrategy search;
+
+    @Override
+    public Integer call() {
+        if (step <= 0 || to < from) {
+            System.err.println(ANSI_RED + "The sweep step must be positive and the last value must be greater than" +
+                    " or equal to the first one" + ANSI_RESET);
+            return 1;
+        }
+        if (width < 0) {
+            System.err.println(ANSI_RED + "The target interval width must be positive" + ANSI_RESET);
+            return 1;
+        }
+        try {
+            Reader reader;
+            if (jsonPath.equals("-")) {
+                reader = new BufferedReader(new InputStreamReader(System.in));
+            } else {
+                reader = new FileReader(jsonPath);
+            }
+            JsonObject targets = (JsonObject) Jsoner.deserialize(IOUtils.toString(reader));
+            reader.close();
+            removeSweptTarget(targets);
+            LandscapeStructureSolver lSolver = LandscapeStructureSolverFactory.readFromJSON(targets.toJson());
+            lSolver.setSearch(search);
+            int nbValues = (int) Math.floor((to - from) / step + 1e-9) + 1;
+            int nbSolved = 0;
+            for (int i = 0; i < nbValues; i++) {
+                // Rounding avoids accumulating floating point errors in values and file names
+                BigDecimal value = BigDecimal.valueOf(from).add(BigDecimal.valueOf(step).multiply(BigDecimal.valueOf(i)));
+                double v = value.doubleValue();
+                long start = System.currentTimeMillis();
+                LandscapeStructure s = lSolver.solveWith(
+                        solver -> solver.setTarget(className, key, v, v + width),
+                        timeLimit
+                );
+                double time = (System.currentTimeMillis() - start) / 1000.0;
+                String name = value.stripTrailingZeros().toPlainString();
+                if (s != null) {
+                    nbSolved++;
+                    System.err.println(ANSI_GREEN + key + " = " + name + ": solution found in " + time + " s" + ANSI_RESET);
+                    Writer writer = new BufferedWriter(new FileWriter(outputPrefix + "_" + name + ".json"));
+                    s.writeJSON(writer);
+                    writer.close();
+                } else {
+                    System.err.println(ANSI_RED + key + " = " + name + ": no solution found (" + time + " s)" + ANSI_RESET);
+                }
+            }
+            System.err.println(nbSolved + "/" + nbValues + " sweep values solved");
+            return nbSolved == nbValues ? 0 : 1;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return 1;
+        }
+    }
+
+    /**
+     * Remove the swept target from the base targets: the model is built once, with class bounds (number of patches,
+     * patch sizes) tightened by the base targets, thus a base interval of the swept target would make the sweep values
+     * outside of it infeasible. NP being mandatory, it is replaced by the range of the sweep values instead.
+     * @param targets The base targets, modified in place
+     */
+    void removeSweptTarget(JsonObject targets) {
+        if (className == null) {
+            if (targets.remove(key) != null) {
+                System.err.println(ANSI_YELLOW + "The " + key + " base target is replaced by the swept values" + ANSI_RESET);
+            }
+            return;
+        }
+        Object classes = targets.get("classes");
+        if (!(classes instanceof JsonArray)) {
+            return;
+        }
+        for (Object cl : (JsonArray) classes) {
+            JsonObject cljson = (JsonObject) cl;
+            if (!className.equals(String.valueOf(cljson.get("name"))) || !cljson.containsKey(key)) {
+                continue;
+            }
+            if (key.equals(LandscapeStructureSolver.KEY_NP)) {
+                JsonArray np = new JsonArray();
+                np.add((long) Math.floor(from));
+                np.add((long) Math.ceil(to + width));
+                cljson.put(key, np);
+            } else {
+                cljson.remove(key);
+            }
+            if (cljson.get(LandscapeStructureSolver.KEY_SOFT) instanceof JsonObject) {
+                ((JsonObject) cljson.get(LandscapeStructureSolver.KEY_SOFT)).remove(key);
+            }
+            System.err.println(ANSI_YELLOW + "The " + key + " base target of class " + className + " is replaced by the"
+                    + " swept values" + ANSI_RESET);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen.cli;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Routing of System.out and System.err to the outputs of the job run by the current thread (and by the threads it
+ * creates), for commands running other commands as jobs within the same JVM (serve, batch).
+ */
+final class JobOutput {
+
+    /**
+     * The output and error streams of the job of the current thread, null outside jobs
+     */
+    private static final InheritableThreadLocal<OutputStream[]> JOB_OUTPUTS = new InheritableThreadLocal<>();
+
+    private JobOutput() {}
+
+    /**
+     * Replace System.out and System.err by streams writing to the outputs of the job of the current thread, or to
+     * the previous streams outside jobs
+     * @return The previous System.out and System.err, to restore with {@link #uninstall(PrintStream[])}
+     */
+    static synchronized PrintStream[] install() {
+        PrintStream[] previous = new PrintStream[] {System.out, System.err};
+        System.setOut(new PrintStream(new RoutingStream(previous[0], 0), true));
+        System.setErr(new PrintStream(new RoutingStream(previous[1], 1), true));
+        return previous;
+    }
+
+    static synchronized void uninstall(PrintStream[] previous) {
+        System.setOut(previous[0]);
+        System.setErr(previous[1]);
+    }
+
+    /**
+     * Route the outputs of the current thread, and of the threads it will create, to the given streams
+     */
+    static void set(OutputStream out, OutputStream err) {
+        JOB_OUTPUTS.set(new OutputStream[] {out, err});
+    }
+
+    static void remove() {
+        System.out.flush();
+        System.err.flush();
+        JOB_OUTPUTS.remove();
+    }
+
+    /**
+     * Writes to an output of the job of the current thread, or to a default stream
+     */
+    private static class RoutingStream extends OutputStream {
+
+        private final OutputStream defaultOutput;
+        private final int index;
+
+        RoutingStream(OutputStream defaultOutput, int index) {
+            this.defaultOutput = defaultOutput;
+            this.index = index;
+        }
+
+        private OutputStream target() {
+            OutputStream[] outputs = JOB_OUTPUTS.get();
+            return outputs != null ? outputs[index] : defaultOutput;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target().flush();
+        }
+    }
+}
@@ -36,9 +36,15 @@ import java.util.logging.Logger;
         description = "A fragmented neutral landscape generator",
         subcommands = {
             CLI_LandscapeStructureSolver.class,
+            CLI_StructureSweep.class,
+            CLI_Run.class,
             CLI_LandscapeStructureFromRaster.class,
             CLI_LandscapeGenerator.class,
-            CLI_FractalTerrain.class
+            CLI_CheckLandscape.class,
+            CLI_MovingWindow.class,
+            CLI_FractalTerrain.class,
+            CLI_Serve.class,
+            CLI_Batch.class
         }
 )
 public class Main implements Runnable {
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package org.flsgen.cli;
+
+import com.github.cliftonlabs.json_simple.JsonObject;
+import com.github.cliftonlabs.json_simple.Jsoner;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import picocli.CommandLine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class BatchTest {
+
+    @Test
+    public void jobStatus() throws Exception {
+        Path dir = Files.createTempDirectory("flsgen_batch");
+        String targets = "{\"nbRows\": 30, \"nbCols\": 30, \"classes\": [" +
+                "{\"name\": \"A\", \"NP\": [1, 4], \"AREA\": [10, 80]}," +
+                "{\"name\": \"B\", \"NP\": [1, 3], \"AREA\": [20, 100]}]}";
+        String infeasible = "{\"nbRows\": 30, \"nbCols\": 30, \"classes\": [" +
+                "{\"name\": \"A\", \"NP\": [5, 5], \"AREA\": [1, 2], \"CA\": [100, 200]}]}";
+        String structure = "{\"nbRows\": 30, \"nbCols\": 30, \"classes\": [" +
+                "{\"name\": \"A\", \"AREA\": [20, 30]}]}";
+        write(dir.resolve("targets.json"), targets);
+        write(dir.resolve("infeasible.json"), infeasible);
+        write(dir.resolve("struct.json"), structure);
+        String d = dir.toString() + File.separator;
+        // Both the structure and the generate job print their success messages on STDERR
+        write(dir.resolve("manifest.jsonl"),
+                "{\"id\": \"structure\", \"args\": [\"structure\", \"" + d + "out\", \"" + d + "targets.json\"]}\n" +
+                "{\"id\": \"generate\", \"command\": \"generate '" + d + "land' '" + d + "struct.json'\"}\n" +
+                "{\"id\": \"infeasible\", \"args\": [\"structure\", \"" + d + "out\", \"" + d + "infeasible.json\"]}\n" +
+                "{\"id\": \"invalid\", \"args\": [\"generate\", \"-R\", \"2\", \"" + d + "land\", \"" + d + "struct.json\"]}\n"
+        );
+        String status = d + "status.jsonl";
+        int code = new CommandLine(new Main()).execute("batch", "-s", status, "-j", "2", d + "manifest.jsonl");
+        Assert.assertEquals(code, 1);
+        Map<String, JsonObject> statuses = readStatus(status);
+        Assert.assertEquals(statuses.size(), 4);
+        Assert.assertEquals(statuses.get("structure").get("status"), "OK");
+        Assert.assertEquals(statuses.get("generate").get("status"), "OK");
+        Assert.assertEquals(statuses.get("infeasible").get("status"), "FAILED");
+        Assert.assertEquals(((Number) statuses.get("infeasible").get("exit")).intValue(), 1);
+        Assert.assertEquals(statuses.get("invalid").get("status"), "FAILED");
+        Assert.assertEquals(statuses.get("invalid").get("message"), "Roughness factor must be in [0, 1]");
+        Assert.assertTrue(new File(d + "out_targets.json").exists());
+        Assert.assertTrue(new File(d + "land_struct.tif").exists());
+        // Only the failed jobs are run again
+        code = new CommandLine(new Main()).execute("batch", "-s", status, "--resume", d + "manifest.jsonl");
+        Assert.assertEquals(code, 1);
+        List<String> lines = Files.readAllLines(new File(status).toPath(), StandardCharsets.UTF_8);
+        Assert.assertEquals(lines.size(), 6);
+    }
+
+    private static void write(Path path, String content) throws IOException {
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, JsonObject> readStatus(String path) throws Exception {
+        Map<String, JsonObject> statuses = new HashMap<>();
+        for (String line : Files.readAllLines(new File(path).toPath(), StandardCharsets.UTF_8)) {
+            JsonObject s = (JsonObject) Jsoner.deserialize(line);
+            statuses.put(s.get("id").toString(), s);
+        }
+        return statuses;
+    }
+}
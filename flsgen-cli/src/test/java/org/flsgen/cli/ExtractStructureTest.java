@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package org.flsgen.cli;
+
+import com.github.cliftonlabs.json_simple.JsonArray;
+import com.github.cliftonlabs.json_simple.JsonObject;
+import com.github.cliftonlabs.json_simple.Jsoner;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import picocli.CommandLine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ExtractStructureTest {
+
+    @Test
+    public void resolveInputs() throws IOException {
+        Path dir = Files.createTempDirectory("flsgen_extract");
+        for (String name : new String[] {"b.tif", "a.tiff", "notes.txt", "tile[1].tif", "{x}.tif"}) {
+            write(dir.resolve(name), "");
+        }
+        Files.createDirectory(dir.resolve("sub.tif"));
+        String d = dir.toString() + File.separator;
+        // Existing files are single rasters, even with glob characters in their names
+        for (String name : new String[] {"b.tif", "tile[1].tif", "{x}.tif"}) {
+            Assert.assertFalse(CLI_LandscapeStructureFromRaster.isBatch(d + name));
+            Assert.assertEquals(CLI_LandscapeStructureFromRaster.resolveInputs(d + name),
+                    Collections.singletonList(d + name));
+        }
+        // Directory: sorted .tif and .tiff files, without directories
+        Assert.assertTrue(CLI_LandscapeStructureFromRaster.isBatch(dir.toString()));
+        Assert.assertEquals(CLI_LandscapeStructureFromRaster.resolveInputs(dir.toString()),
+                Arrays.asList(d + "a.tiff", d + "b.tif", d + "tile[1].tif", d + "{x}.tif"));
+        // Glob patterns
+        Assert.assertTrue(CLI_LandscapeStructureFromRaster.isBatch(d + "*.tif"));
+        Assert.assertEquals(CLI_LandscapeStructureFromRaster.resolveInputs(d + "[ab].tif*"),
+                Arrays.asList(d + "a.tiff", d + "b.tif"));
+        Assert.assertEquals(CLI_LandscapeStructureFromRaster.resolveInputs(d + "tile*"),
+                Collections.singletonList(d + "tile[1].tif"));
+        Assert.assertEquals(CLI_LandscapeStructureFromRaster.resolveInputs(d + "*.png"), Collections.emptyList());
+        // File list, in the order of the file, without blank and comment lines
+        write(dir.resolve("list.txt"), "# rasters\n" + d + "b.tif\n\n  " + d + "a.tiff  \n");
+        Assert.assertTrue(CLI_LandscapeStructureFromRaster.isBatch("@" + d + "list.txt"));
+        Assert.assertEquals(CLI_LandscapeStructureFromRaster.resolveInputs("@" + d + "list.txt"),
+                Arrays.asList(d + "b.tif", d + "a.tiff"));
+        Assert.assertFalse(CLI_LandscapeStructureFromRaster.isBatch(d + "missing.tif"));
+    }
+
+    @Test
+    public void outputNames() {
+        List<String> outputs = CLI_LandscapeStructureFromRaster.outputNames(
+                Arrays.asList("x/land.tif", "y/land.tif", "other.tiff", "z/land.TIF", "land_2.tif"), "out", ".json"
+        );
+        Assert.assertEquals(outputs, Arrays.asList(
+                "out_land.json", "out_land_2.json", "out_other.json", "out_land_3.json", "out_land_2_2.json"
+        ));
+        // Output names are unique
+        Assert.assertEquals(outputs.stream().distinct().count(), outputs.size());
+        // A raster named summary does not overwrite the summary
+        Assert.assertNotEquals(CLI_LandscapeStructureFromRaster.outputNames(
+                Collections.singletonList("summary.tif"), "out", ".json").get(0),
+                CLI_LandscapeStructureFromRaster.summaryName("out"));
+    }
+
+    @Test
+    public void summary() throws Exception {
+        Path dir = Files.createTempDirectory("flsgen_extract");
+        String d = dir.toString() + File.separator;
+        write(dir.resolve("struct.json"), "{\"nbRows\": 20, \"nbCols\": 30, \"classes\": [" +
+                "{\"name\": \"A\", \"AREA\": [10, 20]}]}");
+        // Two rasters with the same name, in different directories
+        for (String sub : new String[] {"x", "y"}) {
+            Files.createDirectory(dir.resolve(sub));
+            int code = new CommandLine(new Main()).execute(
+                    "generate", d + sub + File.separator + "land", d + "struct.json"
+            );
+            Assert.assertEquals(code, 0);
+        }
+        write(dir.resolve("broken.tif"), "not a raster");
+        write(dir.resolve("list.txt"), d + "x" + File.separator + "land_struct.tif\n"
+                + d + "y" + File.separator + "land_struct.tif\n" + d + "broken.tif\n");
+        int code = new CommandLine(new Main()).execute("extract_structure", "@" + d + "list.txt", d + "out", "0");
+        Assert.assertEquals(code, 1);
+        Assert.assertTrue(new File(d + "out_land_struct.json").exists());
+        Assert.assertTrue(new File(d + "out_land_struct_2.json").exists());
+        JsonArray summary = (JsonArray) Jsoner.deserialize(
+                new String(Files.readAllBytes(dir.resolve("out.summary.json")), StandardCharsets.UTF_8)
+        );
+        Assert.assertEquals(summary.size(), 3);
+        for (int i = 0; i < 2; i++) {
+            JsonObject entry = (JsonObject) summary.get(i);
+            Assert.assertEquals(entry.get("status"), "OK");
+            Assert.assertEquals(entry.get("output"), d + (i == 0 ? "out_land_struct.json" : "out_land_struct_2.json"));
+            Assert.assertEquals(((Number) entry.get("nbRows")).intValue(), 20);
+            Assert.assertEquals(((Number) entry.get("nbCols")).intValue(), 30);
+            JsonObject cl = (JsonObject) ((JsonArray) entry.get("classes")).get(0);
+            Assert.assertEquals(((Number) cl.get("NP")).intValue(), 2);
+        }
+        JsonObject failed = (JsonObject) summary.get(2);
+        Assert.assertEquals(failed.get("input"), d + "broken.tif");
+        Assert.assertEquals(failed.get("status"), "ERROR");
+        Assert.assertNotNull(failed.get("error"));
+    }
+
+    private static void write(Path path, String content) throws IOException {
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package org.flsgen.cli;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import picocli.CommandLine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ServeTest {
+
+    @Test
+    public void tokenize() {
+        Assert.assertEquals(CLI_Serve.tokenize("  structure   out.json  targets.json "),
+                Arrays.asList("structure", "out.json", "targets.json"));
+        Assert.assertEquals(CLI_Serve.tokenize(""), Collections.emptyList());
+        // Quotes group whitespace, and are concatenated with adjacent characters
+        Assert.assertEquals(CLI_Serve.tokenize("generate 'my landscape' \"my struct\".json"),
+                Arrays.asList("generate", "my landscape", "my struct.json"));
+        // Empty quoted arguments are kept
+        Assert.assertEquals(CLI_Serve.tokenize("a '' \"\" b"), Arrays.asList("a", "", "", "b"));
+        // Backslash escapes outside single quotes, literal backslashes within single quotes
+        Assert.assertEquals(CLI_Serve.tokenize("a\\ b \"c\\\"d\" 'e\\f' g\\'h"),
+                Arrays.asList("a b", "c\"d", "e\\f", "g'h"));
+        // Quotes of the other kind are literal within quotes
+        Assert.assertEquals(CLI_Serve.tokenize("\"it's\" 'say \"hi\"'"), Arrays.asList("it's", "say \"hi\""));
+        // A trailing backslash is kept
+        Assert.assertEquals(CLI_Serve.tokenize("a\\"), Collections.singletonList("a\\"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> CLI_Serve.tokenize("generate 'unclosed"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> CLI_Serve.tokenize("generate \"unclosed\\\""));
+    }
+
+    @Test
+    public void tokenFile() throws IOException {
+        Path dir = Files.createTempDirectory("flsgen_serve");
+        Path path = dir.resolve("token");
+        Files.write(path, "old".getBytes(StandardCharsets.UTF_8));
+        String token = CLI_Serve.writeToken(path);
+        Assert.assertEquals(token.length(), 64);
+        Assert.assertEquals(new String(Files.readAllBytes(path), StandardCharsets.UTF_8).trim(), token);
+        if (path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Assert.assertEquals(PosixFilePermissions.toString(Files.getPosixFilePermissions(path)), "rw-------");
+        }
+        Assert.assertNotEquals(CLI_Serve.writeToken(path), token);
+    }
+
+    @Test
+    public void rejectsConnectionsWithoutToken() throws Exception {
+        Path dir = Files.createTempDirectory("flsgen_serve");
+        Path tokenPath = dir.resolve("token");
+        int port;
+        try (ServerSocket free = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = free.getLocalPort();
+        }
+        int[] exit = new int[] {-1};
+        Thread server = new Thread(() -> exit[0] = new CommandLine(new Main()).execute(
+                "serve", "-p", String.valueOf(port), "-j", "1", "--token-file", tokenPath.toString()
+        ));
+        server.start();
+        long start = System.currentTimeMillis();
+        while (!Files.exists(tokenPath) || Files.size(tokenPath) == 0) {
+            Assert.assertTrue(System.currentTimeMillis() - start < 60000, "The server did not start");
+            Thread.sleep(50);
+        }
+        String token = new String(Files.readAllBytes(tokenPath), StandardCharsets.UTF_8).trim();
+        List<String> rejected = send(port, "not the token", "shutdown");
+        Assert.assertEquals(rejected.get(rejected.size() - 1), "EXIT 2");
+        Assert.assertTrue(server.isAlive());
+        // An idle connection holds the only worker until it is closed by the handshake timeout
+        try (Socket idle = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            List<String> accepted = send(port, token, "shutdown");
+            Assert.assertEquals(accepted.get(accepted.size() - 1), "EXIT 0");
+            Assert.assertEquals(idle.getInputStream().read(), -1);
+        }
+        server.join(60000);
+        Assert.assertEquals(exit[0], 0);
+        Assert.assertFalse(Files.exists(tokenPath));
+    }
+
+    private static List<String> send(int port, String... lines) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setSoTimeout(60000);
+            PrintStream out = new PrintStream(socket.getOutputStream(), true, "UTF-8");
+            for (String line : lines) {
+                out.println(line);
+            }
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            List<String> received = new ArrayList<>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                received.add(line);
+            }
+            return received;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package org.flsgen.cli;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import picocli.CommandLine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class StructureCommandTest {
+
+    @Test
+    public void uniformSamplingFallback() throws IOException {
+        Path dir = Files.createTempDirectory("flsgen_uniform");
+        // Almost no partition of 500 into 100 patches has all its patches smaller than 10, so that the rejection
+        // sampling of patch sizes gives up
+        write(dir.resolve("tight.json"), "{\"nbRows\": 50, \"nbCols\": 50, \"classes\": [" +
+                "{\"name\": \"A\", \"NP\": [100, 100], \"AREA\": [1, 10], \"CA\": [500, 500]}]}");
+        write(dir.resolve("loose.json"), "{\"nbRows\": 50, \"nbCols\": 50, \"classes\": [" +
+                "{\"name\": \"A\", \"NP\": [1, 5], \"AREA\": [10, 100], \"CA\": [100, 200]}]}");
+        String d = dir.toString() + File.separator;
+        int code = new CommandLine(new Main()).execute(
+                "structure", "-u", d + "out", d + "tight.json", d + "loose.json"
+        );
+        Assert.assertEquals(code, 0);
+        // Both targets are solved: the second one is not skipped when the first one falls back to the solver
+        Assert.assertTrue(new File(d + "out_tight.json").exists());
+        Assert.assertTrue(new File(d + "out_loose.json").exists());
+    }
+
+    @Test
+    public void sweepWithSweptKeyInBaseTargets() throws IOException {
+        Path dir = Files.createTempDirectory("flsgen_sweep");
+        // The base intervals of the swept targets exclude all the sweep values
+        write(dir.resolve("base.json"), "{\"nbRows\": 20, \"nbCols\": 20, \"classes\": [" +
+                "{\"name\": \"A\", \"NP\": [1, 2], \"AREA\": [5, 80], \"PLAND\": [5, 10]}," +
+                "{\"name\": \"B\", \"NP\": [1, 3], \"AREA\": [5, 40]}]}");
+        String d = dir.toString() + File.separator;
+        int code = new CommandLine(new Main()).execute(
+                "sweep", "-k", "PLAND", "-c", "A", "-f", "20", "-t", "30", "-i", "10", "-w", "2",
+                d + "pland", d + "base.json"
+        );
+        Assert.assertEquals(code, 0);
+        Assert.assertTrue(new File(d + "pland_20.json").exists());
+        Assert.assertTrue(new File(d + "pland_30.json").exists());
+        code = new CommandLine(new Main()).execute(
+                "sweep", "-k", "NP", "-c", "A", "-f", "3", "-t", "4", d + "np", d + "base.json"
+        );
+        Assert.assertEquals(code, 0);
+        Assert.assertTrue(new File(d + "np_3.json").exists());
+        Assert.assertTrue(new File(d + "np_4.json").exists());
+    }
+
+    static void write(Path path, String content) throws IOException {
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
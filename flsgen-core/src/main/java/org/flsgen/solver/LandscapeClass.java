@@ -28,6 +28,8 @@ import org.chocosolver.solver.constraints.Constraint;
 import org.chocosolver.solver.constraints.nary.alldifferent.conditions.Condition;
 import org.chocosolver.solver.variables.IntVar;
 import org.flsgen.exception.FlsgenException;
+import org.flsgen.solver.choco.PropPatchSizes;
+import org.flsgen.solver.choco.PropSoftSumOfSquares;
 import org.flsgen.solver.choco.PropSumOfSquares;
 
 import java.util.Arrays;
@@ -41,6 +43,13 @@ import static org.flsgen.utils.ANSIColors.ANSI_RESET;
  */
 public class LandscapeClass {
 
+    /**
+     * Maximum number of values (number of patch variables x number of possible sizes) for which patch size
+     * variables are created with enumerated domains. Beyond, bounded domains are used: their memory does not depend
+     * on the maximum patch size, and all the constraints on patch sizes only reason on bounds.
+     */
+    public static final long MAX_ENUMERATED_VALUES = 1L << 24;
+
     protected String name;
     protected int index;
     protected RegularSquareGrid grid;
@@ -64,8 +73,20 @@ public class LandscapeClass {
     protected IntVar sum;
     protected IntVar meanPatchArea;
     protected IntVar nbPatches;
+    protected boolean boundedDomains;
+
+    // Soft target being posted (see LandscapeStructureSolver.setSoftTarget), null when posting hard targets
+    protected SoftTarget softTarget;
 
     public LandscapeClass(String name, int index, RegularSquareGrid grid, Model model, int minNbPatches, int maxNbPatches, int minPatchSize, int maxPatchSize) throws FlsgenException {
+        this(name, index, grid, model, minNbPatches, maxNbPatches, minPatchSize, maxPatchSize, true);
+    }
+
+    /**
+     * @param globalPatchSizes If true, patch sizes are handled by the PropPatchSizes global propagator, otherwise by
+     *                         its decomposition into standard constraints
+     */
+    public LandscapeClass(String name, int index, RegularSquareGrid grid, Model model, int minNbPatches, int maxNbPatches, int minPatchSize, int maxPatchSize, boolean globalPatchSizes) throws FlsgenException {
         this.name = name;
         this.index = index;
         this.model = model;
@@ -84,17 +105,33 @@ public class LandscapeClass {
         this.mesh_lb = -1;
         this.mesh_ub = -1;
         // Init patch size choco variables
-        this.patchSizes = model.intVarArray(maxNbPatches, 0, maxPatchSize, false);
-        IntVar limit = model.intVar(0, maxNbPatches - minNbPatches);
-        model.count(0, patchSizes, limit).post();
+        // A patch cannot be larger than the landscape
+        int maxSize = Math.min(maxPatchSize, landscapeSize);
+        this.boundedDomains = (long) maxNbPatches * (maxSize + 1) > MAX_ENUMERATED_VALUES;
+        this.patchSizes = model.intVarArray(maxNbPatches, 0, maxSize, boundedDomains);
         this.nbPatches = model.intVar(minNbPatches, maxNbPatches);
-        model.arithm(nbPatches, "=", model.intVar(maxNbPatches), "-", limit).post();
-        for (int i = 0; i < patchSizes.length - 1; i++) {
-            model.ifThen(model.arithm(patchSizes[i], "!=", 0).reify(), model.arithm(patchSizes[i], ">=", minPatchSize));
-            model.arithm(patchSizes[i], "<=", patchSizes[i + 1]).post();
+        long minSum = Math.min((long) minPatchSize * minNbPatches, Integer.MAX_VALUE);
+        long maxSum = Math.max(minSum, Math.min((long) maxSize * maxNbPatches, landscapeSize));
+        this.sum = model.intVar((int) minSum, (int) maxSum);
+        // Sorted, zero-padded patch sizes with minimum size, count and sum
+        if (globalPatchSizes) {
+            model.post(new Constraint("patchSizes", new PropPatchSizes(patchSizes, nbPatches, sum, minPatchSize)));
+        } else {
+            postPatchSizesDecomposition();
+        }
+    }
+
+    /**
+     * Decomposition of PropPatchSizes: one reified minimum size constraint per patch, increasing, count and sum
+     */
+    protected void postPatchSizesDecomposition() {
+        IntVar nbZeros = model.intVar(0, patchSizes.length);
+        model.count(0, patchSizes, nbZeros).post();
+        model.arithm(nbPatches, "=", model.intVar(patchSizes.length), "-", nbZeros).post();
+        for (IntVar patchSize : patchSizes) {
+            model.ifThen(model.arithm(patchSize, "!=", 0).reify(), model.arithm(patchSize, ">=", minPatchSize));
         }
         model.increasing(patchSizes, 0).post();
-        this.sum = model.intVar(minPatchSize * minNbPatches, maxPatchSize * maxNbPatches);
         model.sum(patchSizes, "=", sum).post();
     }
     ///--- USER TARGETS ---///
@@ -121,12 +158,36 @@ public class LandscapeClass {
         }
         int lb = (int) minMeanPatchArea;
         int ub = (int) (maxMeanPatchArea > minMeanPatchArea ? maxMeanPatchArea - 1 : maxMeanPatchArea);
-        if (meanPatchArea == null) {
-            meanPatchArea = model.intVar(lb, ub);
+        // A new variable is created for each target, so that bounds of a previous target cannot mask new ones
+        if (softTarget != null) {
+            IntVar mean = model.intVar(0, Math.min(maxPatchSize, landscapeSize));
+            model.div(sum, nbPatches, mean).post();
+            postSoftTarget(mean, lb, ub);
+            return;
         }
+        meanPatchArea = model.intVar(lb, ub);
         model.div(sum, nbPatches, meanPatchArea).post();
     }
 
+    // NP - Number of patches
+    /**
+     * Restrict the number of patches (NP) within the bounds given at construction
+     * @param minNbPatches
+     * @param maxNbPatches
+     * @throws FlsgenException
+     */
+    public void setNbPatches(int minNbPatches, int maxNbPatches) throws FlsgenException {
+        if (maxNbPatches < minNbPatches) {
+            throw new FlsgenException("Max number of patches must be greater than or equal to min number of patches");
+        }
+        if (softTarget != null) {
+            postSoftTarget(nbPatches, minNbPatches, maxNbPatches);
+            return;
+        }
+        model.arithm(nbPatches, ">=", minNbPatches).post();
+        model.arithm(nbPatches, "<=", maxNbPatches).post();
+    }
+
      // CA - Total class area
     /**
      * Set a total class area (CA) target
@@ -138,6 +199,10 @@ public class LandscapeClass {
         if (maxClassArea < minClassArea) {
             throw new FlsgenException("Max class area must be greater than or equal to min class area");
         }
+        if (softTarget != null) {
+            postSoftTarget(sum, minClassArea, maxClassArea);
+            return;
+        }
         model.arithm(sum, ">=", minClassArea).post();
         model.arithm(sum, "<=", maxClassArea).post();
     }
@@ -174,6 +239,10 @@ public class LandscapeClass {
         }
         int minNbPatches = (int) (minDensity * landscapeSize);
         int maxNbPatches = (int) (maxDensity * landscapeSize);
+        if (softTarget != null) {
+            postSoftTarget(nbPatches, minNbPatches, maxNbPatches);
+            return;
+        }
         model.arithm(nbPatches, ">=", minNbPatches).post();
         model.arithm(nbPatches, "<=", maxNbPatches).post();
     }
@@ -189,7 +258,21 @@ public class LandscapeClass {
         if (maxSize < minSize) {
             throw new FlsgenException("Max SPI must be greater than or equal to min SPI");
         }
-        model.min(model.intVar(minSize, maxSize), patchSizes).post();
+        if (patchSizes.length == 0) {
+            throw new FlsgenException("SPI target on class " + name + " which cannot have any patch");
+        }
+        // Patch sizes are sorted and zero-padded: the smallest patch is the first non-zero one, whose index is
+        // the number of padding zeros (this requires at least one patch)
+        IntVar index = model.intVar(0, patchSizes.length - 1);
+        model.arithm(index, "+", nbPatches, "=", patchSizes.length).post();
+        IntVar smallest = model.intVar(0, Math.min(maxPatchSize, landscapeSize));
+        model.element(smallest, patchSizes, index, 0).post();
+        if (softTarget != null) {
+            postSoftTarget(smallest, minSize, maxSize);
+            return;
+        }
+        model.arithm(smallest, ">=", minSize).post();
+        model.arithm(smallest, "<=", maxSize).post();
     }
 
     // LPI - Largest patch index
@@ -203,6 +286,10 @@ public class LandscapeClass {
         if (maxSize < minSize) {
             throw new FlsgenException("Max LPI must be greater than or equal to min LPI");
         }
+        if (softTarget != null) {
+            postSoftTarget(patchSizes[patchSizes.length - 1], minSize, maxSize);
+            return;
+        }
         model.arithm(patchSizes[patchSizes.length - 1], ">=", minSize).post();
         model.arithm(patchSizes[patchSizes.length - 1], "<=", maxSize).post();
     }
@@ -236,6 +323,15 @@ public class LandscapeClass {
         if (maxNetProduct < minNetProduct) {
             throw new FlsgenException("Max NPRO must be greater than or equal to min NPRO");
         }
+        if (softTarget != null) {
+            // Violation in MESH units: the net product is at most landscapeSize^2
+            long maxViolation = Math.max(minNetProduct, (long) landscapeSize * landscapeSize - maxNetProduct);
+            long unit = Math.max(1, landscapeSize);
+            IntVar violation = softViolation((int) Math.min((maxViolation + unit - 1) / unit, Integer.MAX_VALUE));
+            model.post(new Constraint("softSumOfSquares",
+                    new PropSoftSumOfSquares(patchSizes, minNetProduct, maxNetProduct, violation, unit)));
+            return;
+        }
         model.post(new Constraint("sumOfSquares", new PropSumOfSquares(patchSizes, minNetProduct, maxNetProduct)));
     }
 
@@ -250,8 +346,8 @@ public class LandscapeClass {
         if (maxSplittingIndex < minSplittingIndex) {
             throw new FlsgenException("Max SPLI must be greater than or equal to min SPLI");
         }
-        long netProductLB = (long) (landscapeSize * landscapeSize / maxSplittingIndex);
-        long netProductUB = (long) (landscapeSize * landscapeSize / minSplittingIndex);
+        long netProductLB = (long) ((long) landscapeSize * landscapeSize / maxSplittingIndex);
+        long netProductUB = (long) ((long) landscapeSize * landscapeSize / minSplittingIndex);
         setNetProduct(netProductLB, netProductUB);
     }
 
@@ -307,6 +403,28 @@ public class LandscapeClass {
         setDegreeOfCoherence(1 - maxDivision, 1 -minDivision);
     }
 
+    /**
+     * Post the soft version of lb <= var <= ub for the soft target being posted: the violation is the distance
+     * between var and [lb, ub]
+     */
+    protected void postSoftTarget(IntVar var, int lb, int ub) throws FlsgenException {
+        long maxViolation = Math.max(0, Math.max((long) lb - var.getLB(), (long) var.getUB() - ub));
+        IntVar violation = softViolation((int) Math.min(maxViolation, Integer.MAX_VALUE));
+        model.arithm(var, "+", violation, ">=", lb).post();
+        model.arithm(var, "-", violation, "<=", ub).post();
+    }
+
+    /**
+     * @return The violation variable of the soft target being posted
+     */
+    protected IntVar softViolation(int maxViolation) throws FlsgenException {
+        if (softTarget.violation != null) {
+            throw new FlsgenException("Soft target " + softTarget.key + " of class " + name + " is already posted");
+        }
+        softTarget.violation = model.intVar("violation_" + name + "_" + softTarget.key, 0, Math.max(0, maxViolation));
+        return softTarget.violation;
+    }
+
     /**
      * Post a constraint ensuring that all patch will have different areas
      */
@@ -314,6 +432,14 @@ public class LandscapeClass {
         model.allDifferentUnderCondition(patchSizes, Condition.EXCEPT_0, true, "BC").post();
     }
 
+    /**
+     * @return True if patch size variables have bounded domains, which is the case when enumerated domains would
+     * hold more than MAX_ENUMERATED_VALUES values
+     */
+    public boolean hasBoundedDomains() {
+        return boundedDomains;
+    }
+
     /**
      * @return The number of patches if the corresponding variable is instantiated
      */
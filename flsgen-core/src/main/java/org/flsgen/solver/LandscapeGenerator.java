@@ -106,6 +106,47 @@ public class LandscapeGenerator {
         init();
     }
 
+    /**
+     * Create a generator for a structure defined on the same grid (dimensions and mask) as the structure of another
+     * generator, sharing its neighborhoods and its neighbors table, which is only read during generation. This avoids
+     * computing the neighbors of each cell again when generating landscapes from many structures of a same target.
+     * @param structure The landscape structure
+     * @param generator A generator of a structure defined on the same grid
+     * @param terrain The terrain (can be shared between generators)
+     * @throws FlsgenException If the grids of the structures differ
+     */
+    public LandscapeGenerator(LandscapeStructure structure, LandscapeGenerator generator, Terrain terrain) throws FlsgenException {
+        if (!isSameGrid(structure.grid, generator.grid)) {
+            throw new FlsgenException("The structures of generators sharing neighbors must be defined on the same grid");
+        }
+        this.structure = structure;
+        this.grid = structure.grid;
+        this.nbClasses = structure.names.length;
+        this.terrain = terrain;
+        this.neighborhood = generator.neighborhood;
+        this.bufferNeighborhood = generator.bufferNeighborhood;
+        this.neighbors = generator.neighbors;
+        init();
+    }
+
+    /**
+     * @return True if the grids have the same dimensions and the same discarded (no data) cells, so that their cell
+     * indices designate the same cells
+     */
+    private static boolean isSameGrid(RegularSquareGrid a, RegularSquareGrid b) {
+        if (a == b) {
+            return true;
+        }
+        if (a.getNbRows() != b.getNbRows() || a.getNbCols() != b.getNbCols() || a.getNbCells() != b.getNbCells()) {
+            return false;
+        }
+        Set<Integer> discardA = a instanceof PartialRegularSquareGrid
+                ? ((PartialRegularSquareGrid) a).getDiscardSet() : Collections.emptySet();
+        Set<Integer> discardB = b instanceof PartialRegularSquareGrid
+                ? ((PartialRegularSquareGrid) b).getDiscardSet() : Collections.emptySet();
+        return discardA.equals(discardB);
+    }
+
     public Terrain getTerrain() {
         return terrain;
     }
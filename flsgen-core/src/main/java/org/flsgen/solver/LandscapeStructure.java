@@ -25,15 +25,22 @@ package org.flsgen.solver;
 import com.github.cliftonlabs.json_simple.JsonArray;
 import com.github.cliftonlabs.json_simple.JsonException;
 import com.github.cliftonlabs.json_simple.JsonObject;
-import com.github.cliftonlabs.json_simple.Jsoner;
 import org.flsgen.grid.neighborhood.INeighborhood;
 import org.flsgen.grid.regular.square.PartialRegularSquareGrid;
 import org.flsgen.grid.regular.square.RegularSquareGrid;
-import org.flsgen.utils.RasterConnectivityFinder;
+import org.flsgen.utils.JsonStreamReader;
+import org.flsgen.utils.JsonStreamWriter;
+import org.flsgen.utils.LandscapeMetrics;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.stream.IntStream;
 
 /**
@@ -41,6 +48,11 @@ import java.util.stream.IntStream;
  */
 public class LandscapeStructure {
 
+    private static final List<String> SPATIAL_KEYS = Arrays.asList(
+            LandscapeStructureSolver.KEY_TE, LandscapeStructureSolver.KEY_PARA_MN,
+            LandscapeStructureSolver.KEY_SHAPE_MN, LandscapeStructureSolver.KEY_ENN_MN
+    );
+
     protected int nbRows;
     protected int nbCols;
     protected String[] names;
@@ -49,6 +61,11 @@ public class LandscapeStructure {
     protected int[][] patchSizes; // AREA
     protected long[] npro; // NPRO
     protected boolean[] isSquare;
+    // Spatial metrics, only available for structures extracted from rasters (in cell units)
+    protected int[] totalEdge; // TE
+    protected double[] meanPerimeterAreaRatio; // PARA_MN
+    protected double[] meanShapeIndex; // SHAPE_MN
+    protected double[] meanNearestNeighbourDistance; // ENN_MN
     protected LandscapeStructureSolver s;
     protected RegularSquareGrid grid;
 
@@ -101,10 +118,107 @@ public class LandscapeStructure {
         }
     }
 
+    /**
+     * @param parts Structures over the same grid, e.g. classes solved separately
+     * @return A structure gathering the classes of all the parts, in order
+     */
+    public static LandscapeStructure merge(LandscapeStructure... parts) {
+        int n = Arrays.stream(parts).mapToInt(LandscapeStructure::getNbClasses).sum();
+        String[] names = new String[n];
+        int[] totalSize = new int[n];
+        int[] nbPatches = new int[n];
+        int[][] patchSizes = new int[n][];
+        long[] npro = new long[n];
+        boolean[] isSquare = new boolean[n];
+        int i = 0;
+        for (LandscapeStructure part : parts) {
+            for (int k = 0; k < part.getNbClasses(); k++, i++) {
+                names[i] = part.names[k];
+                totalSize[i] = part.totalSize[k];
+                nbPatches[i] = part.nbPatches[k];
+                patchSizes[i] = part.patchSizes[k];
+                npro[i] = part.npro[k];
+                isSquare[i] = part.isSquare[k];
+            }
+        }
+        LandscapeStructure merged = new LandscapeStructure(parts[0].nbRows, parts[0].nbCols, parts[0].maskRasterPath,
+                new int[] {}, names, totalSize, nbPatches, patchSizes, npro, isSquare);
+        merged.grid = parts[0].grid;
+        return merged;
+    }
+
     /**
      * @return A JSON representation of the solution
      */
     public String toJSON() {
+        StringWriter writer = new StringWriter();
+        try {
+            writeJSON(writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Write the JSON representation of the solution, streamed to the writer (patch sizes are written directly from
+     * their arrays)
+     */
+    public void writeJSON(Writer writer) throws IOException {
+        JsonStreamWriter json = new JsonStreamWriter(writer);
+        write(json, 0);
+        json.flush();
+    }
+
+    /**
+     * @param band index of the structure in a series, written in the "band" key if positive
+     */
+    private void write(JsonStreamWriter json, int band) throws IOException {
+        json.beginObject();
+        json.name("nbRows").value(getNbRows());
+        json.name("nbCols").value(getNbCols());
+        if (maskRasterPath != null) {
+            json.name("maskRasterPath").value(maskRasterPath);
+        }
+        json.name(LandscapeStructureSolver.KEY_NON_FOCAL_PLAND).value(getNonFocalLandscapeProportion());
+        json.name("classes").beginArray();
+        for (int i = 0; i < names.length; i++) {
+            json.beginObject();
+            json.name("name").value(names[i]);
+            json.name(LandscapeStructureSolver.KEY_CA).value(totalSize[i]);
+            json.name(LandscapeStructureSolver.KEY_NP).value(nbPatches[i]);
+            json.name(LandscapeStructureSolver.KEY_AREA).value(patchSizes[i]);
+            json.name(LandscapeStructureSolver.KEY_AREA_MN).value(getMeanPatchArea(i));
+            json.name(LandscapeStructureSolver.KEY_NPRO).value(npro[i]);
+            json.name(LandscapeStructureSolver.KEY_MESH).value(getMesh(i));
+            json.name(LandscapeStructureSolver.KEY_SPLI).value(getSplittingIndex(i));
+            json.name(LandscapeStructureSolver.KEY_SDEN).value(getSplittingDensity(i));
+            json.name(LandscapeStructureSolver.KEY_COHE).value(getDegreeOfCoherence(i));
+            json.name(LandscapeStructureSolver.KEY_DIVI).value(getDegreeOfDivision(i));
+            json.name(LandscapeStructureSolver.KEY_PLAND).value(getLandscapeProportion(i));
+            json.name(LandscapeStructureSolver.KEY_PD).value(getPatchDensity(i));
+            json.name(LandscapeStructureSolver.KEY_SPI).value(getSmallestPatchIndex(i));
+            json.name(LandscapeStructureSolver.KEY_LPI).value(getLargestPatchIndex(i));
+            if (hasSpatialMetrics()) {
+                json.name(LandscapeStructureSolver.KEY_TE).value(totalEdge[i]);
+                json.name(LandscapeStructureSolver.KEY_PARA_MN).value(meanPerimeterAreaRatio[i]);
+                json.name(LandscapeStructureSolver.KEY_SHAPE_MN).value(meanShapeIndex[i]);
+                json.name(LandscapeStructureSolver.KEY_ENN_MN).value(meanNearestNeighbourDistance[i]);
+            }
+            json.name(LandscapeStructureSolver.IS_SQUARE).value(isSquare[i]);
+            json.endObject();
+        }
+        json.endArray();
+        if (band > 0) {
+            json.name("band").value(band);
+        }
+        json.endObject();
+    }
+
+    /**
+     * @return A JSON object representing the solution, which can be embedded in larger documents
+     */
+    public JsonObject toJsonObject() {
         JsonObject json = new JsonObject();
         json.put("nbRows", getNbRows());
         json.put("nbCols", getNbCols());
@@ -134,57 +248,274 @@ public class LandscapeStructure {
             cl.put(LandscapeStructureSolver.KEY_PD, getPatchDensity(i));
             cl.put(LandscapeStructureSolver.KEY_SPI, getSmallestPatchIndex(i));
             cl.put(LandscapeStructureSolver.KEY_LPI, getLargestPatchIndex(i));
+            if (hasSpatialMetrics()) {
+                cl.put(LandscapeStructureSolver.KEY_TE, totalEdge[i]);
+                cl.put(LandscapeStructureSolver.KEY_PARA_MN, meanPerimeterAreaRatio[i]);
+                cl.put(LandscapeStructureSolver.KEY_SHAPE_MN, meanShapeIndex[i]);
+                cl.put(LandscapeStructureSolver.KEY_ENN_MN, meanNearestNeighbourDistance[i]);
+            }
             cl.put(LandscapeStructureSolver.IS_SQUARE, this.isSquare[i]);
             classes.add(cl);
         }
         json.put("classes", classes);
-        return Jsoner.prettyPrint(json.toJson());
+        return json;
     }
 
-    public static LandscapeStructure fromJSON(String json, int nbRows, int nbCols, int[] noDataCells) throws JsonException, IOException {
-        JsonObject structure = (JsonObject) Jsoner.deserialize(new StringReader(json));
-        JsonArray classes = (JsonArray) structure.get("classes");
-        String[] names = new String[classes.size()];
-        int[] totalSize = new int[classes.size()];
-        int[] nbPatches = new int[classes.size()];
-        int[][] patchSizes = new int[classes.size()][];
-        long[] npro = new long[classes.size()];
-        boolean[] isSquare = new boolean[classes.size()];
-        for (int i = 0; i < classes.size(); i++) {
-            JsonObject c = (JsonObject) classes.get(i);
-            names[i] = (String) c.get("name");
-            JsonArray sizes = (JsonArray) c.get(LandscapeStructureSolver.KEY_AREA);
-            patchSizes[i] = new int[sizes.size()];
-            for (int j = 0; j < sizes.size(); j++) {
-                patchSizes[i][j] = Integer.parseInt(sizes.get(j).toString());
-            }
-            nbPatches[i] = patchSizes[i].length;
-            if (c.containsKey(LandscapeStructureSolver.KEY_NPRO)) {
-                npro[i] = Long.parseLong(c.get(LandscapeStructureSolver.KEY_NPRO).toString());
-            } else {
-                long netProduct = 0;
-                for (int p : patchSizes[i]) {
-                    netProduct += Long.valueOf(p) * Long.valueOf(p);
+    /**
+     * @param series A series of structures, e.g. extracted from the bands of a multi-band raster
+     * @return A JSON representation of the series: an object whose "series" array holds each structure, along
+     * with its (1-based) index in the "band" key
+     */
+    public static String seriesToJSON(LandscapeStructure[] series) {
+        StringWriter writer = new StringWriter();
+        try {
+            writeSeriesJSON(series, writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Write the JSON representation of a structure series (see seriesToJSON), streamed to the writer
+     */
+    public static void writeSeriesJSON(LandscapeStructure[] series, Writer writer) throws IOException {
+        JsonStreamWriter json = new JsonStreamWriter(writer);
+        json.beginObject();
+        json.name("series").beginArray();
+        for (int i = 0; i < series.length; i++) {
+            series[i].write(json, i + 1);
+        }
+        json.endArray();
+        json.endObject();
+        json.flush();
+    }
+
+    /**
+     * Read a structure series written by seriesToJSON.
+     * @return The structures of the series, in band order
+     */
+    public static LandscapeStructure[] seriesFromJSON(String json, int nbRows, int nbCols, int[] noDataCells) throws JsonException, IOException {
+        return readSeriesJSON(new StringReader(json), nbRows, nbCols, noDataCells);
+    }
+
+    /**
+     * Read a structure series written by seriesToJSON, streamed from the reader.
+     * @return The structures of the series, in band order
+     */
+    public static LandscapeStructure[] readSeriesJSON(Reader reader, int nbRows, int nbCols, int[] noDataCells) throws JsonException, IOException {
+        return readSeriesJSON(reader, nbRows, nbCols, noDataCells, null);
+    }
+
+    /**
+     * Read a structure series written by seriesToJSON, streamed from the reader, the structures of the series
+     * having the no data cells of their band in the mask raster.
+     * @param bandNoDataCells no data cells of each band of the mask raster
+     * @return The structures of the series, in band order
+     * @throws IOException if the series has more structures than the mask raster has bands
+     */
+    public static LandscapeStructure[] readSeriesJSON(Reader reader, int nbRows, int nbCols, int[][] bandNoDataCells) throws JsonException, IOException {
+        return readSeriesJSON(reader, nbRows, nbCols, null, bandNoDataCells);
+    }
+
+    private static LandscapeStructure[] readSeriesJSON(Reader reader, int nbRows, int nbCols, int[] noDataCells,
+                                                       int[][] bandNoDataCells) throws JsonException, IOException {
+        JsonStreamReader json = new JsonStreamReader(reader);
+        List<LandscapeStructure> series = new ArrayList<>();
+        json.beginObject();
+        while (json.hasNext()) {
+            if (json.nextName().equals("series")) {
+                json.beginArray();
+                while (json.hasNext()) {
+                    int[] cells = noDataCells;
+                    if (bandNoDataCells != null) {
+                        if (series.size() >= bandNoDataCells.length) {
+                            throw new IOException("The structure series has more structures than its mask raster has"
+                                    + " bands (" + bandNoDataCells.length + ")");
+                        }
+                        cells = bandNoDataCells[series.size()];
+                    }
+                    series.add(read(json, nbRows, nbCols, cells));
                 }
-                npro[i] = netProduct;
+                json.endArray();
+            } else {
+                json.skipValue();
             }
-            if (c.containsKey(LandscapeStructureSolver.IS_SQUARE)) {
-                isSquare[i] = Boolean.parseBoolean(c.get(LandscapeStructureSolver.IS_SQUARE).toString());
+        }
+        json.endObject();
+        return series.toArray(new LandscapeStructure[0]);
+    }
+
+    public static LandscapeStructure fromJSON(String json, int nbRows, int nbCols, int[] noDataCells) throws JsonException, IOException {
+        return readJSON(new StringReader(json), nbRows, nbCols, noDataCells);
+    }
+
+    /**
+     * Read a structure streamed from the reader: patch sizes are parsed directly into arrays, and the keys that are
+     * computed from them (e.g. CA, MESH) are skipped without being decoded.
+     * @param nbRows number of rows of the mask raster, if the structure has one
+     * @param nbCols number of columns of the mask raster, if the structure has one
+     * @param noDataCells no data cells of the mask raster, if the structure has one
+     */
+    public static LandscapeStructure readJSON(Reader reader, int nbRows, int nbCols, int[] noDataCells) throws JsonException, IOException {
+        return read(new JsonStreamReader(reader), nbRows, nbCols, noDataCells);
+    }
+
+    /**
+     * @return The mask raster path of a structure, a structure series (that of its first structure) or a targets
+     * document, null if there is none. Reading stops as soon as the path is found, other values being skipped.
+     */
+    public static String readMaskRasterPath(Reader reader) throws JsonException, IOException {
+        JsonStreamReader json = new JsonStreamReader(reader);
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if (name.equals("maskRasterPath")) {
+                return json.nextString();
+            } else if (name.equals("series") && json.peek() == JsonStreamReader.Token.BEGIN_ARRAY) {
+                json.beginArray();
+                if (!json.hasNext()) {
+                    return null;
+                }
+                json.beginObject();
+                while (json.hasNext()) {
+                    if (json.nextName().equals("maskRasterPath")) {
+                        return json.nextString();
+                    }
+                    json.skipValue();
+                }
+                return null;
             } else {
-                isSquare[i] = false;
+                json.skipValue();
+            }
+        }
+        return null;
+    }
+
+    private static LandscapeStructure read(JsonStreamReader json, int nbRows, int nbCols, int[] noDataCells) throws JsonException, IOException {
+        String maskRasterPath = null;
+        int rows = -1;
+        int cols = -1;
+        List<String> names = new ArrayList<>();
+        List<int[]> patchSizes = new ArrayList<>();
+        List<Long> npro = new ArrayList<>();
+        List<Boolean> isSquare = new ArrayList<>();
+        List<double[]> spatialMetrics = new ArrayList<>();
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "maskRasterPath":
+                    maskRasterPath = json.nextString();
+                    break;
+                case "nbRows":
+                    rows = json.nextInt();
+                    break;
+                case "nbCols":
+                    cols = json.nextInt();
+                    break;
+                case "classes":
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        String name = null;
+                        int[] sizes = null;
+                        long netProduct = -1;
+                        boolean square = false;
+                        double[] spatial = null;
+                        json.beginObject();
+                        while (json.hasNext()) {
+                            String key = json.nextName();
+                            switch (key) {
+                                case "name":
+                                    name = json.nextString();
+                                    break;
+                                case LandscapeStructureSolver.KEY_AREA:
+                                    sizes = json.nextIntArray();
+                                    break;
+                                case LandscapeStructureSolver.KEY_NPRO:
+                                    netProduct = json.nextLong();
+                                    break;
+                                case LandscapeStructureSolver.IS_SQUARE:
+                                    square = json.nextBoolean();
+                                    break;
+                                case LandscapeStructureSolver.KEY_TE:
+                                case LandscapeStructureSolver.KEY_PARA_MN:
+                                case LandscapeStructureSolver.KEY_SHAPE_MN:
+                                case LandscapeStructureSolver.KEY_ENN_MN:
+                                    if (spatial == null) {
+                                        spatial = new double[4];
+                                    }
+                                    spatial[SPATIAL_KEYS.indexOf(key)] = json.nextDouble();
+                                    break;
+                                default:
+                                    json.skipValue();
+                            }
+                        }
+                        json.endObject();
+                        if (sizes == null) {
+                            throw new IOException("'" + LandscapeStructureSolver.KEY_AREA + "' is missing in class " + name);
+                        }
+                        if (netProduct < 0) {
+                            netProduct = 0;
+                            for (int p : sizes) {
+                                netProduct += (long) p * (long) p;
+                            }
+                        }
+                        names.add(name);
+                        patchSizes.add(sizes);
+                        npro.add(netProduct);
+                        isSquare.add(square);
+                        spatialMetrics.add(spatial);
+                    }
+                    json.endArray();
+                    break;
+                default:
+                    json.skipValue();
             }
         }
-        if (structure.containsKey("maskRasterPath")) {
-            String maskRasterPath = structure.get("maskRasterPath").toString();
-            return new LandscapeStructure(
+        json.endObject();
+        int n = names.size();
+        int[] totalSize = new int[n];
+        int[] nbPatches = new int[n];
+        long[] netProducts = new long[n];
+        boolean[] squares = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            nbPatches[i] = patchSizes.get(i).length;
+            totalSize[i] = Arrays.stream(patchSizes.get(i)).sum();
+            netProducts[i] = npro.get(i);
+            squares[i] = isSquare.get(i);
+        }
+        LandscapeStructure s;
+        if (maskRasterPath != null) {
+            s = new LandscapeStructure(
                     nbRows, nbCols, maskRasterPath,
                     noDataCells,
-                    names, totalSize, nbPatches, patchSizes, npro, isSquare
+                    names.toArray(new String[0]), totalSize, nbPatches, patchSizes.toArray(new int[0][]),
+                    netProducts, squares
             );
+        } else {
+            if (rows < 0 || cols < 0) {
+                throw new IOException("Either 'maskRasterPath' or 'nbRows' and 'nbCols' are mandatory " +
+                        "parameters but missing in input JSON file");
+            }
+            s = new LandscapeStructure(rows, cols, names.toArray(new String[0]), totalSize, nbPatches,
+                    patchSizes.toArray(new int[0][]), netProducts, squares);
         }
-        nbRows = Integer.parseInt(structure.get("nbRows").toString());
-        nbCols = Integer.parseInt(structure.get("nbCols").toString());
-        return new LandscapeStructure(nbRows, nbCols, names, totalSize, nbPatches, patchSizes, npro, isSquare);
+        // Spatial metrics are available if the first class has them, as in structures extracted from rasters
+        if (n > 0 && spatialMetrics.get(0) != null) {
+            int[] totalEdge = new int[n];
+            double[] paraMn = new double[n];
+            double[] shapeMn = new double[n];
+            double[] ennMn = new double[n];
+            for (int i = 0; i < n; i++) {
+                double[] metrics = spatialMetrics.get(i) == null ? new double[4] : spatialMetrics.get(i);
+                totalEdge[i] = (int) metrics[0];
+                paraMn[i] = metrics[1];
+                shapeMn[i] = metrics[2];
+                ennMn[i] = metrics[3];
+            }
+            s.setSpatialMetrics(totalEdge, paraMn, shapeMn, ennMn);
+        }
+        return s;
     }
 
     public static LandscapeStructure fromRasterData(int[] values, int nbRows, int nbCols, int noDataValue, int[] focalClasses, INeighborhood neighborhood, String rasterPath) throws IOException {
@@ -200,26 +531,54 @@ public class LandscapeStructure {
         int[][] patchSizes = new int[focalClasses.length][];
         long[] npro = new long[focalClasses.length];
         boolean[] isSquare = new boolean[focalClasses.length];
+        int[] totalEdge = new int[focalClasses.length];
+        double[] paraMn = new double[focalClasses.length];
+        double[] shapeMn = new double[focalClasses.length];
+        double[] ennMn = new double[focalClasses.length];
+        LandscapeMetrics metrics = new LandscapeMetrics(values, nbRows, nbCols, noDataValue, focalClasses, neighborhood);
         for (int k = 0; k < focalClasses.length; k++) {
-            int classId = focalClasses[k];
-            RasterConnectivityFinder cf = new RasterConnectivityFinder(nbRows, nbCols, values, classId, neighborhood);
-            totalSize[k] = cf.getNbNodes();
-            cf.findAllCC();
-            int nbCC = cf.getNBCC();
-            nbPatches[k] = nbCC;
-            patchSizes[k] = new int[nbCC];
-            for (int i = 0; i < nbCC; i++) {
-                patchSizes[k][i] = cf.getSizeCC()[i];
-            }
-            npro[k] = cf.getNpro();
-            Arrays.sort(patchSizes[k]);
+            totalSize[k] = metrics.getClassArea(k);
+            nbPatches[k] = metrics.getNbPatches(k);
+            patchSizes[k] = metrics.getPatchSizes(k);
+            npro[k] = metrics.getNetProduct(k);
             isSquare[k] = false;
+            totalEdge[k] = metrics.getTotalEdge(k);
+            paraMn[k] = metrics.getMeanPerimeterAreaRatio(k);
+            shapeMn[k] = metrics.getMeanShapeIndex(k);
+            ennMn[k] = metrics.getMeanNearestNeighbourDistance(k);
         }
+        LandscapeStructure s;
         if (discardNoData) {
             int[] noDataCells = IntStream.range(0, values.length).filter(i -> values[i] == noDataValue).toArray();
-            return new LandscapeStructure(nbRows, nbCols, rasterPath, noDataCells, names, totalSize, nbPatches, patchSizes, npro, isSquare);
+            s = new LandscapeStructure(nbRows, nbCols, rasterPath, noDataCells, names, totalSize, nbPatches, patchSizes, npro, isSquare);
+        } else {
+            s = new LandscapeStructure(nbRows, nbCols, names, totalSize, nbPatches, patchSizes, npro, isSquare);
         }
-        return new LandscapeStructure(nbRows, nbCols, names, totalSize, nbPatches, patchSizes, npro, isSquare);
+        s.setSpatialMetrics(totalEdge, paraMn, shapeMn, ennMn);
+        return s;
+    }
+
+    /**
+     * Set the spatial metrics of the structure, which cannot be derived from patch sizes.
+     * @param totalEdge Total edge (TE) of each class.
+     * @param meanPerimeterAreaRatio Mean perimeter-area ratio (PARA_MN) of each class.
+     * @param meanShapeIndex Mean shape index (SHAPE_MN) of each class.
+     * @param meanNearestNeighbourDistance Mean Euclidean nearest-neighbour distance (ENN_MN) of each class.
+     */
+    public void setSpatialMetrics(int[] totalEdge, double[] meanPerimeterAreaRatio, double[] meanShapeIndex,
+                                  double[] meanNearestNeighbourDistance) {
+        this.totalEdge = totalEdge;
+        this.meanPerimeterAreaRatio = meanPerimeterAreaRatio;
+        this.meanShapeIndex = meanShapeIndex;
+        this.meanNearestNeighbourDistance = meanNearestNeighbourDistance;
+    }
+
+    /**
+     * @return True if spatial metrics (TE, PARA_MN, SHAPE_MN, ENN_MN) are available, which is the case for
+     * structures extracted from rasters.
+     */
+    public boolean hasSpatialMetrics() {
+        return totalEdge != null;
     }
 
     public int getLandscapeSize() {
@@ -292,6 +651,22 @@ public class LandscapeStructure {
         return 1 - getDegreeOfCoherence(classId);
     }
 
+    public int getTotalEdge(int classId) {
+        return totalEdge[classId];
+    }
+
+    public double getMeanPerimeterAreaRatio(int classId) {
+        return meanPerimeterAreaRatio[classId];
+    }
+
+    public double getMeanShapeIndex(int classId) {
+        return meanShapeIndex[classId];
+    }
+
+    public double getMeanNearestNeighbourDistance(int classId) {
+        return meanNearestNeighbourDistance[classId];
+    }
+
     public int getNbRows() {
         return nbRows;
     }
@@ -303,4 +678,12 @@ public class LandscapeStructure {
     public String getMaskRasterPath() {
         return maskRasterPath;
     }
+
+    public int getNbClasses() {
+        return names.length;
+    }
+
+    public String[] getNames() {
+        return names;
+    }
 }
@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen.solver;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact binary encoding of landscape structures, an alternative to JSON for structures with many patches.
+ * <p>
+ * All values are big-endian. The file starts with a header:
+ * <pre>
+ *   magic "FLSS" (4 bytes) | version (u16) | flags (u16: 1 = mask raster path, 2 = spatial metrics)
+ *   nbRows (i32) | nbCols (i32) | nbClasses (i32) | [mask raster path: length (i32), UTF-8 bytes]
+ *   class table: nbClasses x (section offset (i64), section length (i32))
+ * </pre>
+ * followed by one section per class, starting on an 8-byte boundary:
+ * <pre>
+ *   name: length (i32), UTF-8 bytes | flags (u8: 1 = square, 2 = ascending sizes, 4 = descending sizes)
+ *   nbPatches (i32) | NPRO (i64) | [TE (i32), PARA_MN (f64), SHAPE_MN (f64), ENN_MN (f64)]
+ *   patch sizes: unsigned LEB128 varints, delta-encoded when the sizes are sorted
+ * </pre>
+ * The class table allows reading a single class section from a memory-mapped file (see readPatchSizes) without
+ * decoding the other ones. As in JSON, the total size of each class is computed from its patch sizes.
+ */
+public class LandscapeStructureBinary {
+
+    public static final byte[] MAGIC = {'F', 'L', 'S', 'S'};
+    public static final int VERSION = 1;
+
+    private static final int FLAG_MASK = 1;
+    private static final int FLAG_SPATIAL = 2;
+    private static final int CLASS_SQUARE = 1;
+    private static final int CLASS_ASCENDING = 2;
+    private static final int CLASS_DESCENDING = 4;
+    private static final int ALIGNMENT = 8;
+    private static final int HEADER_SIZE = 20;
+    private static final int TABLE_ENTRY_SIZE = 12;
+
+    /**
+     * @return True if the data starts with the magic number of the binary format
+     */
+    public static boolean isBinary(byte[] data) {
+        return data.length >= MAGIC.length && Arrays.equals(Arrays.copyOf(data, MAGIC.length), MAGIC);
+    }
+
+    /**
+     * @return True if the remaining bytes of the buffer start with the magic number of the binary format
+     */
+    public static boolean isBinary(ByteBuffer buffer) {
+        if (buffer.remaining() < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(buffer.position() + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The binary encoding of the structure
+     */
+    public static byte[] toBytes(LandscapeStructure s) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        write(s, bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Write the binary encoding of a structure. Section lengths are computed beforehand, so that patch sizes are
+     * encoded directly into the stream.
+     */
+    public static void write(LandscapeStructure s, OutputStream out) throws IOException {
+        boolean spatial = s.hasSpatialMetrics();
+        byte[] mask = s.maskRasterPath == null ? null : s.maskRasterPath.getBytes(StandardCharsets.UTF_8);
+        byte[][] names = new byte[s.names.length][];
+        int[] order = new int[s.names.length];
+        long[] offsets = new long[s.names.length];
+        int[] lengths = new int[s.names.length];
+        long offset = HEADER_SIZE + (mask == null ? 0 : 4 + mask.length) + (long) TABLE_ENTRY_SIZE * names.length;
+        for (int k = 0; k < names.length; k++) {
+            names[k] = s.names[k].getBytes(StandardCharsets.UTF_8);
+            order[k] = getOrder(s.patchSizes[k]);
+            long length = 4 + names[k].length + 1 + 4 + 8 + (spatial ? 28 : 0) + encodedSize(s.patchSizes[k], order[k]);
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Class " + s.names[k] + " is too large for the binary structure format");
+            }
+            offset = align(offset);
+            offsets[k] = offset;
+            lengths[k] = (int) length;
+            offset += length;
+        }
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.write(MAGIC);
+        data.writeShort(VERSION);
+        data.writeShort((mask == null ? 0 : FLAG_MASK) | (spatial ? FLAG_SPATIAL : 0));
+        data.writeInt(s.getNbRows());
+        data.writeInt(s.getNbCols());
+        data.writeInt(names.length);
+        if (mask != null) {
+            data.writeInt(mask.length);
+            data.write(mask);
+        }
+        for (int k = 0; k < names.length; k++) {
+            data.writeLong(offsets[k]);
+            data.writeInt(lengths[k]);
+        }
+        long written = HEADER_SIZE + (mask == null ? 0 : 4 + mask.length) + (long) TABLE_ENTRY_SIZE * names.length;
+        for (int k = 0; k < names.length; k++) {
+            for (; written < offsets[k]; written++) {
+                data.writeByte(0);
+            }
+            data.writeInt(names[k].length);
+            data.write(names[k]);
+            data.writeByte((s.isSquare[k] ? CLASS_SQUARE : 0) | order[k]);
+            data.writeInt(s.patchSizes[k].length);
+            data.writeLong(s.npro[k]);
+            if (spatial) {
+                data.writeInt(s.totalEdge[k]);
+                data.writeDouble(s.meanPerimeterAreaRatio[k]);
+                data.writeDouble(s.meanShapeIndex[k]);
+                data.writeDouble(s.meanNearestNeighbourDistance[k]);
+            }
+            int[] sizes = s.patchSizes[k];
+            int n = sizes.length;
+            int previous = 0;
+            for (int j = 0; j < n; j++) {
+                int size = order[k] == CLASS_DESCENDING ? sizes[n - 1 - j] : sizes[j];
+                writeVarInt(data, order[k] == 0 ? size : size - previous);
+                previous = size;
+            }
+            written += lengths[k];
+        }
+        data.flush();
+    }
+
+    /**
+     * @return The mask raster path recorded in the header of a binary structure, or null if there is none
+     */
+    public static String readMaskRasterPath(ByteBuffer buffer) throws IOException {
+        ByteBuffer b = header(buffer);
+        int flags = b.getShort(6) & 0xFFFF;
+        if ((flags & FLAG_MASK) == 0) {
+            return null;
+        }
+        b.position(HEADER_SIZE);
+        return readString(b);
+    }
+
+    /**
+     * Decode a binary structure, from the current position of the buffer (e.g. a memory-mapped file).
+     * @param nbRows number of rows of the mask raster, if the structure has one
+     * @param nbCols number of columns of the mask raster, if the structure has one
+     * @param noDataCells no data cells of the mask raster, if the structure has one
+     */
+    public static LandscapeStructure read(ByteBuffer buffer, int nbRows, int nbCols, int[] noDataCells) throws IOException {
+        ByteBuffer b = header(buffer);
+        try {
+            int flags = b.getShort(6) & 0xFFFF;
+            boolean spatial = (flags & FLAG_SPATIAL) != 0;
+            int nbClasses = b.getInt(16);
+            String[] names = new String[nbClasses];
+            int[] totalSize = new int[nbClasses];
+            int[] nbPatches = new int[nbClasses];
+            int[][] patchSizes = new int[nbClasses][];
+            long[] npro = new long[nbClasses];
+            boolean[] isSquare = new boolean[nbClasses];
+            int[] totalEdge = new int[nbClasses];
+            double[] paraMn = new double[nbClasses];
+            double[] shapeMn = new double[nbClasses];
+            double[] ennMn = new double[nbClasses];
+            for (int k = 0; k < nbClasses; k++) {
+                ByteBuffer section = section(b, k);
+                names[k] = readString(section);
+                int classFlags = section.get();
+                isSquare[k] = (classFlags & CLASS_SQUARE) != 0;
+                int n = section.getInt();
+                npro[k] = section.getLong();
+                if (spatial) {
+                    totalEdge[k] = section.getInt();
+                    paraMn[k] = section.getDouble();
+                    shapeMn[k] = section.getDouble();
+                    ennMn[k] = section.getDouble();
+                }
+                patchSizes[k] = readSizes(section, n, classFlags);
+                nbPatches[k] = n;
+                totalSize[k] = Arrays.stream(patchSizes[k]).sum();
+            }
+            LandscapeStructure s;
+            if ((flags & FLAG_MASK) != 0) {
+                b.position(HEADER_SIZE);
+                s = new LandscapeStructure(
+                        nbRows, nbCols, readString(b), noDataCells,
+                        names, totalSize, nbPatches, patchSizes, npro, isSquare
+                );
+            } else {
+                s = new LandscapeStructure(
+                        b.getInt(8), b.getInt(12), names, totalSize, nbPatches, patchSizes, npro, isSquare
+                );
+            }
+            if (spatial) {
+                s.setSpatialMetrics(totalEdge, paraMn, shapeMn, ennMn);
+            }
+            return s;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+                | NegativeArraySizeException e) {
+            throw new IOException("Truncated or corrupted binary structure", e);
+        }
+    }
+
+    /**
+     * Decode the patch sizes of a single class, without decoding the other class sections.
+     */
+    public static int[] readPatchSizes(ByteBuffer buffer, int classId) throws IOException {
+        ByteBuffer b = header(buffer);
+        try {
+            if (classId < 0 || classId >= b.getInt(16)) {
+                throw new IOException("No class " + classId + " in the binary structure");
+            }
+            boolean spatial = ((b.getShort(6) & 0xFFFF) & FLAG_SPATIAL) != 0;
+            ByteBuffer section = section(b, classId);
+            readString(section);
+            int classFlags = section.get();
+            int n = section.getInt();
+            section.position(section.position() + 8 + (spatial ? 28 : 0));
+            return readSizes(section, n, classFlags);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+                | NegativeArraySizeException e) {
+            throw new IOException("Truncated or corrupted binary structure", e);
+        }
+    }
+
+    /**
+     * @return A big-endian view of the structure, whose position 0 is the start of the magic number
+     */
+    private static ByteBuffer header(ByteBuffer buffer) throws IOException {
+        if (!isBinary(buffer)) {
+            throw new IOException("Not a binary landscape structure (wrong magic number)");
+        }
+        ByteBuffer b = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+        if (b.remaining() < HEADER_SIZE) {
+            throw new IOException("Truncated binary structure header");
+        }
+        int version = b.getShort(4) & 0xFFFF;
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary structure version " + version + " (supported: " + VERSION + ")");
+        }
+        return b;
+    }
+
+    /**
+     * @return A view of the section of a class, bounded by its length in the class table
+     */
+    private static ByteBuffer section(ByteBuffer b, int classId) throws IOException {
+        boolean mask = ((b.getShort(6) & 0xFFFF) & FLAG_MASK) != 0;
+        int table = HEADER_SIZE + (mask ? 4 + b.getInt(HEADER_SIZE) : 0);
+        long offset = b.getLong(table + TABLE_ENTRY_SIZE * classId);
+        int length = b.getInt(table + TABLE_ENTRY_SIZE * classId + 8);
+        if (offset < 0 || length < 0 || offset + length > b.limit()) {
+            throw new IOException("Truncated or corrupted binary structure");
+        }
+        ByteBuffer section = b.duplicate();
+        section.position((int) offset);
+        section.limit((int) offset + length);
+        return section.slice().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    private static int[] readSizes(ByteBuffer section, int n, int classFlags) throws IOException {
+        if (n < 0) {
+            throw new IOException("Truncated or corrupted binary structure");
+        }
+        int[] sizes = new int[n];
+        boolean delta = (classFlags & (CLASS_ASCENDING | CLASS_DESCENDING)) != 0;
+        int previous = 0;
+        for (int j = 0; j < n; j++) {
+            int v = readVarInt(section);
+            previous = delta ? previous + v : v;
+            sizes[j] = previous;
+        }
+        if ((classFlags & CLASS_DESCENDING) != 0) {
+            for (int i = 0, j = n - 1; i < j; i++, j--) {
+                int tmp = sizes[i];
+                sizes[i] = sizes[j];
+                sizes[j] = tmp;
+            }
+        }
+        return sizes;
+    }
+
+    private static String readString(ByteBuffer b) {
+        byte[] bytes = new byte[b.getInt()];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return CLASS_ASCENDING or CLASS_DESCENDING if the sizes are sorted (ascending is preferred when all sizes
+     * are equal), 0 otherwise
+     */
+    private static int getOrder(int[] sizes) {
+        boolean ascending = true;
+        boolean descending = true;
+        for (int j = 1; j < sizes.length && (ascending || descending); j++) {
+            ascending &= sizes[j - 1] <= sizes[j];
+            descending &= sizes[j - 1] >= sizes[j];
+        }
+        return ascending ? CLASS_ASCENDING : (descending ? CLASS_DESCENDING : 0);
+    }
+
+    private static long encodedSize(int[] sizes, int order) {
+        long size = 0;
+        int n = sizes.length;
+        int previous = 0;
+        for (int j = 0; j < n; j++) {
+            int v = order == CLASS_DESCENDING ? sizes[n - 1 - j] : sizes[j];
+            size += varIntSize(order == 0 ? v : v - previous);
+            previous = v;
+        }
+        return size;
+    }
+
+    private static int varIntSize(int v) {
+        int size = 1;
+        while ((v & ~0x7F) != 0) {
+            v >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int v) throws IOException {
+        while ((v & ~0x7F) != 0) {
+            out.writeByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    private static int readVarInt(ByteBuffer b) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte x = b.get();
+            value |= (x & 0x7F) << shift;
+            if (x >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in binary structure");
+    }
+
+    private static long align(long offset) {
+        return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen.solver;
+
+import com.github.cliftonlabs.json_simple.JsonArray;
+import com.github.cliftonlabs.json_simple.JsonException;
+import com.github.cliftonlabs.json_simple.JsonObject;
+import com.github.cliftonlabs.json_simple.Jsoner;
+import org.chocosolver.solver.Model;
+import org.chocosolver.solver.Solution;
+import org.chocosolver.solver.Solver;
+import org.chocosolver.solver.search.limits.TimeCounter;
+import org.chocosolver.util.criteria.Criterion;
+import org.flsgen.exception.FlsgenException;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Class-decomposed solving of JSON targets. Classes are only coupled through their areas (whose sum is bounded by
+ * the landscape size and the NON_FOCAL_PLAND target), thus each class can be solved independently:
+ * <ol>
+ *     <li>The range of achievable areas of each class is computed (minimizing and maximizing its area), in parallel.
+ *     </li>
+ *     <li>A coordination step allocates an area interval to each class, within its range, such that any combination
+ *     of areas in these intervals satisfies the landscape-level constraints.</li>
+ *     <li>Each class is solved within its interval, in parallel. When a class has no solution in its interval (the
+ *     achievable areas can have holes), the interval is removed from its range and the allocation is repeated.</li>
+ * </ol>
+ * Large multi-class problems are thus solved as many small problems. The decomposition is not complete: it can
+ * fail (status STOPPED) on feasible targets, but UNSATISFIABLE is only reported when a class, or the class area
+ * ranges, are proved infeasible.
+ */
+public class LandscapeStructureDecomposition {
+
+    /**
+     * Reads a JSON target file into a new landscape structure model (e.g. LandscapeStructureSolverFactory::readFromJSON)
+     */
+    public interface TargetReader {
+        LandscapeStructureSolver read(String json) throws IOException, JsonException, FlsgenException;
+    }
+
+    /**
+     * Default maximum number of coordination rounds
+     */
+    public static final int DEFAULT_MAX_ROUNDS = 20;
+
+    protected TargetReader reader;
+    protected int nbThreads;
+    protected String[] names;
+    protected String[] classTargets;
+    protected double[] nonFocalPland;
+    protected int maxRounds;
+    protected int nbRounds;
+    protected String status;
+
+    /**
+     * @param json The JSON targets
+     * @param reader Reads the targets of each class into a single-class model
+     * @param nbThreads The number of classes solved in parallel
+     */
+    public LandscapeStructureDecomposition(String json, TargetReader reader, int nbThreads) throws IOException, JsonException, FlsgenException {
+        if (nbThreads <= 0) {
+            throw new FlsgenException("The number of threads must be positive");
+        }
+        this.reader = reader;
+        this.nbThreads = nbThreads;
+        this.maxRounds = DEFAULT_MAX_ROUNDS;
+        JsonObject targets = (JsonObject) Jsoner.deserialize(new StringReader(json));
+        if (!targets.containsKey("classes")) {
+            throw new IOException("'classes' is a mandatory parameter but missing in input JSON file");
+        }
+        this.nonFocalPland = LandscapeStructureSolver.getDoubleInterval(targets, LandscapeStructureSolver.KEY_NON_FOCAL_PLAND, false, "landscape");
+        JsonArray classes = (JsonArray) targets.get("classes");
+        this.names = new String[classes.size()];
+        this.classTargets = new String[classes.size()];
+        for (int k = 0; k < classes.size(); k++) {
+            JsonObject cl = (JsonObject) classes.get(k);
+            names[k] = String.valueOf(cl.get("name"));
+            if (cl.containsKey(LandscapeStructureSolver.KEY_SOFT)) {
+                throw new FlsgenException("Soft targets (class " + names[k] + ") are not supported by class-decomposed solving");
+            }
+            // Same grid, a single class, no landscape-level target
+            JsonObject classJson = new JsonObject(targets);
+            classJson.remove(LandscapeStructureSolver.KEY_NON_FOCAL_PLAND);
+            JsonArray single = new JsonArray();
+            single.add(cl);
+            classJson.put("classes", single);
+            classTargets[k] = classJson.toJson();
+        }
+    }
+
+    public void setMaxRounds(int maxRounds) {
+        this.maxRounds = maxRounds;
+    }
+
+    /**
+     * @return SOLUTION, UNSATISFIABLE or STOPPED, for the last call to findSolution
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * @return The number of coordination rounds of the last call to findSolution
+     */
+    public int getNbRounds() {
+        return nbRounds;
+    }
+
+    /**
+     * Find a structure satisfying the targets by class decomposition
+     * @param limitInSeconds The time limit of each class-level solving step. If 0, no time limit is set.
+     * @return The structure, null if none was found
+     */
+    public LandscapeStructure findSolution(int limitInSeconds) throws FlsgenException {
+        int n = classTargets.length;
+        status = "STOPPED";
+        nbRounds = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(nbThreads, Math.max(1, n)));
+        try {
+            // Range of achievable areas of each class, in parallel
+            List<Callable<int[]>> rangeTasks = new ArrayList<>();
+            for (int k = 0; k < n; k++) {
+                int classIndex = k;
+                rangeTasks.add(() -> areaRange(classIndex, limitInSeconds));
+            }
+            List<int[]> ranges = invokeAll(pool, rangeTasks);
+            int[] lo = new int[n];
+            int[] hi = new int[n];
+            // Whether no achievable area was excluded from the ranges, to prove unsatisfiability
+            boolean exact = true;
+            for (int k = 0; k < n; k++) {
+                int[] range = ranges.get(k);
+                if (range.length == 0) {
+                    status = "UNSATISFIABLE";
+                    return null;
+                }
+                if (range.length == 1) {
+                    return null;
+                }
+                lo[k] = range[0];
+                hi[k] = range[1];
+                exact &= range[2] == 1;
+            }
+            LandscapeStructureSolver[] solvers = new LandscapeStructureSolver[n];
+            for (int k = 0; k < n; k++) {
+                solvers[k] = reader.read(classTargets[k]);
+            }
+            int landscapeSize = n > 0 ? solvers[0].getLandscapeSize() : 0;
+            long totalMin = 0;
+            long totalMax = landscapeSize;
+            if (nonFocalPland != null) {
+                totalMin = landscapeSize - (int) (landscapeSize * nonFocalPland[1] / 100);
+                totalMax = landscapeSize - (int) (landscapeSize * nonFocalPland[0] / 100);
+            }
+            LandscapeStructure[] parts = new LandscapeStructure[n];
+            while (nbRounds < maxRounds) {
+                nbRounds++;
+                int[][] intervals = allocate(lo, hi, totalMin, totalMax);
+                if (intervals == null) {
+                    if (exact) {
+                        status = "UNSATISFIABLE";
+                    }
+                    return null;
+                }
+                // Solve the classes whose current solution (if any) is outside their new interval
+                List<Integer> toSolve = new ArrayList<>();
+                List<Callable<LandscapeStructure>> solveTasks = new ArrayList<>();
+                for (int k = 0; k < n; k++) {
+                    int x = intervals[k][0];
+                    int y = intervals[k][1];
+                    if (parts[k] != null && parts[k].getTotalSize(0) >= x && parts[k].getTotalSize(0) <= y) {
+                        continue;
+                    }
+                    LandscapeStructureSolver solver = solvers[k];
+                    String name = names[k];
+                    toSolve.add(k);
+                    solveTasks.add(() -> solver.solveWith(
+                            s -> s.setTarget(name, LandscapeStructureSolver.KEY_CA, x, y), limitInSeconds
+                    ));
+                }
+                List<LandscapeStructure> solutions = invokeAll(pool, solveTasks);
+                boolean complete = true;
+                for (int i = 0; i < toSolve.size(); i++) {
+                    int k = toSolve.get(i);
+                    parts[k] = solutions.get(i);
+                    if (parts[k] != null) {
+                        continue;
+                    }
+                    complete = false;
+                    // Remove the interval from the range of the class
+                    int x = intervals[k][0];
+                    int y = intervals[k][1];
+                    String classStatus = String.valueOf(solvers[k].getStatistics().get("status"));
+                    exact &= classStatus.equals("UNSATISFIABLE") && (x == lo[k] || y == hi[k]);
+                    if (x == lo[k] || (y != hi[k] && x - lo[k] < hi[k] - y)) {
+                        lo[k] = y + 1;
+                    } else {
+                        hi[k] = x - 1;
+                    }
+                    if (lo[k] > hi[k]) {
+                        if (exact) {
+                            status = "UNSATISFIABLE";
+                        }
+                        return null;
+                    }
+                }
+                if (complete) {
+                    status = "SOLUTION";
+                    return LandscapeStructure.merge(parts);
+                }
+            }
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof FlsgenException) {
+                throw (FlsgenException) e.getCause();
+            }
+            throw new FlsgenException("Class-decomposed solving failed: " + e.getCause());
+        } catch (IOException | JsonException e) {
+            throw new FlsgenException("Class-decomposed solving failed: " + e.getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return The range of achievable areas of a class, with a flag set to 1 if the range is exact: {min, max, exact},
+     * {} if the class is infeasible, {0} if no solution was found within the limit
+     */
+    protected int[] areaRange(int classIndex, int limitInSeconds) throws IOException, JsonException, FlsgenException {
+        int[] range = new int[3];
+        boolean exact = true;
+        for (int bound = 0; bound < 2; bound++) {
+            LandscapeStructureSolver solver = reader.read(classTargets[classIndex]);
+            LandscapeClass landscapeClass = solver.landscapeClasses.get(0);
+            Solver s = solver.getModel().getSolver();
+            Criterion[] limit = limitInSeconds > 0 ?
+                    new Criterion[] {new TimeCounter(solver.getModel(), (long) (limitInSeconds * 1e9))} :
+                    new Criterion[] {};
+            Solution solution = s.findOptimalSolution(landscapeClass.sum, bound == 1 ? Model.MAXIMIZE : Model.MINIMIZE, limit);
+            if (solution == null) {
+                return s.isSearchCompleted() ? new int[] {} : new int[] {0};
+            }
+            range[bound] = solution.getIntVal(landscapeClass.sum);
+            exact &= s.isSearchCompleted();
+        }
+        range[2] = exact ? 1 : 0;
+        return range;
+    }
+
+    /**
+     * Allocate an area interval to each class, within its range, such that the sum of the minimum areas is at least
+     * totalMin and the sum of the maximum areas is at most totalMax: first the minimum areas are raised to reach
+     * totalMin, then the remaining slack is shared as interval widths, proportionally to the range of each class.
+     * @return The [min, max] area interval of each class, null if the ranges cannot satisfy the totals
+     */
+    public static int[][] allocate(int[] lo, int[] hi, long totalMin, long totalMax) {
+        int n = lo.length;
+        long sumLo = 0;
+        long sumHi = 0;
+        for (int k = 0; k < n; k++) {
+            sumLo += lo[k];
+            sumHi += hi[k];
+        }
+        if (sumLo > totalMax || sumHi < totalMin) {
+            return null;
+        }
+        long[] capacity = new long[n];
+        for (int k = 0; k < n; k++) {
+            capacity[k] = hi[k] - lo[k];
+        }
+        long[] raise = distribute(Math.max(0, totalMin - sumLo), capacity);
+        long[] min = new long[n];
+        long sumMin = 0;
+        for (int k = 0; k < n; k++) {
+            min[k] = lo[k] + raise[k];
+            capacity[k] = hi[k] - min[k];
+            sumMin += min[k];
+        }
+        long[] widths = distribute(Math.min(totalMax - sumMin, Arrays.stream(capacity).sum()), capacity);
+        int[][] intervals = new int[n][];
+        for (int k = 0; k < n; k++) {
+            intervals[k] = new int[] {(int) min[k], (int) (min[k] + widths[k])};
+        }
+        return intervals;
+    }
+
+    /**
+     * @return Shares of amount (at most the sum of capacities), proportional to capacities and within them
+     */
+    protected static long[] distribute(long amount, long[] capacity) {
+        long total = Arrays.stream(capacity).sum();
+        long[] shares = new long[capacity.length];
+        if (total == 0 || amount == 0) {
+            return shares;
+        }
+        long remaining = amount;
+        for (int k = 0; k < capacity.length; k++) {
+            shares[k] = (long) ((double) amount * capacity[k] / total);
+            shares[k] = Math.min(shares[k], Math.min(capacity[k], remaining));
+            remaining -= shares[k];
+        }
+        while (remaining > 0) {
+            for (int k = 0; k < capacity.length && remaining > 0; k++) {
+                if (shares[k] < capacity[k]) {
+                    shares[k]++;
+                    remaining--;
+                }
+            }
+        }
+        return shares;
+    }
+
+    private static <T> List<T> invokeAll(ExecutorService pool, List<Callable<T>> tasks) throws InterruptedException, ExecutionException {
+        List<T> results = new ArrayList<>();
+        for (Future<T> future : pool.invokeAll(tasks)) {
+            results.add(future.get());
+        }
+        return results;
+    }
+}
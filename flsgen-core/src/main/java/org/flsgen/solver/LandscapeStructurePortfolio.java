@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen.solver;
+
+import com.github.cliftonlabs.json_simple.JsonException;
+import org.chocosolver.solver.search.limits.TimeCounter;
+import org.flsgen.exception.FlsgenException;
+
+import java.io.IOException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Portfolio of landscape structure solvers: several copies of the same model are solved concurrently with
+ * different search strategies and seeds, and the first solution found is returned. As the best strategy strongly
+ * depends on the targets, racing them is more robust than choosing one beforehand.
+ */
+public class LandscapeStructurePortfolio {
+
+    /**
+     * Creates a new, independent copy of the landscape structure model (e.g. by reading a JSON target file).
+     */
+    public interface ModelFactory {
+        LandscapeStructureSolver create() throws IOException, JsonException, FlsgenException;
+    }
+
+    /**
+     * Search strategies of the default portfolio, in the order workers are assigned to them. Workers beyond this
+     * list use random search with distinct seeds.
+     */
+    public static final SearchStrategy[] DEFAULT_STRATEGIES = new SearchStrategy[] {
+            SearchStrategy.DEFAULT,
+            SearchStrategy.DOM_OVER_W_DEG,
+            SearchStrategy.RANDOM,
+            SearchStrategy.ACTIVITY_BASED,
+            SearchStrategy.CONFLICT_HISTORY,
+            SearchStrategy.MIN_DOM_LB,
+            SearchStrategy.DOM_OVER_W_DEG_REF,
+            SearchStrategy.MIN_DOM_UB
+    };
+
+    protected ModelFactory factory;
+    protected SearchStrategy[] strategies;
+    protected long[] seeds;
+    protected int winner;
+    protected LandscapeStructureSolver winningSolver;
+    protected boolean provedUnsatisfiable;
+
+    /**
+     * @param factory Creates the model copies, one per worker
+     * @param strategies Search strategy of each worker
+     * @param seeds Seed of each worker (used by random search)
+     */
+    public LandscapeStructurePortfolio(ModelFactory factory, SearchStrategy[] strategies, long[] seeds) throws FlsgenException {
+        if (strategies.length == 0 || strategies.length != seeds.length) {
+            throw new FlsgenException("A portfolio needs at least one worker, and exactly one seed per strategy");
+        }
+        this.factory = factory;
+        this.strategies = strategies;
+        this.seeds = seeds;
+        this.winner = -1;
+    }
+
+    /**
+     * Portfolio with the default strategies: the first workers use distinct strategies, the next ones use random
+     * search with distinct seeds.
+     * @param factory Creates the model copies, one per worker
+     * @param nbWorkers Number of workers (i.e. of threads and model copies)
+     * @param seed Base seed, the seed of worker i is seed + i
+     */
+    public LandscapeStructurePortfolio(ModelFactory factory, int nbWorkers, long seed) throws FlsgenException {
+        this(factory, defaultStrategies(nbWorkers), defaultSeeds(nbWorkers, seed));
+    }
+
+    private static SearchStrategy[] defaultStrategies(int nbWorkers) {
+        SearchStrategy[] strategies = new SearchStrategy[Math.max(0, nbWorkers)];
+        for (int i = 0; i < strategies.length; i++) {
+            strategies[i] = i < DEFAULT_STRATEGIES.length ? DEFAULT_STRATEGIES[i] : SearchStrategy.RANDOM;
+        }
+        return strategies;
+    }
+
+    private static long[] defaultSeeds(int nbWorkers, long seed) {
+        long[] seeds = new long[Math.max(0, nbWorkers)];
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = seed + i;
+        }
+        return seeds;
+    }
+
+    public LandscapeStructure findSolution() throws IOException, JsonException, FlsgenException {
+        return findSolution(0);
+    }
+
+    /**
+     * Race the workers until one of them finds a solution, or proves that there is none.
+     * @param limitInSeconds The time limit. If 0, no time limit is set.
+     * @return The first solution found, null if there is none or if the time limit was reached.
+     */
+    public LandscapeStructure findSolution(int limitInSeconds) throws IOException, JsonException, FlsgenException {
+        winner = -1;
+        winningSolver = null;
+        provedUnsatisfiable = false;
+        AtomicBoolean done = new AtomicBoolean(false);
+        ExecutorService pool = Executors.newFixedThreadPool(strategies.length);
+        CompletionService<Integer> completion = new ExecutorCompletionService<>(pool);
+        LandscapeStructureSolver[] solvers = new LandscapeStructureSolver[strategies.length];
+        LandscapeStructure[] solutions = new LandscapeStructure[strategies.length];
+        for (int i = 0; i < strategies.length; i++) {
+            int w = i;
+            completion.submit(() -> {
+                LandscapeStructureSolver solver = factory.create();
+                if (!solver.isBuilt) {
+                    solver.build();
+                }
+                solver.setSearch(strategies[w], seeds[w]);
+                solver.getModel().getSolver().addStopCriterion(done::get);
+                if (limitInSeconds > 0) {
+                    solver.getModel().getSolver().addStopCriterion(new TimeCounter(solver.getModel(), (long) (limitInSeconds * 1e9)));
+                }
+                solvers[w] = solver;
+                solutions[w] = solver.findSolution();
+                return w;
+            });
+        }
+        try {
+            for (int i = 0; i < strategies.length; i++) {
+                int w = completion.take().get();
+                if (solutions[w] != null) {
+                    winner = w;
+                    winningSolver = solvers[w];
+                    break;
+                }
+                if (solvers[w].getModel().getSolver().isSearchCompleted()) {
+                    // Complete search without solution: no other worker can succeed
+                    provedUnsatisfiable = true;
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof JsonException) {
+                throw (JsonException) cause;
+            }
+            if (cause instanceof FlsgenException) {
+                throw (FlsgenException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            done.set(true);
+            pool.shutdown();
+        }
+        return winner >= 0 ? solutions[winner] : null;
+    }
+
+    public int getNbWorkers() {
+        return strategies.length;
+    }
+
+    /**
+     * @return The search strategy of the worker which found the last solution, null if no solution was found
+     */
+    public SearchStrategy getWinningStrategy() {
+        return winner >= 0 ? strategies[winner] : null;
+    }
+
+    /**
+     * @return The seed of the worker which found the last solution
+     */
+    public long getWinningSeed() {
+        return winner >= 0 ? seeds[winner] : -1;
+    }
+
+    /**
+     * @return The solver of the worker which found the last solution (e.g. to retrieve search statistics), null
+     * if no solution was found
+     */
+    public LandscapeStructureSolver getWinningSolver() {
+        return winningSolver;
+    }
+
+    /**
+     * @return True if a worker completed its search without finding any solution during the last call to
+     * findSolution, i.e. the targets cannot be satisfied
+     */
+    public boolean isProvedUnsatisfiable() {
+        return provedUnsatisfiable;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen.solver;
+
+import com.github.cliftonlabs.json_simple.JsonException;
+import org.chocosolver.solver.search.limits.TimeCounter;
+import org.flsgen.exception.FlsgenException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Samples several distinct landscape structures satisfying the same targets. Independent workers, each with its
+ * own model copy and random search seed, run concurrently. Structures are deduplicated on their canonical form
+ * (sorted patch sizes of each class), and a minimum distance between returned structures can be enforced. Accepted
+ * structures are passed to a listener as soon as they are found.
+ */
+public class LandscapeStructureSampler {
+
+    /**
+     * Receives the accepted structures, one call at a time, in acceptance order.
+     */
+    public interface SolutionListener {
+        /**
+         * @param index Index of the structure among accepted structures (0-based)
+         * @param structure The accepted structure
+         */
+        void onSolution(int index, LandscapeStructure structure) throws IOException;
+    }
+
+    protected LandscapeStructurePortfolio.ModelFactory factory;
+    protected int nbWorkers;
+    protected long seed;
+    protected int minDistance;
+    protected int maxConsecutiveRejections;
+    protected List<LandscapeStructure> accepted;
+    protected Set<String> keys;
+    protected int nbRejected;
+
+    /**
+     * @param factory Creates the model copies, one per worker
+     * @param nbWorkers Number of workers (i.e. of threads and model copies)
+     * @param seed Base seed, the random search seed of worker i is seed + i
+     */
+    public LandscapeStructureSampler(LandscapeStructurePortfolio.ModelFactory factory, int nbWorkers, long seed) throws FlsgenException {
+        if (nbWorkers <= 0) {
+            throw new FlsgenException("The number of sampling workers must be at least 1");
+        }
+        this.factory = factory;
+        this.nbWorkers = nbWorkers;
+        this.seed = seed;
+        this.minDistance = 0;
+        this.maxConsecutiveRejections = 100;
+    }
+
+    /**
+     * @param minDistance Minimum distance (see distance()) between two returned structures. With 0, only duplicate
+     *                    structures are discarded.
+     */
+    public void setMinDistance(int minDistance) throws FlsgenException {
+        if (minDistance < 0) {
+            throw new FlsgenException("The minimum distance between structures must be positive");
+        }
+        this.minDistance = minDistance;
+    }
+
+    /**
+     * @param maxConsecutiveRejections Number of consecutive rejected structures after which a worker gives up,
+     *                                 as the solution space is then likely exhausted near its search
+     */
+    public void setMaxConsecutiveRejections(int maxConsecutiveRejections) {
+        this.maxConsecutiveRejections = maxConsecutiveRejections;
+    }
+
+    /**
+     * Sample structures until nbSolutions are accepted, every worker gave up or exhausted its search, or the time
+     * limit is reached.
+     * @param nbSolutions Number of structures to sample
+     * @param limitInSeconds The time limit. If 0, no time limit is set.
+     * @param listener Receives each accepted structure as soon as it is found (can be null)
+     * @return The accepted structures, in acceptance order
+     */
+    public List<LandscapeStructure> sample(int nbSolutions, int limitInSeconds, SolutionListener listener)
+            throws IOException, JsonException, FlsgenException {
+        accepted = new ArrayList<>();
+        keys = new HashSet<>();
+        nbRejected = 0;
+        AtomicBoolean done = new AtomicBoolean(nbSolutions <= 0);
+        ExecutorService pool = Executors.newFixedThreadPool(nbWorkers);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < nbWorkers; i++) {
+            long workerSeed = seed + i;
+            futures.add(pool.submit(() -> {
+                LandscapeStructureSolver solver = factory.create();
+                if (!solver.isBuilt) {
+                    solver.build();
+                }
+                solver.setRandomSearch(workerSeed);
+                solver.getModel().getSolver().addStopCriterion(done::get);
+                if (limitInSeconds > 0) {
+                    solver.getModel().getSolver().addStopCriterion(new TimeCounter(solver.getModel(), (long) (limitInSeconds * 1e9)));
+                }
+                int rejections = 0;
+                while (!done.get() && rejections < maxConsecutiveRejections) {
+                    LandscapeStructure s = solver.findSolution();
+                    if (s == null) {
+                        break;
+                    }
+                    if (offer(s, nbSolutions, listener, done)) {
+                        rejections = 0;
+                    } else {
+                        rejections++;
+                    }
+                }
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof JsonException) {
+                throw (JsonException) cause;
+            }
+            if (cause instanceof FlsgenException) {
+                throw (FlsgenException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            done.set(true);
+            pool.shutdown();
+        }
+        return new ArrayList<>(accepted);
+    }
+
+    /**
+     * Accept the structure if it is neither a duplicate nor too close to an accepted structure.
+     * @return True if the structure was accepted
+     */
+    private synchronized boolean offer(LandscapeStructure s, int nbSolutions, SolutionListener listener,
+                                       AtomicBoolean done) throws IOException {
+        if (done.get()) {
+            return false;
+        }
+        if (!keys.add(canonicalKey(s))) {
+            nbRejected++;
+            return false;
+        }
+        if (minDistance > 0) {
+            for (LandscapeStructure other : accepted) {
+                if (distance(s, other) < minDistance) {
+                    nbRejected++;
+                    return false;
+                }
+            }
+        }
+        accepted.add(s);
+        if (listener != null) {
+            listener.onSolution(accepted.size() - 1, s);
+        }
+        if (accepted.size() >= nbSolutions) {
+            done.set(true);
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of structures rejected during the last sampling, as duplicates or too close to an
+     * accepted structure
+     */
+    public int getNbRejected() {
+        return nbRejected;
+    }
+
+    /**
+     * @return The canonical form of a structure: the sorted patch sizes of each class. Two structures with the same
+     * canonical form are identical up to the order of patches.
+     */
+    public static String canonicalKey(LandscapeStructure s) {
+        StringBuilder key = new StringBuilder();
+        for (int k = 0; k < s.getNbClasses(); k++) {
+            int[] sizes = s.getPatchSizes(k).clone();
+            Arrays.sort(sizes);
+            key.append(Arrays.toString(sizes)).append(';');
+        }
+        return key.toString();
+    }
+
+    /**
+     * Distance between two structures with the same classes: for each class, the patch sizes of both structures
+     * are sorted in decreasing order and compared rank by rank (missing patches have size 0), and the absolute
+     * differences are summed over all ranks and classes. It is 0 only for identical structures.
+     */
+    public static int distance(LandscapeStructure a, LandscapeStructure b) {
+        int d = 0;
+        for (int k = 0; k < a.getNbClasses(); k++) {
+            int[] sa = a.getPatchSizes(k).clone();
+            int[] sb = b.getPatchSizes(k).clone();
+            Arrays.sort(sa);
+            Arrays.sort(sb);
+            int n = Math.max(sa.length, sb.length);
+            for (int i = 0; i < n; i++) {
+                int va = i < sa.length ? sa[sa.length - 1 - i] : 0;
+                int vb = i < sb.length ? sb[sb.length - 1 - i] : 0;
+                d += Math.abs(va - vb);
+            }
+        }
+        return d;
+    }
+}
@@ -27,18 +27,46 @@ import com.github.cliftonlabs.json_simple.JsonException;
 import com.github.cliftonlabs.json_simple.JsonObject;
 import com.github.cliftonlabs.json_simple.Jsoner;
 import org.chocosolver.solver.Model;
+import org.chocosolver.solver.Solver;
+import org.chocosolver.solver.constraints.Constraint;
+import org.chocosolver.solver.constraints.Propagator;
+import org.chocosolver.solver.search.limits.BacktrackCounter;
 import org.chocosolver.solver.search.limits.FailCounter;
+import org.chocosolver.solver.search.limits.NodeCounter;
+import org.chocosolver.solver.search.limits.RestartCounter;
 import org.chocosolver.solver.search.limits.TimeCounter;
+import org.chocosolver.solver.search.loop.lns.neighbors.INeighborFactory;
+import org.chocosolver.solver.search.loop.monitors.IMonitorSolution;
 import org.chocosolver.solver.search.strategy.Search;
+import org.chocosolver.solver.search.strategy.assignments.DecisionOperatorFactory;
+import org.chocosolver.solver.search.strategy.selectors.variables.InputOrder;
+import org.chocosolver.solver.search.strategy.strategy.AbstractStrategy;
 import org.chocosolver.solver.variables.IntVar;
+import org.chocosolver.solver.variables.Variable;
+import org.chocosolver.util.criteria.Criterion;
 import org.flsgen.exception.FlsgenException;
 import org.flsgen.grid.regular.square.PartialRegularSquareGrid;
 import org.flsgen.grid.regular.square.RegularSquareGrid;
+import org.flsgen.solver.choco.HintValueSelector;
+import org.flsgen.utils.JsonStreamWriter;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.flsgen.utils.ANSIColors.ANSI_RED;
+import static org.flsgen.utils.ANSIColors.ANSI_RESET;
 
 /**
  * Landscape structure org.flsgen.solver - given a list of landscape classes along with user targets, use choco
@@ -63,6 +91,11 @@ public class LandscapeStructureSolver {
     public static final String KEY_SDEN = "SDEN";
     public static final String KEY_COHE = "COHE";
     public static final String KEY_DIVI = "DIVI";
+    public static final String KEY_TE = "TE";
+    public static final String KEY_PARA_MN = "PARA_MN";
+    public static final String KEY_SHAPE_MN = "SHAPE_MN";
+    public static final String KEY_ENN_MN = "ENN_MN";
+    public static final String KEY_SOFT = "SOFT";
     public static final String IS_SQUARE = "IS_SQUARE";
 
     protected RegularSquareGrid grid;
@@ -72,7 +105,34 @@ public class LandscapeStructureSolver {
     protected IntVar totalSum;
     protected boolean isBuilt;
     protected IntVar[] decisionVariables;
+    protected boolean globalPatchSizes = true;
     protected String maskRasterPath;
+    // Search configuration, limits and statistics
+    protected SearchStrategy searchStrategy = SearchStrategy.DEFAULT;
+    protected boolean hinted;
+    protected long seed = -1;
+    // False if the seed of the random search was drawn from the clock, the search is then not reproducible
+    protected boolean explicitSeed = true;
+    protected Map<String, Criterion> limits = new LinkedHashMap<>();
+    protected float firstSolutionTime = -1;
+    protected boolean monitorsPlugged = false;
+    protected boolean lastSolveFound = false;
+    // Statistics of the last solveWith call, recorded before the search is reset
+    protected JsonObject temporaryTargetStatistics;
+    // Soft targets, their weighted violation and the best structure found by findBestSolution
+    protected List<SoftTarget> softTargets = new ArrayList<>();
+    protected IntVar softViolation;
+    protected LandscapeStructure bestSolution;
+    protected int bestSoftViolation = -1;
+    // Structure cache, addressed by the targets read from JSON, the targets set since, and the search configuration
+    protected StructureCache cache;
+    protected String targetsJson;
+    protected List<String> targetUpdates = new ArrayList<>();
+    // Model options of each class, which change the structures found without appearing in the targets
+    protected List<String> modelOptions = new ArrayList<>();
+    protected String hintJson;
+    protected LandscapeStructure cachedSolution;
+    protected boolean cacheHit;
 
     public LandscapeStructureSolver(RegularSquareGrid grid) {
         this.grid = grid;
@@ -105,14 +165,24 @@ public class LandscapeStructureSolver {
         }
         LandscapeClass ls;
         if (isSquare) {
-            ls = new SquaresLandscapeClass(name, landscapeClasses.size(), grid, getModel(), minNbPatches, maxNbPatches, minPatchSize, maxPatchSize);
+            ls = new SquaresLandscapeClass(name, landscapeClasses.size(), grid, getModel(), minNbPatches, maxNbPatches, minPatchSize, maxPatchSize, globalPatchSizes);
         } else {
-            ls = new LandscapeClass(name, landscapeClasses.size(), grid, getModel(), minNbPatches, maxNbPatches, minPatchSize, maxPatchSize);
+            ls = new LandscapeClass(name, landscapeClasses.size(), grid, getModel(), minNbPatches, maxNbPatches, minPatchSize, maxPatchSize, globalPatchSizes);
         }
         landscapeClasses.add(ls);
+        modelOptions.add(name + " " + (globalPatchSizes ? "GLOBAL_PATCH_SIZES" : "DECOMPOSED_PATCH_SIZES"));
         return ls;
     }
 
+    /**
+     * Choose how the patch sizes of the classes created afterwards are constrained: by the PropPatchSizes global
+     * propagator (default), or by its decomposition into standard constraints
+     * @param globalPatchSizes True to use the global propagator
+     */
+    public void setGlobalPatchSizes(boolean globalPatchSizes) {
+        this.globalPatchSizes = globalPatchSizes;
+    }
+
     /**
      * Build the model - Need to be call before "findSolution"
      */
@@ -154,93 +224,790 @@ public class LandscapeStructureSolver {
     }
 
     public void setRandomSearch() {
-        long seed = System.currentTimeMillis();
+        setRandomSearch(System.currentTimeMillis());
+        this.explicitSeed = false;
+    }
+
+    public void setRandomSearch(long seed) {
+        this.searchStrategy = SearchStrategy.RANDOM;
+        this.hinted = false;
+        this.seed = seed;
+        this.explicitSeed = true;
         getModel().getSolver().setSearch(Search.randomSearch(decisionVariables, seed));
         getModel().getSolver().setRestartOnSolutions();
         getModel().getSolver().setGeometricalRestart(200, 1.5, new FailCounter(getModel(), 1), 100);
     }
 
     public void setDomOverWDegSearch() {
+        this.searchStrategy = SearchStrategy.DOM_OVER_W_DEG;
+        this.hinted = false;
         getModel().getSolver().setSearch(Search.domOverWDegSearch(decisionVariables));
         getModel().getSolver().setGeometricalRestart(200, 1.5, new FailCounter(getModel(), 1), 100);
     }
 
     public void setDomOverWDegRefSearch() {
+        this.searchStrategy = SearchStrategy.DOM_OVER_W_DEG_REF;
+        this.hinted = false;
         getModel().getSolver().setSearch(Search.domOverWDegRefSearch(decisionVariables));
         getModel().getSolver().setGeometricalRestart(200, 1.5, new FailCounter(getModel(), 1), 100);
     }
 
     public void setActivityBasedSearch() {
+        this.searchStrategy = SearchStrategy.ACTIVITY_BASED;
+        this.hinted = false;
         getModel().getSolver().setSearch(Search.activityBasedSearch(decisionVariables));
         getModel().getSolver().setGeometricalRestart(200, 1.5, new FailCounter(getModel(), 1), 100);
     }
 
     public void setDefaultSearch() {
+        this.searchStrategy = SearchStrategy.DEFAULT;
+        this.hinted = false;
         getModel().getSolver().setSearch(Search.defaultSearch(getModel()));
     }
 
     public void setConflictHistorySearch() {
+        this.searchStrategy = SearchStrategy.CONFLICT_HISTORY;
+        this.hinted = false;
         getModel().getSolver().setSearch(Search.conflictHistorySearch(decisionVariables));
         getModel().getSolver().setGeometricalRestart(200, 1.5, new FailCounter(getModel(), 1), 100);
     }
 
     public void setMinDomUBSearch() {
+        this.searchStrategy = SearchStrategy.MIN_DOM_UB;
+        this.hinted = false;
         getModel().getSolver().setSearch(Search.minDomUBSearch(decisionVariables));
     }
 
     public void setMinDomLBSearch() {
+        this.searchStrategy = SearchStrategy.MIN_DOM_LB;
+        this.hinted = false;
         getModel().getSolver().setSearch(Search.minDomLBSearch(decisionVariables));
     }
 
+    /**
+     * Set the search strategy of the solver
+     * @param strategy The search strategy
+     * @param seed The seed of the random search (ignored by other strategies)
+     */
+    public void setSearch(SearchStrategy strategy, long seed) {
+        switch (strategy) {
+            case RANDOM:
+                setRandomSearch(seed);
+                break;
+            case DOM_OVER_W_DEG:
+                setDomOverWDegSearch();
+                break;
+            case DOM_OVER_W_DEG_REF:
+                setDomOverWDegRefSearch();
+                break;
+            case MIN_DOM_LB:
+                setMinDomLBSearch();
+                break;
+            case MIN_DOM_UB:
+                setMinDomUBSearch();
+                break;
+            case ACTIVITY_BASED:
+                setActivityBasedSearch();
+                break;
+            case CONFLICT_HISTORY:
+                setConflictHistorySearch();
+                break;
+            default:
+                setDefaultSearch();
+                break;
+        }
+    }
+
+    /**
+     * Set the search strategy of the solver, the random search being seeded by the clock (the structure cache is then
+     * not used, as the search is not reproducible)
+     * @param strategy The search strategy
+     */
+    public void setSearch(SearchStrategy strategy) {
+        if (strategy == SearchStrategy.RANDOM) {
+            setRandomSearch();
+        } else {
+            setSearch(strategy, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Guide the search with a reference structure (e.g. extracted from a real landscape), so that the first
+     * solutions found are close to it: the patch sizes of each class are decided first, from the largest to the
+     * smallest, trying the size of the reference patch of same rank (or the closest possible size) first. When the
+     * reference nearly satisfies the targets, a solution is usually found without backtracking far from it.
+     * Patch sizes with bounded domains (see LandscapeClass.MAX_ENUMERATED_VALUES) are first split at their hints.
+     * Reference classes are matched by name with the classes of the model.
+     * @param reference The reference structure
+     */
+    public void setSolutionHint(LandscapeStructure reference) throws FlsgenException {
+        if (!isBuilt) {
+            build();
+        }
+        Map<IntVar, Integer> hints = new IdentityHashMap<>();
+        List<IntVar> hinted = new ArrayList<>();
+        List<IntVar> bounded = new ArrayList<>();
+        List<String> names = Arrays.asList(reference.getNames());
+        for (LandscapeClass landscapeClass : landscapeClasses) {
+            int k = names.indexOf(landscapeClass.name);
+            if (k < 0) {
+                throw new FlsgenException("The reference structure has no class named " + landscapeClass.name);
+            }
+            int[] sizes = reference.getPatchSizes(k).clone();
+            Arrays.sort(sizes);
+            // Patch sizes are sorted and zero-padded: the largest reference patches match the last variables
+            IntVar[] patchSizes = landscapeClass.patchSizes;
+            for (int i = patchSizes.length - 1, j = sizes.length - 1; i >= 0; i--, j--) {
+                hints.put(patchSizes[i], j >= 0 ? sizes[j] : 0);
+                hinted.add(patchSizes[i]);
+                if (landscapeClass.hasBoundedDomains()) {
+                    bounded.add(patchSizes[i]);
+                }
+            }
+        }
+        AbstractStrategy<IntVar> hintSearch = Search.lastConflict(Search.intVarSearch(
+                new InputOrder<>(getModel()),
+                new HintValueSelector(hints),
+                hinted.toArray(new IntVar[0])
+        ));
+        if (bounded.isEmpty()) {
+            getModel().getSolver().setSearch(hintSearch, Search.defaultSearch(getModel()));
+        } else {
+            // Bounded domains cannot exclude a hint within their bounds: they are first split at their hints
+            HintValueSelector split = new HintValueSelector(hints, true);
+            getModel().getSolver().setSearch(
+                    Search.intVarSearch(split, split, DecisionOperatorFactory.makeIntSplit(),
+                            bounded.toArray(new IntVar[0])),
+                    hintSearch,
+                    Search.defaultSearch(getModel())
+            );
+        }
+        this.hinted = true;
+        this.hintJson = StructureCache.canonicalJson(reference.toJsonObject());
+    }
+
+    // Search limits - cumulated over all the solving calls, as search measures
+
+    /**
+     * Stop the search after a given number of nodes
+     */
+    public void setNodeLimit(long nodes) {
+        addLimit("nodes", new NodeCounter(getModel(), nodes));
+    }
+
+    /**
+     * Stop the search after a given number of fails
+     */
+    public void setFailLimit(long fails) {
+        addLimit("fails", new FailCounter(getModel(), fails));
+    }
+
+    /**
+     * Stop the search after a given number of backtracks
+     */
+    public void setBacktrackLimit(long backtracks) {
+        addLimit("backtracks", new BacktrackCounter(getModel(), backtracks));
+    }
+
+    /**
+     * Stop the search after a given number of restarts
+     */
+    public void setRestartLimit(long restarts) {
+        addLimit("restarts", new RestartCounter(getModel(), restarts));
+    }
+
+    /**
+     * Stop the search after a given time
+     */
+    public void setTimeLimit(int limitInSeconds) {
+        addLimit("time", new TimeCounter(getModel(), (long) (limitInSeconds * 1e9)));
+    }
+
+    /**
+     * Stop the search when the heap memory used by the JVM exceeds a given amount, rather than failing with an
+     * OutOfMemoryError. Memory is checked every 1000 nodes.
+     * @param maxBytes The maximum amount of used heap memory, in bytes
+     */
+    public void setMemoryLimit(long maxBytes) {
+        Runtime runtime = Runtime.getRuntime();
+        addLimit("memory", new Criterion() {
+            private int calls = 0;
+            private boolean met = false;
+
+            @Override
+            public boolean isMet() {
+                if (!met && ++calls % 1000 == 0) {
+                    met = runtime.totalMemory() - runtime.freeMemory() > maxBytes;
+                }
+                return met;
+            }
+        });
+    }
+
+    protected void addLimit(String name, Criterion criterion) {
+        Criterion previous = limits.put(name, criterion);
+        if (previous != null) {
+            getModel().getSolver().removeStopCriterion(previous);
+        }
+        getModel().getSolver().addStopCriterion(criterion);
+    }
+
+    /**
+     * Plug the search monitors needed by the statistics, once
+     */
+    protected void plugMonitors() {
+        if (!monitorsPlugged) {
+            monitorsPlugged = true;
+            getModel().getSolver().plugMonitor((IMonitorSolution) () -> {
+                if (firstSolutionTime < 0) {
+                    firstSolutionTime = getModel().getSolver().getTimeCount();
+                }
+            });
+        }
+    }
+
+    /**
+     * @return The status of the last solving call: SOLUTION if a solution was found, UNSATISFIABLE (or
+     * NO_MORE_SOLUTIONS if solutions were found by previous calls) if the search was completed without solution,
+     * LIMIT_(NAME) if a search limit was reached, STOPPED otherwise.
+     */
+    public String getStatus() {
+        Solver solver = getModel().getSolver();
+        if (lastSolveFound) {
+            return "SOLUTION";
+        }
+        if (solver.isSearchCompleted()) {
+            return solver.getSolutionCount() > 0 ? "NO_MORE_SOLUTIONS" : "UNSATISFIABLE";
+        }
+        for (Map.Entry<String, Criterion> limit : limits.entrySet()) {
+            if (limit.getValue().isMet()) {
+                return "LIMIT_" + limit.getKey().toUpperCase();
+            }
+        }
+        return "STOPPED";
+    }
+
+    /**
+     * @return A JSON record of the search configuration and statistics (cumulated over solving calls, except for
+     * solveWith whose statistics are those of the call): status,
+     * search strategy, time, time to first solution, nodes, fails, backtracks, restarts, solutions, model size and
+     * number of propagators of each type.
+     */
+    public JsonObject getStatistics() {
+        if (temporaryTargetStatistics != null) {
+            return temporaryTargetStatistics;
+        }
+        Solver solver = getModel().getSolver();
+        JsonObject stats = new JsonObject();
+        stats.put("status", getStatus());
+        stats.put("strategy", hinted ? "HINT" : searchStrategy.toString());
+        if (searchStrategy == SearchStrategy.RANDOM) {
+            stats.put("seed", seed);
+        }
+        stats.put("time", solver.getTimeCount());
+        stats.put("timeToFirstSolution", firstSolutionTime);
+        stats.put("nodes", solver.getNodeCount());
+        stats.put("fails", solver.getFailCount());
+        stats.put("backtracks", solver.getBackTrackCount());
+        stats.put("restarts", solver.getRestartCount());
+        stats.put("solutions", solver.getSolutionCount());
+        stats.put("maxDepth", solver.getMaxDepth());
+        stats.put("nbVariables", getModel().getNbIntVar(false));
+        stats.put("nbConstraints", getModel().getNbCstrs());
+        Map<String, Integer> propagators = new TreeMap<>();
+        for (Constraint c : getModel().getCstrs()) {
+            for (Propagator p : c.getPropagators()) {
+                propagators.merge(p.getClass().getSimpleName(), 1, Integer::sum);
+            }
+        }
+        stats.put("propagators", new JsonObject(propagators));
+        Runtime runtime = Runtime.getRuntime();
+        stats.put("usedMemory", runtime.totalMemory() - runtime.freeMemory());
+        if (cache != null) {
+            stats.put("cacheHit", cacheHit);
+        }
+        if (!softTargets.isEmpty()) {
+            stats.put("softViolation", bestSoftViolation);
+            JsonArray deviations = new JsonArray();
+            for (SoftTarget softTarget : softTargets) {
+                deviations.add(softTarget.toJsonObject(bestSolution));
+            }
+            stats.put("softTargets", deviations);
+        }
+        return stats;
+    }
+
     public LandscapeStructure findSolution() {
         return findSolution(0);
     }
 
     /**
      * Solves the model
-     * @param limitInSeconds The time limit. If 0, no time limit is set.
+     * @param limitInSeconds The time limit, set as with setTimeLimit (thus reported by getStatus). If 0, no time
+     *                       limit is set.
      * @return A LandscapeStructure object (solution wrapper) if successful, null otherwise.
      */
     public LandscapeStructure findSolution(int limitInSeconds) {
         if (!isBuilt) {
             build();
         }
+        plugMonitors();
+        temporaryTargetStatistics = null;
+        cacheHit = false;
+        String cacheKey = cache != null ? getCacheKey() : null;
+        // The cache holds the first solution of the search
+        boolean first = cacheKey != null && cachedSolution == null && getModel().getSolver().getSolutionCount() == 0;
+        if (first) {
+            cachedSolution = readCachedSolution(cacheKey);
+            if (cachedSolution != null) {
+                cacheHit = true;
+                lastSolveFound = true;
+                return cachedSolution;
+            }
+        }
         if (limitInSeconds > 0) {
-            getModel().getSolver().addStopCriterion(new TimeCounter(getModel(), (long) (limitInSeconds * 1e9)));
+            setTimeLimit(limitInSeconds);
+        }
+        lastSolveFound = getModel().getSolver().solve();
+        if (lastSolveFound && cachedSolution != null && getModel().getSolver().getSolutionCount() == 1
+                && samePatchSizes(new LandscapeStructure(this), cachedSolution)) {
+            // The first solution of the search was already returned from the cache
+            lastSolveFound = getModel().getSolver().solve();
         }
-        if (getModel().getSolver().solve()) {
-            return new LandscapeStructure(this);
+        if (lastSolveFound) {
+            LandscapeStructure s = new LandscapeStructure(this);
+            if (first) {
+                writeCachedSolution(cacheKey, s);
+            }
+            return s;
         }
         return null;
     }
 
+    /**
+     * Use a structure cache in findSolution: the first solution is read from the cache if it was found by a previous
+     * search with the same targets and search configuration, and written to the cache otherwise. The key covers the
+     * targets read from JSON (see readFromJSON) and set with setTarget, thus the cache is not used for models built
+     * otherwise, nor with soft targets, nor with a random search whose seed was not given.
+     * @param cache The cache, null to disable it
+     */
+    public void setCache(StructureCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @return True if the last call to findSolution returned a cached structure
+     */
+    public boolean isCacheHit() {
+        return cacheHit;
+    }
+
+    /**
+     * @return The cache key of the current targets, grid, model options and search configuration, null if the
+     * targets were not read from JSON, include soft targets, or if the search is random with a seed drawn from the clock
+     */
+    public String getCacheKey() {
+        if (targetsJson == null || !softTargets.isEmpty()) {
+            return null;
+        }
+        if (!hinted && searchStrategy == SearchStrategy.RANDOM && !explicitSeed) {
+            return null;
+        }
+        String config = hinted ? "HINT " + hintJson : searchStrategy.toString();
+        if (!hinted && searchStrategy == SearchStrategy.RANDOM) {
+            config += " " + seed;
+        }
+        String gridKey = grid.getNbRows() + " " + grid.getNbCols() + " " + nbCells + getNoDataKey();
+        return StructureCache.hash(targetsJson, String.join("\n", targetUpdates), gridKey,
+                String.join("\n", modelOptions), config);
+    }
+
+    /**
+     * @return The no data cells of the grid, as runs of consecutive cells (start and length), so that two masks with
+     * the same dimensions and number of cells have different keys
+     */
+    protected String getNoDataKey() {
+        if (!(grid instanceof PartialRegularSquareGrid)) {
+            return "";
+        }
+        PartialRegularSquareGrid partialGrid = (PartialRegularSquareGrid) grid;
+        StringBuilder key = new StringBuilder();
+        int size = grid.getNbRows() * grid.getNbCols();
+        int i = 0;
+        while (i < size) {
+            if (partialGrid.getPartialIndex(i) >= 0) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < size && partialGrid.getPartialIndex(i) < 0) {
+                i++;
+            }
+            key.append(' ').append(start).append(':').append(i - start);
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return The cached structure, null if none or unreadable
+     */
+    protected LandscapeStructure readCachedSolution(String cacheKey) {
+        String json = cache.get(cacheKey);
+        if (json == null) {
+            return null;
+        }
+        int[] noDataCells = new int[] {};
+        if (grid instanceof PartialRegularSquareGrid) {
+            noDataCells = ((PartialRegularSquareGrid) grid).getDiscardSet().stream().mapToInt(i -> i).sorted().toArray();
+        }
+        try {
+            LandscapeStructure s = LandscapeStructure.fromJSON(json, grid.getNbRows(), grid.getNbCols(), noDataCells);
+            return s.getNames().length == landscapeClasses.size() ? s : null;
+        } catch (JsonException | IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    protected void writeCachedSolution(String cacheKey, LandscapeStructure s) {
+        try {
+            cache.put(cacheKey, s.toJSON());
+        } catch (IOException e) {
+            System.err.println(ANSI_RED + "Warning: the structure could not be cached (" + e.getMessage() + ")" + ANSI_RESET);
+        }
+    }
+
+    private static boolean samePatchSizes(LandscapeStructure a, LandscapeStructure b) {
+        for (int i = 0; i < a.getNames().length; i++) {
+            if (!Arrays.equals(a.getPatchSizes(i), b.getPatchSizes(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A target applied temporarily to a built model, see solveWith.
+     */
+    public interface TemporaryTarget {
+        void apply(LandscapeStructureSolver solver) throws FlsgenException;
+    }
+
+    /**
+     * Solve the model with an additional target, without rebuilding it: the constraints and variables created by
+     * the target are removed, and the search is reset, once solved. This allows exploring many targets (e.g. a
+     * parameter sweep) at the cost of the search only, with a model which does not grow from one target to the
+     * next.
+     * @param target The temporary target
+     * @param limitInSeconds The time limit. If 0, no time limit is set.
+     * @return A LandscapeStructure object (solution wrapper) if successful, null otherwise.
+     */
+    public LandscapeStructure solveWith(TemporaryTarget target, int limitInSeconds) throws FlsgenException {
+        if (!isBuilt) {
+            build();
+        }
+        plugMonitors();
+        Solver solver = getModel().getSolver();
+        temporaryTargetStatistics = null;
+        solver.reset();
+        if (solver.getSearch() == null) {
+            // Otherwise, the default search would be built over the variables of the first target
+            setDefaultSearch();
+        }
+        firstSolutionTime = -1;
+        Set<Constraint> base = Collections.newSetFromMap(new IdentityHashMap<>());
+        base.addAll(Arrays.asList(getModel().getCstrs()));
+        int nbVars = getModel().getNbVars();
+        IntVar[] meanPatchAreas = new IntVar[landscapeClasses.size()];
+        double[][] meshBounds = new double[landscapeClasses.size()][];
+        for (int i = 0; i < landscapeClasses.size(); i++) {
+            meanPatchAreas[i] = landscapeClasses.get(i).meanPatchArea;
+            meshBounds[i] = new double[] {landscapeClasses.get(i).mesh_lb, landscapeClasses.get(i).mesh_ub};
+        }
+        int nbTargetUpdates = targetUpdates.size();
+        int nbSoftTargets = softTargets.size();
+        Criterion limit = null;
+        Criterion previousTimeLimit = limits.get("time");
+        try {
+            target.apply(this);
+            if (limitInSeconds > 0) {
+                // Registered as the time limit while solving, so that the status reports it
+                limit = new TimeCounter(getModel(), (long) (limitInSeconds * 1e9));
+                addLimit("time", limit);
+            }
+            lastSolveFound = solver.solve();
+            if (lastSolveFound) {
+                return new LandscapeStructure(this);
+            }
+            return null;
+        } finally {
+            temporaryTargetStatistics = getStatistics();
+            if (limit != null) {
+                if (previousTimeLimit != null) {
+                    addLimit("time", previousTimeLimit);
+                } else {
+                    limits.remove("time");
+                    solver.removeStopCriterion(limit);
+                }
+            }
+            solver.reset();
+            Constraint[] temporary = Arrays.stream(getModel().getCstrs())
+                    .filter(c -> !base.contains(c))
+                    .toArray(Constraint[]::new);
+            getModel().unpost(temporary);
+            // Variables created by the target come after the base ones, and are no longer involved in constraints.
+            // Cached constants are kept, as they are shared with the constraints of later targets.
+            Variable[] vars = getModel().getVars();
+            for (int i = vars.length - 1; i >= nbVars; i--) {
+                if (!isCachedConstant(vars[i])) {
+                    getModel().removeVariable(vars[i]);
+                }
+            }
+            for (int i = 0; i < landscapeClasses.size(); i++) {
+                landscapeClasses.get(i).meanPatchArea = meanPatchAreas[i];
+                landscapeClasses.get(i).mesh_lb = meshBounds[i][0];
+                landscapeClasses.get(i).mesh_ub = meshBounds[i][1];
+            }
+            targetUpdates.subList(nbTargetUpdates, targetUpdates.size()).clear();
+            softTargets.subList(nbSoftTargets, softTargets.size()).clear();
+        }
+    }
+
+    private boolean isCachedConstant(Variable var) {
+        if (!(var instanceof IntVar) || !((IntVar) var).isInstantiated()) {
+            return false;
+        }
+        return getModel().getCachedConstants().get(((IntVar) var).getValue()) == var;
+    }
+
+    /**
+     * Solve the model for each point of a sweep over a target, without rebuilding it (see solveWith).
+     * @param className The class to which the target applies, null for landscape-level targets
+     * @param key The target key (e.g. PLAND)
+     * @param intervals The [min, max] interval of each sweep point
+     * @param limitInSeconds The time limit of each point. If 0, no time limit is set.
+     * @return The solution of each sweep point, null for points without solution
+     */
+    public LandscapeStructure[] sweep(String className, String key, double[][] intervals, int limitInSeconds) throws FlsgenException {
+        LandscapeStructure[] solutions = new LandscapeStructure[intervals.length];
+        for (int i = 0; i < intervals.length; i++) {
+            double[] interval = intervals[i];
+            solutions[i] = solveWith(s -> s.setTarget(className, key, interval[0], interval[1]), limitInSeconds);
+        }
+        return solutions;
+    }
+
+    /**
+     * Post a target given by its key, as in JSON target files.
+     * @param className The class to which the target applies, null for landscape-level targets
+     * @param key The target key (e.g. PLAND)
+     * @param min The lower bound of the target
+     * @param max The upper bound of the target
+     */
+    public void setTarget(String className, String key, double min, double max) throws FlsgenException {
+        targetUpdates.add(className + " " + key + " " + min + " " + max);
+        if (className == null) {
+            if (!KEY_NON_FOCAL_PLAND.equals(key)) {
+                throw new FlsgenException("Unknown landscape-level target: " + key);
+            }
+            if (!isBuilt) {
+                build();
+            }
+            setNonFocalLandscapeProportion(min, max);
+            return;
+        }
+        LandscapeClass landscapeClass = getLandscapeClass(className);
+        switch (key) {
+            case KEY_NP:
+                landscapeClass.setNbPatches((int) min, (int) max);
+                break;
+            case KEY_AREA_MN:
+                landscapeClass.setMeanPatchArea(min, max);
+                break;
+            case KEY_CA:
+                landscapeClass.setClassArea((int) min, (int) max);
+                break;
+            case KEY_PLAND:
+                landscapeClass.setLandscapeProportion(min, max);
+                break;
+            case KEY_PD:
+                landscapeClass.setPatchDensity(min, max);
+                break;
+            case KEY_SPI:
+                landscapeClass.setSmallestPatchSize((int) min, (int) max);
+                break;
+            case KEY_LPI:
+                landscapeClass.setLargestPatchSize((int) min, (int) max);
+                break;
+            case KEY_MESH:
+                landscapeClass.setMesh(min, max);
+                break;
+            case KEY_SPLI:
+                landscapeClass.setSplittingIndex(min, max);
+                break;
+            case KEY_NPRO:
+                landscapeClass.setNetProduct((long) min, (long) max);
+                break;
+            case KEY_SDEN:
+                landscapeClass.setSplittingDensity(min, max);
+                break;
+            case KEY_COHE:
+                landscapeClass.setDegreeOfCoherence(min, max);
+                break;
+            case KEY_DIVI:
+                landscapeClass.setDegreeOfDivision(min, max);
+                break;
+            default:
+                throw new FlsgenException("Unknown class-level target: " + key);
+        }
+    }
+
+    /**
+     * Post a class target given by its key (see setTarget) as a soft target: the target may be violated, and
+     * findBestSolution minimizes the weighted sum of the violations of soft targets (see SoftTarget for the unit of
+     * violations).
+     * @param className The class to which the target applies
+     * @param key The target key (e.g. PLAND)
+     * @param min The lower bound of the target
+     * @param max The upper bound of the target
+     * @param weight The weight of the target violation, at least 1
+     * @return The soft target
+     */
+    public SoftTarget setSoftTarget(String className, String key, double min, double max, int weight) throws FlsgenException {
+        if (className == null) {
+            throw new FlsgenException("Only class-level targets can be soft");
+        }
+        if (weight <= 0) {
+            // A null weight would silently remove the target from the objective
+            throw new FlsgenException("The weight of a soft target must be at least 1");
+        }
+        if (softViolation != null) {
+            throw new FlsgenException("Soft targets must be posted before the first call to findBestSolution");
+        }
+        LandscapeClass landscapeClass = getLandscapeClass(className);
+        SoftTarget softTarget = new SoftTarget(className, key, min, max, weight);
+        landscapeClass.softTarget = softTarget;
+        try {
+            setTarget(className, key, min, max);
+        } finally {
+            landscapeClass.softTarget = null;
+        }
+        softTargets.add(softTarget);
+        return softTarget;
+    }
+
+    public List<SoftTarget> getSoftTargets() {
+        return softTargets;
+    }
+
+    /**
+     * Find the structure minimizing the weighted violation of soft targets (hard targets being satisfied), with
+     * large neighbourhood search over patch sizes. As it never completes, the search must be bounded, by the time
+     * limit or by a search limit. Without soft targets, this is equivalent to findSolution.
+     * @param limitInSeconds The time limit, set as with setTimeLimit (thus reported by getStatus). If 0, no time
+     *                       limit is set.
+     * @return The best structure found, null if none was found
+     */
+    public LandscapeStructure findBestSolution(int limitInSeconds) throws FlsgenException {
+        if (softTargets.isEmpty()) {
+            return findSolution(limitInSeconds);
+        }
+        if (limitInSeconds <= 0 && limits.isEmpty()) {
+            throw new FlsgenException("Soft targets are optimized by large neighbourhood search, which never " +
+                    "completes: a time limit or a search limit is required");
+        }
+        if (!isBuilt) {
+            build();
+        }
+        Solver solver = getModel().getSolver();
+        if (softViolation == null) {
+            IntVar[] violations = new IntVar[softTargets.size()];
+            int[] weights = new int[softTargets.size()];
+            long maxViolation = 0;
+            for (int i = 0; i < violations.length; i++) {
+                violations[i] = softTargets.get(i).violation;
+                weights[i] = softTargets.get(i).weight;
+                maxViolation += (long) weights[i] * violations[i].getUB();
+            }
+            softViolation = getModel().intVar("softViolation", 0, (int) Math.min(maxViolation, Integer.MAX_VALUE - 1));
+            getModel().scalar(violations, weights, "=", softViolation).post();
+            getModel().setObjective(Model.MINIMIZE, softViolation);
+            List<IntVar> patchSizes = new ArrayList<>();
+            for (LandscapeClass landscapeClass : landscapeClasses) {
+                patchSizes.addAll(Arrays.asList(landscapeClass.patchSizes));
+            }
+            solver.setLNS(INeighborFactory.blackBox(patchSizes.toArray(new IntVar[0])));
+        }
+        plugMonitors();
+        if (limitInSeconds > 0) {
+            setTimeLimit(limitInSeconds);
+        }
+        temporaryTargetStatistics = null;
+        // Each solution improves the weighted violation of the previous one
+        while (solver.solve()) {
+            bestSolution = new LandscapeStructure(this);
+            bestSoftViolation = softViolation.getValue();
+            if (bestSoftViolation == 0) {
+                break;
+            }
+        }
+        lastSolveFound = bestSolution != null;
+        return bestSolution;
+    }
+
+    /**
+     * @return The weighted violation of soft targets in the best structure found by findBestSolution, -1 if none
+     */
+    public int getSoftViolation() {
+        return bestSoftViolation;
+    }
+
+    /**
+     * @return The landscape class with the given name
+     */
+    public LandscapeClass getLandscapeClass(String name) throws FlsgenException {
+        for (LandscapeClass l : landscapeClasses) {
+            if (l.name.equals(name)) {
+                return l;
+            }
+        }
+        throw new FlsgenException("Unknown landscape class: " + name);
+    }
+
     /**
      * @return A JSON representation of the landscape structure targets (formatted as expected in readFromJSON)
      */
     public String toJSON() {
-        JsonObject json = new JsonObject();
-        json.put("nbRows", grid.getNbRows());
-        json.put("nbCols", grid.getNbCols());
+        StringWriter writer = new StringWriter();
+        try {
+            writeJSON(writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Write the JSON representation of the landscape structure targets, streamed to the writer
+     */
+    public void writeJSON(Writer writer) throws IOException {
+        JsonStreamWriter json = new JsonStreamWriter(writer);
+        json.beginObject();
+        json.name("nbRows").value(grid.getNbRows());
+        json.name("nbCols").value(grid.getNbCols());
         if (maskRasterPath != null) {
-            json.put("maskRasterPath", maskRasterPath);
+            json.name("maskRasterPath").value(maskRasterPath);
         }
-        JsonArray classes = new JsonArray();
+        json.name("classes").beginArray();
         for (LandscapeClass l : landscapeClasses) {
-            JsonObject cl = new JsonObject();
-            cl.put("name", l.name);
-            JsonArray nbPatches = new JsonArray();
-            nbPatches.add(l.minNbPatches);
-            nbPatches.add(l.maxNbPatches);
-            cl.put("nbPatches", nbPatches);
-            JsonArray patchSize = new JsonArray();
-            patchSize.add(l.minPatchSize);
-            patchSize.add(l.maxPatchSize);
-            cl.put("patchSize", patchSize);
-            classes.add(cl);
-
+            json.beginObject();
+            json.name("name").value(l.name);
+            json.name("nbPatches").value(new int[] {l.minNbPatches, l.maxNbPatches});
+            json.name("patchSize").value(new int[] {l.minPatchSize, l.maxPatchSize});
+            json.endObject();
         }
-        json.put("classes", classes);
-        return Jsoner.prettyPrint(json.toJson());
+        json.endArray();
+        json.endObject();
+        json.flush();
     }
 
     /**
@@ -272,6 +1039,8 @@ public class LandscapeStructureSolver {
             throw new IOException("'classes' is a mandatory parameter but missing in input JSON file");
         }
         JsonArray classes = (JsonArray) targets.get("classes");
+        // Analytic pre-check of the targets, which also tightens NP and patch size bounds
+        TargetBoundsAnalyzer analyzer = new TargetBoundsAnalyzer(lStructSolver.getLandscapeSize());
         for (Object cl : classes) {
             JsonObject cljson = (JsonObject) cl;
             // Get name
@@ -279,74 +1048,94 @@ public class LandscapeStructureSolver {
                 throw new IOException("'name' is a mandatory parameter of classes but missing in input JSON file");
             }
             String name = cljson.get("name").toString();
-            // Get min and max nb patches
-            int[] nbPatches = getIntInterval(cljson, KEY_NP, true, name);
-            // Get min and max patch sizes
-            int[] patchSize = getIntInterval(cljson, KEY_AREA, true, name);
+            // Soft targets: the targets whose keys are in the SOFT object, mapped to their weight
+            JsonObject soft = new JsonObject();
+            JsonObject hardTargets = cljson;
+            if (cljson.containsKey(KEY_SOFT)) {
+                soft = (JsonObject) cljson.get(KEY_SOFT);
+                hardTargets = new JsonObject(cljson);
+                for (String key : soft.keySet()) {
+                    if (KEY_NP.equals(key) || KEY_AREA.equals(key)) {
+                        throw new IOException(key + " defines the class " + name + " and cannot be a soft target");
+                    }
+                    if (!cljson.containsKey(key)) {
+                        throw new IOException("Soft target " + key + " has no interval in class " + name);
+                    }
+                    hardTargets.remove(key);
+                }
+            }
+            // Min and max nb patches and patch sizes, tightened by the other hard targets
+            TargetBoundsAnalyzer.ClassBounds bounds = analyzer.analyzeClass(name, hardTargets);
             boolean isSquare = false;
             if (cljson.containsKey(IS_SQUARE)) {
                 isSquare = Boolean.parseBoolean(cljson.get(IS_SQUARE).toString());
             }
             // Construct the landscape class
-            LandscapeClass landscapeClass = lStructSolver.landscapeClass(name, nbPatches[0], nbPatches[1], patchSize[0], patchSize[1], isSquare);
+            LandscapeClass landscapeClass = lStructSolver.landscapeClass(name, bounds.minNbPatches, bounds.maxNbPatches,
+                    bounds.minPatchSize, bounds.maxPatchSize, isSquare);
+            for (String key : soft.keySet()) {
+                double[] interval = getDoubleInterval(cljson, key, true, name);
+                int weight = Integer.parseInt(soft.get(key).toString());
+                lStructSolver.setSoftTarget(name, key, interval[0], interval[1], weight);
+            }
             // Get landscape class constraints
             // AREA_MN
-            double[] area_mn = getDoubleInterval(cljson, KEY_AREA_MN, false, name);
+            double[] area_mn = getDoubleInterval(hardTargets, KEY_AREA_MN, false, name);
             if (area_mn != null) {
                 landscapeClass.setMeanPatchArea(area_mn[0], area_mn[1]);
             }
             // CA
-            int[] ca = getIntInterval(cljson, KEY_CA, false, name);
+            int[] ca = getIntInterval(hardTargets, KEY_CA, false, name);
             if (ca != null) {
                 landscapeClass.setClassArea(ca[0], ca[1]);
             }
             // PLAND
-            double[] pland = getDoubleInterval(cljson, KEY_PLAND, false, name);
+            double[] pland = getDoubleInterval(hardTargets, KEY_PLAND, false, name);
             if (pland != null) {
                 landscapeClass.setLandscapeProportion(pland[0], pland[1]);
             }
             // PD
-            double[] pd = getDoubleInterval(cljson, KEY_PD, false, name);
+            double[] pd = getDoubleInterval(hardTargets, KEY_PD, false, name);
             if (pd != null) {
                 landscapeClass.setPatchDensity(pd[0], pd[1]);
             }
             // SPI
-            int[] spi = getIntInterval(cljson, KEY_SPI, false, name);
+            int[] spi = getIntInterval(hardTargets, KEY_SPI, false, name);
             if (spi != null) {
                 landscapeClass.setSmallestPatchSize(spi[0], spi[1]);
             }
             // LPI
-            int[] lpi = getIntInterval(cljson, KEY_LPI, false, name);
+            int[] lpi = getIntInterval(hardTargets, KEY_LPI, false, name);
             if (lpi != null) {
                 landscapeClass.setLargestPatchSize(lpi[0], lpi[1]);
             }
             // MESH
-            double[] mesh = getDoubleInterval(cljson, KEY_MESH, false, name);
+            double[] mesh = getDoubleInterval(hardTargets, KEY_MESH, false, name);
             if (mesh != null) {
                 landscapeClass.setMesh(mesh[0], mesh[1]);
             }
             // SPLI
-            double[] spli = getDoubleInterval(cljson, KEY_SPLI, false, name);
+            double[] spli = getDoubleInterval(hardTargets, KEY_SPLI, false, name);
             if (spli != null) {
                 landscapeClass.setSplittingIndex(spli[0], spli[1]);
             }
             // NPRO
-            int[] npro = getIntInterval(cljson, KEY_NPRO, false, name);
+            int[] npro = getIntInterval(hardTargets, KEY_NPRO, false, name);
             if (npro != null) {
                 landscapeClass.setNetProduct(npro[0], npro[1]);
             }
             // SDEN
-            double[] sden = getDoubleInterval(cljson, KEY_SPLI, false, name);
+            double[] sden = getDoubleInterval(hardTargets, KEY_SDEN, false, name);
             if (sden != null) {
                 landscapeClass.setSplittingDensity(sden[0], sden[1]);
             }
             // COHE
-            double[] cohe = getDoubleInterval(cljson, KEY_COHE, false, name);
+            double[] cohe = getDoubleInterval(hardTargets, KEY_COHE, false, name);
             if (cohe != null) {
                 landscapeClass.setDegreeOfCoherence(cohe[0], cohe[1]);
             }
             // DIVI
-            double[] divi = getDoubleInterval(cljson, KEY_DIVI, false, name);
+            double[] divi = getDoubleInterval(hardTargets, KEY_DIVI, false, name);
             if (divi != null) {
                 landscapeClass.setDegreeOfDivision(divi[0], divi[1]);
             }
@@ -358,6 +1147,8 @@ public class LandscapeStructureSolver {
                 }
             }
         }
+        double[] pland = getDoubleInterval(targets, KEY_NON_FOCAL_PLAND, false, "landscape");
+        analyzer.analyzeLandscape(pland);
         lStructSolver.build();
 
         // -----------------------
@@ -365,10 +1156,10 @@ public class LandscapeStructureSolver {
         // -----------------------
 
         // Non focal PLAND
-        double[] pland = getDoubleInterval(targets, KEY_NON_FOCAL_PLAND, false, "landscape");
         if (pland != null) {
             lStructSolver.setNonFocalLandscapeProportion(pland[0], pland[1]);
         }
+        lStructSolver.targetsJson = StructureCache.canonicalJson(targets);
         return lStructSolver;
     }
 
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen.solver;
+
+/**
+ * Search strategies available to solve a landscape structure problem with Choco.
+ */
+public enum SearchStrategy {
+    DEFAULT,
+    RANDOM,
+    DOM_OVER_W_DEG,
+    DOM_OVER_W_DEG_REF,
+    ACTIVITY_BASED,
+    CONFLICT_HISTORY,
+    MIN_DOM_UB,
+    MIN_DOM_LB,
+}
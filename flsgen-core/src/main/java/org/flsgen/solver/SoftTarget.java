@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen.solver;
+
+import com.github.cliftonlabs.json_simple.JsonArray;
+import com.github.cliftonlabs.json_simple.JsonObject;
+import org.chocosolver.solver.variables.IntVar;
+
+import java.util.Arrays;
+
+/**
+ * A class target that may be violated, at a cost proportional to its weight (see
+ * LandscapeStructureSolver.setSoftTarget). In the model, the violation of the target is an integer variable measured
+ * in cells for area targets (CA, PLAND, AREA_MN, SPI, LPI), in patches for NP and PD, and in MESH units (cells) for
+ * net product targets (MESH, NPRO, SPLI, SDEN, COHE, DIVI). Deviations of solutions are reported in the unit of the
+ * target itself.
+ */
+public class SoftTarget {
+
+    protected String className;
+    protected String key;
+    protected double min;
+    protected double max;
+    protected int weight;
+    protected IntVar violation;
+
+    public SoftTarget(String className, String key, double min, double max, int weight) {
+        this.className = className;
+        this.key = key;
+        this.min = min;
+        this.max = max;
+        this.weight = weight;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * @return The violation variable, null if the target has not been posted yet
+     */
+    public IntVar getViolation() {
+        return violation;
+    }
+
+    /**
+     * @return The value of the target metric in a structure
+     */
+    public double getValue(LandscapeStructure structure) {
+        int classId = Arrays.asList(structure.getNames()).indexOf(className);
+        JsonObject cl = (JsonObject) ((JsonArray) structure.toJsonObject().get("classes")).get(classId);
+        return ((Number) cl.get(key)).doubleValue();
+    }
+
+    /**
+     * @return The distance between the value of the target metric in a structure and the target interval
+     */
+    public double getDeviation(LandscapeStructure structure) {
+        double value = getValue(structure);
+        return Math.max(0, Math.max(min - value, value - max));
+    }
+
+    /**
+     * @return A JSON record of the target and of its deviation in a structure
+     */
+    public JsonObject toJsonObject(LandscapeStructure structure) {
+        JsonObject json = new JsonObject();
+        json.put("class", className);
+        json.put("key", key);
+        JsonArray interval = new JsonArray();
+        interval.add(min);
+        interval.add(max);
+        json.put("target", interval);
+        json.put("weight", weight);
+        if (structure != null) {
+            json.put("value", getValue(structure));
+            json.put("deviation", getDeviation(structure));
+        }
+        return json;
+    }
+}
@@ -36,8 +36,12 @@ public class SquaresLandscapeClass extends LandscapeClass{
     protected IntVar[] patchWidth;
 
     public SquaresLandscapeClass(String name, int index, RegularSquareGrid grid, Model model, int minNbPatches, int maxNbPatches, int minPatchSize, int maxPatchSize) throws FlsgenException {
-        super(name, index, grid, model, minNbPatches, maxNbPatches, minPatchSize, maxPatchSize);
-        this.patchWidth = model.intVarArray(maxNbPatches, 0, (int) Math.floor(Math.sqrt(maxPatchSize)), false);
+        this(name, index, grid, model, minNbPatches, maxNbPatches, minPatchSize, maxPatchSize, true);
+    }
+
+    public SquaresLandscapeClass(String name, int index, RegularSquareGrid grid, Model model, int minNbPatches, int maxNbPatches, int minPatchSize, int maxPatchSize, boolean globalPatchSizes) throws FlsgenException {
+        super(name, index, grid, model, minNbPatches, maxNbPatches, minPatchSize, maxPatchSize, globalPatchSizes);
+        this.patchWidth = model.intVarArray(maxNbPatches, 0, (int) Math.floor(Math.sqrt(maxPatchSize)), boundedDomains);
         for (int i = 0; i < this.patchWidth.length; i++) {
             model.square(this.patchSizes[i], this.patchWidth[i]).post();
         }
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen.solver;
+
+import com.github.cliftonlabs.json_simple.Jsoner;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * An on-disk cache of landscape structures, addressed by the hash of the targets and search configuration which
+ * produced them (see LandscapeStructureSolver.setCache). Each structure is stored as a JSON file named by its key,
+ * and can be shared by several processes through a common directory:
+ * <ul>
+ *     <li>Entries are written to a temporary file and atomically renamed, so that readers never see partial
+ *     entries.</li>
+ *     <li>Reading an entry updates its modification time, and when the total size of the entries exceeds the
+ *     maximum size, the least recently used entries are deleted. Evictions are serialized by a lock file.</li>
+ *     <li>An entry deleted by another process while being read is a cache miss.</li>
+ * </ul>
+ */
+public class StructureCache {
+
+    /**
+     * Default maximum total size of the entries, in bytes
+     */
+    public static final long DEFAULT_MAX_SIZE = 64L << 20;
+
+    private static final String ENTRY_SUFFIX = ".json";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String LOCK_FILE = ".lock";
+    // Temporary files older than this were left by interrupted processes
+    private static final long TMP_EXPIRATION = 3600 * 1000;
+    // File locks are held by the JVM, thus threads of a same JVM must also be serialized
+    private static final Object JVM_LOCK = new Object();
+
+    protected Path directory;
+    protected long maxSize;
+    protected long nbHits;
+    protected long nbMisses;
+
+    /**
+     * @param directory The cache directory, created if needed
+     * @param maxSize The maximum total size of the entries, in bytes
+     */
+    public StructureCache(Path directory, long maxSize) throws IOException {
+        if (maxSize <= 0) {
+            throw new IOException("The maximum size of the cache must be positive");
+        }
+        this.directory = directory;
+        this.maxSize = maxSize;
+        Files.createDirectories(directory);
+    }
+
+    public StructureCache(Path directory) throws IOException {
+        this(directory, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param key The key of the entry
+     * @return The cached JSON structure, null if none
+     */
+    public String get(String key) {
+        Path entry = directory.resolve(key + ENTRY_SUFFIX);
+        try {
+            String json = new String(Files.readAllBytes(entry), StandardCharsets.UTF_8);
+            try {
+                Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (IOException e) {
+                // Evicted in the meantime, the content read is still valid
+            }
+            nbHits++;
+            return json;
+        } catch (IOException e) {
+            nbMisses++;
+            return null;
+        }
+    }
+
+    /**
+     * Store a JSON structure, then evict the least recently used entries if the cache is too large
+     * @param key The key of the entry
+     * @param json The JSON structure
+     */
+    public void put(String key, String json) throws IOException {
+        Path tmp = directory.resolve(key + "." + UUID.randomUUID() + TMP_SUFFIX);
+        Files.write(tmp, json.getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.move(tmp, directory.resolve(key + ENTRY_SUFFIX), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        evict();
+    }
+
+    /**
+     * Delete the least recently used entries until the total size of the entries is at most the maximum size
+     */
+    public void evict() throws IOException {
+        synchronized (JVM_LOCK) {
+            try (RandomAccessFile lockFile = new RandomAccessFile(directory.resolve(LOCK_FILE).toFile(), "rw");
+                 FileChannel channel = lockFile.getChannel();
+                 FileLock lock = channel.lock()) {
+                long now = System.currentTimeMillis();
+                TreeMap<Long, List<Path>> byDate = new TreeMap<>();
+                long size = 0;
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                    for (Path file : files) {
+                        String name = file.getFileName().toString();
+                        try {
+                            long date = Files.getLastModifiedTime(file).toMillis();
+                            if (name.endsWith(TMP_SUFFIX) && now - date > TMP_EXPIRATION) {
+                                Files.deleteIfExists(file);
+                            } else if (name.endsWith(ENTRY_SUFFIX)) {
+                                size += Files.size(file);
+                                byDate.computeIfAbsent(date, d -> new ArrayList<>()).add(file);
+                            }
+                        } catch (NoSuchFileException e) {
+                            // Deleted by another process
+                        }
+                    }
+                }
+                for (Map.Entry<Long, List<Path>> entries : byDate.entrySet()) {
+                    for (Path file : entries.getValue()) {
+                        if (size <= maxSize) {
+                            return;
+                        }
+                        try {
+                            long fileSize = Files.size(file);
+                            Files.deleteIfExists(file);
+                            size -= fileSize;
+                        } catch (NoSuchFileException e) {
+                            // Deleted by another process
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of entries in the cache
+     */
+    public int getNbEntries() throws IOException {
+        int n = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + ENTRY_SUFFIX)) {
+            for (Path ignored : files) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    public long getNbHits() {
+        return nbHits;
+    }
+
+    public long getNbMisses() {
+        return nbMisses;
+    }
+
+    /**
+     * @return The hexadecimal SHA-256 hash of the parts, separated by new lines
+     */
+    public static String hash(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is available in every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return A canonical serialization of a parsed JSON value: object keys are sorted and numbers are written in
+     * their shortest decimal form (e.g. 10.0 as 10), so that equivalent JSON documents have the same serialization
+     */
+    public static String canonicalJson(Object json) {
+        StringBuilder sb = new StringBuilder();
+        writeCanonical(json, sb);
+        return sb.toString();
+    }
+
+    private static void writeCanonical(Object json, StringBuilder sb) {
+        if (json instanceof Map) {
+            TreeMap<String, Object> sorted = new TreeMap<>();
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) json).entrySet()) {
+                sorted.put(String.valueOf(e.getKey()), e.getValue());
+            }
+            sb.append('{');
+            boolean first = true;
+            for (Map.Entry<String, Object> e : sorted.entrySet()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                sb.append(Jsoner.serialize(e.getKey())).append(':');
+                writeCanonical(e.getValue(), sb);
+            }
+            sb.append('}');
+        } else if (json instanceof Collection) {
+            sb.append('[');
+            boolean first = true;
+            for (Object o : (Collection<?>) json) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                writeCanonical(o, sb);
+            }
+            sb.append(']');
+        } else if (json instanceof Number) {
+            BigDecimal n = new BigDecimal(json.toString()).stripTrailingZeros();
+            sb.append(n.signum() == 0 ? "0" : n.toPlainString());
+        } else {
+            sb.append(Jsoner.serialize(json));
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen.solver;
+
+/**
+ * Formats in which landscape structures can be written. Readers detect the format of an input from its first
+ * bytes (see LandscapeStructureBinary.isBinary).
+ */
+public enum StructureFormat {
+    JSON(".json"),
+    BINARY(".flss");
+
+    private final String extension;
+
+    StructureFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * @return The file extension of the format, including the dot
+     */
+    public String getExtension() {
+        return extension;
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen.solver;
+
+import com.github.cliftonlabs.json_simple.JsonObject;
+import org.flsgen.exception.FlsgenException;
+
+import java.io.IOException;
+
+import static org.flsgen.solver.LandscapeStructureSolver.*;
+
+/**
+ * Analytic feasibility check of JSON targets, before the CP model is built. For each class, the bounds of the number
+ * of patches (NP), of patch sizes and of the class area (CA) are propagated through the hard targets, with the same
+ * conversions as the LandscapeClass setters, and the net product (MESH, SPLI, NPRO, SDEN, COHE, DIVI) targets are
+ * compared with the net products reachable with these bounds. Impossible targets are rejected with an explanation,
+ * and the tightened bounds of NP and patch sizes are used to create smaller variables.
+ * Only necessary conditions are checked: targets accepted here may still be infeasible.
+ */
+public class TargetBoundsAnalyzer {
+
+    /**
+     * Bounds of a class implied by its hard targets
+     */
+    public static class ClassBounds {
+        public int minNbPatches;
+        public int maxNbPatches;
+        public int minPatchSize;
+        public int maxPatchSize;
+        public long minClassArea;
+        public long maxClassArea;
+    }
+
+    protected int landscapeSize;
+    protected long sumMinClassArea;
+    protected long sumMaxClassArea;
+
+    /**
+     * @param landscapeSize The number of cells of the landscape
+     */
+    public TargetBoundsAnalyzer(int landscapeSize) {
+        this.landscapeSize = landscapeSize;
+    }
+
+    /**
+     * Check the hard targets of a class and compute its bounds
+     * @param name The class name
+     * @param targets The hard targets of the class, formatted as in JSON target files
+     * @return The bounds of the class
+     * @throws FlsgenException if the targets are infeasible
+     */
+    public ClassBounds analyzeClass(String name, JsonObject targets) throws IOException, FlsgenException {
+        long L = landscapeSize;
+        ClassBounds b = new ClassBounds();
+        int[] np = getIntInterval(targets, KEY_NP, true, name);
+        int[] area = getIntInterval(targets, KEY_AREA, true, name);
+        long npMin = np[0];
+        long npMax = np[1];
+        long sizeMin = area[0];
+        long sizeMax = Math.min(area[1], L);
+        if (npMin > npMax || sizeMin > sizeMax) {
+            throw infeasible(name, "empty NP " + interval(np[0], np[1]) + " or AREA " + interval(area[0], area[1])
+                    + " (in a landscape of " + L + " cells)");
+        }
+        // PD
+        double[] pd = getDoubleInterval(targets, KEY_PD, false, name);
+        if (pd != null) {
+            long min = (long) (pd[0] * L);
+            long max = (long) (pd[1] * L);
+            if (max < npMin || min > npMax) {
+                throw infeasible(name, "PD " + interval(pd[0], pd[1]) + " requires NP in " + interval(min, max)
+                        + ", which contradicts NP " + interval(npMin, npMax));
+            }
+            npMin = Math.max(npMin, min);
+            npMax = Math.min(npMax, max);
+        }
+        // LPI
+        int[] lpi = getIntInterval(targets, KEY_LPI, false, name);
+        if (lpi != null) {
+            if (lpi[0] > sizeMax) {
+                throw infeasible(name, "LPI " + interval(lpi[0], lpi[1]) + " is larger than the maximum patch area "
+                        + sizeMax);
+            }
+            if (lpi[1] < sizeMin) {
+                if (npMin > 0) {
+                    throw infeasible(name, "LPI " + interval(lpi[0], lpi[1]) + " is smaller than the minimum patch area "
+                            + sizeMin);
+                }
+            } else {
+                sizeMax = Math.min(sizeMax, lpi[1]);
+            }
+        }
+        // CA, PLAND, with the class area reachable with NP and patch sizes
+        long caMin = npMin * sizeMin;
+        long caMax = Math.min(npMax * sizeMax, L);
+        if (caMin > caMax) {
+            throw infeasible(name, "NP " + interval(npMin, npMax) + " patches of at least " + sizeMin
+                    + " cells do not fit in the landscape (" + L + " cells)");
+        }
+        if (lpi != null) {
+            caMin = Math.max(caMin, lpi[0]);
+        }
+        int[] ca = getIntInterval(targets, KEY_CA, false, name);
+        if (ca != null) {
+            if (ca[1] < caMin || ca[0] > caMax) {
+                throw infeasible(name, "CA " + interval(ca[0], ca[1]) + " is unreachable with NP " + interval(npMin, npMax)
+                        + " and patch areas in " + interval(sizeMin, sizeMax) + " (class area in "
+                        + interval(caMin, caMax) + ")");
+            }
+            caMin = Math.max(caMin, ca[0]);
+            caMax = Math.min(caMax, ca[1]);
+        }
+        double[] pland = getDoubleInterval(targets, KEY_PLAND, false, name);
+        if (pland != null) {
+            long min = (long) (L * pland[0] / 100);
+            long max = (long) (L * pland[1] / 100);
+            if (max < caMin || min > caMax) {
+                throw infeasible(name, "PLAND " + interval(pland[0], pland[1]) + " requires a class area in "
+                        + interval(min, max) + ", which contradicts the other targets (class area in "
+                        + interval(caMin, caMax) + ")");
+            }
+            caMin = Math.max(caMin, min);
+            caMax = Math.min(caMax, max);
+        }
+        // NP reachable with the class area
+        if (sizeMax > 0) {
+            npMin = Math.max(npMin, (caMin + sizeMax - 1) / sizeMax);
+        }
+        if (sizeMin > 0) {
+            npMax = Math.min(npMax, caMax / sizeMin);
+        }
+        if (npMin > npMax) {
+            throw infeasible(name, "a class area in " + interval(caMin, caMax) + " cannot be split into NP "
+                    + interval(np[0], np[1]) + " patches of areas in " + interval(sizeMin, sizeMax));
+        }
+        // AREA_MN (integer division of the class area by NP, as in setMeanPatchArea)
+        double[] areaMn = getDoubleInterval(targets, KEY_AREA_MN, false, name);
+        if (areaMn != null) {
+            long min = (long) areaMn[0];
+            long max = (long) (areaMn[1] > areaMn[0] ? areaMn[1] - 1 : areaMn[1]);
+            long reachableMin = npMax > 0 ? caMin / npMax : 0;
+            long reachableMax = npMin > 0 ? caMax / npMin : caMax;
+            if (max < reachableMin || min > reachableMax) {
+                throw infeasible(name, "AREA_MN " + interval(areaMn[0], areaMn[1]) + " is unreachable with NP "
+                        + interval(npMin, npMax) + " and a class area in " + interval(caMin, caMax)
+                        + " (mean patch area in " + interval(reachableMin, reachableMax) + ")");
+            }
+        }
+        // Net product: at least CA^2 / NP (equal patches), at most the largest patch area times CA
+        long nproMin = npMax > 0 ? ceilDiv(caMin * caMin, npMax) : 0;
+        long nproMax = Math.min(sizeMax, caMax) * caMax;
+        String[] keys = {KEY_MESH, KEY_SPLI, KEY_NPRO, KEY_SDEN, KEY_COHE, KEY_DIVI};
+        for (String key : keys) {
+            double[] target = getDoubleInterval(targets, key, false, name);
+            if (target == null) {
+                continue;
+            }
+            long[] npro = netProductBounds(key, target[0], target[1]);
+            if (npro[1] < nproMin || npro[0] > nproMax) {
+                throw infeasible(name, key + " " + interval(target[0], target[1]) + " requires a net product in "
+                        + interval(npro[0], npro[1]) + ", but with NP " + interval(npMin, npMax) + ", patch areas in "
+                        + interval(sizeMin, sizeMax) + " and a class area in " + interval(caMin, caMax)
+                        + ", the net product is in " + interval(nproMin, nproMax) + " (MESH in "
+                        + interval(1.0 * nproMin / L, 1.0 * nproMax / L) + ")");
+            }
+        }
+        b.minNbPatches = (int) npMin;
+        b.maxNbPatches = (int) npMax;
+        b.minPatchSize = (int) sizeMin;
+        b.maxPatchSize = (int) sizeMax;
+        b.minClassArea = caMin;
+        b.maxClassArea = caMax;
+        sumMinClassArea += caMin;
+        sumMaxClassArea += caMax;
+        return b;
+    }
+
+    /**
+     * Check the landscape-level targets against the bounds of all the analyzed classes
+     * @param nonFocalPland The NON_FOCAL_PLAND target, null if none
+     * @throws FlsgenException if the targets are infeasible
+     */
+    public void analyzeLandscape(double[] nonFocalPland) throws FlsgenException {
+        long L = landscapeSize;
+        if (sumMinClassArea > L) {
+            throw new FlsgenException("Infeasible targets: the minimum class areas sum to " + sumMinClassArea
+                    + " cells, more than the " + L + " cells of the landscape");
+        }
+        if (nonFocalPland != null) {
+            long min = (long) (L * nonFocalPland[0] / 100);
+            long max = (long) (L * nonFocalPland[1] / 100);
+            if (sumMinClassArea > L - min || sumMaxClassArea < L - max) {
+                throw new FlsgenException("Infeasible targets: " + KEY_NON_FOCAL_PLAND + " "
+                        + interval(nonFocalPland[0], nonFocalPland[1]) + " requires focal classes to cover "
+                        + interval(L - max, L - min) + " cells, but their class areas sum to "
+                        + interval(sumMinClassArea, Math.min(sumMaxClassArea, L)) + " cells");
+            }
+        }
+    }
+
+    /**
+     * @return The net product bounds of a MESH, SPLI, NPRO, SDEN, COHE or DIVI target, as in LandscapeClass
+     */
+    protected long[] netProductBounds(String key, double min, double max) {
+        long L = landscapeSize;
+        switch (key) {
+            case KEY_MESH:
+                return new long[] {(long) (min * L), (long) (max * L)};
+            case KEY_SPLI:
+                return new long[] {(long) (L * L / max), (long) (L * L / min)};
+            case KEY_SDEN:
+                return new long[] {(long) (L / max), (long) (L / min)};
+            case KEY_COHE:
+                return new long[] {(long) (min * L * L), (long) (max * L * L)};
+            case KEY_DIVI:
+                return new long[] {(long) ((1 - max) * L * L), (long) ((1 - min) * L * L)};
+            default:
+                return new long[] {(long) min, (long) max};
+        }
+    }
+
+    private static long ceilDiv(long a, long b) {
+        return (a + b - 1) / b;
+    }
+
+    private static FlsgenException infeasible(String name, String reason) {
+        return new FlsgenException("Infeasible targets in class " + name + ": " + reason);
+    }
+
+    private static String interval(long min, long max) {
+        return "[" + min + ", " + max + "]";
+    }
+
+    private static String interval(double min, double max) {
+        return "[" + min + ", " + max + "]";
+    }
+}
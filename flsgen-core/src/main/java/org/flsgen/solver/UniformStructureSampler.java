@@ -0,0 +1,645 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen.solver;
+
+import com.github.cliftonlabs.json_simple.JsonArray;
+import com.github.cliftonlabs.json_simple.JsonException;
+import com.github.cliftonlabs.json_simple.JsonObject;
+import com.github.cliftonlabs.json_simple.Jsoner;
+import org.flsgen.exception.FlsgenException;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.flsgen.solver.LandscapeStructureSolver.*;
+
+/**
+ * Exact uniform sampling of landscape structures, for targets restricted to NP, AREA, CA, PLAND, PD, SPI, LPI,
+ * AREA_MN, ALL_DIFFERENT and NON_FOCAL_PLAND. Such targets only constrain, in each class, the number of patches,
+ * the class area and the smallest and largest patch areas, so that structures can be counted without search:
+ * <ul>
+ *     <li>The number of multisets (or sets, with ALL_DIFFERENT) of k patch areas in [lo, hi] summing to a is
+ *     computed exactly for every k and a by dynamic programming, SPI and LPI being accounted for by
+ *     inclusion-exclusion.</li>
+ *     <li>Classes are only coupled by their areas, whose sum is bounded by the landscape size and NON_FOCAL_PLAND:
+ *     the number of structures for each total area is obtained by convolution of the class counts.</li>
+ * </ul>
+ * A structure is drawn by choosing the class areas, then the number of patches of each class, in proportion to
+ * the number of structures they lead to, and the patch areas by unranking a uniformly drawn partition with parts
+ * in the patch area bounds (with a single random number), rejected when it violates SPI or LPI. The acceptance
+ * rate of this rejection is known exactly, and sampling gives up when it is too low.
+ * Each structure satisfying the targets is thus drawn with the same probability (up to the double precision used
+ * in the convolution), independently of previous draws, so that the same structure can be drawn several times.
+ * Other targets (MESH, NPRO, SPLI, SDEN, COHE, DIVI, square patches and soft targets) are not supported, and
+ * must be sampled with the solver (see LandscapeStructureSolver.setRandomSearch).
+ */
+public class UniformStructureSampler {
+
+    /**
+     * Maximum number of counts (one per number of patches and class area, for each count table)
+     */
+    public static final long MAX_TABLE_SIZE = 1L << 23;
+
+    /**
+     * Maximum number of operations of the convolution of class counts
+     */
+    public static final long MAX_CONVOLUTION_SIZE = 1L << 31;
+
+    /**
+     * Maximum number of rejected partitions for a single draw
+     */
+    public static final int MAX_REJECTIONS = 100000;
+
+    /**
+     * Minimum acceptance rate of the partitions violating SPI or LPI, so that a draw gives up after MAX_REJECTIONS
+     * rejections with a probability below e^-10
+     */
+    public static final double MIN_ACCEPTANCE = 10.0 / MAX_REJECTIONS;
+
+    private static final String[] UNSUPPORTED_KEYS = {KEY_MESH, KEY_SPLI, KEY_NPRO, KEY_SDEN, KEY_COHE, KEY_DIVI, KEY_SOFT};
+
+    protected int nbRows;
+    protected int nbCols;
+    protected String maskRasterPath;
+    protected int[] noDataCells;
+    protected int landscapeSize;
+    protected ClassCounts[] classes;
+    protected int minTotalArea;
+    protected int maxTotalArea;
+    // Prefix sums of the (scaled) number of structures of classes k..n-1 per total area, for each k
+    protected double[][] prefixCounts;
+    protected double log10NbStructures;
+
+    /**
+     * @param json The JSON targets
+     * @param nbRows The number of rows of the mask raster, if any
+     * @param nbCols The number of columns of the mask raster, if any
+     * @param noDataCells The no data cells of the mask raster, if any
+     * @throws FlsgenException if the targets are not supported, too large for exact counting, or infeasible
+     */
+    public UniformStructureSampler(String json, int nbRows, int nbCols, int[] noDataCells) throws IOException, JsonException, FlsgenException {
+        JsonObject targets = (JsonObject) Jsoner.deserialize(new StringReader(json));
+        String unsupported = getUnsupportedTarget(targets);
+        if (unsupported != null) {
+            throw new FlsgenException("Uniform sampling does not support " + unsupported + " targets");
+        }
+        if (targets.containsKey("maskRasterPath")) {
+            this.maskRasterPath = targets.get("maskRasterPath").toString();
+            this.noDataCells = noDataCells;
+        } else {
+            if (!targets.containsKey("nbRows") || !targets.containsKey("nbCols")) {
+                throw new IOException("Either 'maskRasterPath' or 'nbRows' and 'nbCols' are mandatory " +
+                        "parameters but missing in input JSON file");
+            }
+            nbRows = Integer.parseInt(targets.get("nbRows").toString());
+            nbCols = Integer.parseInt(targets.get("nbCols").toString());
+            this.noDataCells = new int[] {};
+        }
+        this.nbRows = nbRows;
+        this.nbCols = nbCols;
+        this.landscapeSize = nbRows * nbCols - this.noDataCells.length;
+        if (!targets.containsKey("classes")) {
+            throw new IOException("'classes' is a mandatory parameter but missing in input JSON file");
+        }
+        JsonArray classesJson = (JsonArray) targets.get("classes");
+        TargetBoundsAnalyzer analyzer = new TargetBoundsAnalyzer(landscapeSize);
+        this.classes = new ClassCounts[classesJson.size()];
+        long tableSize = 0;
+        for (int i = 0; i < classes.length; i++) {
+            JsonObject cljson = (JsonObject) classesJson.get(i);
+            if (!cljson.containsKey("name")) {
+                throw new IOException("'name' is a mandatory parameter of classes but missing in input JSON file");
+            }
+            String name = cljson.get("name").toString();
+            classes[i] = new ClassCounts(name, cljson, analyzer.analyzeClass(name, cljson), landscapeSize);
+            tableSize += classes[i].getTableSize();
+            if (tableSize > MAX_TABLE_SIZE) {
+                throw new FlsgenException("Too many patch and class area combinations for exact counting (more than "
+                        + MAX_TABLE_SIZE + ")");
+            }
+        }
+        double[] pland = getDoubleInterval(targets, KEY_NON_FOCAL_PLAND, false, "landscape");
+        analyzer.analyzeLandscape(pland);
+        // Total area of focal classes, as in LandscapeStructureSolver.setNonFocalLandscapeProportion
+        minTotalArea = 0;
+        maxTotalArea = landscapeSize;
+        if (pland != null) {
+            minTotalArea = landscapeSize - (int) (landscapeSize * pland[1] / 100);
+            maxTotalArea = landscapeSize - (int) (landscapeSize * pland[0] / 100);
+        }
+        // The number of structures of classes k..n-1 is non-zero on at most the sum of their class area ranges
+        long convolutionSize = 0;
+        long width = 1;
+        for (int k = classes.length - 1; k >= 0; k--) {
+            classes[k].count();
+            convolutionSize += Math.min(width, maxTotalArea + 1) * classes[k].weights.length;
+            width += classes[k].weights.length - 1;
+        }
+        if (convolutionSize > MAX_CONVOLUTION_SIZE) {
+            throw new FlsgenException("Too many class area combinations for exact counting (more than "
+                    + MAX_CONVOLUTION_SIZE + ")");
+        }
+        // Number of structures of classes k..n-1 per total area, from the last class
+        prefixCounts = new double[classes.length + 1][];
+        double[] counts = new double[maxTotalArea + 1];
+        counts[0] = 1;
+        prefixCounts[classes.length] = prefixSums(counts);
+        for (int k = classes.length - 1; k >= 0; k--) {
+            ClassCounts c = classes[k];
+            double[] next = new double[maxTotalArea + 1];
+            for (int t = 0; t <= maxTotalArea; t++) {
+                if (counts[t] == 0) {
+                    continue;
+                }
+                for (int a = c.minArea; a <= c.maxArea && t + a <= maxTotalArea; a++) {
+                    next[t + a] += counts[t] * c.weights[a - c.minArea];
+                }
+            }
+            counts = next;
+            prefixCounts[k] = prefixSums(counts);
+        }
+        double total = sum(prefixCounts[0], minTotalArea, maxTotalArea);
+        if (total == 0) {
+            throw new FlsgenException("Infeasible targets: no structure satisfies them");
+        }
+        if (Double.isInfinite(total)) {
+            throw new FlsgenException("Too many structures for exact counting");
+        }
+        log10NbStructures = Math.log10(total);
+        for (ClassCounts c : classes) {
+            log10NbStructures += c.scale * Math.log10(2);
+        }
+    }
+
+    /**
+     * @return The first target of the JSON targets which is not supported by uniform sampling, null if none
+     */
+    public static String getUnsupportedTarget(JsonObject targets) {
+        if (!targets.containsKey("classes")) {
+            return null;
+        }
+        for (Object cl : (JsonArray) targets.get("classes")) {
+            JsonObject cljson = (JsonObject) cl;
+            for (String key : UNSUPPORTED_KEYS) {
+                if (cljson.containsKey(key)) {
+                    return key;
+                }
+            }
+            if (cljson.containsKey(IS_SQUARE) && Boolean.parseBoolean(cljson.get(IS_SQUARE).toString())) {
+                return IS_SQUARE;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return True if all the targets of the JSON targets are supported by uniform sampling
+     */
+    public static boolean isSupported(String json) throws JsonException {
+        return getUnsupportedTarget((JsonObject) Jsoner.deserialize(new StringReader(json))) == null;
+    }
+
+    /**
+     * @return The base 10 logarithm of the number of structures satisfying the targets
+     */
+    public double getLog10NbStructures() {
+        return log10NbStructures;
+    }
+
+    /**
+     * Draw a structure uniformly at random among the structures satisfying the targets
+     * @param random The random number generator
+     * @return The structure
+     * @throws FlsgenException if too many partitions were rejected
+     */
+    public LandscapeStructure sample(Random random) throws FlsgenException {
+        int n = classes.length;
+        String[] names = new String[n];
+        int[] totalSize = new int[n];
+        int[] nbPatches = new int[n];
+        int[][] patchSizes = new int[n][];
+        long[] npro = new long[n];
+        boolean[] isSquare = new boolean[n];
+        int minTotal = minTotalArea;
+        int maxTotal = maxTotalArea;
+        for (int k = 0; k < n; k++) {
+            ClassCounts c = classes[k];
+            // Class area, in proportion to the number of structures of the remaining classes completing it
+            double[] w = new double[c.weights.length];
+            double total = 0;
+            for (int a = c.minArea; a <= c.maxArea; a++) {
+                w[a - c.minArea] = c.weights[a - c.minArea] * sum(prefixCounts[k + 1], minTotal - a, maxTotal - a);
+                total += w[a - c.minArea];
+            }
+            double u = random.nextDouble() * total;
+            int area = c.maxArea;
+            for (int a = c.minArea; a <= c.maxArea; a++) {
+                u -= w[a - c.minArea];
+                if (u < 0 && w[a - c.minArea] > 0) {
+                    area = a;
+                    break;
+                }
+            }
+            while (w[area - c.minArea] == 0) {
+                area--;
+            }
+            minTotal -= area;
+            maxTotal -= area;
+            names[k] = c.name;
+            totalSize[k] = area;
+            patchSizes[k] = c.sample(area, random);
+            nbPatches[k] = patchSizes[k].length;
+            for (int size : patchSizes[k]) {
+                npro[k] += (long) size * size;
+            }
+        }
+        return new LandscapeStructure(nbRows, nbCols, maskRasterPath, noDataCells, names, totalSize, nbPatches,
+                patchSizes, npro, isSquare);
+    }
+
+    private static double[] prefixSums(double[] values) {
+        double[] prefix = new double[values.length + 1];
+        for (int i = 0; i < values.length; i++) {
+            prefix[i + 1] = prefix[i] + values[i];
+        }
+        return prefix;
+    }
+
+    /**
+     * @return The sum of values[from..to] (bounds clamped), from prefix sums
+     */
+    private static double sum(double[] prefix, int from, int to) {
+        from = Math.max(from, 0);
+        to = Math.min(to, prefix.length - 2);
+        return from > to ? 0 : prefix[to + 1] - prefix[from];
+    }
+
+    /**
+     * @return A uniform random integer in [0, bound)
+     */
+    private static BigInteger uniform(BigInteger bound, Random random) {
+        BigInteger r;
+        do {
+            r = new BigInteger(bound.bitLength(), random);
+        } while (r.compareTo(bound) >= 0);
+        return r;
+    }
+
+    /**
+     * Exact numbers of multisets (or sets) of k integers in [lo, hi] summing to s, for k <= maxK and s <= maxS.
+     * With the integers shifted to [1, m] (m = hi - lo + 1), the number A(k, n) of partitions of n into exactly k
+     * parts verifies A(k, n) = A(k - 1, n - 1) + A(k, n - k) - A(k - 1, n - k - m): a partition either has a part 1,
+     * or all its parts decremented form a partition with parts in [1, m - 1]. Partitions into k distinct parts in
+     * [1, m] are in bijection with partitions of n - k(k - 1) / 2 into k parts in [1, m - k + 1] (subtracting
+     * 0, 1, ..., k - 1 from the sorted parts), and verify D(k, n) = D(k, n - k) + D(k - 1, n - k) when m is
+     * unbounded.
+     */
+    protected static class BoxCounts {
+
+        final int lo;
+        final long hi;
+        final boolean distinct;
+        final int maxS;
+        final BigInteger[][] counts;
+        // Counts A(k, n) of partitions into parts in [1, w], for the widths w visited by unrank, computed on demand
+        final Map<Long, BigInteger[][]> widthCounts = new HashMap<>();
+        long widthCountsSize;
+
+        BoxCounts(int lo, long hi, boolean distinct, int maxK, int maxS) {
+            this.lo = lo;
+            this.hi = hi;
+            this.distinct = distinct;
+            this.maxS = maxS;
+            long m = hi - lo + 1;
+            if (m <= 0) {
+                counts = null;
+            } else if (!distinct) {
+                counts = partitionCounts(m, maxK, maxS);
+                widthCounts.put(Math.min(m, maxS), counts);
+            } else if (m > maxS) {
+                counts = new BigInteger[maxK + 1][maxS + 1];
+                for (int k = 0; k <= maxK; k++) {
+                    for (int n = 0; n <= maxS; n++) {
+                        if (k == 0) {
+                            counts[k][n] = n == 0 ? BigInteger.ONE : BigInteger.ZERO;
+                        } else {
+                            counts[k][n] = n >= k ? counts[k][n - k].add(counts[k - 1][n - k]) : BigInteger.ZERO;
+                        }
+                    }
+                }
+            } else {
+                counts = new BigInteger[maxK + 1][maxS + 1];
+                for (int k = 0; k <= maxK; k++) {
+                    BigInteger[][] shifted = m - k + 1 > 0 ? partitionCounts(m - k + 1, k, maxS) : null;
+                    for (int n = 0; n <= maxS; n++) {
+                        long t = n - (long) k * (k - 1) / 2;
+                        if (k == 0) {
+                            counts[k][n] = n == 0 ? BigInteger.ONE : BigInteger.ZERO;
+                        } else {
+                            counts[k][n] = shifted == null || t < 0 ? BigInteger.ZERO : shifted[k][(int) t];
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return The numbers A(k, n) of partitions of n into exactly k parts in [1, m]
+         */
+        static BigInteger[][] partitionCounts(long m, int maxK, int maxS) {
+            BigInteger[][] counts = new BigInteger[maxK + 1][maxS + 1];
+            for (int k = 0; k <= maxK; k++) {
+                for (int n = 0; n <= maxS; n++) {
+                    if (k == 0) {
+                        counts[k][n] = n == 0 ? BigInteger.ONE : BigInteger.ZERO;
+                        continue;
+                    }
+                    BigInteger c = BigInteger.ZERO;
+                    if (n >= 1) {
+                        c = c.add(counts[k - 1][n - 1]);
+                    }
+                    if (n >= k) {
+                        c = c.add(counts[k][n - k]);
+                    }
+                    long r = n - k - m;
+                    if (r >= 0) {
+                        c = c.subtract(counts[k - 1][(int) r]);
+                    }
+                    counts[k][n] = c;
+                }
+            }
+            return counts;
+        }
+
+        /**
+         * @return The number of multisets (or sets) of k integers in [lo, hi] summing to s
+         */
+        BigInteger count(int k, int s) {
+            if (counts == null) {
+                return k == 0 && s == 0 ? BigInteger.ONE : BigInteger.ZERO;
+            }
+            long n = s - (long) k * (lo - 1);
+            return n < 0 || n >= counts[k].length ? BigInteger.ZERO : counts[k][(int) n];
+        }
+
+        /**
+         * Unrank a multiset (or set) of k integers in [lo, hi] summing to s. With the parts shifted to [1, w], the
+         * rank r is compared to the number A_w(k - 1, n - 1) of partitions with a part 1: otherwise, all the parts
+         * decremented form a partition of n - k into parts in [1, w - 1]. Sets are unranked as the partitions
+         * they are in bijection with.
+         * @param r The rank, in [0, count(k, s))
+         * @return The parts, in increasing order
+         */
+        int[] unrank(int k, int s, BigInteger r) {
+            int n = s - k * (lo - 1);
+            long w = hi - lo + 1;
+            if (distinct) {
+                n -= (int) ((long) k * (k - 1) / 2);
+                w -= k - 1;
+            }
+            int[] parts = new int[k];
+            int depth = 0;
+            int i = 0;
+            while (k > 0) {
+                BigInteger withOne = getWidthCounts(w - depth, k, n)[k - 1][n - 1];
+                if (r.compareTo(withOne) < 0) {
+                    parts[i] = lo + depth + (distinct ? i : 0);
+                    i++;
+                    n -= 1;
+                    k--;
+                } else {
+                    r = r.subtract(withOne);
+                    n -= k;
+                    depth++;
+                }
+            }
+            return parts;
+        }
+
+        /**
+         * @return The numbers A(k', n') of partitions of n' into exactly k' parts in [1, w], for k' <= k and n' <= n
+         */
+        private BigInteger[][] getWidthCounts(long w, int k, int n) {
+            // Parts are at most maxS, wider boxes have the same counts
+            long key = Math.min(w, maxS);
+            BigInteger[][] c = widthCounts.get(key);
+            if (c == null || c.length <= k || c[0].length <= n) {
+                long size = (long) (k + 1) * (n + 1);
+                if (widthCountsSize + size > MAX_TABLE_SIZE) {
+                    widthCounts.clear();
+                    widthCountsSize = 0;
+                }
+                c = partitionCounts(key, k, n);
+                widthCounts.put(key, c);
+                widthCountsSize += size;
+            }
+            return c;
+        }
+    }
+
+    /**
+     * Counts of the structures of a class, per number of patches and class area
+     */
+    protected static class ClassCounts {
+
+        final String name;
+        final int landscapeSize;
+        final int minNbPatches;
+        final int maxNbPatches;
+        final int minSize;
+        final int maxSize;
+        final int minArea;
+        final int maxArea;
+        final boolean distinct;
+        // LPI lower bound, SPI upper bound, AREA_MN bounds (-1 if none)
+        final int minLargest;
+        final int maxSmallest;
+        final int minMean;
+        final int maxMean;
+        // Exact number of structures for each class area, and scaled to doubles by 2^-scale
+        BigInteger[] exactWeights;
+        double[] weights;
+        int scale;
+        BoxCounts all;
+        BoxCounts belowLargest;
+        BoxCounts aboveSmallest;
+        BoxCounts between;
+
+        ClassCounts(String name, JsonObject targets, TargetBoundsAnalyzer.ClassBounds bounds, int landscapeSize) throws IOException, FlsgenException {
+            this.name = name;
+            this.landscapeSize = landscapeSize;
+            this.distinct = targets.containsKey("ALL_DIFFERENT") && (Boolean) targets.get("ALL_DIFFERENT");
+            int lo = Math.max(1, bounds.minPatchSize);
+            int hi = bounds.maxPatchSize;
+            int npMin = bounds.minNbPatches;
+            int[] spi = getIntInterval(targets, KEY_SPI, false, name);
+            if (spi != null) {
+                if (spi[1] < spi[0]) {
+                    throw new FlsgenException("Max SPI must be greater than or equal to min SPI");
+                }
+                // The smallest patch exists, and all patches are at least as large as its minimum
+                lo = Math.max(lo, spi[0]);
+                npMin = Math.max(npMin, 1);
+            }
+            int[] lpi = getIntInterval(targets, KEY_LPI, false, name);
+            if (lpi != null) {
+                if (lpi[1] < lpi[0]) {
+                    throw new FlsgenException("Max LPI must be greater than or equal to min LPI");
+                }
+                hi = Math.min(hi, lpi[1]);
+            }
+            double[] areaMn = getDoubleInterval(targets, KEY_AREA_MN, false, name);
+            if (areaMn != null) {
+                if (areaMn[1] < areaMn[0]) {
+                    throw new FlsgenException("Max mean patch area must be greater than or equal to min mean patch area");
+                }
+                if (areaMn[0] <= 0) {
+                    throw new FlsgenException("Mean patch area target must be greater than 0");
+                }
+                // Integer division of the class area by NP, as in LandscapeClass.setMeanPatchArea
+                npMin = Math.max(npMin, 1);
+            }
+            this.minNbPatches = npMin;
+            this.maxNbPatches = bounds.maxNbPatches;
+            this.minSize = lo;
+            this.maxSize = hi;
+            this.minArea = (int) bounds.minClassArea;
+            this.maxArea = (int) Math.max(bounds.minClassArea, bounds.maxClassArea);
+            this.minLargest = lpi != null && lpi[0] > 0 ? lpi[0] : -1;
+            this.maxSmallest = spi != null ? spi[1] : -1;
+            this.minMean = areaMn != null ? (int) areaMn[0] : -1;
+            this.maxMean = areaMn != null ? (int) (areaMn[1] > areaMn[0] ? areaMn[1] - 1 : areaMn[1]) : -1;
+        }
+
+        long getTableSize() {
+            int nbTables = 1 + (minLargest >= 0 ? 1 : 0) + (maxSmallest >= 0 ? 1 : 0)
+                    + (minLargest >= 0 && maxSmallest >= 0 ? 1 : 0);
+            return (long) nbTables * (maxNbPatches + 1) * (maxArea + 1);
+        }
+
+        /**
+         * Compute the count tables and the number of structures for each class area
+         */
+        void count() {
+            all = new BoxCounts(minSize, maxSize, distinct, maxNbPatches, maxArea);
+            if (minLargest >= 0) {
+                belowLargest = new BoxCounts(minSize, Math.min(maxSize, minLargest - 1), distinct, maxNbPatches, maxArea);
+            }
+            if (maxSmallest >= 0) {
+                aboveSmallest = new BoxCounts(Math.max(minSize, maxSmallest + 1), maxSize, distinct, maxNbPatches, maxArea);
+            }
+            if (minLargest >= 0 && maxSmallest >= 0) {
+                between = new BoxCounts(Math.max(minSize, maxSmallest + 1), Math.min(maxSize, minLargest - 1), distinct,
+                        maxNbPatches, maxArea);
+            }
+            exactWeights = new BigInteger[maxArea - minArea + 1];
+            BigInteger max = BigInteger.ZERO;
+            for (int a = minArea; a <= maxArea; a++) {
+                BigInteger w = BigInteger.ZERO;
+                for (int k = minNbPatches; k <= maxNbPatches; k++) {
+                    w = w.add(count(k, a));
+                }
+                exactWeights[a - minArea] = w;
+                max = max.max(w);
+            }
+            scale = max.bitLength();
+            weights = new double[exactWeights.length];
+            for (int i = 0; i < weights.length; i++) {
+                int shift = Math.max(0, exactWeights[i].bitLength() - 63);
+                weights[i] = Math.scalb((double) exactWeights[i].shiftRight(shift).longValue(), shift - scale);
+            }
+        }
+
+        /**
+         * @return The number of structures of the class with k patches and a class area a
+         */
+        BigInteger count(int k, int a) {
+            // Constraint between the class area and NP posted by LandscapeStructureSolver.build
+            if (a + k >= landscapeSize) {
+                return BigInteger.ZERO;
+            }
+            if (minMean >= 0 && (k == 0 || a / k < minMean || a / k > maxMean)) {
+                return BigInteger.ZERO;
+            }
+            // Inclusion-exclusion of the partitions whose largest part is too small or whose smallest part is too large
+            BigInteger c = all.count(k, a);
+            if (belowLargest != null) {
+                c = c.subtract(belowLargest.count(k, a));
+            }
+            if (aboveSmallest != null) {
+                c = c.subtract(aboveSmallest.count(k, a));
+            }
+            if (between != null) {
+                c = c.add(between.count(k, a));
+            }
+            return c;
+        }
+
+        /**
+         * Draw the patch sizes of the class, uniformly among the structures with a class area a
+         */
+        int[] sample(int a, Random random) throws FlsgenException {
+            // Number of patches
+            BigInteger r = uniform(exactWeights[a - minArea], random);
+            int k = minNbPatches;
+            for (; k < maxNbPatches; k++) {
+                BigInteger c = count(k, a);
+                if (r.compareTo(c) < 0) {
+                    break;
+                }
+                r = r.subtract(c);
+            }
+            // Patch sizes, by rejection of the partitions which violate SPI or LPI
+            BigInteger nbPartitions = all.count(k, a);
+            if (belowLargest == null && aboveSmallest == null) {
+                return all.unrank(k, a, uniform(nbPartitions, random));
+            }
+            double acceptance = new BigDecimal(count(k, a)).divide(new BigDecimal(nbPartitions), MathContext.DECIMAL64)
+                    .doubleValue();
+            if (acceptance < MIN_ACCEPTANCE) {
+                throw new FlsgenException("Uniform sampling of class " + name + " would only accept "
+                        + String.format("%.1e", acceptance) + " of the partitions into " + k + " patches satisfying"
+                        + " SPI and LPI, the solver should be used instead");
+            }
+            for (int i = 0; i < MAX_REJECTIONS; i++) {
+                int[] parts = all.unrank(k, a, uniform(nbPartitions, random));
+                if (k == 0) {
+                    return parts;
+                }
+                int smallest = parts[0];
+                int largest = parts[k - 1];
+                if ((minLargest < 0 || largest >= minLargest) && (maxSmallest < 0 || smallest <= maxSmallest)) {
+                    return parts;
+                }
+            }
+            throw new FlsgenException("Uniform sampling of class " + name + " rejected " + MAX_REJECTIONS
+                    + " partitions in a row, the solver should be used instead");
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen.solver.choco;
+
+import org.chocosolver.solver.search.strategy.selectors.values.IntValueSelector;
+import org.chocosolver.solver.search.strategy.selectors.variables.VariableSelector;
+import org.chocosolver.solver.variables.IntVar;
+
+import java.util.Map;
+
+/**
+ * Value selector guided by a reference solution: selects the hinted value of a variable if it is still in its
+ * domain, and otherwise the closest value to the hint. Variables without hint get their lower bound.
+ * <p>
+ * Refuting x = v leaves a bounded domain unchanged unless v is one of its bounds, so that the bound closest to the
+ * hint is selected for bounded domains. The hint of bounded domains can first be approached by split decisions
+ * (x <= hint, refuted by x > hint), with a selector in split mode as both the variable and value selectors: the
+ * first variable whose domain can be split at its hint is selected, with its hint.
+ */
+public class HintValueSelector implements IntValueSelector, VariableSelector<IntVar> {
+
+    protected final Map<IntVar, Integer> hints;
+    protected final boolean split;
+
+    /**
+     * @param hints The hinted value of each variable (identity map)
+     */
+    public HintValueSelector(Map<IntVar, Integer> hints) {
+        this(hints, false);
+    }
+
+    /**
+     * @param hints The hinted value of each variable (identity map)
+     * @param split True to select values for split decisions (x <= value)
+     */
+    public HintValueSelector(Map<IntVar, Integer> hints, boolean split) {
+        this.hints = hints;
+        this.split = split;
+    }
+
+    /**
+     * @return True if x <= hint removes values from the domain of the variable, and x > hint removes the hint
+     */
+    protected boolean canSplit(IntVar var) {
+        Integer hint = hints.get(var);
+        return hint != null && hint >= var.getLB() && hint < var.getUB();
+    }
+
+    @Override
+    public IntVar getVariable(IntVar[] variables) {
+        for (IntVar var : variables) {
+            if (canSplit(var)) {
+                return var;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int selectValue(IntVar var) {
+        Integer hint = hints.get(var);
+        if (hint == null || hint <= var.getLB()) {
+            return var.getLB();
+        }
+        if (hint >= var.getUB()) {
+            return var.getUB();
+        }
+        if (split) {
+            return hint;
+        }
+        if (!var.hasEnumeratedDomain()) {
+            return (long) var.getUB() - hint <= (long) hint - var.getLB() ? var.getUB() : var.getLB();
+        }
+        if (var.contains(hint)) {
+            return hint;
+        }
+        int above = var.nextValue(hint);
+        int below = var.previousValue(hint);
+        return (long) above - hint <= (long) hint - below ? above : below;
+    }
+}
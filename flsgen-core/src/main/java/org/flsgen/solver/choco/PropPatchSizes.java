@@ -0,0 +1,378 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen.solver.choco;
+
+import org.chocosolver.memory.IStateInt;
+import org.chocosolver.memory.IStateLong;
+import org.chocosolver.solver.constraints.Propagator;
+import org.chocosolver.solver.constraints.PropagatorPriority;
+import org.chocosolver.solver.exception.ContradictionException;
+import org.chocosolver.solver.variables.IntVar;
+import org.chocosolver.solver.variables.events.IntEventType;
+import org.chocosolver.solver.variables.events.PropagatorEventType;
+import org.chocosolver.util.ESat;
+
+/**
+ * Global propagator for the patch sizes of a landscape class, represented as a sorted, zero-padded vector:
+ * <br/>
+ * - patchSizes is non-decreasing, unused patches having size 0 and coming first; <br/>
+ * - each patch size is either 0 or at least minPatchSize; <br/>
+ * - nbPatches is the number of non-zero patch sizes; <br/>
+ * - sum is the sum of patch sizes.
+ * <p>
+ * It replaces a decomposition with one reified constraint and one ordering constraint per patch, a count and a
+ * sum, by a single bound reasoning which exploits sortedness: as the nbPatches last sizes are the non-zero ones,
+ * bounds on nbPatches directly fix which sizes are zero, and since the sizes after (resp. before) a given one are
+ * greater (resp. lower), the sum bounds every size more tightly than a plain sum does.
+ * <p>
+ * The propagator is event-driven: the sums of bounds and the numbers of positive and null sizes are maintained in
+ * backtrackable state from the bound events of each modified size, and the order is only re-filtered from the
+ * modified sizes, as far as bounds change. The sum reasoning, which is linear, is only attempted when the slack of
+ * the sum falls below n times an upper bound of the largest variability ub_i - lb_i, as no size can be pruned
+ * otherwise.
+ */
+public class PropPatchSizes extends Propagator<IntVar> {
+
+    /**
+     * Number of patch size variables
+     */
+    protected final int n;
+
+    protected final int minPatchSize;
+
+    /**
+     * Bounds of each size accounted for in the sums and counts
+     */
+    protected final IStateInt[] lbs;
+    protected final IStateInt[] ubs;
+
+    /**
+     * Sums of the lower and upper bounds of sizes
+     */
+    protected final IStateLong sumLB;
+    protected final IStateLong sumUB;
+
+    /**
+     * Number of sizes with a positive lower bound, and number of sizes with a null upper bound
+     */
+    protected final IStateInt nbPositive;
+    protected final IStateInt nbNull;
+
+    /**
+     * Upper bound of the maximal variability ub_i - lb_i (variabilities only decrease during search)
+     */
+    protected final IStateLong maxVariability;
+
+    /**
+     * Sizes whose bounds changed and whose order neighbours must be filtered (after a failure, remaining entries
+     * only cost a useless check, and they are reset by full propagations)
+     */
+    protected final int[] modified;
+    protected final boolean[] isModified;
+    protected int nbModified;
+
+    /**
+     * Prefix sums of lower bounds and suffix sums of upper bounds, computed at each sum filtering pass
+     */
+    protected final long[] prefixLB;
+    protected final long[] suffixUB;
+
+    /**
+     * @param patchSizes The patch size variables, non-negative
+     * @param nbPatches Number of non-zero patch sizes
+     * @param sum Sum of patch sizes
+     * @param minPatchSize Minimum size of a non-zero patch
+     */
+    public PropPatchSizes(IntVar[] patchSizes, IntVar nbPatches, IntVar sum, int minPatchSize) {
+        super(concat(patchSizes, nbPatches, sum), PropagatorPriority.LINEAR, true);
+        this.n = patchSizes.length;
+        this.minPatchSize = Math.max(1, minPatchSize);
+        this.lbs = new IStateInt[n];
+        this.ubs = new IStateInt[n];
+        for (int i = 0; i < n; i++) {
+            lbs[i] = model.getEnvironment().makeInt(0);
+            ubs[i] = model.getEnvironment().makeInt(0);
+        }
+        this.sumLB = model.getEnvironment().makeLong(0);
+        this.sumUB = model.getEnvironment().makeLong(0);
+        this.nbPositive = model.getEnvironment().makeInt(0);
+        this.nbNull = model.getEnvironment().makeInt(0);
+        this.maxVariability = model.getEnvironment().makeLong(0);
+        this.modified = new int[n];
+        this.isModified = new boolean[n];
+        this.prefixLB = new long[n + 1];
+        this.suffixUB = new long[n + 1];
+    }
+
+    private static IntVar[] concat(IntVar[] patchSizes, IntVar nbPatches, IntVar sum) {
+        IntVar[] vars = new IntVar[patchSizes.length + 2];
+        System.arraycopy(patchSizes, 0, vars, 0, patchSizes.length);
+        vars[patchSizes.length] = nbPatches;
+        vars[patchSizes.length + 1] = sum;
+        return vars;
+    }
+
+    @Override
+    public int getPropagationConditions(int vIdx) {
+        return IntEventType.boundAndInst();
+    }
+
+    /**
+     * Initialize the sums and counts from scratch
+     */
+    protected void prepare() {
+        long sLB = 0;
+        long sUB = 0;
+        int positive = 0;
+        int zeros = 0;
+        long max = 0;
+        for (int i = 0; i < n; i++) {
+            int lb = vars[i].getLB();
+            int ub = vars[i].getUB();
+            lbs[i].set(lb);
+            ubs[i].set(ub);
+            sLB += lb;
+            sUB += ub;
+            if (lb > 0) {
+                positive++;
+            }
+            if (ub == 0) {
+                zeros++;
+            }
+            max = Math.max(max, (long) ub - lb);
+        }
+        sumLB.set(sLB);
+        sumUB.set(sUB);
+        nbPositive.set(positive);
+        nbNull.set(zeros);
+        maxVariability.set(max);
+    }
+
+    /**
+     * Account for the current bounds of a size in the sums and counts, and schedule the filtering of its order
+     * neighbours
+     * @param i index of the size
+     */
+    protected void update(int i) {
+        int lb = vars[i].getLB();
+        int ub = vars[i].getUB();
+        int oldLB = lbs[i].get();
+        int oldUB = ubs[i].get();
+        if (lb != oldLB) {
+            sumLB.add(lb - oldLB);
+            if (oldLB <= 0 && lb > 0) {
+                nbPositive.add(1);
+            }
+            lbs[i].set(lb);
+        }
+        if (ub != oldUB) {
+            sumUB.add(ub - oldUB);
+            if (oldUB > 0 && ub <= 0) {
+                nbNull.add(1);
+            }
+            ubs[i].set(ub);
+        }
+        if (!isModified[i]) {
+            isModified[i] = true;
+            modified[nbModified++] = i;
+        }
+    }
+
+    @Override
+    public void propagate(int idxVarInProp, int mask) throws ContradictionException {
+        if (idxVarInProp < n) {
+            update(idxVarInProp);
+        }
+        forcePropagate(PropagatorEventType.CUSTOM_PROPAGATION);
+    }
+
+    @Override
+    public void propagate(int evtmask) throws ContradictionException {
+        if (PropagatorEventType.isFullPropagation(evtmask)) {
+            if (minPatchSize > 1) {
+                for (int i = 0; i < n; i++) {
+                    vars[i].removeInterval(1, minPatchSize - 1, this);
+                }
+            }
+            prepare();
+            // The order of all sizes is filtered once
+            for (int i = 0; i < n; i++) {
+                isModified[i] = true;
+                modified[i] = i;
+            }
+            nbModified = n;
+        }
+        do {
+            filterOrder();
+            filterCount();
+            if (nbModified == 0) {
+                // The sum reasoning relies on sorted bounds
+                filterSum();
+            }
+        } while (nbModified > 0);
+    }
+
+    /**
+     * Sortedness and minimum size, from the modified sizes: lower bounds are propagated forward and upper bounds
+     * backward, each size whose bounds change being filtered in turn.
+     */
+    protected void filterOrder() throws ContradictionException {
+        while (nbModified > 0) {
+            int i = modified[--nbModified];
+            isModified[i] = false;
+            if (i + 1 < n) {
+                updateLB(i + 1, vars[i].getLB());
+            }
+            if (i > 0) {
+                updateUB(i - 1, vars[i].getUB());
+            }
+        }
+    }
+
+    /**
+     * Number of patches: sizes with a positive lower bound are patches and sizes with a null upper bound are not,
+     * and as sizes are sorted, non-zero sizes are the nbPatches last ones: the (n - kmax)-th size is null, and the
+     * (n - kmin + 1)-th one is a patch, bounds being propagated to the other sizes by the order.
+     */
+    protected void filterCount() throws ContradictionException {
+        IntVar nbPatches = vars[n];
+        nbPatches.updateBounds(nbPositive.get(), n - nbNull.get(), this);
+        int kmin = nbPatches.getLB();
+        int kmax = nbPatches.getUB();
+        if (kmax < n) {
+            updateUB(n - kmax - 1, 0);
+        }
+        if (kmin > 0) {
+            updateLB(n - kmin, minPatchSize);
+        }
+    }
+
+    /**
+     * Sum: besides the plain sum reasoning, every size after x_i is at least x_i, and every size before x_i is at
+     * most x_i, which gives for each i:
+     * prefixLB(i) + (n - i) * x_i <= sum and sum <= (i + 1) * x_i + suffixUB(i + 1).
+     * As bounds are sorted, prefixLB(i) + (n - i) * lb_i <= SUM(lb), so that the upper bound of x_i can only be
+     * pruned if n * (ub_i - lb_i) > sum.UB - SUM(lb), and symmetrically for lower bounds.
+     */
+    protected void filterSum() throws ContradictionException {
+        IntVar sum = vars[n + 1];
+        sum.updateBounds(
+                (int) Math.min(sumLB.get(), Integer.MAX_VALUE),
+                (int) Math.min(sumUB.get(), Integer.MAX_VALUE),
+                this
+        );
+        long sLB = sum.getLB();
+        long sUB = sum.getUB();
+        long slack = Math.min(sUB - sumLB.get(), sumUB.get() - sLB);
+        if (n * maxVariability.get() <= slack) {
+            // No size can be pruned
+            return;
+        }
+        prefixLB[0] = 0;
+        for (int i = 0; i < n; i++) {
+            prefixLB[i + 1] = prefixLB[i] + vars[i].getLB();
+        }
+        suffixUB[n] = 0;
+        for (int i = n - 1; i >= 0; i--) {
+            suffixUB[i] = suffixUB[i + 1] + vars[i].getUB();
+        }
+        long max = 0;
+        for (int i = 0; i < n; i++) {
+            long lb = vars[i].getLB();
+            long ub = vars[i].getUB();
+            // Plain sum reasoning
+            long othersLB = prefixLB[n] - lb;
+            long othersUB = suffixUB[0] - ub;
+            long newUB = Math.min(sUB - othersLB, Math.floorDiv(sUB - prefixLB[i], n - i));
+            long newLB = Math.max(sLB - othersUB, ceilDiv(sLB - suffixUB[i + 1], i + 1));
+            updateUB(i, newUB);
+            updateLB(i, newLB);
+            max = Math.max(max, (long) vars[i].getUB() - vars[i].getLB());
+        }
+        maxVariability.set(max);
+    }
+
+    private static long ceilDiv(long a, long b) {
+        return -Math.floorDiv(-a, b);
+    }
+
+    /**
+     * Raise the lower bound of a size, skipping the forbidden values ]0, minPatchSize[
+     */
+    private void updateLB(int i, long lb) throws ContradictionException {
+        long currentLB = vars[i].getLB();
+        if (currentLB > 0 && currentLB < minPatchSize) {
+            lb = Math.max(lb, minPatchSize);
+        }
+        if (lb <= currentLB) {
+            return;
+        }
+        if (lb < minPatchSize) {
+            lb = minPatchSize;
+        }
+        if (vars[i].updateLowerBound((int) Math.min(lb, Integer.MAX_VALUE), this)) {
+            update(i);
+        }
+    }
+
+    /**
+     * Lower the upper bound of a size, skipping the forbidden values ]0, minPatchSize[
+     */
+    private void updateUB(int i, long ub) throws ContradictionException {
+        long currentUB = vars[i].getUB();
+        if (currentUB > 0 && currentUB < minPatchSize) {
+            ub = Math.min(ub, 0);
+        }
+        if (ub >= currentUB) {
+            return;
+        }
+        if (ub > 0 && ub < minPatchSize) {
+            ub = 0;
+        }
+        if (vars[i].updateUpperBound((int) Math.max(ub, -1), this)) {
+            update(i);
+        }
+    }
+
+    @Override
+    public ESat isEntailed() {
+        for (int i = 0; i < vars.length; i++) {
+            if (!vars[i].isInstantiated()) {
+                return ESat.UNDEFINED;
+            }
+        }
+        long sum = 0;
+        int nbPatches = 0;
+        for (int i = 0; i < n; i++) {
+            int v = vars[i].getValue();
+            if (v < 0 || (v > 0 && v < minPatchSize) || (i > 0 && v < vars[i - 1].getValue())) {
+                return ESat.FALSE;
+            }
+            sum += v;
+            if (v > 0) {
+                nbPatches++;
+            }
+        }
+        return ESat.eval(nbPatches == vars[n].getValue() && sum == vars[n + 1].getValue());
+    }
+}
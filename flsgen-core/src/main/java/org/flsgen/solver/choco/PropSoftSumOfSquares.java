@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen.solver.choco;
+
+import org.chocosolver.solver.exception.ContradictionException;
+import org.chocosolver.solver.variables.IntVar;
+import org.chocosolver.solver.variables.events.PropagatorEventType;
+import org.chocosolver.util.ESat;
+
+import java.util.Arrays;
+
+/**
+ * A propagator for the soft version of LB <= SUM(x_i^2) <= UB, with non-negative x_i:
+ * LB - violation * unit <= SUM(x_i^2) <= UB + violation * unit
+ * <p>
+ * The squared variables are filtered as in PropSumOfSquares, with the bounds relaxed by the largest possible
+ * violation, and the violation lower bound is raised to the smallest violation compatible with the current sums.
+ */
+public class PropSoftSumOfSquares extends PropSumOfSquares {
+
+    protected final IntVar violation;
+    protected final long unit;
+    protected final long targetLB;
+    protected final long targetUB;
+
+    /**
+     * @param variables list of non-negative integer variables
+     * @param LB the lower bound of the sum of squares
+     * @param UB the upper bound of the sum of squares
+     * @param violation the non-negative violation variable
+     * @param unit the amount of sum of squares corresponding to one unit of violation
+     */
+    public PropSoftSumOfSquares(IntVar[] variables, long LB, long UB, IntVar violation, long unit) {
+        super(append(variables, violation), variables.length, LB, UB, computePriority(variables.length + 1));
+        this.violation = violation;
+        this.unit = unit;
+        this.targetLB = LB;
+        this.targetUB = UB;
+    }
+
+    private static IntVar[] append(IntVar[] variables, IntVar violation) {
+        IntVar[] all = Arrays.copyOf(variables, variables.length + 1);
+        all[variables.length] = violation;
+        return all;
+    }
+
+    @Override
+    public void propagate(int idxVarInProp, int mask) throws ContradictionException {
+        if (idxVarInProp < l) {
+            update(idxVarInProp);
+        }
+        forcePropagate(PropagatorEventType.CUSTOM_PROPAGATION);
+    }
+
+    @Override
+    protected void filter() throws ContradictionException {
+        // Relax the bounds by the largest possible violation
+        long slack = violation.getUB() * unit;
+        LB = targetLB - slack;
+        UB = targetUB + slack;
+        filterSquares();
+        long deviation = Math.max(sumLB.get() - targetUB, targetLB - sumUB.get());
+        if (deviation > 0) {
+            long minViolation = (deviation + unit - 1) / unit;
+            violation.updateLowerBound((int) Math.min(minViolation, Integer.MAX_VALUE), this);
+        }
+        if (violation.isInstantiated() && sumLB.get() >= LB && sumUB.get() <= UB) {
+            this.setPassive();
+        }
+    }
+
+    @Override
+    public ESat isEntailed() {
+        long sumUB = 0;
+        long sumLB = 0;
+        for (int i = 0; i < l; i++) {
+            sumLB += square(vars[i].getLB());
+            sumUB += square(vars[i].getUB());
+        }
+        long maxSlack = violation.getUB() * unit;
+        long minSlack = violation.getLB() * unit;
+        if (sumLB > targetUB + maxSlack || sumUB < targetLB - maxSlack) {
+            return ESat.FALSE;
+        }
+        if (sumLB >= targetLB - minSlack && sumUB <= targetUB + minSlack) {
+            return ESat.TRUE;
+        }
+        return ESat.UNDEFINED;
+    }
+}
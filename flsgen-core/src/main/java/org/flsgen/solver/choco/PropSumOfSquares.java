@@ -21,20 +21,27 @@
  */
 package org.flsgen.solver.choco;
 
+import org.chocosolver.memory.IStateInt;
+import org.chocosolver.memory.IStateLong;
 import org.chocosolver.solver.constraints.Propagator;
 import org.chocosolver.solver.constraints.PropagatorPriority;
 import org.chocosolver.solver.exception.ContradictionException;
 import org.chocosolver.solver.variables.IntVar;
 import org.chocosolver.solver.variables.events.IntEventType;
+import org.chocosolver.solver.variables.events.PropagatorEventType;
 import org.chocosolver.util.ESat;
 
 
 /**
- * A propagator for SUM(x_i) o b
+ * A propagator for LB <= SUM(x_i^2) <= UB, with non-negative x_i
  * <br/>
  * Based on "Bounds Consistency Techniques for Long Linear Constraint" </br>
  * W. Harvey and J. Schimpf
  * <p>
+ * The sums of squared lower and upper bounds are maintained incrementally in backtrackable state, from the bound
+ * events of each modified variable. Filtering is only attempted when the slack (UB - SUM(lb_i^2) or
+ * SUM(ub_i^2) - LB) falls below an upper bound of the largest variability ub_i^2 - lb_i^2, as no variable can be
+ * pruned otherwise.
  *
  * @author Charles Prud'homme
  * @since 18/03/11
@@ -47,53 +54,59 @@ public class PropSumOfSquares extends Propagator<IntVar> {
     protected final int l;
 
     /**
-     * Variability of each variable (ie domain amplitude)
+     * Bounds of each variable accounted for in the sums
      */
-    protected final int[] I;
-    protected final long[] I2;
+    protected final IStateInt[] lbs;
+    protected final IStateInt[] ubs;
 
     /**
-     * Stores the maximal variability
+     * Sum of squared lower bounds
      */
-    protected int maxI;
-    protected long maxI2;
+    protected final IStateLong sumLB;
 
     /**
-     * SUm of lower bounds
+     * Sum of squared upper bounds
      */
-    protected long sumLB;
+    protected final IStateLong sumUB;
 
     /**
-     * Sum of upper bounds
+     * Upper bound of the maximal variability ub_i^2 - lb_i^2 (variabilities only decrease during search)
      */
-    protected long sumUB;
+    protected final IStateLong maxI2;
 
     protected long LB;
     protected long UB;
 
-    protected long b;
-
     /**
-     * Creates a sum propagator: SUM(x_i) o b
-     * Coefficients are induced by <code>pos</code>:
-     * those before <code>pos</code> (included) are equal to 1,
-     * the other ones are equal to -1.
+     * Creates a sum of squares propagator: LB <= SUM(x_i^2) <= UB
      *
-     * @param variables list of integer variables
+     * @param variables list of non-negative integer variables
      */
     public PropSumOfSquares(IntVar[] variables, long LB, long UB) {
-        this(variables, LB, UB, computePriority(variables.length), false);
+        this(variables, LB, UB, computePriority(variables.length));
     }
 
 
-    PropSumOfSquares(IntVar[] variables, long LB, long UB, PropagatorPriority priority, boolean reactOnFineEvent){
-        super(variables, priority, reactOnFineEvent);
-        l = variables.length;
-        I = new int[l];
-        I2 = new long[l];
-        maxI = 0;
-        maxI2 = 0;
-        b = 0;
+    PropSumOfSquares(IntVar[] variables, long LB, long UB, PropagatorPriority priority){
+        this(variables, variables.length, LB, UB, priority);
+    }
+
+    /**
+     * @param variables The squared variables, possibly followed by other variables handled by subclasses
+     * @param nbSquared The number of squared variables
+     */
+    protected PropSumOfSquares(IntVar[] variables, int nbSquared, long LB, long UB, PropagatorPriority priority){
+        super(variables, priority, true);
+        l = nbSquared;
+        lbs = new IStateInt[l];
+        ubs = new IStateInt[l];
+        for (int i = 0; i < l; i++) {
+            lbs[i] = model.getEnvironment().makeInt(0);
+            ubs[i] = model.getEnvironment().makeInt(0);
+        }
+        sumLB = model.getEnvironment().makeLong(0);
+        sumUB = model.getEnvironment().makeLong(0);
+        maxI2 = model.getEnvironment().makeLong(0);
         this.LB = LB;
         this.UB = UB;
     }
@@ -120,222 +133,155 @@ public class PropSumOfSquares extends Propagator<IntVar> {
         return IntEventType.boundAndInst();
     }
 
-
     /**
-     * Prepare the propagation: compute sumLB, sumUB and I
+     * Initialize the sums from scratch
      */
     protected void prepare() {
-        sumLB = sumUB = 0;
-        int lb;
-        int ub;
-        maxI = 0;
-        maxI2 = 0;
-        for (int i = 0; i < vars.length; i++) {
-            lb = vars[i].getLB();
-            ub = vars[i].getUB();
-            long longLB = Long.valueOf(lb);
-            long longUB = Long.valueOf(ub);
-            sumLB += longLB * longLB;
-            sumUB += longUB * longUB;
-            I[i] = (ub - lb);
-            I2[i] = longUB * longUB - longLB * longLB;
-            if(maxI < I[i]) {
-                maxI = I[i];
-            }
-            if (maxI2 < I2[i]) {
-                maxI2 = I2[i];
-            }
+        long sLB = 0;
+        long sUB = 0;
+        long max = 0;
+        for (int i = 0; i < l; i++) {
+            int lb = vars[i].getLB();
+            int ub = vars[i].getUB();
+            lbs[i].set(lb);
+            ubs[i].set(ub);
+            sLB += square(lb);
+            sUB += square(ub);
+            max = Math.max(max, square(ub) - square(lb));
+        }
+        sumLB.set(sLB);
+        sumUB.set(sUB);
+        maxI2.set(max);
+    }
+
+    /**
+     * Account for the current bounds of a variable in the sums
+     * @param i index of the variable
+     */
+    protected void update(int i) {
+        int lb = vars[i].getLB();
+        int ub = vars[i].getUB();
+        int oldLB = lbs[i].get();
+        int oldUB = ubs[i].get();
+        if (lb != oldLB) {
+            sumLB.add(square(lb) - square(oldLB));
+            lbs[i].set(lb);
+        }
+        if (ub != oldUB) {
+            sumUB.add(square(ub) - square(oldUB));
+            ubs[i].set(ub);
         }
     }
 
+    @Override
+    public void propagate(int idxVarInProp, int mask) throws ContradictionException {
+        update(idxVarInProp);
+        forcePropagate(PropagatorEventType.CUSTOM_PROPAGATION);
+    }
 
     @Override
     public void propagate(int evtmask) throws ContradictionException {
+        if (PropagatorEventType.isFullPropagation(evtmask)) {
+            prepare();
+        }
         filter();
     }
 
     /**
-     * Execute filtering wrt the operator
+     * Execute filtering, until no variable bound changes
      * @throws ContradictionException if contradiction is detected
      */
     protected void filter() throws ContradictionException {
-        prepare();
-        if (LB == UB) {
-            filterOnEq();
-        } else {
-            filterOnLeq();
-            filterOnGeq();
+        filterSquares();
+        if (sumLB.get() >= LB && sumUB.get() <= UB) {
+            this.setPassive();
         }
     }
 
     /**
-     * Apply filtering when operator is EQ
+     * Filter the bounds of the squared variables wrt. LB and UB, until no variable bound changes
      * @throws ContradictionException if contradiction is detected
      */
-    protected void filterOnEq() throws ContradictionException {
-        boolean anychange;
-        long F = LB - sumLB;
-        long E = sumUB - LB;
-        do {
+    protected void filterSquares() throws ContradictionException {
+        boolean anychange = true;
+        while (anychange) {
             anychange = false;
+            long F = UB - sumLB.get();
+            long E = sumUB.get() - LB;
             // When explanations are on, no global failure allowed
             if (model.getSolver().isLearnOff() && (F < 0 || E < 0)) {
                 fails();
             }
-            if (maxI2 > F || maxI2 > E) {
-                int lb;
-                int ub;
-                int i = 0;
-                maxI = 0;
-                maxI2 = 0;
-                // positive coefficients first
-                while (i < vars.length) {
-                    if (I2[i] - F > 0) {
-                        lb = vars[i].getLB();
-                        ub = lb + I[i];
-                        if (vars[i].updateUpperBound((int) (Math.sqrt(F) + lb), this)) {
-                            int nub = vars[i].getUB();
-                            long longNub = Long.valueOf(nub);
-                            long longUb = Long.valueOf(ub);
-                            long longLb = Long.valueOf(lb);
-                            E += (longNub * longNub) - (longUb * longUb);
-                            I[i] = nub - lb;
-                            I2[i] = longNub * longNub - longLb * longLb;
-                            anychange = true;
-                        }
-                    }
-                    if (I2[i] - E > 0) {
-                        ub = vars[i].getUB();
-                        lb = ub - I[i];
-                        if (vars[i].updateLowerBound((int) (ub - Math.sqrt(E)), this)) {
-                            int nlb = vars[i].getLB();
-                            long longNlb = Long.valueOf(nlb);
-                            long longLb = Long.valueOf(lb);
-                            long longUb = Long.valueOf(ub);
-                            F -= (longNlb * longNlb) - (longLb * longLb);
-                            I[i] = ub - nlb;
-                            I2[i] = longUb * longUb - longNlb * longNlb;
-                            anychange = true;
-                        }
-                    }
-                    if (maxI < I[i]) {
-                        maxI = I[i];
+            if (F >= 0 && E >= 0 && maxI2.get() <= Math.min(F, E)) {
+                // No variable can be pruned
+                break;
+            }
+            long max = 0;
+            for (int i = 0; i < l; i++) {
+                int lb = vars[i].getLB();
+                int ub = vars[i].getUB();
+                long I2 = square(ub) - square(lb);
+                if (I2 > F) {
+                    // x_i^2 <= F + lb_i^2
+                    long bound = sqrtFloor(F + square(lb));
+                    if (vars[i].updateUpperBound((int) Math.min(bound, Integer.MAX_VALUE), this)) {
+                        update(i);
+                        anychange = true;
                     }
-                    if (maxI2 < I2[i]) {
-                        maxI2 = I2[i];
+                }
+                if (I2 > E) {
+                    // x_i^2 >= ub_i^2 - E
+                    long bound = sqrtCeil(square(vars[i].getUB()) - E);
+                    if (vars[i].updateLowerBound((int) Math.min(bound, Integer.MAX_VALUE), this)) {
+                        update(i);
+                        anychange = true;
                     }
-                    i++;
                 }
+                max = Math.max(max, square(vars[i].getUB()) - square(vars[i].getLB()));
             }
-            // useless since true when all variables are instantiated
-            if (F <= 0 && E <= 0) {
-                this.setPassive();
-                return;
-            }
-        } while (anychange) ;
+            maxI2.set(max);
+        }
+    }
+
+    protected static long square(int v) {
+        return ((long) v) * ((long) v);
     }
 
     /**
-     * Apply filtering when operator is LE
-     * @throws ContradictionException if contradiction is detected
+     * @return floor(sqrt(v)), computed exactly (-1 if v < 0)
      */
-    protected void filterOnLeq() throws ContradictionException {
-        long F = UB - sumLB;
-        long E = sumUB - LB;
-        // When explanations are on, no global failure allowed
-        if (model.getSolver().isLearnOff() && F < 0) {
-            fails();
+    protected static long sqrtFloor(long v) {
+        if (v < 0) {
+            return -1;
         }
-        if (maxI2 > F) {
-            maxI = 0;
-            maxI2 = 0;
-            int lb;
-            int ub;
-            int i = 0;
-            // positive coefficients first
-            while (i < vars.length) {
-                if (I2[i] - F > 0) {
-                    lb = vars[i].getLB();
-                    ub = lb + I[i];
-                    if (vars[i].updateUpperBound((int) (Math.sqrt(F) + lb), this)) {
-                        int nub = vars[i].getUB();
-                        long longNub = Long.valueOf(nub);
-                        long longUB = Long.valueOf(ub);
-                        long longLB = Long.valueOf(lb);
-                        E += (longNub * longNub) - (longUB * longUB);
-                        I[i] = nub - lb;
-                        I2[i] = longNub * longNub - longLB * longLB;
-                    }
-                }
-                if(maxI < I[i]) {
-                    maxI = I[i];
-                }
-                if (maxI2 < I2[i]) {
-                    maxI2 = I2[i];
-                }
-                i++;
-            }
+        long r = (long) Math.sqrt((double) v);
+        while (r > 0 && r * r > v) {
+            r--;
         }
-        if (E <= 0) {
-            this.setPassive();
+        while ((r + 1) * (r + 1) <= v) {
+            r++;
         }
+        return r;
     }
 
     /**
-     * Apply filtering when operator is GE
-     * @throws ContradictionException if contradiction is detected
+     * @return ceil(sqrt(v)), computed exactly (0 if v <= 0)
      */
-    protected void filterOnGeq() throws ContradictionException {
-        long F = UB - sumLB;
-        long E = sumUB - LB;
-        // When explanations are on, no global failure allowed
-        if (model.getSolver().isLearnOff() && E < 0) {
-            fails();
-        }
-        if(maxI2 > E) {
-            maxI = 0;
-            maxI2 = 0;
-            int lb;
-            int ub;
-            int i = 0;
-            // positive coefficients first
-            while (i < vars.length) {
-                if (I2[i] - E > 0) {
-                    ub = vars[i].getUB();
-                    lb = ub - I[i];
-                    if (vars[i].updateLowerBound((int) (ub - Math.sqrt(E)), this)) {
-                        int nlb = vars[i].getLB();
-                        long longNlb = Long.valueOf(nlb);
-                        long longLB = Long.valueOf(lb);
-                        long longUB = Long.valueOf(lb);
-                        F -= (longNlb * longNlb) - (longLB * longLB);
-                        I[i] = ub - nlb;
-                        I2[i] = longUB * longUB - longNlb * longNlb;
-                    }
-                }
-                if (maxI < I[i]) {
-                    maxI = I[i];
-                }
-                if (maxI2 < I2[i]) {
-                    maxI2 = I2[i];
-                }
-                i++;
-            }
-        }
-        if (F <= 0) {
-            this.setPassive();
+    protected static long sqrtCeil(long v) {
+        if (v <= 0) {
+            return 0;
         }
+        long r = sqrtFloor(v);
+        return r * r == v ? r : r + 1;
     }
 
     @Override
     public ESat isEntailed() {
         long sumUB = 0;
         long sumLB = 0;
-        for (int i =0; i < vars.length; i++) { // first the positive coefficients
-            long longLB = Long.valueOf(vars[i].getLB());
-            long longUB = Long.valueOf(vars[i].getUB());
-            sumLB += longLB * longLB;
-            sumUB += longUB * longUB;
+        for (int i = 0; i < l; i++) {
+            sumLB += square(vars[i].getLB());
+            sumUB += square(vars[i].getUB());
         }
         return check(sumLB, sumUB);
     }
@@ -358,4 +304,4 @@ public class PropSumOfSquares extends Propagator<IntVar> {
         }
         return ESat.UNDEFINED;
     }
-}
\ No newline at end of file
+}
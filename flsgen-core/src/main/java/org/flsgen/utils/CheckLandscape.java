@@ -19,56 +19,95 @@
  * You should have received a copy of the GNU General Public License
  * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
  */
-
 package org.flsgen.utils;
 
-import org.chocosolver.util.graphOperations.connectivity.ConnectivityFinder;
-import org.chocosolver.util.objects.graphs.GraphFactory;
-import org.chocosolver.util.objects.graphs.UndirectedGraph;
-import org.chocosolver.util.objects.setDataStructures.SetType;
 import org.flsgen.grid.neighborhood.INeighborhood;
+import org.flsgen.grid.regular.square.PartialRegularSquareGrid;
 import org.flsgen.grid.regular.square.RegularSquareGrid;
 import org.flsgen.solver.LandscapeGenerator;
+import org.flsgen.solver.LandscapeStructure;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
 
+/**
+ * Utility methods to check a generated landscape against a landscape structure, based on LandscapeMetrics.
+ */
 public class CheckLandscape {
 
     public static final int checkNP(LandscapeGenerator generator, int classId, INeighborhood neighborhood) {
-        UndirectedGraph g = getClassGraph(generator, classId, neighborhood);
-        ConnectivityFinder cf = new ConnectivityFinder(g);
-        cf.findAllCC();
-        return cf.getNBCC();
+        return getMetrics(generator, new int[] {classId}, neighborhood).getNbPatches(0);
     }
 
     public static final int[] checkAREA(LandscapeGenerator generator, int classId, INeighborhood neighborhood) {
-        UndirectedGraph g = getClassGraph(generator, classId, neighborhood);
-        ConnectivityFinder cf = new ConnectivityFinder(g);
-        cf.findAllCC();
-        int[] area = new int[cf.getNBCC()];
-        for (int i = 0; i < area.length; i++) {
-            area[i] = cf.getSizeCC()[i];
-        }
-        Arrays.sort(area);
-        return area;
+        return getMetrics(generator, new int[] {classId}, neighborhood).getPatchSizes(0);
     }
 
-    private static UndirectedGraph getClassGraph(LandscapeGenerator generator, int classId, INeighborhood neighborhood) {
+    /**
+     * Extract the landscape structure of a generated landscape, for all classes, in a single labeling pass.
+     * @param generator The landscape generator, after generation.
+     * @param structure The landscape structure used for generation (provides class names).
+     * @param neighborhood The neighborhood defining patches.
+     * @return The landscape structure of the generated landscape.
+     */
+    public static final LandscapeStructure checkStructure(LandscapeGenerator generator, LandscapeStructure structure,
+                                                          INeighborhood neighborhood) {
         RegularSquareGrid grid = generator.getGrid();
-        UndirectedGraph g = GraphFactory.makeUndirectedGraph(grid.getNbCells(), SetType.BIPARTITESET, SetType.BIPARTITESET);
-        for (int i = 0; i < grid.getNbCells(); i++) {
-            if (generator.getRasterGrid()[i] == classId) {
-                g.addNode(i);
-            }
+        int[] classes = IntStream.range(0, structure.getNbClasses()).toArray();
+        LandscapeMetrics metrics = getMetrics(generator, classes, neighborhood);
+        int[] totalSize = new int[classes.length];
+        int[] nbPatches = new int[classes.length];
+        int[][] patchSizes = new int[classes.length][];
+        long[] npro = new long[classes.length];
+        for (int k = 0; k < classes.length; k++) {
+            totalSize[k] = metrics.getClassArea(k);
+            nbPatches[k] = metrics.getNbPatches(k);
+            patchSizes[k] = metrics.getPatchSizes(k);
+            npro[k] = metrics.getNetProduct(k);
         }
-        for (int i : g.getNodes()) {
-            for (int j : neighborhood.getNeighbors(grid, i)) {
-                if (generator.getRasterGrid()[j] == classId) {
-                    g.addEdge(i, j);
-                }
+        int[] noDataCells = grid instanceof PartialRegularSquareGrid ?
+                ((PartialRegularSquareGrid) grid).getDiscardSet().stream().mapToInt(Integer::intValue).sorted().toArray() : new int[] {};
+        return new LandscapeStructure(
+                grid.getNbRows(), grid.getNbCols(), structure.getMaskRasterPath(), noDataCells,
+                structure.getNames(), totalSize, nbPatches, patchSizes, npro, new boolean[classes.length]
+        );
+    }
+
+    /**
+     * Compare an observed landscape structure with a target one. As patch sizes determine every other metric,
+     * comparing NP and AREA for each class is sufficient.
+     * @param target The target landscape structure.
+     * @param observed The observed landscape structure.
+     * @return The list of differences, empty if the structures are equivalent.
+     */
+    public static final List<String> compareStructures(LandscapeStructure target, LandscapeStructure observed) {
+        List<String> differences = new ArrayList<>();
+        if (target.getNbClasses() != observed.getNbClasses()) {
+            differences.add("Number of classes is " + observed.getNbClasses() + ", expected " + target.getNbClasses());
+            return differences;
+        }
+        if (target.getLandscapeSize() != observed.getLandscapeSize()) {
+            differences.add("Landscape size is " + observed.getLandscapeSize() + ", expected " + target.getLandscapeSize());
+        }
+        for (int k = 0; k < target.getNbClasses(); k++) {
+            String name = target.getNames()[k];
+            if (target.getNbPatches(k) != observed.getNbPatches(k)) {
+                differences.add("Class '" + name + "': NP is " + observed.getNbPatches(k)
+                        + ", expected " + target.getNbPatches(k));
+            }
+            if (!Arrays.equals(target.getPatchSizes(k), observed.getPatchSizes(k))) {
+                differences.add("Class '" + name + "': AREA is " + Arrays.toString(observed.getPatchSizes(k))
+                        + ", expected " + Arrays.toString(target.getPatchSizes(k)));
             }
         }
-        return g;
+        return differences;
     }
 
+    private static LandscapeMetrics getMetrics(LandscapeGenerator generator, int[] classes, INeighborhood neighborhood) {
+        RegularSquareGrid grid = generator.getGrid();
+        int[] data = generator.getRasterData(LandscapeGenerator.NODATA);
+        return new LandscapeMetrics(data, grid.getNbRows(), grid.getNbCols(), classes, neighborhood);
+    }
 }
@@ -0,0 +1,461 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen.utils;
+
+import com.github.cliftonlabs.json_simple.JsonException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * A streaming, token-based JSON reader: values are read one at a time from the underlying reader, without building
+ * a document tree, so that memory stays flat regardless of the size of the document. Integer arrays are parsed
+ * directly into int[] (see nextIntArray), and unused values are skipped without being decoded.
+ * <p>
+ * Numbers are accepted wherever integers are expected as long as they are integral (e.g. 60.0), and null is read
+ * as NaN where a double is expected. Malformed documents raise a JsonException with the offending position.
+ */
+public class JsonStreamReader implements Closeable {
+
+    public enum Token {
+        BEGIN_OBJECT,
+        END_OBJECT,
+        BEGIN_ARRAY,
+        END_ARRAY,
+        NAME,
+        STRING,
+        NUMBER,
+        BOOLEAN,
+        NULL,
+        END_DOCUMENT
+    }
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private int pos;
+    private int limit;
+    private long consumed;
+    private int[] stack = new int[32];
+    private int stackSize = 1;
+    private Token peeked;
+    private final StringBuilder scratch = new StringBuilder();
+
+    public JsonStreamReader(Reader reader) {
+        this.reader = reader;
+        stack[0] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * @return The type of the next token, without consuming it
+     */
+    public Token peek() throws IOException, JsonException {
+        if (peeked == null) {
+            peeked = doPeek();
+        }
+        return peeked;
+    }
+
+    /**
+     * @return True if the current array or object has more elements
+     */
+    public boolean hasNext() throws IOException, JsonException {
+        Token t = peek();
+        return t != Token.END_OBJECT && t != Token.END_ARRAY && t != Token.END_DOCUMENT;
+    }
+
+    public void beginObject() throws IOException, JsonException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException, JsonException {
+        expect(Token.END_OBJECT);
+        stackSize--;
+    }
+
+    public void beginArray() throws IOException, JsonException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException, JsonException {
+        expect(Token.END_ARRAY);
+        stackSize--;
+    }
+
+    public String nextName() throws IOException, JsonException {
+        expect(Token.NAME);
+        return readString();
+    }
+
+    public String nextString() throws IOException, JsonException {
+        expect(Token.STRING);
+        return readString();
+    }
+
+    public boolean nextBoolean() throws IOException, JsonException {
+        Token t = peek();
+        if (t == Token.STRING) {
+            // Booleans written as strings, as accepted by Boolean.parseBoolean
+            return Boolean.parseBoolean(nextString());
+        }
+        expect(Token.BOOLEAN);
+        return readLiteral().equals("true");
+    }
+
+    public double nextDouble() throws IOException, JsonException {
+        if (peek() == Token.NULL) {
+            expect(Token.NULL);
+            readLiteral();
+            return Double.NaN;
+        }
+        expect(Token.NUMBER);
+        String number = readNumber();
+        try {
+            return Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            throw error(JsonException.Problems.UNEXPECTED_TOKEN, number);
+        }
+    }
+
+    public long nextLong() throws IOException, JsonException {
+        expect(Token.NUMBER);
+        String number = readNumber();
+        try {
+            return Long.parseLong(number);
+        } catch (NumberFormatException e) {
+            try {
+                double d = Double.parseDouble(number);
+                if (d == Math.rint(d) && Math.abs(d) < 0x1p63) {
+                    return (long) d;
+                }
+            } catch (NumberFormatException e2) {
+                // Reported below
+            }
+            throw error(JsonException.Problems.UNEXPECTED_TOKEN, number);
+        }
+    }
+
+    public int nextInt() throws IOException, JsonException {
+        long value = nextLong();
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw error(JsonException.Problems.UNEXPECTED_TOKEN, value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Read an array of integers, without boxing
+     */
+    public int[] nextIntArray() throws IOException, JsonException {
+        beginArray();
+        int[] values = new int[16];
+        int n = 0;
+        while (hasNext()) {
+            if (n == values.length) {
+                values = Arrays.copyOf(values, n * 2);
+            }
+            values[n++] = nextInt();
+        }
+        endArray();
+        return Arrays.copyOf(values, n);
+    }
+
+    /**
+     * Skip the next value (or the value of the next member, if positioned on a name), whatever its type
+     */
+    public void skipValue() throws IOException, JsonException {
+        int depth = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    depth--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    depth--;
+                    break;
+                case NAME:
+                    nextName();
+                    skipValue();
+                    break;
+                case STRING:
+                    nextString();
+                    break;
+                case NUMBER:
+                    expect(Token.NUMBER);
+                    readNumber();
+                    break;
+                case BOOLEAN:
+                case NULL:
+                    peeked = null;
+                    readLiteral();
+                    break;
+                default:
+                    throw error(JsonException.Problems.UNEXPECTED_TOKEN, peeked);
+            }
+        } while (depth > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void expect(Token token) throws IOException, JsonException {
+        if (peek() != token) {
+            throw error(JsonException.Problems.UNEXPECTED_TOKEN, peeked);
+        }
+        peeked = null;
+    }
+
+    private void push(int state) {
+        if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, stackSize * 2);
+        }
+        stack[stackSize++] = state;
+    }
+
+    private Token doPeek() throws IOException, JsonException {
+        int state = stack[stackSize - 1];
+        int c;
+        switch (state) {
+            case EMPTY_ARRAY:
+            case NONEMPTY_ARRAY:
+                stack[stackSize - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return Token.END_ARRAY;
+                }
+                if (state == NONEMPTY_ARRAY) {
+                    if (c != ',') {
+                        throw unexpected(c);
+                    }
+                } else if (c != -1) {
+                    // At the end of the input, nothing was read to step back over
+                    pos--;
+                }
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                stack[stackSize - 1] = DANGLING_NAME;
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return Token.END_OBJECT;
+                }
+                if (state == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw unexpected(c);
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw unexpected(c);
+                }
+                return Token.NAME;
+            case DANGLING_NAME:
+                stack[stackSize - 1] = NONEMPTY_OBJECT;
+                c = nextNonWhitespace();
+                if (c != ':') {
+                    throw unexpected(c);
+                }
+                break;
+            case EMPTY_DOCUMENT:
+                stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+                break;
+            default:
+                c = nextNonWhitespace();
+                if (c != -1) {
+                    throw unexpected(c);
+                }
+                return Token.END_DOCUMENT;
+        }
+        c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                return Token.STRING;
+            case 't':
+            case 'f':
+                pos--;
+                return Token.BOOLEAN;
+            case 'n':
+                pos--;
+                return Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    pos--;
+                    return Token.NUMBER;
+                }
+                throw unexpected(c);
+        }
+    }
+
+    /**
+     * @return The next character, -1 at the end of the input
+     */
+    private int read() throws IOException {
+        if (pos == limit) {
+            consumed += limit;
+            pos = 0;
+            limit = Math.max(0, reader.read(buffer));
+            if (limit == 0) {
+                return -1;
+            }
+        }
+        return buffer[pos++];
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+        return c;
+    }
+
+    /**
+     * Read a string, the opening quote being consumed
+     */
+    private String readString() throws IOException, JsonException {
+        scratch.setLength(0);
+        while (true) {
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos];
+                if (c == '"' || c == '\\') {
+                    break;
+                }
+                pos++;
+            }
+            scratch.append(buffer, start, pos - start);
+            int c = read();
+            if (c == '"') {
+                return scratch.toString();
+            } else if (c == '\\') {
+                scratch.append(readEscape());
+            } else if (c == -1) {
+                throw error(JsonException.Problems.UNEXPECTED_CHARACTER, "end of input");
+            } else {
+                // Buffer exhausted, the character is part of the string
+                scratch.append((char) c);
+            }
+        }
+    }
+
+    private char readEscape() throws IOException, JsonException {
+        int c = read();
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int v = 0;
+                for (int i = 0; i < 4; i++) {
+                    int d = Character.digit(read(), 16);
+                    if (d < 0) {
+                        throw error(JsonException.Problems.UNEXPECTED_CHARACTER, "\\u escape");
+                    }
+                    v = (v << 4) | d;
+                }
+                return (char) v;
+            default:
+                throw unexpected(c);
+        }
+    }
+
+    private String readNumber() throws IOException {
+        scratch.setLength(0);
+        while (true) {
+            int c = read();
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                scratch.append((char) c);
+            } else {
+                if (c != -1) {
+                    pos--;
+                }
+                return scratch.toString();
+            }
+        }
+    }
+
+    private String readLiteral() throws IOException, JsonException {
+        scratch.setLength(0);
+        while (true) {
+            int c = read();
+            if (c >= 'a' && c <= 'z') {
+                scratch.append((char) c);
+            } else {
+                if (c != -1) {
+                    pos--;
+                }
+                String literal = scratch.toString();
+                if (!literal.equals("true") && !literal.equals("false") && !literal.equals("null")) {
+                    throw error(JsonException.Problems.UNEXPECTED_TOKEN, literal);
+                }
+                return literal;
+            }
+        }
+    }
+
+    private JsonException unexpected(int c) {
+        return error(JsonException.Problems.UNEXPECTED_CHARACTER, c == -1 ? "end of input" : (char) c);
+    }
+
+    private JsonException error(JsonException.Problems problem, Object unexpected) {
+        return new JsonException(consumed + pos, problem, unexpected);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A streaming JSON writer, formatted as Jsoner.prettyPrint (tab indentation, one member or element per line).
+ * Values are written directly to the underlying writer, which should be buffered, without building a document tree:
+ * integer arrays are written from int[] without boxing. Non-finite doubles are written as null, as Jsoner does.
+ */
+public class JsonStreamWriter {
+
+    private final Writer writer;
+    private final char[] digits = new char[20];
+    private int depth;
+    private boolean first = true;
+    private boolean afterName;
+
+    public JsonStreamWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    public JsonStreamWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    public JsonStreamWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public JsonStreamWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    public JsonStreamWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    /**
+     * Write the name of the next member of the current object
+     */
+    public JsonStreamWriter name(String name) throws IOException {
+        newLine();
+        writeString(name);
+        writer.write(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonStreamWriter value(String value) throws IOException {
+        beforeValue();
+        if (value == null) {
+            writer.write("null");
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    public JsonStreamWriter value(long value) throws IOException {
+        beforeValue();
+        writeLong(value);
+        return this;
+    }
+
+    public JsonStreamWriter value(double value) throws IOException {
+        beforeValue();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            writer.write("null");
+        } else {
+            writer.write(Double.toString(value));
+        }
+        return this;
+    }
+
+    public JsonStreamWriter value(boolean value) throws IOException {
+        beforeValue();
+        writer.write(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Write an array of integers
+     */
+    public JsonStreamWriter value(int[] values) throws IOException {
+        beginArray();
+        for (int v : values) {
+            newLine();
+            writeLong(v);
+        }
+        return endArray();
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    private JsonStreamWriter open(char c) throws IOException {
+        beforeValue();
+        writer.write(c);
+        depth++;
+        first = true;
+        return this;
+    }
+
+    private JsonStreamWriter close(char c) throws IOException {
+        depth--;
+        if (!first) {
+            writer.write('\n');
+            indent();
+        }
+        writer.write(c);
+        first = false;
+        return this;
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+        } else if (depth > 0) {
+            newLine();
+        }
+    }
+
+    /**
+     * Start a new member or element of the current container
+     */
+    private void newLine() throws IOException {
+        if (!first) {
+            writer.write(',');
+        }
+        writer.write('\n');
+        indent();
+        first = false;
+    }
+
+    private void indent() throws IOException {
+        for (int i = 0; i < depth; i++) {
+            writer.write('\t');
+        }
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writer.write(Long.toString(value));
+            return;
+        }
+        int i = digits.length;
+        long v = Math.abs(value);
+        do {
+            digits[--i] = (char) ('0' + v % 10);
+            v /= 10;
+        } while (v > 0);
+        if (value < 0) {
+            digits[--i] = '-';
+        }
+        writer.write(digits, i, digits.length - i);
+    }
+
+    private void writeString(String s) throws IOException {
+        writer.write('"');
+        int start = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String escape;
+            switch (c) {
+                case '"':
+                    escape = "\\\"";
+                    break;
+                case '\\':
+                    escape = "\\\\";
+                    break;
+                case '\n':
+                    escape = "\\n";
+                    break;
+                case '\r':
+                    escape = "\\r";
+                    break;
+                case '\t':
+                    escape = "\\t";
+                    break;
+                default:
+                    escape = c < 0x20 ? String.format("\\u%04x", (int) c) : null;
+            }
+            if (escape != null) {
+                writer.write(s, start, i - start);
+                writer.write(escape);
+                start = i + 1;
+            }
+        }
+        writer.write(s, start, s.length() - start);
+        writer.write('"');
+    }
+}
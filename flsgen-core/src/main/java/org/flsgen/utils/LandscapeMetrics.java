@@ -0,0 +1,545 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen.utils;
+
+import org.flsgen.grid.neighborhood.INeighborhood;
+import org.flsgen.grid.neighborhood.regular.square.FourConnected;
+import org.flsgen.grid.neighborhood.regular.square.HeightConnected;
+import org.flsgen.grid.neighborhood.regular.square.PartialFourConnected;
+import org.flsgen.grid.neighborhood.regular.square.PartialHeightConnected;
+import org.flsgen.grid.regular.square.RegularSquareGrid;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One-pass patch labeling of a raster for a set of focal classes.
+ * Patches of every focal class are identified with a single raster scan using a union-find structure
+ * (with path halving and smallest-index roots), followed by a relabeling pass. Per-class patch sizes
+ * and net products are aggregated during the relabeling pass, which makes every class-level metric of
+ * a landscape structure available without any per-class graph construction.
+ * <p>
+ * Four-connected and height-connected neighborhoods are handled with a dedicated scan, any other
+ * neighborhood is handled through its getNeighbors() method on the complete raster grid.
+ * <p>
+ * Patch perimeters and class edges are counted during the relabeling pass, which gives the total edge (TE),
+ * perimeter-area ratio (PARA) and shape index (SHAPE) metrics. The Euclidean nearest-neighbour distance (ENN) is
+ * computed on demand from a linear-time feature transform of each class. As the raster resolution is not known
+ * at this level, all these metrics are expressed in cell units.
+ */
+public class LandscapeMetrics {
+
+    protected int nbRows;
+    protected int nbCols;
+    protected int[] focalClasses;
+
+    public static final int NON_FOCAL = -1;
+    public static final int NO_DATA = -2;
+
+    // Class index (in focalClasses) of each cell, NON_FOCAL or NO_DATA otherwise
+    protected int[] cellClass;
+    // Patch label of each cell, -1 for non-focal cells
+    protected int[] labels;
+    protected int nbPatches;
+    protected int[] patchClass;
+    protected int[] patchSize;
+    protected int[] patchPerimeter;
+
+    protected int[] classNbPatches;
+    protected int[] classArea;
+    protected long[] classNpro;
+    protected int[][] classPatchSizes;
+    protected int[] classEdge;
+    protected double[] classNearestNeighbourDistance;
+
+    /**
+     * @param values Raster values, in row-major order.
+     * @param nbRows Number of rows of the raster.
+     * @param nbCols Number of columns of the raster.
+     * @param focalClasses Raster values of the focal classes.
+     * @param neighborhood Neighborhood defining patch connectivity.
+     */
+    public LandscapeMetrics(int[] values, int nbRows, int nbCols, int[] focalClasses, INeighborhood neighborhood) {
+        this(values, nbRows, nbCols, Integer.MIN_VALUE, focalClasses, neighborhood);
+    }
+
+    /**
+     * @param values Raster values, in row-major order.
+     * @param nbRows Number of rows of the raster.
+     * @param nbCols Number of columns of the raster.
+     * @param noDataValue Raster value of cells outside the landscape, edges with these cells are not counted in TE.
+     * @param focalClasses Raster values of the focal classes.
+     * @param neighborhood Neighborhood defining patch connectivity.
+     */
+    public LandscapeMetrics(int[] values, int nbRows, int nbCols, int noDataValue, int[] focalClasses,
+                            INeighborhood neighborhood) {
+        this.nbRows = nbRows;
+        this.nbCols = nbCols;
+        this.focalClasses = focalClasses;
+        this.cellClass = classify(values, noDataValue, focalClasses);
+        this.labels = new int[values.length];
+        if (neighborhood instanceof FourConnected || neighborhood instanceof PartialFourConnected) {
+            unionScan(false);
+        } else if (neighborhood instanceof HeightConnected || neighborhood instanceof PartialHeightConnected) {
+            unionScan(true);
+        } else {
+            unionScan(neighborhood);
+        }
+        relabel();
+    }
+
+    /**
+     * @return The class index of each cell, NON_FOCAL or NO_DATA for cells that do not belong to a focal class.
+     */
+    static int[] classify(int[] values, int noDataValue, int[] focalClasses) {
+        int[] cellClass = new int[values.length];
+        if (focalClasses.length == 0) {
+            for (int i = 0; i < values.length; i++) {
+                cellClass[i] = values[i] == noDataValue ? NO_DATA : NON_FOCAL;
+            }
+            return cellClass;
+        }
+        int min = Arrays.stream(focalClasses).min().getAsInt();
+        int max = Arrays.stream(focalClasses).max().getAsInt();
+        if ((long) max - min < 1 << 16) {
+            int[] lookup = new int[max - min + 1];
+            Arrays.fill(lookup, NON_FOCAL);
+            for (int k = 0; k < focalClasses.length; k++) {
+                lookup[focalClasses[k] - min] = k;
+            }
+            for (int i = 0; i < values.length; i++) {
+                int v = values[i];
+                cellClass[i] = v < min || v > max ? NON_FOCAL : lookup[v - min];
+                if (cellClass[i] == NON_FOCAL && v == noDataValue) {
+                    cellClass[i] = NO_DATA;
+                }
+            }
+        } else {
+            Map<Integer, Integer> lookup = new HashMap<>();
+            for (int k = 0; k < focalClasses.length; k++) {
+                lookup.put(focalClasses[k], k);
+            }
+            for (int i = 0; i < values.length; i++) {
+                cellClass[i] = lookup.getOrDefault(values[i], values[i] == noDataValue ? NO_DATA : NON_FOCAL);
+            }
+        }
+        return cellClass;
+    }
+
+    /**
+     * Union-find scan for four and height-connected neighborhoods: only already visited neighbors
+     * (left, top, and top diagonals in the height-connected case) are examined.
+     * During the scan, labels hold the union-find parent of each cell.
+     */
+    private void unionScan(boolean diagonals) {
+        for (int row = 0, i = 0; row < nbRows; row++) {
+            for (int col = 0; col < nbCols; col++, i++) {
+                int c = cellClass[i];
+                if (c < 0) {
+                    labels[i] = -1;
+                    continue;
+                }
+                labels[i] = i;
+                if (col > 0 && cellClass[i - 1] == c) {
+                    union(i, i - 1);
+                }
+                if (row > 0) {
+                    int top = i - nbCols;
+                    if (cellClass[top] == c) {
+                        union(i, top);
+                    }
+                    if (diagonals) {
+                        if (col > 0 && cellClass[top - 1] == c) {
+                            union(i, top - 1);
+                        }
+                        if (col < nbCols - 1 && cellClass[top + 1] == c) {
+                            union(i, top + 1);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Union-find scan for an arbitrary neighborhood.
+     */
+    private void unionScan(INeighborhood neighborhood) {
+        RegularSquareGrid grid = new RegularSquareGrid(nbRows, nbCols);
+        for (int i = 0; i < cellClass.length; i++) {
+            labels[i] = cellClass[i] < 0 ? -1 : i;
+        }
+        for (int i = 0; i < cellClass.length; i++) {
+            int c = cellClass[i];
+            if (c < 0) {
+                continue;
+            }
+            for (int j : neighborhood.getNeighbors(grid, i)) {
+                if (j < i && cellClass[j] == c) {
+                    union(i, j);
+                }
+            }
+        }
+    }
+
+    private int find(int i) {
+        while (labels[i] != i) {
+            labels[i] = labels[labels[i]];
+            i = labels[i];
+        }
+        return i;
+    }
+
+    private void union(int i, int j) {
+        int ri = find(i);
+        int rj = find(j);
+        if (ri < rj) {
+            labels[rj] = ri;
+        } else if (rj < ri) {
+            labels[ri] = rj;
+        }
+    }
+
+    /**
+     * Replace union-find parents by consecutive patch labels, and aggregate patch and class sizes, patch
+     * perimeters and class edges. As parents always have a smaller index than their children, a single ordered
+     * pass is sufficient.
+     */
+    private void relabel() {
+        int nbClasses = focalClasses.length;
+        int[] pClass = new int[16];
+        int[] pSize = new int[16];
+        int[] pPerimeter = new int[16];
+        classEdge = new int[nbClasses];
+        nbPatches = 0;
+        for (int row = 0, i = 0; row < nbRows; row++) {
+            for (int col = 0; col < nbCols; col++, i++) {
+                if (labels[i] < 0) {
+                    continue;
+                }
+                if (labels[i] == i) {
+                    if (nbPatches == pClass.length) {
+                        pClass = Arrays.copyOf(pClass, 2 * nbPatches);
+                        pSize = Arrays.copyOf(pSize, 2 * nbPatches);
+                        pPerimeter = Arrays.copyOf(pPerimeter, 2 * nbPatches);
+                    }
+                    pClass[nbPatches] = cellClass[i];
+                    labels[i] = nbPatches++;
+                } else {
+                    // The parent has a smaller index, it already holds the label of the patch.
+                    labels[i] = labels[labels[i]];
+                }
+                pSize[labels[i]]++;
+                int c = cellClass[i];
+                int left = col > 0 ? cellClass[i - 1] : NO_DATA;
+                int right = col < nbCols - 1 ? cellClass[i + 1] : NO_DATA;
+                int top = row > 0 ? cellClass[i - nbCols] : NO_DATA;
+                int bottom = row < nbRows - 1 ? cellClass[i + nbCols] : NO_DATA;
+                int perimeter = (left != c ? 1 : 0) + (right != c ? 1 : 0) + (top != c ? 1 : 0) + (bottom != c ? 1 : 0);
+                int outside = (left == NO_DATA ? 1 : 0) + (right == NO_DATA ? 1 : 0)
+                        + (top == NO_DATA ? 1 : 0) + (bottom == NO_DATA ? 1 : 0);
+                pPerimeter[labels[i]] += perimeter;
+                classEdge[c] += perimeter - outside;
+            }
+        }
+        patchClass = Arrays.copyOf(pClass, nbPatches);
+        patchSize = Arrays.copyOf(pSize, nbPatches);
+        patchPerimeter = Arrays.copyOf(pPerimeter, nbPatches);
+        classNbPatches = new int[nbClasses];
+        classArea = new int[nbClasses];
+        classNpro = new long[nbClasses];
+        for (int p = 0; p < nbPatches; p++) {
+            classNbPatches[patchClass[p]]++;
+            classArea[patchClass[p]] += patchSize[p];
+            classNpro[patchClass[p]] += (long) patchSize[p] * patchSize[p];
+        }
+        classPatchSizes = new int[nbClasses][];
+        int[] next = new int[nbClasses];
+        for (int k = 0; k < nbClasses; k++) {
+            classPatchSizes[k] = new int[classNbPatches[k]];
+        }
+        for (int p = 0; p < nbPatches; p++) {
+            classPatchSizes[patchClass[p]][next[patchClass[p]]++] = patchSize[p];
+        }
+        for (int k = 0; k < nbClasses; k++) {
+            Arrays.sort(classPatchSizes[k]);
+        }
+    }
+
+    public int getNbRows() {
+        return nbRows;
+    }
+
+    public int getNbCols() {
+        return nbCols;
+    }
+
+    public int[] getFocalClasses() {
+        return focalClasses;
+    }
+
+    /**
+     * @return The patch label of each cell, -1 for cells that do not belong to a focal class.
+     */
+    public int[] getLabels() {
+        return labels;
+    }
+
+    /**
+     * @return The class index (in focal classes) of each cell, -1 for cells that do not belong to a focal class.
+     */
+    public int[] getCellClasses() {
+        return cellClass;
+    }
+
+    /**
+     * @return The total number of patches, all classes included.
+     */
+    public int getNbPatches() {
+        return nbPatches;
+    }
+
+    public int getPatchClass(int patch) {
+        return patchClass[patch];
+    }
+
+    public int getPatchSize(int patch) {
+        return patchSize[patch];
+    }
+
+    public int getNbPatches(int classIndex) {
+        return classNbPatches[classIndex];
+    }
+
+    public int getClassArea(int classIndex) {
+        return classArea[classIndex];
+    }
+
+    /**
+     * @return The sorted patch sizes of a class.
+     */
+    public int[] getPatchSizes(int classIndex) {
+        return classPatchSizes[classIndex];
+    }
+
+    public long getNetProduct(int classIndex) {
+        return classNpro[classIndex];
+    }
+
+    public int getPatchPerimeter(int patch) {
+        return patchPerimeter[patch];
+    }
+
+    /**
+     * @return The total edge (TE) of a class: the number of cell sides shared with cells of other classes. Sides on
+     * the raster boundary or shared with no data cells are not counted.
+     */
+    public int getTotalEdge(int classIndex) {
+        return classEdge[classIndex];
+    }
+
+    /**
+     * @return The mean perimeter-area ratio (PARA_MN) of the patches of a class, -1 if the class has no patch.
+     */
+    public double getMeanPerimeterAreaRatio(int classIndex) {
+        if (classNbPatches[classIndex] == 0) {
+            return -1;
+        }
+        double sum = 0;
+        for (int p = 0; p < nbPatches; p++) {
+            if (patchClass[p] == classIndex) {
+                sum += (1.0 * patchPerimeter[p]) / (1.0 * patchSize[p]);
+            }
+        }
+        return sum / classNbPatches[classIndex];
+    }
+
+    /**
+     * @return The mean shape index (SHAPE_MN) of the patches of a class, -1 if the class has no patch. The shape
+     * index of a patch is its perimeter divided by the minimum perimeter of a raster patch of the same area.
+     */
+    public double getMeanShapeIndex(int classIndex) {
+        if (classNbPatches[classIndex] == 0) {
+            return -1;
+        }
+        double sum = 0;
+        for (int p = 0; p < nbPatches; p++) {
+            if (patchClass[p] == classIndex) {
+                sum += (1.0 * patchPerimeter[p]) / (1.0 * getMinPerimeter(patchSize[p]));
+            }
+        }
+        return sum / classNbPatches[classIndex];
+    }
+
+    /**
+     * @return The mean Euclidean nearest-neighbour distance (ENN_MN) between the patches of a class, measured from
+     * cell centre to cell centre, -1 if the class has less than two patches.
+     */
+    public double getMeanNearestNeighbourDistance(int classIndex) {
+        if (classNearestNeighbourDistance == null) {
+            computeNearestNeighbourDistances();
+        }
+        return classNearestNeighbourDistance[classIndex];
+    }
+
+    /**
+     * @return The minimum perimeter of a raster patch of a given area.
+     */
+    public static int getMinPerimeter(int area) {
+        int n = (int) Math.sqrt(area);
+        while ((long) n * n > area) {
+            n--;
+        }
+        while ((long) (n + 1) * (n + 1) <= area) {
+            n++;
+        }
+        if (n * n == area) {
+            return 4 * n;
+        }
+        if (area <= n * (n + 1)) {
+            return 4 * n + 2;
+        }
+        return 4 * n + 4;
+    }
+
+    /**
+     * For each class, compute the feature transform of the class cells (nearest class cell of every raster cell),
+     * which partitions the raster into discrete Voronoi regions. The closest pair of cells between two patches
+     * necessarily have adjacent regions, thus the nearest neighbour of each patch is found by scanning pairs of
+     * adjacent raster cells whose features belong to different patches.
+     */
+    private void computeNearestNeighbourDistances() {
+        int nbClasses = focalClasses.length;
+        classNearestNeighbourDistance = new double[nbClasses];
+        long[] patchDist = new long[nbPatches];
+        Arrays.fill(patchDist, Long.MAX_VALUE);
+        int[] feature = new int[cellClass.length];
+        int[] columnFeature = new int[cellClass.length];
+        int[] offsets = {1, nbCols - 1, nbCols, nbCols + 1};
+        for (int k = 0; k < nbClasses; k++) {
+            if (classNbPatches[k] < 2) {
+                classNearestNeighbourDistance[k] = -1;
+                continue;
+            }
+            featureTransform(k, columnFeature, feature);
+            for (int row = 0, i = 0; row < nbRows; row++) {
+                for (int col = 0; col < nbCols; col++, i++) {
+                    int p = labels[feature[i]];
+                    for (int d = 0; d < offsets.length; d++) {
+                        // right, bottom left, bottom, bottom right
+                        if ((d == 0 && col == nbCols - 1) || (d == 1 && col == 0) || (d == 3 && col == nbCols - 1)
+                                || (d > 0 && row == nbRows - 1)) {
+                            continue;
+                        }
+                        int q = labels[feature[i + offsets[d]]];
+                        if (p != q) {
+                            long dist = squaredDistance(feature[i], feature[i + offsets[d]]);
+                            patchDist[p] = Math.min(patchDist[p], dist);
+                            patchDist[q] = Math.min(patchDist[q], dist);
+                        }
+                    }
+                }
+            }
+            double sum = 0;
+            for (int p = 0; p < nbPatches; p++) {
+                if (patchClass[p] == k) {
+                    sum += Math.sqrt(patchDist[p]);
+                }
+            }
+            classNearestNeighbourDistance[k] = sum / classNbPatches[k];
+        }
+    }
+
+    private long squaredDistance(int i, int j) {
+        long dr = i / nbCols - j / nbCols;
+        long dc = i % nbCols - j % nbCols;
+        return dr * dr + dc * dc;
+    }
+
+    /**
+     * Linear-time Euclidean feature transform (Felzenszwalb and Huttenlocher): a first pass computes the nearest
+     * class cell in each column, a second pass computes the lower envelope of the resulting parabolas in each row.
+     * @param classIndex The class whose cells are the features.
+     * @param columnRow Work array, receives the row of the nearest class cell in the same column (-1 if none).
+     * @param feature Receives the index of the nearest class cell of each raster cell.
+     */
+    private void featureTransform(int classIndex, int[] columnRow, int[] feature) {
+        for (int col = 0; col < nbCols; col++) {
+            int last = -1;
+            for (int row = 0, i = col; row < nbRows; row++, i += nbCols) {
+                if (cellClass[i] == classIndex) {
+                    last = row;
+                }
+                columnRow[i] = last;
+            }
+            last = -1;
+            for (int row = nbRows - 1, i = row * nbCols + col; row >= 0; row--, i -= nbCols) {
+                if (cellClass[i] == classIndex) {
+                    last = row;
+                }
+                if (last >= 0 && (columnRow[i] < 0 || last - row < row - columnRow[i])) {
+                    columnRow[i] = last;
+                }
+            }
+        }
+        int[] v = new int[nbCols];
+        double[] z = new double[nbCols + 1];
+        for (int row = 0; row < nbRows; row++) {
+            int offset = row * nbCols;
+            int k = -1;
+            for (int q = 0; q < nbCols; q++) {
+                if (columnRow[offset + q] < 0) {
+                    continue;
+                }
+                double fq = (double) (row - columnRow[offset + q]) * (row - columnRow[offset + q]) + (double) q * q;
+                double s = 0;
+                while (k >= 0) {
+                    int p = v[k];
+                    double fp = (double) (row - columnRow[offset + p]) * (row - columnRow[offset + p]) + (double) p * p;
+                    s = (fq - fp) / (2.0 * (q - p));
+                    if (s <= z[k]) {
+                        k--;
+                    } else {
+                        break;
+                    }
+                }
+                if (k < 0) {
+                    k = 0;
+                    z[0] = Double.NEGATIVE_INFINITY;
+                } else {
+                    k++;
+                    z[k] = s;
+                }
+                v[k] = q;
+                z[k + 1] = Double.POSITIVE_INFINITY;
+            }
+            for (int x = 0, j = 0; x < nbCols; x++) {
+                while (z[j + 1] < x) {
+                    j++;
+                }
+                feature[offset + x] = columnRow[offset + v[j]] * nbCols + v[j];
+            }
+        }
+    }
+}
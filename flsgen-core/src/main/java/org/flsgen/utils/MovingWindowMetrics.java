@@ -0,0 +1,453 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.flsgen.utils;
+
+import org.flsgen.exception.FlsgenException;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Moving-window landscape metrics: for each cell, PLAND, NP and MESH of a focal class are computed over the
+ * square window centred on the cell (clipped at the raster boundary), considered as a landscape of its own.
+ * <p>
+ * Cell counts are updated incrementally as the window slides along a row. For patch-based metrics, columns are
+ * split into blocks of the window width, so that any window is the union of a suffix of a block and a prefix of
+ * the next one. For a row of windows, the labelings of all suffixes (resp. prefixes) around a block boundary are
+ * built incrementally with a union-find structure, adding one column at a time, and the number of patches, the
+ * sum of squared patch sizes and the components of the boundary column are recorded for each of them. These
+ * labelings are shared by all the windows that overlap the block boundary: each window only needs to merge the
+ * components of its suffix and prefix across the two boundary columns. This costs O(window width) per cell
+ * instead of a labeling of the whole window. Rows are processed in parallel.
+ */
+public class MovingWindowMetrics {
+
+    public static final double NO_DATA = -1;
+
+    protected int nbRows;
+    protected int nbCols;
+    protected int halfWidth;
+    protected boolean diagonals;
+    protected int nbThreads;
+    protected int nbClasses;
+    protected int[] cellClass;
+
+    protected double[][] landscapeProportion;
+    protected double[][] nbPatches;
+    protected double[][] mesh;
+
+    /**
+     * @param values Raster values, in row-major order.
+     * @param nbRows Number of rows of the raster.
+     * @param nbCols Number of columns of the raster.
+     * @param noDataValue Raster value of cells outside the landscape.
+     * @param focalClasses Raster values of the focal classes.
+     * @param connectivity Connectivity definition: 4 (4-connected) or 8 (8-connected).
+     * @param windowSize Size (in cells) of the side of the moving window, must be odd.
+     * @param nbThreads Number of threads used for computing metrics.
+     * @throws FlsgenException If the connectivity, the window size or the number of threads is not valid.
+     */
+    public MovingWindowMetrics(int[] values, int nbRows, int nbCols, int noDataValue, int[] focalClasses,
+                               int connectivity, int windowSize, int nbThreads) throws FlsgenException {
+        if (connectivity != 4 && connectivity != 8) {
+            throw new FlsgenException("Available neighborhoods are: four-connected (4) and height-connected (8)");
+        }
+        if (windowSize < 1 || windowSize % 2 == 0) {
+            throw new FlsgenException("The moving window size must be a positive odd number");
+        }
+        if (nbThreads < 1) {
+            throw new FlsgenException("The number of threads must be at least 1");
+        }
+        this.nbRows = nbRows;
+        this.nbCols = nbCols;
+        this.halfWidth = windowSize / 2;
+        this.diagonals = connectivity == 8;
+        this.nbThreads = nbThreads;
+        this.nbClasses = focalClasses.length;
+        this.cellClass = LandscapeMetrics.classify(values, noDataValue, focalClasses);
+        this.landscapeProportion = new double[nbClasses][];
+        this.nbPatches = new double[nbClasses][];
+        this.mesh = new double[nbClasses][];
+    }
+
+    /**
+     * @return The PLAND of a class in the window centred on each cell, NO_DATA for cells outside the landscape.
+     */
+    public double[] getLandscapeProportion(int classIndex) throws FlsgenException {
+        compute(classIndex);
+        return landscapeProportion[classIndex];
+    }
+
+    /**
+     * @return The NP of a class in the window centred on each cell, NO_DATA for cells outside the landscape.
+     */
+    public double[] getNbPatches(int classIndex) throws FlsgenException {
+        compute(classIndex);
+        return nbPatches[classIndex];
+    }
+
+    /**
+     * @return The MESH (in cells) of a class in the window centred on each cell, NO_DATA for cells outside the
+     * landscape.
+     */
+    public double[] getMesh(int classIndex) throws FlsgenException {
+        compute(classIndex);
+        return mesh[classIndex];
+    }
+
+    /**
+     * Compute all moving-window metrics of a class, if not already done.
+     */
+    protected synchronized void compute(int classIndex) throws FlsgenException {
+        if (landscapeProportion[classIndex] != null) {
+            return;
+        }
+        double[] pland = new double[nbRows * nbCols];
+        double[] np = new double[nbRows * nbCols];
+        double[] meshValues = new double[nbRows * nbCols];
+        int nbBlocks = Math.min(nbRows, nbThreads * 4);
+        ForkJoinPool pool = new ForkJoinPool(nbThreads);
+        try {
+            pool.submit(() -> IntStream.range(0, nbBlocks).parallel().forEach(b -> {
+                int firstRow = (int) ((long) b * nbRows / nbBlocks);
+                int lastRow = (int) ((long) (b + 1) * nbRows / nbBlocks);
+                new RowWorker(classIndex, pland, np, meshValues).run(firstRow, lastRow);
+            })).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new FlsgenException("Moving window computation failed: " + e.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+        landscapeProportion[classIndex] = pland;
+        nbPatches[classIndex] = np;
+        mesh[classIndex] = meshValues;
+    }
+
+    /**
+     * Computes the metrics of a block of rows, with its own sliding counts and work arrays.
+     */
+    private class RowWorker {
+
+        final int classIndex;
+        final double[] pland;
+        final double[] np;
+        final double[] meshValues;
+        final int width;
+        // Union-find over the cells of a suffix or prefix of block (local index: row offset * width + column offset)
+        final int[] parent;
+        final int[] size;
+        // For each suffix (resp. prefix): number of patches, sum of squared sizes, and for each cell of the
+        // boundary column, the root and size of its component (-1 if the cell does not belong to the class)
+        final int[] suffixCount;
+        final long[] suffixSquares;
+        final int[][] suffixRoot;
+        final int[][] suffixSize;
+        final int[] prefixCount;
+        final long[] prefixSquares;
+        final int[][] prefixRoot;
+        final int[][] prefixSize;
+        // Union-find merging suffix and prefix components, lazily reset with a stamp
+        final int[] mergeParent;
+        final long[] mergeSize;
+        final int[] mergeStamp;
+        int stamp;
+        int firstWindowRow;
+        int lastWindowRow;
+        int count;
+        long squares;
+
+        RowWorker(int classIndex, double[] pland, double[] np, double[] meshValues) {
+            this.classIndex = classIndex;
+            this.pland = pland;
+            this.np = np;
+            this.meshValues = meshValues;
+            this.width = 2 * halfWidth + 1;
+            this.parent = new int[width * width];
+            this.size = new int[width * width];
+            this.suffixCount = new int[width];
+            this.suffixSquares = new long[width];
+            this.suffixRoot = new int[width][width];
+            this.suffixSize = new int[width][width];
+            this.prefixCount = new int[width];
+            this.prefixSquares = new long[width];
+            this.prefixRoot = new int[width][width];
+            this.prefixSize = new int[width][width];
+            this.mergeParent = new int[2 * width * width];
+            this.mergeSize = new long[2 * width * width];
+            this.mergeStamp = new int[2 * width * width];
+        }
+
+        void run(int firstRow, int lastRow) {
+            int[] colClass = new int[nbCols];
+            int[] colValid = new int[nbCols];
+            for (int row = firstRow; row < lastRow; row++) {
+                firstWindowRow = Math.max(0, row - halfWidth);
+                lastWindowRow = Math.min(nbRows - 1, row + halfWidth);
+                if (row == firstRow) {
+                    for (int r = firstWindowRow; r <= lastWindowRow; r++) {
+                        addRow(r, colClass, colValid, 1);
+                    }
+                } else {
+                    if (row + halfWidth < nbRows) {
+                        addRow(row + halfWidth, colClass, colValid, 1);
+                    }
+                    if (row - halfWidth - 1 >= 0) {
+                        addRow(row - halfWidth - 1, colClass, colValid, -1);
+                    }
+                }
+                int sumClass = 0;
+                int sumValid = 0;
+                for (int c = 0; c <= Math.min(nbCols - 1, halfWidth); c++) {
+                    sumClass += colClass[c];
+                    sumValid += colValid[c];
+                }
+                int boundary = -1;
+                for (int col = 0; col < nbCols; col++) {
+                    if (col > 0) {
+                        if (col + halfWidth < nbCols) {
+                            sumClass += colClass[col + halfWidth];
+                            sumValid += colValid[col + halfWidth];
+                        }
+                        if (col - halfWidth - 1 >= 0) {
+                            sumClass -= colClass[col - halfWidth - 1];
+                            sumValid -= colValid[col - halfWidth - 1];
+                        }
+                    }
+                    int i = row * nbCols + col;
+                    if (cellClass[i] == LandscapeMetrics.NO_DATA || sumValid == 0) {
+                        pland[i] = NO_DATA;
+                        np[i] = NO_DATA;
+                        meshValues[i] = NO_DATA;
+                        continue;
+                    }
+                    int firstCol = Math.max(0, col - halfWidth);
+                    int lastCol = Math.min(nbCols - 1, col + halfWidth);
+                    // The window is made of the suffix [firstCol, m - 1] and the prefix [m, lastCol]
+                    int m = Math.min(((firstCol + width - 1) / width) * width, nbCols);
+                    if (m != boundary) {
+                        buildSuffixes(m);
+                        buildPrefixes(m);
+                        boundary = m;
+                    }
+                    if (firstCol == m) {
+                        count = prefixCount[lastCol - m];
+                        squares = prefixSquares[lastCol - m];
+                    } else if (lastCol < m) {
+                        count = suffixCount[firstCol - (m - width)];
+                        squares = suffixSquares[firstCol - (m - width)];
+                    } else {
+                        merge(firstCol - (m - width), lastCol - m);
+                    }
+                    pland[i] = 100 * (1.0 * sumClass) / (1.0 * sumValid);
+                    np[i] = count;
+                    meshValues[i] = (1.0 * squares) / (1.0 * sumValid);
+                }
+            }
+        }
+
+        void addRow(int row, int[] colClass, int[] colValid, int sign) {
+            for (int col = 0, i = row * nbCols; col < nbCols; col++, i++) {
+                if (cellClass[i] == classIndex) {
+                    colClass[col] += sign;
+                }
+                if (cellClass[i] != LandscapeMetrics.NO_DATA) {
+                    colValid[col] += sign;
+                }
+            }
+        }
+
+        /**
+         * Label the suffixes [c, m - 1] of the block ending before m, for c from m - 1 down to m - width.
+         */
+        void buildSuffixes(int m) {
+            if (m == 0) {
+                return;
+            }
+            int base = m - width;
+            count = 0;
+            squares = 0;
+            for (int col = m - 1; col >= Math.max(0, base); col--) {
+                for (int row = firstWindowRow; row <= lastWindowRow; row++) {
+                    int i = row * nbCols + col;
+                    if (cellClass[i] != classIndex) {
+                        continue;
+                    }
+                    int local = (row - firstWindowRow) * width + (col - base);
+                    addCell(local);
+                    if (row > firstWindowRow && cellClass[i - nbCols] == classIndex) {
+                        union(local, local - width);
+                    }
+                    if (col < m - 1) {
+                        if (cellClass[i + 1] == classIndex) {
+                            union(local, local + 1);
+                        }
+                        if (diagonals && row > firstWindowRow && cellClass[i - nbCols + 1] == classIndex) {
+                            union(local, local - width + 1);
+                        }
+                        if (diagonals && row < lastWindowRow && cellClass[i + nbCols + 1] == classIndex) {
+                            union(local, local + width + 1);
+                        }
+                    }
+                }
+                int s = col - base;
+                suffixCount[s] = count;
+                suffixSquares[s] = squares;
+                snapshot(m - 1, width - 1, suffixRoot[s], suffixSize[s]);
+            }
+        }
+
+        /**
+         * Label the prefixes [m, c] of the block starting at m, for c from m up to m + width - 1.
+         */
+        void buildPrefixes(int m) {
+            if (m == nbCols) {
+                return;
+            }
+            count = 0;
+            squares = 0;
+            for (int col = m; col <= Math.min(nbCols - 1, m + width - 1); col++) {
+                for (int row = firstWindowRow; row <= lastWindowRow; row++) {
+                    int i = row * nbCols + col;
+                    if (cellClass[i] != classIndex) {
+                        continue;
+                    }
+                    int local = (row - firstWindowRow) * width + (col - m);
+                    addCell(local);
+                    if (row > firstWindowRow && cellClass[i - nbCols] == classIndex) {
+                        union(local, local - width);
+                    }
+                    if (col > m) {
+                        if (cellClass[i - 1] == classIndex) {
+                            union(local, local - 1);
+                        }
+                        if (diagonals && row > firstWindowRow && cellClass[i - nbCols - 1] == classIndex) {
+                            union(local, local - width - 1);
+                        }
+                        if (diagonals && row < lastWindowRow && cellClass[i + nbCols - 1] == classIndex) {
+                            union(local, local + width - 1);
+                        }
+                    }
+                }
+                int p = col - m;
+                prefixCount[p] = count;
+                prefixSquares[p] = squares;
+                snapshot(m, 0, prefixRoot[p], prefixSize[p]);
+            }
+        }
+
+        void snapshot(int col, int localCol, int[] roots, int[] sizes) {
+            for (int row = firstWindowRow; row <= lastWindowRow; row++) {
+                int t = row - firstWindowRow;
+                if (cellClass[row * nbCols + col] == classIndex) {
+                    roots[t] = find(t * width + localCol);
+                    sizes[t] = size[roots[t]];
+                } else {
+                    roots[t] = -1;
+                }
+            }
+        }
+
+        void addCell(int local) {
+            parent[local] = local;
+            size[local] = 1;
+            count++;
+            squares++;
+        }
+
+        int find(int i) {
+            while (parent[i] != i) {
+                parent[i] = parent[parent[i]];
+                i = parent[i];
+            }
+            return i;
+        }
+
+        void union(int i, int j) {
+            int ri = find(i);
+            int rj = find(j);
+            if (ri == rj) {
+                return;
+            }
+            squares += 2L * size[ri] * size[rj];
+            count--;
+            if (size[ri] < size[rj]) {
+                parent[ri] = rj;
+                size[rj] += size[ri];
+            } else {
+                parent[rj] = ri;
+                size[ri] += size[rj];
+            }
+        }
+
+        /**
+         * Merge the components of a suffix and a prefix across the block boundary.
+         */
+        void merge(int s, int p) {
+            count = suffixCount[s] + prefixCount[p];
+            squares = suffixSquares[s] + prefixSquares[p];
+            stamp++;
+            int height = lastWindowRow - firstWindowRow + 1;
+            int offset = width * width;
+            for (int t = 0; t < height; t++) {
+                int a = suffixRoot[s][t];
+                if (a < 0) {
+                    continue;
+                }
+                int first = diagonals ? Math.max(0, t - 1) : t;
+                int last = diagonals ? Math.min(height - 1, t + 1) : t;
+                for (int u = first; u <= last; u++) {
+                    int b = prefixRoot[p][u];
+                    if (b >= 0) {
+                        mergeUnion(a, suffixSize[s][t], offset + b, prefixSize[p][u]);
+                    }
+                }
+            }
+        }
+
+        int mergeFind(int i, int initialSize) {
+            if (mergeStamp[i] != stamp) {
+                mergeStamp[i] = stamp;
+                mergeParent[i] = i;
+                mergeSize[i] = initialSize;
+                return i;
+            }
+            while (mergeParent[i] != i) {
+                mergeParent[i] = mergeParent[mergeParent[i]];
+                i = mergeParent[i];
+            }
+            return i;
+        }
+
+        void mergeUnion(int i, int sizeI, int j, int sizeJ) {
+            int ri = mergeFind(i, sizeI);
+            int rj = mergeFind(j, sizeJ);
+            if (ri == rj) {
+                return;
+            }
+            squares += 2 * mergeSize[ri] * mergeSize[rj];
+            count--;
+            mergeParent[rj] = ri;
+            mergeSize[ri] += mergeSize[rj];
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Embedded WKT definitions of common EPSG coordinate reference systems (WGS 84, Web Mercator and WGS 84 UTM zones),
+ * which can be parsed without the EPSG database. Definitions follow the axis order of the EPSG database
+ * (latitude first for geographic systems), as returned by CRS.decode(code).
+ */
+final class CRSDefinitions {
+
+    private static final String WGS84_DATUM = "DATUM[\"World Geodetic System 1984\", " +
+            "SPHEROID[\"WGS 84\", 6378137.0, 298.257223563, AUTHORITY[\"EPSG\",\"7030\"]], " +
+            "AUTHORITY[\"EPSG\",\"6326\"]], " +
+            "PRIMEM[\"Greenwich\", 0.0, AUTHORITY[\"EPSG\",\"8901\"]], " +
+            "UNIT[\"degree\", 0.017453292519943295]";
+
+    private static final String WGS84 = "GEOGCS[\"WGS 84\", " + WGS84_DATUM + ", " +
+            "AXIS[\"Geodetic latitude\", NORTH], AXIS[\"Geodetic longitude\", EAST], AUTHORITY[\"EPSG\",\"4326\"]]";
+
+    /**
+     * Base geographic system of projected systems
+     */
+    private static final String WGS84_LON_LAT = "GEOGCS[\"WGS 84\", " + WGS84_DATUM + ", " +
+            "AXIS[\"Geodetic longitude\", EAST], AXIS[\"Geodetic latitude\", NORTH], AUTHORITY[\"EPSG\",\"4326\"]]";
+
+    private static final String PSEUDO_MERCATOR = "PROJCS[\"WGS 84 / Pseudo-Mercator\", " + WGS84_LON_LAT + ", " +
+            "PROJECTION[\"Popular Visualisation Pseudo Mercator\", AUTHORITY[\"EPSG\",\"1024\"]], " +
+            "PARAMETER[\"semi_minor\", 6378137.0], " +
+            "PARAMETER[\"latitude_of_origin\", 0.0], " +
+            "PARAMETER[\"central_meridian\", 0.0], " +
+            "PARAMETER[\"scale_factor\", 1.0], " +
+            "PARAMETER[\"false_easting\", 0.0], " +
+            "PARAMETER[\"false_northing\", 0.0], " +
+            "UNIT[\"m\", 1.0], AXIS[\"Easting\", EAST], AXIS[\"Northing\", NORTH], AUTHORITY[\"EPSG\",\"3857\"]]";
+
+    private static final Map<String, String> DEFINITIONS = new HashMap<>();
+
+    static {
+        DEFINITIONS.put("EPSG:4326", WGS84);
+        DEFINITIONS.put("EPSG:3857", PSEUDO_MERCATOR);
+    }
+
+    private CRSDefinitions() {}
+
+    /**
+     * @param code An EPSG code, e.g. "EPSG:4326" (case insensitive)
+     * @return The WKT definition of the coordinate reference system, or null if it is not embedded
+     */
+    static String getWKT(String code) {
+        String c = code.trim().toUpperCase(Locale.ROOT);
+        String wkt = DEFINITIONS.get(c);
+        if (wkt != null) {
+            return wkt;
+        }
+        // WGS 84 / UTM zones: EPSG:326zz (north) and EPSG:327zz (south)
+        if (c.matches("EPSG:32[67]\\d\\d")) {
+            int zone = Integer.parseInt(c.substring(8));
+            boolean north = c.charAt(7) == '6';
+            if (zone >= 1 && zone <= 60) {
+                return utm(zone, north, c.substring(5));
+            }
+        }
+        return null;
+    }
+
+    private static String utm(int zone, boolean north, String code) {
+        return "PROJCS[\"WGS 84 / UTM zone " + zone + (north ? "N" : "S") + "\", " + WGS84_LON_LAT + ", " +
+                "PROJECTION[\"Transverse_Mercator\", AUTHORITY[\"EPSG\",\"9807\"]], " +
+                "PARAMETER[\"central_meridian\", " + (6.0 * zone - 183.0) + "], " +
+                "PARAMETER[\"latitude_of_origin\", 0.0], " +
+                "PARAMETER[\"scale_factor\", 0.9996], " +
+                "PARAMETER[\"false_easting\", 500000.0], " +
+                "PARAMETER[\"false_northing\", " + (north ? "0.0" : "10000000.0") + "], " +
+                "UNIT[\"m\", 1.0], AXIS[\"Easting\", EAST], AXIS[\"Northing\", NORTH], " +
+                "AUTHORITY[\"EPSG\",\"" + code + "\"]]";
+    }
+}
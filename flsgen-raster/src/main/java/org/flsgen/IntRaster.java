@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen;
+
+/**
+ * Integer raster data read in a single decoding pass: values (row-major order) of each band, dimensions and no
+ * data value.
+ */
+public class IntRaster {
+
+    protected String path;
+    protected int nbRows;
+    protected int nbCols;
+    protected int noDataValue;
+    protected int[][] bands;
+
+    public IntRaster(String path, int nbRows, int nbCols, int noDataValue, int[] values) {
+        this(path, nbRows, nbCols, noDataValue, new int[][] {values});
+    }
+
+    public IntRaster(String path, int nbRows, int nbCols, int noDataValue, int[][] bands) {
+        this.path = path;
+        this.nbRows = nbRows;
+        this.nbCols = nbCols;
+        this.noDataValue = noDataValue;
+        this.bands = bands;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public int getNbRows() {
+        return nbRows;
+    }
+
+    public int getNbCols() {
+        return nbCols;
+    }
+
+    public int getNoDataValue() {
+        return noDataValue;
+    }
+
+    /**
+     * @return The values of the first band
+     */
+    public int[] getValues() {
+        return bands[0];
+    }
+
+    public int getNbBands() {
+        return bands.length;
+    }
+
+    /**
+     * @param band index of the band (0-based)
+     * @return The values of the band
+     */
+    public int[] getBand(int band) {
+        return bands[band];
+    }
+}
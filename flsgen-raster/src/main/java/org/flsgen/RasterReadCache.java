@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.flsgen;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Bounded in-memory cache of data read from raster files, shared by the threads of a JVM. Entries are identified by
+ * the kind of data, the absolute path, the last modification time and the size of the file, and are evicted in
+ * least recently used order when their total estimated size exceeds the maximum size. Concurrent reads of the same
+ * data are performed once.
+ */
+final class RasterReadCache {
+
+    interface Loader<T> {
+        T load() throws IOException;
+    }
+
+    private static class Entry {
+        final FutureTask<Object> task;
+        long size = -1;
+
+        Entry(FutureTask<Object> task) {
+            this.task = task;
+        }
+    }
+
+    private final long maxSize;
+    private long size;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    RasterReadCache(long maxSize) {
+        this.maxSize = maxSize;
+        this.size = 0;
+    }
+
+    /**
+     * @param kind The kind of data read from the file
+     * @param path Path of the raster file
+     * @param loader Reads the data from the file if it is not cached
+     * @return The (shared) data
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(String kind, String path, Loader<T> loader) throws IOException {
+        File file = new File(path);
+        String key = kind + "|" + file.getAbsolutePath() + "|" + file.lastModified() + "|" + file.length();
+        Entry entry;
+        boolean owner = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry(new FutureTask<>(loader::load));
+                entries.put(key, entry);
+                owner = true;
+            }
+        }
+        if (owner) {
+            entry.task.run();
+        }
+        Object value;
+        try {
+            value = entry.task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading " + path);
+        } catch (ExecutionException e) {
+            synchronized (this) {
+                entries.remove(key, entry);
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+        if (owner) {
+            synchronized (this) {
+                if (entries.get(key) == entry) {
+                    entry.size = sizeOf(value);
+                    size += entry.size;
+                    evict();
+                }
+            }
+        }
+        return (T) value;
+    }
+
+    /**
+     * Remove least recently used entries whose data is read until the size is at most the maximum size
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (entry.size >= 0) {
+                size -= entry.size;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @return An estimation of the memory size of data read from a raster, in bytes
+     */
+    private static long sizeOf(Object value) {
+        if (value instanceof int[]) {
+            return 16 + 4L * ((int[]) value).length;
+        }
+        if (value instanceof double[]) {
+            return 16 + 8L * ((double[]) value).length;
+        }
+        if (value instanceof Object[]) {
+            long s = 16 + 8L * ((Object[]) value).length;
+            for (Object o : (Object[]) value) {
+                s += sizeOf(o);
+            }
+            return s;
+        }
+        return 16;
+    }
+}
@@ -26,6 +26,7 @@ import org.chocosolver.solver.constraints.nary.nvalue.amnv.rules.R;
 import org.flsgen.exception.FlsgenException;
 import org.flsgen.grid.regular.square.RegularSquareGrid;
 import org.flsgen.utils.CheckLandscape;
+import org.geotools.coverage.NoDataContainer;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridCoverageFactory;
 import org.geotools.coverage.util.CoverageUtilities;
@@ -33,37 +34,95 @@ import org.geotools.gce.geotiff.GeoTiffReader;
 import org.geotools.gce.geotiff.GeoTiffWriter;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
+import org.geotools.util.factory.Hints;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import javax.media.jai.RasterFactory;
 import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.IntStream;
 
 public class RasterUtils {
 
+    private static boolean referencingInitialized = false;
+
+    private static volatile RasterReadCache readCache = null;
+
+    private static final Map<String, CoordinateReferenceSystem> CRS_CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Set the maximum size (in bytes) of the in-memory cache of raster reads shared by the threads of the JVM, so
+     * that tasks reading the same terrains and masks decode them once. The cache is disabled by default, and
+     * cached entries are discarded by each call.
+     * @param maxSize The maximum size of the cache, 0 to disable it
+     */
+    public static synchronized void setReadCacheSize(long maxSize) {
+        readCache = maxSize > 0 ? new RasterReadCache(maxSize) : null;
+    }
+
+    /**
+     * Read data from a raster, through the read cache if it is enabled. The data must not be modified by callers.
+     */
+    private static <T> T read(String kind, String rasterPath, RasterReadCache.Loader<T> loader) throws IOException {
+        RasterReadCache cache = readCache;
+        return cache == null ? loader.load() : cache.get(kind, rasterPath, loader);
+    }
+
     public static double[] loadDoubleDataFromRaster(String rasterPath, RegularSquareGrid grid) throws FlsgenException, IOException {
+        // Dimensions and values of the raster
+        Object[] raster = read("double", rasterPath, () -> {
+            File file = new File(rasterPath);
+            GeoTiffReader reader = new GeoTiffReader(file);
+            GridCoverage2D gridCov = reader.read(null);
+            int nRow = gridCov.getRenderedImage().getHeight();
+            int nCol = gridCov.getRenderedImage().getWidth();
+            DataBuffer buff = gridCov.getRenderedImage().getData().getDataBuffer();
+            double[] data = IntStream.range(0, nRow * nCol)
+                    .mapToDouble(i -> buff.getElemDouble(i))
+                    .toArray();
+            gridCov.dispose(true);
+            reader.dispose();
+            return new Object[] {new int[] {nRow, nCol}, data};
+        });
+        int[] dimensions = (int[]) raster[0];
+        if (dimensions[0] != grid.getNbRows() || dimensions[1] != grid.getNbCols()) {
+            throw new FlsgenException("Input terrain raster must have the same dimensions as the landscape to generate");
+        }
+        return ((double[]) raster[1]).clone();
+    }
+
+    public static int[] loadIntDataFromRaster(String rasterPath) throws IOException {
+        return read("int", rasterPath, () -> readIntData(rasterPath)).clone();
+    }
+
+    private static int[] readIntData(String rasterPath) throws IOException {
         File file = new File(rasterPath);
         GeoTiffReader reader = new GeoTiffReader(file);
         GridCoverage2D gridCov = reader.read(null);
-        int nRow = gridCov.getRenderedImage().getHeight();
-        int nCol = gridCov.getRenderedImage().getWidth();
-        if (nRow != grid.getNbRows() || nCol != grid.getNbCols()) {
-            throw new FlsgenException("Input terrain raster must have the same dimensions as the landscape to generate");
-        }
-        DataBuffer buff = gridCov.getRenderedImage().getData().getDataBuffer();
-        double[] data = IntStream.range(0, grid.getNbCells())
-                .mapToDouble(i -> buff.getElemDouble(i))
-                .toArray();
+        int nbRows = gridCov.getRenderedImage().getHeight();
+        int nbCols = gridCov.getRenderedImage().getWidth();
+        int[] values = new int[nbRows * nbCols];
+        gridCov.getRenderedImage().getData().getSamples(0, 0, nbCols, nbRows, 0, values);
         gridCov.dispose(true);
         reader.dispose();
-        return data;
+        return values;
     }
 
-    public static int[] loadIntDataFromRaster(String rasterPath) throws IOException {
+    /**
+     * Read the values, dimensions and no data value of an integer raster, opening and decoding the file once.
+     * If the raster does not define a no data value, Integer.MIN_VALUE is used.
+     * @param rasterPath path of the raster
+     * @return The raster data
+     * @throws IOException
+     */
+    public static IntRaster readIntRaster(String rasterPath) throws IOException {
         File file = new File(rasterPath);
         GeoTiffReader reader = new GeoTiffReader(file);
         GridCoverage2D gridCov = reader.read(null);
@@ -71,16 +130,65 @@ public class RasterUtils {
         int nbCols = gridCov.getRenderedImage().getWidth();
         int[] values = new int[nbRows * nbCols];
         gridCov.getRenderedImage().getData().getSamples(0, 0, nbCols, nbRows, 0, values);
+        NoDataContainer noData = CoverageUtilities.getNoDataProperty(gridCov);
+        int noDataValue = noData != null ? (int) noData.getAsSingleValue() : Integer.MIN_VALUE;
         gridCov.dispose(true);
         reader.dispose();
-        return values;
+        return new IntRaster(rasterPath, nbRows, nbCols, noDataValue, values);
+    }
+
+    /**
+     * Read the values of all the bands of an integer raster (e.g. a land-cover time series), as well as its
+     * dimensions and no data value, opening and decoding the file once.
+     * @param rasterPath path of the raster
+     * @return The raster data, with one values array per band
+     * @throws IOException
+     */
+    public static IntRaster readIntRasterBands(String rasterPath) throws IOException {
+        File file = new File(rasterPath);
+        GeoTiffReader reader = new GeoTiffReader(file);
+        GridCoverage2D gridCov = reader.read(null);
+        Raster data = gridCov.getRenderedImage().getData();
+        int nbRows = data.getHeight();
+        int nbCols = data.getWidth();
+        int[][] bands = new int[data.getNumBands()][];
+        for (int b = 0; b < bands.length; b++) {
+            bands[b] = data.getSamples(data.getMinX(), data.getMinY(), nbCols, nbRows, b, new int[nbRows * nbCols]);
+        }
+        NoDataContainer noData = CoverageUtilities.getNoDataProperty(gridCov);
+        int noDataValue = noData != null ? (int) noData.getAsSingleValue() : Integer.MIN_VALUE;
+        gridCov.dispose(true);
+        reader.dispose();
+        return new IntRaster(rasterPath, nbRows, nbCols, noDataValue, bands);
+    }
+
+    /**
+     * Initialize the GeoTools referencing subsystem (EPSG database), which is otherwise lazily initialized by the
+     * first raster read or write. Calling this method once before processing rasters concurrently avoids
+     * concurrent initializations and keeps the initialization cost out of the first task.
+     */
+    public static synchronized void initReferencing() {
+        if (referencingInitialized) {
+            return;
+        }
+        try {
+            CRS.decode("EPSG:4326");
+        } catch (FactoryException e) {
+            // Lookups will fail later with a more specific error
+        }
+        referencingInitialized = true;
     }
 
     public static void exportDoubleRaster(double[] data, RegularSquareGrid grid, double x, double y,
                                           double resolution_x, double resolution_y, String epsg,
                                           String dest) throws IOException, FactoryException {
+        exportDoubleRaster(data, grid, x, y, resolution_x, resolution_y, decodeCRS(epsg), dest);
+    }
+
+    public static void exportDoubleRaster(double[] data, RegularSquareGrid grid, double x, double y,
+                                          double resolution_x, double resolution_y, CoordinateReferenceSystem crs,
+                                          String dest) throws IOException {
         GridCoverageFactory gcf = new GridCoverageFactory();
-        CoordinateReferenceSystem crs = CRS.decode(epsg);
         ReferencedEnvelope referencedEnvelope = new ReferencedEnvelope(
                 x, x + (grid.getNbCols() * resolution_x),
                 y - + (grid.getNbRows() * resolution_y), y,
@@ -105,21 +213,75 @@ public class RasterUtils {
         exportDoubleRaster(data, grid, x, y, resolution, resolution, epsg, dest);
     }
 
+    public static void exportDoubleRaster(double[] data, RegularSquareGrid grid, double x, double y, double resolution,
+                                          CoordinateReferenceSystem crs, String dest) throws IOException {
+        exportDoubleRaster(data, grid, x, y, resolution, resolution, crs, dest);
+    }
+
+    /**
+     * Export double data to a raster file with the same dimensions, extent and projection as a template raster.
+     * The coordinate reference system is copied from the template, thus no CRS lookup is needed.
+     * @param data Raster data, in row-major order
+     * @param templatePath path of the template raster
+     * @param dest path of output raster
+     * @throws IOException
+     * @throws FlsgenException If the data does not match the dimensions of the template raster
+     */
+    public static void exportDoubleRasterLike(double[] data, String templatePath, String dest) throws IOException, FlsgenException {
+        GeoTiffReader reader = new GeoTiffReader(new File(templatePath));
+        GridCoverage2D template = reader.read(null);
+        int nbRows = template.getRenderedImage().getHeight();
+        int nbCols = template.getRenderedImage().getWidth();
+        if (data.length != nbRows * nbCols) {
+            template.dispose(true);
+            reader.dispose();
+            throw new FlsgenException("Raster data must have the same dimensions as the template raster");
+        }
+        WritableRaster rast = RasterFactory.createBandedRaster(
+                DataBuffer.TYPE_DOUBLE,
+                nbCols, nbRows,
+                1, null
+        );
+        rast.setPixels(0, 0, nbCols, nbRows, data);
+        GridCoverage2D gc = new GridCoverageFactory().create("landscape_metric", rast, template.getEnvelope());
+        GeoTiffWriter writer = new GeoTiffWriter(new File(dest));
+        writer.write(gc, null);
+        System.out.println("Raster exported at " + dest);
+        gc.dispose(true);
+        writer.dispose();
+        template.dispose(true);
+        reader.dispose();
+    }
+
     /**
      * Export the generated landscape to a raster file
      * @param x X position (geographical coordinates) of the top-left output raster pixel
      * @param y Y position (geographical coordinates) of the top-left output raster pixel
      * @param resolution_x x-spatial resolution (geographical units) of the output raster (i.e. pixel width)
      * @param resolution_y y-spatial resolution (geographical units) of the output raster (i.e. pixel height)
-     * @param epsg EPSG identifier of the output projection
+     * @param epsg EPSG identifier (or WKT definition) of the output projection
      * @param dest path of output raster
      * @throws IOException
      * @throws FactoryException
      */
     public static void exportIntRaster(int[] data, RegularSquareGrid grid, double x, double y, double resolution_x,
                                 double resolution_y, String epsg, String dest) throws IOException, FactoryException {
+        exportIntRaster(data, grid, x, y, resolution_x, resolution_y, decodeCRS(epsg), dest);
+    }
+
+    /**
+     * Export the generated landscape to a raster file
+     * @param x X position (geographical coordinates) of the top-left output raster pixel
+     * @param y Y position (geographical coordinates) of the top-left output raster pixel
+     * @param resolution_x x-spatial resolution (geographical units) of the output raster (i.e. pixel width)
+     * @param resolution_y y-spatial resolution (geographical units) of the output raster (i.e. pixel height)
+     * @param crs coordinate reference system of the output raster (e.g. from a template raster)
+     * @param dest path of output raster
+     * @throws IOException
+     */
+    public static void exportIntRaster(int[] data, RegularSquareGrid grid, double x, double y, double resolution_x,
+                                double resolution_y, CoordinateReferenceSystem crs, String dest) throws IOException {
         GridCoverageFactory gcf = new GridCoverageFactory();
-        CoordinateReferenceSystem crs = CRS.decode(epsg);
         ReferencedEnvelope referencedEnvelope = new ReferencedEnvelope(
                 x, x + (grid.getNbCols() * resolution_x),
                 y - (grid.getNbRows() * resolution_y), y,
@@ -144,7 +306,7 @@ public class RasterUtils {
      * @param x X position (geographical coordinates) of the top-left output raster pixel
      * @param y Y position (geographical coordinates) of the top-left output raster pixel
      * @param resolution spatial resolution (geographical units) of the output raster (i.e. pixel width)
-     * @param epsg EPSG identifier of the output projection
+     * @param epsg EPSG identifier (or WKT definition) of the output projection
      * @param dest path of output raster
      * @throws IOException
      * @throws FactoryException
@@ -153,7 +315,54 @@ public class RasterUtils {
         exportIntRaster(data, grid, x, y, resolution, resolution, epsg, dest);
     }
 
+    public static void exportIntRaster(int[] data, RegularSquareGrid grid, double x, double y, double resolution, CoordinateReferenceSystem crs, String dest) throws IOException {
+        exportIntRaster(data, grid, x, y, resolution, resolution, crs, dest);
+    }
+
+    /**
+     * Decode a coordinate reference system. Common EPSG codes (WGS 84, Web Mercator, WGS 84 UTM zones) and WKT
+     * definitions are parsed without the EPSG database, whose initialization takes several seconds, other codes
+     * are decoded from the EPSG database. Decoded systems are cached.
+     * @param srs An EPSG code (e.g. "EPSG:4326") or a WKT definition
+     * @return The coordinate reference system
+     * @throws FactoryException If the system cannot be decoded
+     */
+    public static CoordinateReferenceSystem decodeCRS(String srs) throws FactoryException {
+        CoordinateReferenceSystem crs = CRS_CACHE.get(srs);
+        if (crs != null) {
+            return crs;
+        }
+        String wkt = null;
+        if (srs.trim().matches("(?s)[A-Za-z_]+\\s*\\[.*")) {
+            wkt = srs;
+        } else if (!Boolean.TRUE.equals(Hints.getSystemDefault(Hints.FORCE_LONGITUDE_FIRST_AXIS_ORDER))) {
+            // Embedded definitions follow the EPSG axis order
+            wkt = CRSDefinitions.getWKT(srs);
+        }
+        crs = wkt != null ? CRS.parseWKT(wkt) : CRS.decode(srs);
+        CRS_CACHE.put(srs, crs);
+        return crs;
+    }
+
+    /**
+     * @return The coordinate reference system of a raster
+     * @throws IOException
+     */
+    public static CoordinateReferenceSystem getCRS(String rasterPath) throws IOException {
+        File file = new File(rasterPath);
+        GeoTiffReader reader = new GeoTiffReader(file);
+        GridCoverage2D gridCov = reader.read(null);
+        CoordinateReferenceSystem crs = gridCov.getCoordinateReferenceSystem();
+        gridCov.dispose(true);
+        reader.dispose();
+        return crs;
+    }
+
     public static double getNodataValue(String rasterPath) throws IOException {
+        return read("nodata", rasterPath, () -> readNodataValue(rasterPath));
+    }
+
+    private static double readNodataValue(String rasterPath) throws IOException {
         File file = new File(rasterPath);
         GeoTiffReader reader = new GeoTiffReader(file);
         GridCoverage2D gridCov = reader.read(null);
@@ -164,6 +373,10 @@ public class RasterUtils {
     }
 
     public static int[] getDimensions(String rasterPath) throws IOException {
+        return read("dimensions", rasterPath, () -> readDimensions(rasterPath)).clone();
+    }
+
+    private static int[] readDimensions(String rasterPath) throws IOException {
         File file = new File(rasterPath);
         GeoTiffReader reader = new GeoTiffReader(file);
         GridCoverage2D gridCov = reader.read(null);
@@ -173,6 +386,10 @@ public class RasterUtils {
     }
 
     public static int[] getNodataCells(String rasterPath) throws IOException {
+        return read("nodataCells", rasterPath, () -> readNodataCells(rasterPath)).clone();
+    }
+
+    private static int[] readNodataCells(String rasterPath) throws IOException {
         int noData = (int) getNodataValue(rasterPath);
         File file = new File(rasterPath);
         GeoTiffReader reader = new GeoTiffReader(file);
@@ -186,6 +403,26 @@ public class RasterUtils {
         return IntStream.range(0, values.length).filter(i -> values[i] == noData).toArray();
     }
 
+    /**
+     * @return The no data cells of each band of a raster, which may differ from one band to another (e.g. in a
+     * land-cover time series)
+     */
+    public static int[][] getBandsNodataCells(String rasterPath) throws IOException {
+        int[][] cells = read("bandsNodataCells", rasterPath, () -> readBandsNodataCells(rasterPath));
+        return Arrays.stream(cells).map(int[]::clone).toArray(int[][]::new);
+    }
+
+    private static int[][] readBandsNodataCells(String rasterPath) throws IOException {
+        IntRaster raster = readIntRasterBands(rasterPath);
+        int noData = raster.getNoDataValue();
+        int[][] cells = new int[raster.getNbBands()][];
+        for (int b = 0; b < cells.length; b++) {
+            int[] values = raster.getBand(b);
+            cells[b] = IntStream.range(0, values.length).filter(i -> values[i] == noData).toArray();
+        }
+        return cells;
+    }
+
     public static String getSrs(String input) throws IOException {
         File file = new File(input);
         GeoTiffReader reader = new GeoTiffReader(file);
@@ -23,37 +23,176 @@
 package org.flsgen.solver;
 
 import com.github.cliftonlabs.json_simple.JsonException;
-import com.github.cliftonlabs.json_simple.JsonObject;
-import com.github.cliftonlabs.json_simple.Jsoner;
+import org.flsgen.IntRaster;
 import org.flsgen.RasterUtils;
 import org.flsgen.exception.FlsgenException;
 import org.flsgen.grid.neighborhood.INeighborhood;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class LandscapeStructureFactory {
 
     public static LandscapeStructure fromRaster(String rasterPath, int[] focalClasses,
                                                 INeighborhood neighborhood) throws IOException {
-        int[] values = RasterUtils.loadIntDataFromRaster(rasterPath);
-        int[] dimensions = RasterUtils.getDimensions(rasterPath);
-        int noDataValue = (int) RasterUtils.getNodataValue(rasterPath);
+        IntRaster raster = RasterUtils.readIntRaster(rasterPath);
         return LandscapeStructure.fromRasterData(
-                values, dimensions[0], dimensions[1], noDataValue,
+                raster.getValues(), raster.getNbRows(), raster.getNbCols(), raster.getNoDataValue(),
                 focalClasses, neighborhood, rasterPath
         );
     }
 
+    /**
+     * Extract one landscape structure per band of a multi-band raster (e.g. a land-cover time series). The raster
+     * is decoded once, and the structures of the bands are computed concurrently.
+     * @param rasterPath path of the raster
+     * @param focalClasses raster values of the focal classes
+     * @param neighborhood connectivity definition
+     * @param nbThreads number of bands processed concurrently
+     * @return The structures, in band order
+     */
+    public static LandscapeStructure[] fromMultibandRaster(String rasterPath, int[] focalClasses,
+                                                           INeighborhood neighborhood, int nbThreads) throws IOException {
+        IntRaster raster = RasterUtils.readIntRasterBands(rasterPath);
+        LandscapeStructure[] series = new LandscapeStructure[raster.getNbBands()];
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(nbThreads, series.length)));
+        try {
+            List<Future<LandscapeStructure>> futures = new ArrayList<>();
+            for (int b = 0; b < series.length; b++) {
+                int[] values = raster.getBand(b);
+                futures.add(pool.submit(() -> LandscapeStructure.fromRasterData(
+                        values, raster.getNbRows(), raster.getNbCols(), raster.getNoDataValue(),
+                        focalClasses, neighborhood, rasterPath
+                )));
+            }
+            for (int b = 0; b < series.length; b++) {
+                series[b] = futures.get(b).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while extracting the structures of " + rasterPath, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return series;
+    }
+
+    /**
+     * Read a structure series, each structure having the no data cells of its band in the mask raster (e.g. the
+     * multi-band raster the series was extracted from).
+     */
+    public static LandscapeStructure[] readSeriesFromJSON(String json) throws JsonException, IOException {
+        String maskRasterPath = LandscapeStructure.readMaskRasterPath(new StringReader(json));
+        if (maskRasterPath != null) {
+            int[] dimensions = RasterUtils.getDimensions(maskRasterPath);
+            int[][] bandNoDataCells = RasterUtils.getBandsNodataCells(maskRasterPath);
+            return LandscapeStructure.readSeriesJSON(new StringReader(json), dimensions[0], dimensions[1], bandNoDataCells);
+        } else {
+            return LandscapeStructure.seriesFromJSON(json, 0, 0, new int[] {});
+        }
+    }
+
     public static LandscapeStructure readFromJSON(String json) throws JsonException, IOException, FlsgenException {
-        JsonObject targets = (JsonObject) Jsoner.deserialize(new StringReader(json));
-        // Get map dimensions
-        if (targets.containsKey("maskRasterPath")) {
-            String maskRasterPath = targets.get("maskRasterPath").toString();
+        return readFromJSON(() -> new StringReader(json));
+    }
+
+    /**
+     * Read a JSON structure in two streamed passes over the source: the first one stops as soon as the mask raster
+     * path (which defines the grid of the structure) is found, the second one reads the structure.
+     */
+    private static LandscapeStructure readFromJSON(JsonSource source) throws JsonException, IOException {
+        String maskRasterPath;
+        try (Reader reader = source.open()) {
+            maskRasterPath = LandscapeStructure.readMaskRasterPath(reader);
+        }
+        try (Reader reader = source.open()) {
+            if (maskRasterPath != null) {
+                int[] dimensions = RasterUtils.getDimensions(maskRasterPath);
+                int[] noDataCells = RasterUtils.getNodataCells(maskRasterPath);
+                return LandscapeStructure.readJSON(reader, dimensions[0], dimensions[1], noDataCells);
+            } else {
+                return LandscapeStructure.readJSON(reader, 0, 0, new int[] {});
+            }
+        }
+    }
+
+    private interface JsonSource {
+        Reader open() throws IOException;
+    }
+
+    /**
+     * Decode a binary structure (see LandscapeStructureBinary), resolving the dimensions and no data cells of its
+     * mask raster if it has one.
+     */
+    public static LandscapeStructure readFromBinary(ByteBuffer buffer) throws IOException {
+        String maskRasterPath = LandscapeStructureBinary.readMaskRasterPath(buffer);
+        if (maskRasterPath != null) {
             int[] dimensions = RasterUtils.getDimensions(maskRasterPath);
             int[] noDataCells = RasterUtils.getNodataCells(maskRasterPath);
-            return LandscapeStructure.fromJSON(json, dimensions[0], dimensions[1], noDataCells);
+            return LandscapeStructureBinary.read(buffer, dimensions[0], dimensions[1], noDataCells);
+        } else {
+            return LandscapeStructureBinary.read(buffer, 0, 0, new int[] {});
+        }
+    }
+
+    /**
+     * Read a structure file, either binary or JSON, the format being detected from its magic number. Binary files
+     * are memory-mapped, JSON files are streamed.
+     */
+    public static LandscapeStructure readFromFile(String path) throws JsonException, IOException, FlsgenException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(LandscapeStructureBinary.MAGIC.length);
+            channel.read(head);
+            head.flip();
+            if (LandscapeStructureBinary.isBinary(head)) {
+                return readFromBinary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+        return readFromJSON(() -> Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Read a structure from a stream (e.g. STDIN), either binary or JSON, the format being detected from its magic
+     * number.
+     */
+    public static LandscapeStructure readFromStream(InputStream in) throws JsonException, IOException, FlsgenException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, n);
+        }
+        byte[] data = bytes.toByteArray();
+        if (LandscapeStructureBinary.isBinary(data)) {
+            return readFromBinary(ByteBuffer.wrap(data));
+        }
+        return readFromJSON(() -> new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write a structure in the given format, streamed to the output.
+     */
+    public static void write(LandscapeStructure s, StructureFormat format, OutputStream out) throws IOException {
+        if (format == StructureFormat.BINARY) {
+            LandscapeStructureBinary.write(s, out);
         } else {
-            return LandscapeStructure.fromJSON(json, 0, 0, new int[] {});
+            s.writeJSON(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
         }
     }
 }
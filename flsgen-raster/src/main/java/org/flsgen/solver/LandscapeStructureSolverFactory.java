@@ -23,8 +23,6 @@
 package org.flsgen.solver;
 
 import com.github.cliftonlabs.json_simple.JsonException;
-import com.github.cliftonlabs.json_simple.JsonObject;
-import com.github.cliftonlabs.json_simple.Jsoner;
 import org.flsgen.RasterUtils;
 import org.flsgen.exception.FlsgenException;
 
@@ -40,10 +38,9 @@ public class LandscapeStructureSolverFactory {
     }
 
     public static LandscapeStructureSolver readFromJSON(String json) throws JsonException, IOException, FlsgenException {
-        JsonObject targets = (JsonObject) Jsoner.deserialize(new StringReader(json));
-        // Get map dimensions
-        if (targets.containsKey("maskRasterPath")) {
-            String maskRasterPath = targets.get("maskRasterPath").toString();
+        // Get map dimensions, without deserializing the whole targets
+        String maskRasterPath = LandscapeStructure.readMaskRasterPath(new StringReader(json));
+        if (maskRasterPath != null) {
             int[] dimensions = RasterUtils.getDimensions(maskRasterPath);
             int[] noDataCells = RasterUtils.getNodataCells(maskRasterPath);
             return LandscapeStructureSolver.readFromJSON(json, dimensions[0], dimensions[1], noDataCells);
@@ -51,4 +48,15 @@ public class LandscapeStructureSolverFactory {
             return LandscapeStructureSolver.readFromJSON(json, 0, 0, new int[] {});
         }
     }
+
+    public static UniformStructureSampler readUniformSamplerFromJSON(String json) throws JsonException, IOException, FlsgenException {
+        String maskRasterPath = LandscapeStructure.readMaskRasterPath(new StringReader(json));
+        if (maskRasterPath != null) {
+            int[] dimensions = RasterUtils.getDimensions(maskRasterPath);
+            int[] noDataCells = RasterUtils.getNodataCells(maskRasterPath);
+            return new UniformStructureSampler(json, dimensions[0], dimensions[1], noDataCells);
+        } else {
+            return new UniformStructureSampler(json, 0, 0, new int[] {});
+        }
+    }
 }
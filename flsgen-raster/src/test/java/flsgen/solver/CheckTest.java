@@ -22,10 +22,12 @@
 
 package flsgen.solver;
 
+import com.github.cliftonlabs.json_simple.JsonException;
 import org.flsgen.exception.FlsgenException;
 import org.flsgen.grid.neighborhood.Neighborhoods;
 import org.flsgen.grid.regular.square.RegularSquareGrid;
 import org.flsgen.solver.*;
+import org.flsgen.utils.LandscapeMetrics;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -33,6 +35,8 @@ import java.io.IOException;
 import java.util.Arrays;
 
 import static org.flsgen.utils.CheckLandscape.checkAREA;
+import static org.flsgen.utils.CheckLandscape.checkStructure;
+import static org.flsgen.utils.CheckLandscape.compareStructures;
 import static org.flsgen.utils.CheckLandscape.checkNP;
 
 public class CheckTest {
@@ -73,6 +77,74 @@ public class CheckTest {
         }
     }
 
+    @Test
+    public void testGeneratedNP_AND_AREA() throws FlsgenException {
+        // Same check as testNP_AND_AREA, asserting that generation succeeds instead of skipping failed generations
+        RegularSquareGrid grid = new RegularSquareGrid(50, 50);
+        LandscapeStructureSolver ls = new LandscapeStructureSolver(grid);
+        ls.landscapeClass("cls0", 2, 10, 60, 100, false);
+        ls.landscapeClass("cls1", 2, 10, 60, 100, false);
+        ls.landscapeClass("cls2", 2, 10, 60, 100, false);
+        ls.build();
+        ls.setRandomSearch(0);
+        Terrain t = new Terrain(grid);
+        t.generateDiamondSquare(0.5);
+        LandscapeStructure struct = ls.findSolution();
+        LandscapeGenerator gen = new LandscapeGenerator(
+                struct,
+                Neighborhoods.FOUR_CONNECTED,
+                Neighborhoods.TWO_WIDE_FOUR_CONNECTED,
+                t
+        );
+        Assert.assertTrue(gen.generate(0.5, 100, 10, false));
+        for (int k = 0; k < 3; k++) {
+            Assert.assertEquals(checkNP(gen, k, Neighborhoods.FOUR_CONNECTED), struct.getNbPatches(k));
+            Assert.assertTrue(Arrays.equals(checkAREA(gen, k, Neighborhoods.FOUR_CONNECTED), struct.getPatchSizes(k)));
+        }
+    }
+
+    @Test
+    public void testStructureSeriesFromRaster() throws IOException, JsonException {
+        String path = getClass().getClassLoader().getResource("test_raster.tif").getPath();
+        int[] focalClasses = new int[] {0, 1, 2};
+        LandscapeStructure struct = LandscapeStructureFactory.fromRaster(path, focalClasses, Neighborhoods.FOUR_CONNECTED);
+        LandscapeStructure[] series = LandscapeStructureFactory.fromMultibandRaster(path, focalClasses, Neighborhoods.FOUR_CONNECTED, 2);
+        Assert.assertEquals(series.length, 1);
+        Assert.assertEquals(series[0].toJSON(), struct.toJSON());
+        LandscapeStructure[] read = LandscapeStructureFactory.readSeriesFromJSON(LandscapeStructure.seriesToJSON(series));
+        Assert.assertEquals(read.length, 1);
+        for (int k = 0; k < focalClasses.length; k++) {
+            Assert.assertEquals(read[0].getPatchSizes(k), struct.getPatchSizes(k));
+            Assert.assertEquals(read[0].getTotalEdge(k), struct.getTotalEdge(k));
+        }
+    }
+
+    @Test
+    public void testStructureSeriesNoData() throws IOException, JsonException {
+        // Two bands whose no data cells differ: the first row in band 1, the first two rows in band 2
+        String path = getClass().getClassLoader().getResource("multiband_raster.tif").getPath();
+        int[] focalClasses = new int[] {0, 1};
+        LandscapeStructure[] series = LandscapeStructureFactory.fromMultibandRaster(path, focalClasses, Neighborhoods.FOUR_CONNECTED, 2);
+        Assert.assertEquals(series.length, 2);
+        Assert.assertEquals(series[0].getLandscapeSize(), 570);
+        Assert.assertEquals(series[1].getLandscapeSize(), 540);
+        Assert.assertEquals(series[0].getNbPatches(1), 1);
+        Assert.assertEquals(series[1].getNbPatches(1), 2);
+        LandscapeStructure[] read = LandscapeStructureFactory.readSeriesFromJSON(LandscapeStructure.seriesToJSON(series));
+        Assert.assertEquals(read.length, 2);
+        for (int b = 0; b < 2; b++) {
+            Assert.assertEquals(read[b].getLandscapeSize(), series[b].getLandscapeSize());
+            for (int k = 0; k < focalClasses.length; k++) {
+                Assert.assertEquals(read[b].getPatchSizes(k), series[b].getPatchSizes(k));
+                Assert.assertEquals(read[b].getLandscapeProportion(k), series[b].getLandscapeProportion(k));
+            }
+        }
+        // A series with more structures than bands
+        LandscapeStructure[] longer = new LandscapeStructure[] {series[0], series[1], series[1]};
+        Assert.assertThrows(IOException.class,
+                () -> LandscapeStructureFactory.readSeriesFromJSON(LandscapeStructure.seriesToJSON(longer)));
+    }
+
     @Test
     public void testStructureFromRaster() throws IOException, FlsgenException {
         String path = getClass().getClassLoader().getResource("test_raster.tif").getPath();
@@ -94,4 +166,68 @@ public class CheckTest {
         );
         Assert.assertTrue(generator.generate(0.5, 5, 10, false));
     }
+
+    @Test
+    public void testLandscapeMetrics() {
+        int[] values = new int[] {
+                0, 0, 1, -1, 1,
+                0, -1, 1, -1, -1,
+                -1, 2, -1, 0, 0,
+                2, -1, 2, -1, 0
+        };
+        LandscapeMetrics four = new LandscapeMetrics(values, 4, 5, new int[] {0, 1, 2}, Neighborhoods.FOUR_CONNECTED);
+        Assert.assertEquals(four.getNbPatches(), 7);
+        Assert.assertEquals(four.getNbPatches(0), 2);
+        Assert.assertEquals(four.getPatchSizes(0), new int[] {3, 3});
+        Assert.assertEquals(four.getNbPatches(1), 2);
+        Assert.assertEquals(four.getPatchSizes(1), new int[] {1, 2});
+        Assert.assertEquals(four.getNbPatches(2), 3);
+        Assert.assertEquals(four.getClassArea(2), 3);
+        Assert.assertEquals(four.getNetProduct(0), 18);
+        Assert.assertEquals(four.getLabels()[0], four.getLabels()[5]);
+        Assert.assertEquals(four.getLabels()[3], -1);
+        Assert.assertEquals(four.getTotalEdge(0), 9);
+        Assert.assertEquals(four.getPatchPerimeter(four.getLabels()[0]), 8);
+        Assert.assertEquals(four.getMeanPerimeterAreaRatio(1), 3.5, 1e-9);
+        Assert.assertEquals(four.getMeanShapeIndex(0), 1, 1e-9);
+        Assert.assertEquals(four.getMeanNearestNeighbourDistance(0), Math.sqrt(8), 1e-9);
+        Assert.assertEquals(four.getMeanNearestNeighbourDistance(2), Math.sqrt(2), 1e-9);
+        Assert.assertEquals(LandscapeMetrics.getMinPerimeter(3), 8);
+        Assert.assertEquals(LandscapeMetrics.getMinPerimeter(7), 12);
+        LandscapeMetrics height = new LandscapeMetrics(values, 4, 5, new int[] {0, 1, 2}, Neighborhoods.HEIGHT_CONNECTED);
+        Assert.assertEquals(height.getNbPatches(0), 2);
+        Assert.assertEquals(height.getNbPatches(2), 1);
+        Assert.assertEquals(height.getPatchSizes(2), new int[] {3});
+        // Generic neighborhood path must agree with the dedicated scan
+        LandscapeMetrics generic = new LandscapeMetrics(values, 4, 5, new int[] {0, 1, 2}, Neighborhoods.K_WIDE_FOUR_CONNECTED(1));
+        for (int k = 0; k < 3; k++) {
+            Assert.assertEquals(generic.getPatchSizes(k), four.getPatchSizes(k));
+        }
+    }
+
+    @Test
+    public void testCheckStructure() throws FlsgenException {
+        RegularSquareGrid grid = new RegularSquareGrid(50, 50);
+        LandscapeStructureSolver ls = new LandscapeStructureSolver(grid);
+        ls.landscapeClass("cls0", 2, 10, 60, 100, false);
+        ls.landscapeClass("cls1", 2, 10, 60, 100, false);
+        ls.build();
+        ls.setRandomSearch();
+        LandscapeStructure struct = ls.findSolution();
+        Terrain t = new Terrain(grid);
+        t.generateDiamondSquare(0.5);
+        LandscapeGenerator gen = new LandscapeGenerator(
+                struct,
+                Neighborhoods.FOUR_CONNECTED,
+                Neighborhoods.TWO_WIDE_FOUR_CONNECTED,
+                t
+        );
+        Assert.assertTrue(gen.generate(0.5, 100, 10, false));
+        LandscapeStructure observed = checkStructure(gen, struct, Neighborhoods.FOUR_CONNECTED);
+        Assert.assertTrue(compareStructures(struct, observed).isEmpty());
+        for (int k = 0; k < 2; k++) {
+            Assert.assertEquals(observed.getLandscapeProportion(k), struct.getLandscapeProportion(k));
+            Assert.assertEquals(observed.getMesh(k), struct.getMesh(k));
+        }
+    }
 }
@@ -25,7 +25,10 @@ package flsgen.solver;
 import org.flsgen.RasterUtils;
 import org.flsgen.grid.regular.square.RegularSquareGrid;
 import org.flsgen.solver.Terrain;
+import org.geotools.referencing.CRS;
 import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
@@ -43,4 +46,24 @@ public class FractalTerrainTest {
         RasterUtils.exportDoubleRaster(t.getData(), t.getGrid(), 0, 0, 0.01, "EPSG:4326", temp.toString());
         Files.delete(temp);
     }
+
+    @Test
+    public void embeddedCRS() throws IOException, FactoryException {
+        for (String code : new String[] {"EPSG:4326", "EPSG:3857", "EPSG:32633", "EPSG:32758"}) {
+            CoordinateReferenceSystem crs = RasterUtils.decodeCRS(code);
+            Assert.assertTrue(CRS.equalsIgnoreMetadata(crs, CRS.decode(code)), code);
+            Assert.assertEquals(CRS.lookupIdentifier(crs, false), code);
+            Assert.assertSame(RasterUtils.decodeCRS(code), crs);
+        }
+        CoordinateReferenceSystem crs = RasterUtils.decodeCRS(CRS.decode("EPSG:2154").toWKT());
+        Assert.assertTrue(CRS.equalsIgnoreMetadata(crs, CRS.decode("EPSG:2154")));
+        // Export with a CRS object, e.g. from a template raster
+        RegularSquareGrid grid = new RegularSquareGrid(50, 50);
+        Terrain t = new Terrain(grid);
+        t.generateDiamondSquare(0.4);
+        Path temp = Files.createTempFile("terrain", ".tif");
+        RasterUtils.exportDoubleRaster(t.getData(), t.getGrid(), 500000, 7500000, 30, RasterUtils.decodeCRS("EPSG:32758"), temp.toString());
+        Assert.assertTrue(CRS.equalsIgnoreMetadata(RasterUtils.getCRS(temp.toString()), CRS.decode("EPSG:32758")));
+        Files.delete(temp);
+    }
 }
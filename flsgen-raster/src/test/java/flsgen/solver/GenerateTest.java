@@ -31,7 +31,10 @@ import org.flsgen.grid.regular.square.RegularSquareGrid;
 import org.flsgen.solver.LandscapeGenerator;
 import org.flsgen.solver.LandscapeStructure;
 import org.flsgen.solver.LandscapeStructureFactory;
+import org.flsgen.solver.LandscapeStructureSolver;
+import org.flsgen.solver.LandscapeStructureSolverFactory;
 import org.flsgen.solver.Terrain;
+import org.flsgen.utils.CheckLandscape;
 import org.opengis.referencing.FactoryException;
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -40,6 +43,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 
 public class GenerateTest {
 
@@ -83,4 +87,63 @@ public class GenerateTest {
         boolean b = gen.generate(0, 1, 5, false);
         Assert.assertTrue(b);
     }
+
+    @Test
+    public void testRasterReadCache() throws IOException, FlsgenException {
+        String terrainPath = getClass().getClassLoader().getResource("terrain.tif").getPath();
+        String maskPath = getClass().getClassLoader().getResource("mask_raster.tif").getPath();
+        int[] dims = RasterUtils.getDimensions(terrainPath);
+        RegularSquareGrid grid = new RegularSquareGrid(dims[0], dims[1]);
+        double[] terrain = RasterUtils.loadDoubleDataFromRaster(terrainPath, grid);
+        int[] noDataCells = RasterUtils.getNodataCells(maskPath);
+        RasterUtils.setReadCacheSize(64 * 1024 * 1024);
+        try {
+            for (int i = 0; i < 2; i++) {
+                double[] cachedTerrain = RasterUtils.loadDoubleDataFromRaster(terrainPath, grid);
+                Assert.assertTrue(Arrays.equals(cachedTerrain, terrain));
+                // Callers get their own copy of cached data
+                cachedTerrain[0] = Double.NaN;
+                Assert.assertEquals(RasterUtils.getNodataCells(maskPath), noDataCells);
+                Assert.assertEquals(RasterUtils.getDimensions(terrainPath), dims);
+            }
+            Assert.assertThrows(FlsgenException.class,
+                    () -> RasterUtils.loadDoubleDataFromRaster(terrainPath, new RegularSquareGrid(dims[0] + 1, dims[1])));
+        } finally {
+            RasterUtils.setReadCacheSize(0);
+        }
+    }
+
+    @Test
+    public void testGeneratorsSharingNeighbors() throws IOException, JsonException, FlsgenException {
+        String path = getClass().getClassLoader().getResource("targets_2.json").getPath();
+        LandscapeStructureSolver ls = LandscapeStructureSolverFactory.readFromJSON(IOUtils.toString(new FileReader(path)));
+        LandscapeStructure s1 = ls.findSolution();
+        LandscapeStructure s2 = ls.findSolution();
+        Terrain terrain = new Terrain(new RegularSquareGrid(s1.getNbRows(), s1.getNbCols()));
+        terrain.generateDiamondSquare(0.4);
+        LandscapeGenerator g1 = new LandscapeGenerator(s1, Neighborhoods.FOUR_CONNECTED, Neighborhoods.TWO_WIDE_FOUR_CONNECTED, terrain);
+        LandscapeGenerator g2 = new LandscapeGenerator(s2, g1, terrain);
+        Assert.assertTrue(g2.generate(0.5, 10, 10, false));
+        Assert.assertTrue(g1.generate(0.5, 10, 10, false));
+        Assert.assertTrue(CheckLandscape.compareStructures(s1, CheckLandscape.checkStructure(g1, s1, Neighborhoods.FOUR_CONNECTED)).isEmpty());
+        Assert.assertTrue(CheckLandscape.compareStructures(s2, CheckLandscape.checkStructure(g2, s2, Neighborhoods.FOUR_CONNECTED)).isEmpty());
+        // A masked grid cannot share the neighbors of a full grid
+        String maskPath = getClass().getClassLoader().getResource("mask_raster.tif").getPath();
+        LandscapeStructure masked = LandscapeStructureFactory.fromRaster(maskPath, new int[] {1}, Neighborhoods.FOUR_CONNECTED);
+        Assert.assertThrows(FlsgenException.class, () -> new LandscapeGenerator(masked, g1, terrain));
+        // Masked grids with the same dimensions and number of cells, but different no data cells
+        Terrain small = new Terrain(new RegularSquareGrid(5, 5));
+        small.generateDiamondSquare(0.4);
+        LandscapeStructure m1 = maskedStructure(new int[] {0, 24});
+        LandscapeStructure m2 = maskedStructure(new int[] {0, 24});
+        LandscapeStructure m3 = maskedStructure(new int[] {1, 24});
+        LandscapeGenerator gm1 = new LandscapeGenerator(m1, Neighborhoods.FOUR_CONNECTED, Neighborhoods.FOUR_CONNECTED, small);
+        Assert.assertTrue(new LandscapeGenerator(m2, gm1, small).generate(0.5, 10, 10, false));
+        Assert.assertThrows(FlsgenException.class, () -> new LandscapeGenerator(m3, gm1, small));
+    }
+
+    private static LandscapeStructure maskedStructure(int[] noDataCells) {
+        return new LandscapeStructure(5, 5, null, noDataCells, new String[] {"A"}, new int[] {3}, new int[] {1},
+                new int[][] {{3}}, new long[] {9}, new boolean[] {false});
+    }
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package flsgen.solver;
+
+import org.flsgen.exception.FlsgenException;
+import org.flsgen.grid.neighborhood.INeighborhood;
+import org.flsgen.grid.neighborhood.Neighborhoods;
+import org.flsgen.utils.LandscapeMetrics;
+import org.flsgen.utils.MovingWindowMetrics;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+public class MovingWindowTest {
+
+    @Test
+    public void testAgainstWindowLabeling() throws FlsgenException {
+        Random random = new Random(0);
+        int nbRows = 23;
+        int nbCols = 31;
+        int[] values = new int[nbRows * nbCols];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextDouble() < 0.05 ? -1 : random.nextInt(3);
+        }
+        for (int connectivity : new int[] {4, 8}) {
+            INeighborhood neigh = connectivity == 4 ? Neighborhoods.FOUR_CONNECTED : Neighborhoods.HEIGHT_CONNECTED;
+            for (int windowSize : new int[] {1, 5, 9}) {
+                MovingWindowMetrics mw = new MovingWindowMetrics(
+                        values, nbRows, nbCols, -1, new int[] {0, 1}, connectivity, windowSize, 2
+                );
+                int h = windowSize / 2;
+                for (int row = 0; row < nbRows; row++) {
+                    for (int col = 0; col < nbCols; col++) {
+                        int i = row * nbCols + col;
+                        if (values[i] == -1) {
+                            Assert.assertEquals(mw.getNbPatches(0)[i], MovingWindowMetrics.NO_DATA);
+                            continue;
+                        }
+                        int r0 = Math.max(0, row - h);
+                        int r1 = Math.min(nbRows - 1, row + h);
+                        int c0 = Math.max(0, col - h);
+                        int c1 = Math.min(nbCols - 1, col + h);
+                        int[] window = new int[(r1 - r0 + 1) * (c1 - c0 + 1)];
+                        int valid = 0;
+                        for (int r = r0, j = 0; r <= r1; r++) {
+                            for (int c = c0; c <= c1; c++, j++) {
+                                window[j] = values[r * nbCols + c];
+                                valid += window[j] != -1 ? 1 : 0;
+                            }
+                        }
+                        LandscapeMetrics lm = new LandscapeMetrics(window, r1 - r0 + 1, c1 - c0 + 1, new int[] {0, 1}, neigh);
+                        for (int k = 0; k < 2; k++) {
+                            Assert.assertEquals(mw.getNbPatches(k)[i], lm.getNbPatches(k));
+                            Assert.assertEquals(mw.getLandscapeProportion(k)[i], 100.0 * lm.getClassArea(k) / valid, 1e-9);
+                            Assert.assertEquals(mw.getMesh(k)[i], 1.0 * lm.getNetProduct(k) / valid, 1e-9);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test(expectedExceptions = FlsgenException.class)
+    public void testEvenWindowSize() throws FlsgenException {
+        new MovingWindowMetrics(new int[] {0, 1, 0, 1}, 2, 2, -1, new int[] {0}, 4, 2, 1);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2021, Dimitri Justeau-Allaire
+ *
+ * Institut Agronomique neo-Caledonien (IAC), 98800 Noumea, New Caledonia
+ * AMAP, Univ Montpellier, CIRAD, CNRS, INRA, IRD, Montpellier, France
+ *
+ * This file is part of flsgen.
+ *
+ * flsgen is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * flsgen is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with flsgen.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package flsgen.solver;
+
+import org.chocosolver.solver.Model;
+import org.chocosolver.solver.constraints.Constraint;
+import org.chocosolver.solver.variables.IntVar;
+import org.flsgen.exception.FlsgenException;
+import org.flsgen.grid.regular.square.RegularSquareGrid;
+import org.flsgen.solver.LandscapeStructureSolver;
+import org.flsgen.solver.choco.PropPatchSizes;
+import org.flsgen.solver.choco.PropSoftSumOfSquares;
+import org.flsgen.solver.choco.PropSumOfSquares;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+public class PropagatorTest {
+
+    /**
+     * Decomposition of PropPatchSizes with standard constraints
+     */
+    private static long countWithDecomposition(int n, int minNbPatches, int maxNbPatches, int minPatchSize,
+                                               int maxPatchSize, int minSum, int maxSum) {
+        Model model = new Model();
+        IntVar[] patchSizes = model.intVarArray(n, 0, maxPatchSize, false);
+        IntVar nbZeros = model.intVar(n - maxNbPatches, n - minNbPatches);
+        model.count(0, patchSizes, nbZeros).post();
+        for (int i = 0; i < n; i++) {
+            model.ifThen(model.arithm(patchSizes[i], "!=", 0).reify(), model.arithm(patchSizes[i], ">=", minPatchSize));
+        }
+        model.increasing(patchSizes, 0).post();
+        model.sum(patchSizes, "=", model.intVar(minSum, maxSum)).post();
+        return model.getSolver().streamSolutions().count();
+    }
+
+    private static long countWithPropagator(int n, int minNbPatches, int maxNbPatches, int minPatchSize,
+                                            int maxPatchSize, int minSum, int maxSum) {
+        Model model = new Model();
+        IntVar[] patchSizes = model.intVarArray(n, 0, maxPatchSize, false);
+        IntVar nbPatches = model.intVar(minNbPatches, maxNbPatches);
+        IntVar sum = model.intVar(minSum, maxSum);
+        model.post(new Constraint("patchSizes", new PropPatchSizes(patchSizes, nbPatches, sum, minPatchSize)));
+        return model.getSolver().streamSolutions().count();
+    }
+
+    @Test
+    public void testPatchSizesEquivalence() {
+        Random random = new Random(0);
+        for (int t = 0; t < 200; t++) {
+            int n = 1 + random.nextInt(5);
+            int minNbPatches = random.nextInt(n + 1);
+            int maxNbPatches = minNbPatches + random.nextInt(n + 1 - minNbPatches);
+            int maxPatchSize = 1 + random.nextInt(8);
+            int minPatchSize = 1 + random.nextInt(maxPatchSize);
+            int minSum = random.nextInt(n * maxPatchSize + 1);
+            int maxSum = minSum + random.nextInt(n * maxPatchSize + 1 - minSum);
+            Assert.assertEquals(
+                    countWithPropagator(n, minNbPatches, maxNbPatches, minPatchSize, maxPatchSize, minSum, maxSum),
+                    countWithDecomposition(n, minNbPatches, maxNbPatches, minPatchSize, maxPatchSize, minSum, maxSum)
+            );
+        }
+    }
+
+    @Test
+    public void testGlobalPatchSizesOption() throws FlsgenException {
+        long[] counts = new long[2];
+        for (int k = 0; k < 2; k++) {
+            LandscapeStructureSolver ls = new LandscapeStructureSolver(new RegularSquareGrid(3, 4));
+            ls.setGlobalPatchSizes(k == 0);
+            ls.landscapeClass("A", 0, 3, 2, 4, false);
+            ls.landscapeClass("B", 1, 2, 1, 3, false);
+            ls.build();
+            counts[k] = ls.getModel().getSolver().streamSolutions().count();
+        }
+        Assert.assertTrue(counts[0] > 0);
+        Assert.assertEquals(counts[0], counts[1]);
+    }
+
+    @Test
+    public void testSumOfSquaresEquivalence() {
+        Random random = new Random(0);
+        for (int t = 0; t < 200; t++) {
+            int n = 1 + random.nextInt(4);
+            int maxValue = 1 + random.nextInt(8);
+            long lb = random.nextInt(n * maxValue * maxValue + 1);
+            long ub = random.nextInt(3) == 0 ? lb : lb + random.nextInt(n * maxValue * maxValue + 1);
+            // Decomposition with squared variables
+            Model decomposition = new Model();
+            IntVar[] x = decomposition.intVarArray(n, 0, maxValue, false);
+            IntVar[] squares = decomposition.intVarArray(n, 0, maxValue * maxValue, false);
+            for (int i = 0; i < n; i++) {
+                decomposition.square(squares[i], x[i]).post();
+            }
+            decomposition.sum(squares, "=", decomposition.intVar((int) lb, (int) ub)).post();
+            long expected = decomposition.getSolver().streamSolutions().count();
+            // Propagator
+            Model model = new Model();
+            IntVar[] y = model.intVarArray(n, 0, maxValue, false);
+            model.post(new Constraint("sumOfSquares", new PropSumOfSquares(y, lb, ub)));
+            Assert.assertEquals(model.getSolver().streamSolutions().count(), expected);
+        }
+    }
+
+    @Test
+    public void testSoftSumOfSquaresEquivalence() {
+        Random random = new Random(0);
+        for (int t = 0; t < 200; t++) {
+            int n = 1 + random.nextInt(3);
+            int maxValue = 1 + random.nextInt(6);
+            int maxViolation = random.nextInt(5);
+            int unit = 1 + random.nextInt(10);
+            long lb = random.nextInt(n * maxValue * maxValue + 20);
+            long ub = random.nextInt(3) == 0 ? lb : lb + random.nextInt(n * maxValue * maxValue + 1);
+            // Decomposition: lb - violation * unit <= sum of squares <= ub + violation * unit
+            Model decomposition = new Model();
+            IntVar[] x = decomposition.intVarArray(n, 0, maxValue, false);
+            IntVar v = decomposition.intVar(0, maxViolation);
+            IntVar[] squares = decomposition.intVarArray(n, 0, maxValue * maxValue, false);
+            for (int i = 0; i < n; i++) {
+                decomposition.square(squares[i], x[i]).post();
+            }
+            IntVar sum = decomposition.intVar(0, n * maxValue * maxValue);
+            decomposition.sum(squares, "=", sum).post();
+            decomposition.scalar(new IntVar[] {sum, v}, new int[] {1, unit}, ">=", (int) lb).post();
+            decomposition.scalar(new IntVar[] {sum, v}, new int[] {1, -unit}, "<=", (int) ub).post();
+            long expected = decomposition.getSolver().streamSolutions().count();
+            // Propagator
+            Model model = new Model();
+            IntVar[] y = model.intVarArray(n, 0, maxValue, false);
+            IntVar w = model.intVar(0, maxViolation);
+            model.post(new Constraint("softSumOfSquares", new PropSoftSumOfSquares(y, lb, ub, w, unit)));
+            Assert.assertEquals(model.getSolver().streamSolutions().count(), expected);
+        }
+    }
+}
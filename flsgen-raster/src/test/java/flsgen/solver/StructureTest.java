@@ -22,19 +22,43 @@
 
 package flsgen.solver;
 
+import com.github.cliftonlabs.json_simple.JsonArray;
 import com.github.cliftonlabs.json_simple.JsonException;
+import com.github.cliftonlabs.json_simple.JsonObject;
+import com.github.cliftonlabs.json_simple.Jsoner;
 import org.apache.commons.io.IOUtils;
 import org.flsgen.exception.FlsgenException;
+import org.flsgen.grid.regular.square.RegularSquareGrid;
+import org.flsgen.solver.LandscapeClass;
 import org.flsgen.solver.LandscapeStructure;
+import org.flsgen.solver.LandscapeStructureBinary;
+import org.flsgen.solver.LandscapeStructureDecomposition;
+import org.flsgen.solver.LandscapeStructureFactory;
+import org.flsgen.solver.LandscapeStructurePortfolio;
+import org.flsgen.solver.LandscapeStructureSampler;
 import org.flsgen.solver.LandscapeStructureSolver;
 import org.flsgen.solver.LandscapeStructureSolverFactory;
+import org.flsgen.solver.SearchStrategy;
+import org.flsgen.solver.SoftTarget;
+import org.flsgen.solver.StructureCache;
+import org.flsgen.solver.TargetBoundsAnalyzer;
+import org.flsgen.solver.UniformStructureSampler;
+import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
 
 public class StructureTest {
 
@@ -50,4 +74,500 @@ public class StructureTest {
         writer.close();
         Files.delete(temp);
     }
+
+    @Test
+    public void portfolioStructure() throws IOException, JsonException, FlsgenException {
+        String path = getClass().getClassLoader().getResource("targets_4.json").getPath();
+        String json = IOUtils.toString(new FileReader(path));
+        LandscapeStructurePortfolio portfolio = new LandscapeStructurePortfolio(
+                () -> LandscapeStructureSolverFactory.readFromJSON(json), 3, 0
+        );
+        LandscapeStructure struct = portfolio.findSolution();
+        Assert.assertNotNull(struct);
+        Assert.assertNotNull(portfolio.getWinningStrategy());
+        Assert.assertEquals(portfolio.getWinningSolver().getModel().getSolver().getSolutionCount(), 1);
+        Assert.assertFalse(portfolio.isProvedUnsatisfiable());
+    }
+
+    @Test
+    public void sampleStructures() throws IOException, JsonException, FlsgenException {
+        String path = getClass().getClassLoader().getResource("targets_4.json").getPath();
+        String json = IOUtils.toString(new FileReader(path));
+        LandscapeStructureSampler sampler = new LandscapeStructureSampler(
+                () -> LandscapeStructureSolverFactory.readFromJSON(json), 2, 0
+        );
+        sampler.setMinDistance(2);
+        List<LandscapeStructure> streamed = new ArrayList<>();
+        List<LandscapeStructure> structures = sampler.sample(5, 0, (n, s) -> {
+            Assert.assertEquals(n, streamed.size());
+            streamed.add(s);
+        });
+        Assert.assertEquals(structures.size(), 5);
+        Assert.assertEquals(streamed, structures);
+        for (int i = 0; i < structures.size(); i++) {
+            for (int j = i + 1; j < structures.size(); j++) {
+                Assert.assertNotEquals(
+                        LandscapeStructureSampler.canonicalKey(structures.get(i)),
+                        LandscapeStructureSampler.canonicalKey(structures.get(j))
+                );
+                Assert.assertTrue(LandscapeStructureSampler.distance(structures.get(i), structures.get(j)) >= 2);
+            }
+        }
+    }
+
+    @Test
+    public void sweepStructures() throws FlsgenException {
+        LandscapeStructureSolver ls = new LandscapeStructureSolver(new RegularSquareGrid(50, 50));
+        ls.landscapeClass("A", 1, 10, 1, 2500, false);
+        ls.landscapeClass("B", 1, 10, 1, 2500, false);
+        ls.build();
+        ls.getLandscapeClass("B").setLandscapeProportion(10, 10);
+        int nbConstraints = ls.getModel().getNbCstrs();
+        double[][] intervals = new double[][] {{10, 10}, {20, 20}, {95, 95}, {30, 30}};
+        LandscapeStructure[] solutions = ls.sweep("A", LandscapeStructureSolver.KEY_PLAND, intervals, 0);
+        Assert.assertEquals(solutions[0].getLandscapeProportion(0), 10);
+        Assert.assertEquals(solutions[1].getLandscapeProportion(0), 20);
+        // A cannot cover 95% of the landscape when B covers 10%
+        Assert.assertNull(solutions[2]);
+        Assert.assertEquals(solutions[3].getLandscapeProportion(0), 30);
+        for (int i : new int[] {0, 1, 3}) {
+            Assert.assertEquals(solutions[i].getLandscapeProportion(1), 10);
+        }
+        Assert.assertEquals(ls.getModel().getNbCstrs(), nbConstraints);
+    }
+
+    @Test
+    public void sweepRemovesTemporaryVariables() throws FlsgenException {
+        LandscapeStructureSolver ls = new LandscapeStructureSolver(new RegularSquareGrid(50, 50));
+        ls.landscapeClass("A", 1, 10, 1, 2500, false);
+        ls.landscapeClass("B", 1, 10, 1, 2500, false);
+        ls.build();
+        ls.getLandscapeClass("B").setLandscapeProportion(10, 10);
+        int nbVars = ls.getModel().getNbVars();
+        int nbConstraints = ls.getModel().getNbCstrs();
+        // SPI and AREA_MN targets create variables
+        double[][] intervals = new double[][] {{5, 10}, {20, 40}, {100, 200}};
+        for (String key : new String[] {LandscapeStructureSolver.KEY_SPI, LandscapeStructureSolver.KEY_AREA_MN}) {
+            LandscapeStructure[] solutions = ls.sweep("A", key, intervals, 0);
+            for (LandscapeStructure s : solutions) {
+                Assert.assertNotNull(s);
+            }
+            Assert.assertEquals(ls.getModel().getNbVars(), nbVars);
+            Assert.assertEquals(ls.getModel().getNbCstrs(), nbConstraints);
+        }
+    }
+
+    @Test
+    public void manyPatchesStructure() throws FlsgenException {
+        LandscapeStructureSolver ls = new LandscapeStructureSolver(new RegularSquareGrid(1000, 1000));
+        LandscapeClass many = ls.landscapeClass("many", 1, 5000, 1, 1000000, false);
+        LandscapeClass few = ls.landscapeClass("few", 1, 10, 1, 100, false);
+        Assert.assertTrue(many.hasBoundedDomains());
+        Assert.assertFalse(few.hasBoundedDomains());
+        ls.build();
+        many.setLandscapeProportion(20, 20);
+        many.setNbPatches(100, 5000);
+        LandscapeStructure struct = ls.findSolution(60);
+        Assert.assertNotNull(struct);
+        Assert.assertEquals(struct.getTotalSize(0), 200000);
+        Assert.assertTrue(struct.getNbPatches(0) >= 100);
+    }
+
+    @Test
+    public void solverStatistics() throws FlsgenException {
+        LandscapeStructureSolver ls = new LandscapeStructureSolver(new RegularSquareGrid(50, 50));
+        LandscapeClass a = ls.landscapeClass("A", 1, 10, 1, 2500, false);
+        ls.build();
+        a.setLandscapeProportion(30, 30);
+        ls.setSearch(SearchStrategy.DOM_OVER_W_DEG);
+        ls.setNodeLimit(1000000);
+        Assert.assertNotNull(ls.findSolution());
+        JsonObject stats = ls.getStatistics();
+        Assert.assertEquals(stats.get("status"), "SOLUTION");
+        Assert.assertEquals(stats.get("strategy"), "DOM_OVER_W_DEG");
+        Assert.assertTrue(((Number) stats.get("nodes")).longValue() > 0);
+        Assert.assertTrue(((Number) stats.get("timeToFirstSolution")).doubleValue() >= 0);
+        Assert.assertTrue(((JsonObject) stats.get("propagators")).containsKey("PropPatchSizes"));
+        // Two patches of at least 2000 cells cannot fit in the landscape
+        LandscapeStructureSolver unsat = new LandscapeStructureSolver(new RegularSquareGrid(50, 50));
+        unsat.landscapeClass("A", 2, 2, 2000, 2500, false);
+        unsat.build();
+        Assert.assertNull(unsat.findSolution());
+        Assert.assertEquals(unsat.getStatistics().get("status"), "UNSATISFIABLE");
+    }
+
+    @Test
+    public void timeLimitStatus() throws FlsgenException {
+        // Far too many solutions to enumerate within the time limit, which is cumulated over solving calls
+        LandscapeStructureSolver ls = new LandscapeStructureSolver(new RegularSquareGrid(50, 50));
+        ls.landscapeClass("A", 1, 10, 1, 2500, false);
+        ls.landscapeClass("B", 1, 10, 1, 2500, false);
+        ls.build();
+        while (ls.findSolution(1) != null) {
+            Assert.assertEquals(ls.getStatus(), "SOLUTION");
+        }
+        Assert.assertEquals(ls.getStatus(), "LIMIT_TIME");
+        Assert.assertEquals(ls.getStatistics().get("status"), "LIMIT_TIME");
+    }
+
+    @Test
+    public void hintedStructure() throws FlsgenException {
+        LandscapeStructure reference = new LandscapeStructure(
+                50, 50, new String[] {"A", "B"}, new int[] {465, 210}, new int[] {4, 2},
+                new int[][] {{5, 40, 120, 300}, {10, 200}}, new long[] {106025, 40100}, new boolean[] {false, false}
+        );
+        // The reference satisfies the targets: it is the first solution found
+        LandscapeStructureSolver ls = new LandscapeStructureSolver(new RegularSquareGrid(50, 50));
+        LandscapeClass a = ls.landscapeClass("A", 1, 10, 1, 500, false);
+        LandscapeClass b = ls.landscapeClass("B", 1, 5, 1, 300, false);
+        ls.build();
+        a.setClassArea(465, 465);
+        b.setClassArea(210, 210);
+        ls.setSolutionHint(reference);
+        LandscapeStructure struct = ls.findSolution();
+        Assert.assertNotNull(struct);
+        Assert.assertEquals(LandscapeStructureSampler.distance(reference, struct), 0);
+        Assert.assertEquals(ls.getStatistics().get("strategy"), "HINT");
+        // The reference does not satisfy the targets: the solution found stays close to it
+        LandscapeStructureSolver ls2 = new LandscapeStructureSolver(new RegularSquareGrid(50, 50));
+        LandscapeClass a2 = ls2.landscapeClass("A", 1, 10, 1, 500, false);
+        ls2.landscapeClass("B", 1, 5, 1, 300, false);
+        ls2.build();
+        a2.setClassArea(480, 480);
+        ls2.setSolutionHint(reference);
+        struct = ls2.findSolution();
+        Assert.assertNotNull(struct);
+        Assert.assertEquals(struct.getTotalSize(0), 480);
+        Assert.assertTrue(LandscapeStructureSampler.distance(reference, struct) <= 30);
+    }
+
+    @Test
+    public void hintedStructureBoundedDomains() throws FlsgenException {
+        // 2000 patches of up to 10000 cells: patch sizes have bounded domains
+        LandscapeStructureSolver ls = new LandscapeStructureSolver(new RegularSquareGrid(100, 100));
+        LandscapeClass a = ls.landscapeClass("A", 1, 2000, 1, 10000, true);
+        ls.build();
+        Assert.assertTrue(a.hasBoundedDomains());
+        // 49 = 4 + 9 + 36 is the only sum of three squares
+        a.setNbPatches(3, 3);
+        a.setClassArea(49, 49);
+        // The hint of the largest patch (30) is within its bounds but not a square: the search must backtrack
+        // from the patches smaller than the hint, which an assignment refuted by x != 30 would not exclude
+        LandscapeStructure reference = new LandscapeStructure(
+                100, 100, new String[] {"A"}, new int[] {42}, new int[] {3},
+                new int[][] {{4, 8, 30}}, new long[] {980}, new boolean[] {true}
+        );
+        ls.setSolutionHint(reference);
+        ls.setTimeLimit(60);
+        LandscapeStructure struct = ls.findSolution();
+        Assert.assertNotNull(struct);
+        int[] sizes = struct.getPatchSizes(0).clone();
+        Arrays.sort(sizes);
+        Assert.assertEquals(sizes, new int[] {4, 9, 36});
+        Assert.assertTrue(ls.getModel().getSolver().getBackTrackCount() > 0);
+    }
+
+    @Test
+    public void softTargets() throws IOException, JsonException, FlsgenException {
+        // At most 3 patches of at most 20 cells: the 50% PLAND target (200 cells) can only be approached
+        LandscapeStructureSolver ls = new LandscapeStructureSolver(new RegularSquareGrid(20, 20));
+        LandscapeClass a = ls.landscapeClass("A", 1, 3, 1, 400, false);
+        ls.build();
+        a.setLargestPatchSize(10, 20);
+        Assert.assertThrows(FlsgenException.class,
+                () -> ls.setSoftTarget("A", LandscapeStructureSolver.KEY_PLAND, 50, 50, 0));
+        SoftTarget pland = ls.setSoftTarget("A", LandscapeStructureSolver.KEY_PLAND, 50, 50, 1);
+        LandscapeStructure struct = ls.findBestSolution(5);
+        Assert.assertNotNull(struct);
+        Assert.assertEquals(struct.getTotalSize(0), 60);
+        Assert.assertEquals(ls.getSoftViolation(), 140);
+        Assert.assertEquals(pland.getDeviation(struct), 35, 1e-6);
+        // Soft targets from JSON, with the violation reported in statistics
+        String json = "{\"nbRows\": 20, \"nbCols\": 20, \"classes\": [" +
+                "{\"name\": \"A\", \"NP\": [1, 3], \"AREA\": [1, 400], \"LPI\": [10, 20], \"PLAND\": [50, 50]," +
+                " \"SOFT\": {\"PLAND\": 2}}," +
+                "{\"name\": \"B\", \"NP\": [1, 1], \"AREA\": [1, 400], \"CA\": [100, 100]}]}";
+        LandscapeStructureSolver ls2 = LandscapeStructureSolverFactory.readFromJSON(json);
+        ls2.setTimeLimit(5);
+        struct = ls2.findBestSolution(0);
+        Assert.assertNotNull(struct);
+        Assert.assertEquals(struct.getTotalSize(1), 100);
+        Assert.assertEquals(ls2.getSoftViolation(), 280);
+        JsonObject stats = ls2.getStatistics();
+        Assert.assertEquals(stats.get("status"), "SOLUTION");
+        Assert.assertEquals(((JsonArray) stats.get("softTargets")).size(), 1);
+    }
+
+    @Test
+    public void targetBoundsAnalyzer() throws IOException, JsonException, FlsgenException {
+        // Bounds tightening: at most 10 patches of at least 10 cells in 100 cells, patches of at most 30 cells (LPI)
+        TargetBoundsAnalyzer analyzer = new TargetBoundsAnalyzer(400);
+        JsonObject targets = (JsonObject) Jsoner.deserialize(
+                "{\"NP\": [1, 100], \"AREA\": [10, 500], \"CA\": [70, 100], \"LPI\": [20, 30]}"
+        );
+        TargetBoundsAnalyzer.ClassBounds bounds = analyzer.analyzeClass("A", targets);
+        Assert.assertEquals(bounds.minNbPatches, 3);
+        Assert.assertEquals(bounds.maxNbPatches, 10);
+        Assert.assertEquals(bounds.maxPatchSize, 30);
+        Assert.assertEquals(bounds.minClassArea, 70);
+        // Infeasible targets are rejected when reading target files
+        String[] infeasible = {
+                // PLAND contradicts CA
+                "{\"name\": \"A\", \"NP\": [1, 5], \"AREA\": [1, 400], \"CA\": [10, 20], \"PLAND\": [50, 60]}",
+                // MESH unreachable with NP and CA: at most 100 * 100 / 400 = 25
+                "{\"name\": \"A\", \"NP\": [1, 5], \"AREA\": [1, 400], \"CA\": [100, 100], \"MESH\": [30, 40]}",
+                // Too many patches of at least 100 cells
+                "{\"name\": \"A\", \"NP\": [5, 10], \"AREA\": [100, 400]}",
+        };
+        for (String cl : infeasible) {
+            String json = "{\"nbRows\": 20, \"nbCols\": 20, \"classes\": [" + cl + "]}";
+            try {
+                LandscapeStructureSolverFactory.readFromJSON(json);
+                Assert.fail("Infeasible targets accepted: " + cl);
+            } catch (FlsgenException e) {
+                Assert.assertTrue(e.getMessage().startsWith("Infeasible targets in class A"));
+            }
+        }
+        // The minimum class areas exceed the landscape
+        String json = "{\"nbRows\": 20, \"nbCols\": 20, \"classes\": [" +
+                "{\"name\": \"A\", \"NP\": [1, 5], \"AREA\": [1, 400], \"CA\": [250, 300]}," +
+                "{\"name\": \"B\", \"NP\": [1, 5], \"AREA\": [1, 400], \"PLAND\": [40, 50]}]}";
+        try {
+            LandscapeStructureSolverFactory.readFromJSON(json);
+            Assert.fail("Infeasible targets accepted");
+        } catch (FlsgenException e) {
+            Assert.assertTrue(e.getMessage().contains("minimum class areas"));
+        }
+    }
+
+    @Test
+    public void decomposedStructure() throws IOException, JsonException, FlsgenException {
+        String classes = "\"classes\": [" +
+                "{\"name\": \"A\", \"NP\": [1, 5], \"AREA\": [10, 100], \"PLAND\": [10, 20]}," +
+                "{\"name\": \"B\", \"NP\": [2, 4], \"AREA\": [20, 80], \"CA\": [100, 200]}," +
+                "{\"name\": \"C\", \"NP\": [1, 3], \"AREA\": [50, 300]}]";
+        String json = "{\"nbRows\": 30, \"nbCols\": 30, \"NON_FOCAL_PLAND\": [40, 45], " + classes + "}";
+        LandscapeStructureDecomposition d = new LandscapeStructureDecomposition(
+                json, LandscapeStructureSolverFactory::readFromJSON, 2
+        );
+        LandscapeStructure struct = d.findSolution(0);
+        Assert.assertNotNull(struct);
+        Assert.assertEquals(d.getStatus(), "SOLUTION");
+        Assert.assertEquals(struct.getNames(), new String[] {"A", "B", "C"});
+        Assert.assertTrue(struct.getTotalSize(0) >= 90 && struct.getTotalSize(0) <= 180);
+        Assert.assertTrue(struct.getTotalSize(1) >= 100 && struct.getTotalSize(1) <= 200);
+        Assert.assertTrue(struct.getNonFocalLandscapeProportion() >= 40 && struct.getNonFocalLandscapeProportion() <= 45);
+        // A and B cover at least 190 cells, more than the 90 focal cells allowed
+        String unsat = "{\"nbRows\": 30, \"nbCols\": 30, \"NON_FOCAL_PLAND\": [90, 100], " + classes + "}";
+        d = new LandscapeStructureDecomposition(unsat, LandscapeStructureSolverFactory::readFromJSON, 2);
+        Assert.assertNull(d.findSolution(0));
+        Assert.assertEquals(d.getStatus(), "UNSATISFIABLE");
+    }
+
+    @Test
+    public void uniformSampler() throws IOException, JsonException, FlsgenException {
+        String json = "{\"nbRows\": 10, \"nbCols\": 10, \"NON_FOCAL_PLAND\": [80, 95], \"classes\": [" +
+                "{\"name\": \"A\", \"NP\": [1, 3], \"AREA\": [2, 6], \"CA\": [8, 12], \"LPI\": [5, 6]}," +
+                "{\"name\": \"B\", \"NP\": [1, 2], \"AREA\": [3, 9], \"SPI\": [3, 4], \"ALL_DIFFERENT\": true}]}";
+        // Same structures as the solver
+        LandscapeStructureSolver lSolver = LandscapeStructureSolverFactory.readFromJSON(json);
+        List<String> solutions = new ArrayList<>();
+        LandscapeStructure struct = lSolver.findSolution();
+        while (struct != null) {
+            solutions.add(Arrays.toString(struct.getPatchSizes(0)) + Arrays.toString(struct.getPatchSizes(1)));
+            struct = lSolver.findSolution();
+        }
+        Assert.assertEquals(solutions.size(), 130);
+        UniformStructureSampler sampler = LandscapeStructureSolverFactory.readUniformSamplerFromJSON(json);
+        Assert.assertEquals(Math.pow(10, sampler.getLog10NbStructures()), 130, 1e-6);
+        // Each structure is drawn about 100 times
+        Map<String, Integer> counts = new HashMap<>();
+        Random random = new Random(0);
+        for (int i = 0; i < 13000; i++) {
+            LandscapeStructure s = sampler.sample(random);
+            String key = Arrays.toString(s.getPatchSizes(0)) + Arrays.toString(s.getPatchSizes(1));
+            Assert.assertTrue(solutions.contains(key));
+            counts.merge(key, 1, Integer::sum);
+        }
+        Assert.assertEquals(counts.size(), 130);
+        for (int count : counts.values()) {
+            Assert.assertTrue(count > 50 && count < 150);
+        }
+        // Unsupported targets
+        Assert.assertFalse(UniformStructureSampler.isSupported(json.replace("\"CA\"", "\"MESH\": [1, 2], \"CA\"")));
+    }
+
+    @Test
+    public void uniformSamplerBoundedPatchSizes() throws IOException, JsonException, FlsgenException {
+        // Few partitions of the class area satisfy the maximum patch area: they are unranked without rejection
+        String json = "{\"nbRows\": 100, \"nbCols\": 100, \"classes\": [" +
+                "{\"name\": \"A\", \"NP\": [100, 100], \"AREA\": [10, 20], \"CA\": [1500, 1500]}]}";
+        UniformStructureSampler sampler = LandscapeStructureSolverFactory.readUniformSamplerFromJSON(json);
+        Random random = new Random(0);
+        for (int i = 0; i < 100; i++) {
+            int[] sizes = sampler.sample(random).getPatchSizes(0);
+            Assert.assertEquals(sizes.length, 100);
+            Assert.assertEquals(IntStream.of(sizes).sum(), 1500);
+            Assert.assertTrue(IntStream.of(sizes).allMatch(size -> size >= 10 && size <= 20));
+        }
+        // About 2e-8 of the partitions satisfy LPI: the sampler gives up before rejection sampling
+        String lpi = "{\"nbRows\": 100, \"nbCols\": 100, \"classes\": [" +
+                "{\"name\": \"A\", \"NP\": [30, 30], \"AREA\": [1, 200], \"CA\": [300, 300], \"LPI\": [200, 200]}]}";
+        UniformStructureSampler rejecting = LandscapeStructureSolverFactory.readUniformSamplerFromJSON(lpi);
+        Assert.assertThrows(FlsgenException.class, () -> rejecting.sample(random));
+    }
+
+    @Test
+    public void structureCache() throws IOException, JsonException, FlsgenException {
+        Path directory = Files.createTempDirectory("flsgen_cache");
+        StructureCache cache = new StructureCache(directory);
+        String json = "{\"nbRows\": 20, \"nbCols\": 20, \"classes\": [" +
+                "{\"name\": \"A\", \"NP\": [2, 5], \"AREA\": [5, 50], \"CA\": [60, 100]}]}";
+        LandscapeStructureSolver lSolver = LandscapeStructureSolverFactory.readFromJSON(json);
+        lSolver.setCache(cache);
+        LandscapeStructure struct = lSolver.findSolution();
+        Assert.assertFalse(lSolver.isCacheHit());
+        Assert.assertEquals(cache.getNbEntries(), 1);
+        // Equivalent targets (key order, number format) with the same search configuration
+        String equivalent = "{\"classes\": [{\"CA\": [60.0, 100], \"AREA\": [5, 50.0], \"NP\": [2, 5], " +
+                "\"name\": \"A\"}], \"nbCols\": 20, \"nbRows\": 20}";
+        LandscapeStructureSolver cached = LandscapeStructureSolverFactory.readFromJSON(equivalent);
+        cached.setCache(cache);
+        Assert.assertEquals(cached.getCacheKey(), lSolver.getCacheKey());
+        LandscapeStructure s = cached.findSolution();
+        Assert.assertTrue(cached.isCacheHit());
+        Assert.assertEquals(s.getPatchSizes(0), struct.getPatchSizes(0));
+        Assert.assertEquals(s.getTotalSize(0), struct.getTotalSize(0));
+        Assert.assertEquals(cached.getModel().getSolver().getNodeCount(), 0);
+        Assert.assertEquals(cached.getStatistics().get("cacheHit"), true);
+        // Further solutions are searched, without returning the cached one again
+        LandscapeStructure next = cached.findSolution();
+        Assert.assertFalse(cached.isCacheHit());
+        Assert.assertNotEquals(next.getPatchSizes(0), struct.getPatchSizes(0));
+        // Another search configuration is another entry
+        LandscapeStructureSolver random = LandscapeStructureSolverFactory.readFromJSON(json);
+        random.setCache(cache);
+        random.setRandomSearch(0);
+        Assert.assertNotEquals(random.getCacheKey(), lSolver.getCacheKey());
+        random.findSolution();
+        Assert.assertFalse(random.isCacheHit());
+        Assert.assertEquals(cache.getNbEntries(), 2);
+        // The same seed hits the cache, whereas a random search seeded by the clock does not use it
+        LandscapeStructureSolver seeded = LandscapeStructureSolverFactory.readFromJSON(json);
+        seeded.setCache(cache);
+        seeded.setSearch(SearchStrategy.RANDOM, 0);
+        seeded.findSolution();
+        Assert.assertTrue(seeded.isCacheHit());
+        LandscapeStructureSolver unseeded = LandscapeStructureSolverFactory.readFromJSON(json);
+        unseeded.setCache(cache);
+        unseeded.setSearch(SearchStrategy.RANDOM);
+        Assert.assertNull(unseeded.getCacheKey());
+        Assert.assertNotNull(unseeded.findSolution());
+        Assert.assertFalse(unseeded.isCacheHit());
+        Assert.assertEquals(cache.getNbEntries(), 2);
+        // Eviction of the least recently used entries
+        StructureCache small = new StructureCache(directory, 1);
+        small.evict();
+        Assert.assertEquals(small.getNbEntries(), 0);
+    }
+
+    @Test
+    public void structureCacheMaskKey() throws IOException, JsonException, FlsgenException {
+        // A mask edited in place keeps its path, dimensions and number of cells, but not its no data cells
+        String json = "{\"maskRasterPath\": \"mask.tif\", \"classes\": [" +
+                "{\"name\": \"A\", \"NP\": [2, 5], \"AREA\": [5, 50], \"CA\": [20, 40]}]}";
+        LandscapeStructureSolver a = LandscapeStructureSolver.readFromJSON(json, 10, 10, new int[] {0, 1, 2});
+        LandscapeStructureSolver b = LandscapeStructureSolver.readFromJSON(json, 10, 10, new int[] {2, 1, 0});
+        LandscapeStructureSolver c = LandscapeStructureSolver.readFromJSON(json, 10, 10, new int[] {0, 1, 99});
+        Assert.assertNotNull(a.getCacheKey());
+        Assert.assertEquals(b.getCacheKey(), a.getCacheKey());
+        Assert.assertNotEquals(c.getCacheKey(), a.getCacheKey());
+    }
+
+    @Test
+    public void binaryStructure() throws IOException, JsonException, FlsgenException {
+        int[][] sizes = new int[][] {
+                {1, 1, 3, 200, 70000},
+                {900, 40, 40, 2},
+                {5, 300, 1, 150000}
+        };
+        LandscapeStructure s = new LandscapeStructure(
+                500, 400, new String[] {"ascending", "descending", "unsorted"},
+                Arrays.stream(sizes).mapToInt(a -> Arrays.stream(a).sum()).toArray(),
+                Arrays.stream(sizes).mapToInt(a -> a.length).toArray(), sizes,
+                Arrays.stream(sizes).mapToLong(a -> Arrays.stream(a).mapToLong(v -> (long) v * v).sum()).toArray(),
+                new boolean[] {false, true, false}
+        );
+        s.setSpatialMetrics(new int[] {10, 20, 30}, new double[] {0.5, 1, 1.5}, new double[] {1.1, 1.2, 1.3},
+                new double[] {2.5, 3, 4});
+        byte[] data = LandscapeStructureBinary.toBytes(s);
+        Assert.assertTrue(LandscapeStructureBinary.isBinary(data));
+        Assert.assertFalse(LandscapeStructureBinary.isBinary(s.toJSON().getBytes()));
+        // Sorted sizes are delta-encoded, the binary encoding is much smaller than JSON
+        Assert.assertTrue(data.length < s.toJSON().length() / 5);
+        LandscapeStructure read = LandscapeStructureBinary.read(ByteBuffer.wrap(data), 0, 0, new int[] {});
+        Assert.assertEquals(read.toJSON(), s.toJSON());
+        Assert.assertEquals(LandscapeStructureBinary.readPatchSizes(ByteBuffer.wrap(data), 2), sizes[2]);
+        // Files are read in either format, detected from the magic number
+        Path binary = Files.createTempFile("structure", ".flss");
+        Path json = Files.createTempFile("structure", ".json");
+        Files.write(binary, data);
+        Files.write(json, s.toJSON().getBytes());
+        Assert.assertEquals(LandscapeStructureFactory.readFromFile(binary.toString()).toJSON(), s.toJSON());
+        Assert.assertEquals(LandscapeStructureFactory.readFromFile(json.toString()).toJSON(), s.toJSON());
+        Files.delete(binary);
+        Files.delete(json);
+        // Other versions are rejected
+        data[5] = 2;
+        Assert.assertThrows(IOException.class,
+                () -> LandscapeStructureBinary.read(ByteBuffer.wrap(data), 0, 0, new int[] {}));
+    }
+
+    @Test
+    public void streamingJSON() throws IOException, JsonException, FlsgenException {
+        int[] sizes = new int[200000];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = 1 + i % 50;
+        }
+        LandscapeStructure s = new LandscapeStructure(
+                2000, 2000, new String[] {"A"}, new int[] {Arrays.stream(sizes).sum()}, new int[] {sizes.length},
+                new int[][] {sizes}, new long[] {Arrays.stream(sizes).mapToLong(v -> (long) v * v).sum()},
+                new boolean[] {false}
+        );
+        Path path = Files.createTempFile("structure", ".json");
+        try (FileWriter writer = new FileWriter(path.toFile())) {
+            s.writeJSON(writer);
+        }
+        // The streamed document is valid JSON, and is read back without building a document tree
+        JsonObject tree = (JsonObject) Jsoner.deserialize(new String(Files.readAllBytes(path)));
+        Assert.assertEquals(((JsonArray) ((JsonObject) ((JsonArray) tree.get("classes")).get(0)).get("AREA")).size(),
+                sizes.length);
+        LandscapeStructure read = LandscapeStructureFactory.readFromFile(path.toString());
+        Assert.assertEquals(read.getPatchSizes(0), sizes);
+        Assert.assertEquals(read.getNetProduct(0), s.getNetProduct(0));
+        Assert.assertEquals(read.toJSON(), s.toJSON());
+        Files.delete(path);
+        // Integral numbers are accepted as integers, keys can be in any order
+        LandscapeStructure t = LandscapeStructure.fromJSON("{\"classes\": [{\"IS_SQUARE\": true, \"AREA\": [4, 9.0]," +
+                " \"name\": \"B\"}], \"nbCols\": 10, \"nbRows\": 10}", 0, 0, new int[] {});
+        Assert.assertEquals(t.getPatchSizes(0), new int[] {4, 9});
+        Assert.assertEquals(t.getNetProduct(0), 97);
+        Assert.assertEquals(t.getNbRows(), 10);
+        Assert.assertThrows(JsonException.class, () -> LandscapeStructure.fromJSON(
+                "{\"classes\": [{\"AREA\": [4, 9.5]}], \"nbCols\": 10, \"nbRows\": 10}", 0, 0, new int[] {}
+        ));
+        // Truncated documents are rejected, whatever the position of the end of the input
+        String json = "{\"nbRows\": 10, \"nbCols\": 10, \"classes\": [{\"name\": \"B\", \"IS_SQUARE\": false," +
+                " \"AREA\": [4, 12], \"NPRO\": 160}]}";
+        for (int i = 0; i < json.length(); i++) {
+            String truncated = json.substring(0, i);
+            Assert.assertThrows(JsonException.class, () -> LandscapeStructure.fromJSON(truncated, 0, 0, new int[] {}));
+        }
+        String series = LandscapeStructure.seriesToJSON(new LandscapeStructure[] {t, t});
+        for (int i = 0; i < series.length(); i++) {
+            String truncated = series.substring(0, i);
+            Assert.assertThrows(JsonException.class, () -> LandscapeStructure.seriesFromJSON(truncated, 0, 0, new int[] {}));
+        }
+        Assert.assertThrows(JsonException.class, () -> LandscapeStructure.seriesFromJSON("{\"series\": [", 0, 0, new int[] {}));
+    }
 }